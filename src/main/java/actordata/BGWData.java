@@ -1,7 +1,7 @@
 package actordata;
 
 import java.math.BigInteger;
-import java.util.Collection;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.stream.Stream;
@@ -9,53 +9,147 @@ import java.util.stream.Stream;
 import akka.actor.ActorRef;
 import protocol.BGWParameters.BGWPrivateParameters;
 import protocol.BGWParameters.BGWPublicParameters;
+import protocol.VerifiableSharing.Commitments;
 
 /** Represents the state data of the BGW protocol Actor's FSM.
+ * <p>
+ * The shares are collected in {@link PartyValues} and summed as they arrive, so that computing the shares of N once all of
+ * them are received does not depend on the number of parties.
  * <p>
  * This is an immutable object type in order to comply to the Akka good practices regarding FSMs.
  * @author Christian Mouchet
  */
 public class BGWData extends Data{
 	
-	/** The BGW private parameters selected by the actor in the BGW protocol (p<sub>i</sub>, q<sub>i</sub>, ...)*/
-	public final BGWPrivateParameters bgwPrivateParameters;
+	/** The BGW private parameters selected by the actor in the BGW protocol (p<sub>i</sub>, q<sub>i</sub>, ...), one per 
+	 * candidate of the current batch*/
+	public final BGWPrivateParameters[] bgwPrivateParameters;
+	
+	/** Collection of the recieved shares of N, one per candidate of the current batch*/
+	public final PartyValues<BigInteger[]> Ns;
+	
+	/** The id of the first candidate of the next batch*/
+	public final long nextCandidateId;
+	
+	/** The ids of the candidates of the previous batch, null if there is none*/
+	public final long[] lastCandidateIds;
 	
-	/** Collection of the recieved shares of N*/
-	public final Map<Integer,BigInteger> Ns;
+	/** The shares of N from which the candidates of the previous batch were interpolated, null if there is none*/
+	public final PartyValues<BigInteger[]> lastNs;
+	
+	/** The digests of the commitments received from each dealer of the current batch, null until the shares are checked or
+	 * if they are not verified*/
+	public final byte[][] commitmentDigests;
+	
+	/** The digests of the commitments received from each dealer of the previous batch, null if there is none*/
+	public final byte[][] lastCommitmentDigests;
 
-	private final Map<Integer,BGWPublicParameters> bgwPublicParameters;
+	private final PartyValues<BGWPublicParameters> bgwPublicParameters;
+	private final BigInteger[] sumPj;
+	private final BigInteger[] sumQj;
+	private final BigInteger[] sumHj;
 	
 	private BGWData(Map<ActorRef,Integer> participants,
-					BGWPrivateParameters bgwPrivateParameters,
-					Map<Integer,BGWPublicParameters> bgwPublicParameters,
-					Map<Integer,BigInteger> Ns) {
+					BGWPrivateParameters[] bgwPrivateParameters,
+					PartyValues<BGWPublicParameters> bgwPublicParameters,
+					BigInteger[] sumPj,
+					BigInteger[] sumQj,
+					BigInteger[] sumHj,
+					PartyValues<BigInteger[]> Ns,
+					long nextCandidateId,
+					long[] lastCandidateIds,
+					PartyValues<BigInteger[]> lastNs,
+					byte[][] commitmentDigests,
+					byte[][] lastCommitmentDigests) {
 		super(participants);
 		this.bgwPrivateParameters = bgwPrivateParameters;
-		this.bgwPublicParameters = new HashMap<Integer,BGWPublicParameters>(bgwPublicParameters);
-		this.Ns = new HashMap<Integer,BigInteger>(Ns);
+		this.bgwPublicParameters = bgwPublicParameters;
+		this.sumPj = sumPj;
+		this.sumQj = sumQj;
+		this.sumHj = sumHj;
+		this.Ns = Ns;
+		this.nextCandidateId = nextCandidateId;
+		this.lastCandidateIds = lastCandidateIds;
+		this.lastNs = lastNs;
+		this.commitmentDigests = commitmentDigests;
+		this.lastCommitmentDigests = lastCommitmentDigests;
 	}
 	
 	public static BGWData init() {
-		return new BGWData(null,
-							null,
-							new HashMap<Integer,BGWPublicParameters>(),
-							new HashMap<Integer,BigInteger>());
+		return new BGWData(null, null, null, null, null, null, null, 0, null, null, null, null);
 	}
 	
-	public boolean hasShareOf(Collection<Integer> is) {
-		return is.stream().allMatch(i->bgwPublicParameters.containsKey(i));
+	/** @return the ids of the candidates of the current batch*/
+	public long[] candidateIds() {
+		return BGWPublicParameters.candidateIds(bgwPrivateParameters);
+	}
+	
+	/** Checks whether some candidate ids are the ones of the current batch
+	 * @param candidateIds the candidate ids of a received message
+	 * @return true if the message is for the current batch
+	 */
+	public boolean isCurrentBatch(long[] candidateIds) {
+		return bgwPrivateParameters != null && Arrays.equals(candidateIds, candidateIds());
+	}
+	
+	/** Checks whether some candidate ids are the ones of a batch before the current one, or before the next one between
+	 * two batches
+	 * @param candidateIds the candidate ids of a received message
+	 * @return true if the message is for a batch that was already generated
+	 */
+	public boolean isPastBatch(long[] candidateIds) {
+		long first = bgwPrivateParameters != null ? candidateIds()[0] : nextCandidateId;
+		return candidateIds.length > 0 && candidateIds[0] < first;
+	}
+	
+	/** @return true if the shares of all parties were received*/
+	public boolean hasAllShares() {
+		return bgwPublicParameters.isComplete();
 	}
 	
 	public Stream<Map.Entry<Integer,BGWPublicParameters>> shares() {
-		return bgwPublicParameters.entrySet().stream();
+		return bgwPublicParameters.toMap().entrySet().stream();
+	}
+	
+	/** @param b the index of a candidate in the batch
+	 * @return the sum of the received shares p<sub>ji</sub> for the candidate, not reduced
+	 */
+	public BigInteger sumPj(int b) {
+		return sumPj[b];
 	}
 	
-	public boolean hasNiOf(Collection<Integer> is) {
-		return is.stream().allMatch(i->Ns.containsKey(i));
+	/** @param b the index of a candidate in the batch
+	 * @return the sum of the received shares q<sub>ji</sub> for the candidate, not reduced
+	 */
+	public BigInteger sumQj(int b) {
+		return sumQj[b];
 	}
 	
-	public Stream<Map.Entry<Integer, BigInteger>> nis() {
-		return Ns.entrySet().stream();
+	/** @param b the index of a candidate in the batch
+	 * @return the sum of the received shares h<sub>ji</sub> for the candidate, not reduced
+	 */
+	public BigInteger sumHj(int b) {
+		return sumHj[b];
+	}
+	
+	/** @return true if the shares of N of all parties were received*/
+	public boolean hasAllNis() {
+		return Ns.isComplete();
+	}
+	
+	/** @param points the number of points needed to interpolate N
+	 * @return true if at least that many shares of N were received
+	 */
+	public boolean hasNisToInterpolate(int points) {
+		return Ns.size() >= points;
+	}
+	
+	/** Checks whether some candidate ids are the ones of the previous batch
+	 * @param candidateIds the candidate ids of a received message
+	 * @return true if the message is for the previous batch
+	 */
+	public boolean isLastBatch(long[] candidateIds) {
+		return lastCandidateIds != null && Arrays.equals(candidateIds, lastCandidateIds);
 	}
 	
 	
@@ -63,33 +157,93 @@ public class BGWData extends Data{
 		return new BGWData(new HashMap<ActorRef, Integer>(participants),
 							bgwPrivateParameters,
 							bgwPublicParameters,
-							Ns);
+							sumPj,
+							sumQj,
+							sumHj,
+							Ns,
+							nextCandidateId,
+							lastCandidateIds,
+							lastNs,
+							commitmentDigests,
+							lastCommitmentDigests);
 	}
 	
-	public BGWData withPrivateParameters(BGWPrivateParameters params) {
-		return new BGWData(participants, params, bgwPublicParameters,Ns);
+	/** Starts a new batch: the collections of shares are emptied.
+	 * @param params the private parameters of the candidates of the batch
+	 * @return updated structure for the new batch
+	 */
+	public BGWData withPrivateParameters(BGWPrivateParameters[] params) {
+		BigInteger[] zeros = new BigInteger[params.length];
+		Arrays.fill(zeros, BigInteger.ZERO);
+		return new BGWData(participants,
+							params,
+							PartyValues.empty(params[0].n),
+							zeros,
+							zeros,
+							zeros,
+							PartyValues.empty(params[0].n),
+							nextCandidateId,
+							lastCandidateIds,
+							lastNs,
+							null,
+							lastCommitmentDigests);
 	}
 	
 	public BGWData withNewShare(BGWPublicParameters share, int fromId) {
-		if (bgwPublicParameters.containsKey(fromId))
+		if (bgwPublicParameters.has(fromId))
 			return this;
 		
-		Map<Integer, BGWPublicParameters> newMap = new HashMap<Integer,BGWPublicParameters>(bgwPublicParameters);
-		newMap.put(fromId, share);
-		return new BGWData(participants, bgwPrivateParameters, newMap,Ns);
+		BigInteger[] newSumPj = new BigInteger[sumPj.length];
+		BigInteger[] newSumQj = new BigInteger[sumQj.length];
+		BigInteger[] newSumHj = new BigInteger[sumHj.length];
+		for (int b=0; b < newSumPj.length; b++) {
+			newSumPj[b] = sumPj[b].add(share.pij[b]);
+			newSumQj[b] = sumQj[b].add(share.qij[b]);
+			newSumHj[b] = sumHj[b].add(share.hij[b]);
+		}
+		return new BGWData(participants, bgwPrivateParameters, bgwPublicParameters.with(fromId, share),
+							newSumPj, newSumQj, newSumHj, Ns, nextCandidateId, lastCandidateIds, lastNs,
+							commitmentDigests, lastCommitmentDigests);
 	}
 	
-	public BGWData withNewNi(BigInteger Ni, int fromId) {
-		if(Ns.containsKey(fromId))
-			return this;
-		
-		Map<Integer,BigInteger> newNs = new HashMap<Integer, BigInteger>(Ns);
-		newNs.put(fromId, Ni);
-		return new BGWData(participants, bgwPrivateParameters, bgwPublicParameters , newNs);
+	public BGWData withNewNi(BigInteger[] Ni, int fromId) {
+		return new BGWData(participants, bgwPrivateParameters, bgwPublicParameters, sumPj, sumQj, sumHj,
+							Ns.with(fromId, Ni), nextCandidateId, lastCandidateIds, lastNs, commitmentDigests, lastCommitmentDigests);
+	}
+	
+	/** @param nextCandidateId the id of the first candidate of the next batch
+	 * @return updated structure numbering the next batch from the given id
+	 */
+	public BGWData withNextCandidateId(long nextCandidateId) {
+		return new BGWData(participants, bgwPrivateParameters, bgwPublicParameters, sumPj, sumQj, sumHj,
+							Ns, nextCandidateId, lastCandidateIds, lastNs, commitmentDigests, lastCommitmentDigests);
+	}
+	
+	/** @param commitmentDigests the digests of the commitments received from each dealer of the current batch
+	 * @return updated structure with the digests
+	 */
+	public BGWData withCommitmentDigests(byte[][] commitmentDigests) {
+		return new BGWData(participants, bgwPrivateParameters, bgwPublicParameters, sumPj, sumQj, sumHj,
+							Ns, nextCandidateId, lastCandidateIds, lastNs, commitmentDigests, lastCommitmentDigests);
+	}
+	
+	/** @return the commitments received from each dealer of the current batch, keyed by the id of the dealer*/
+	public Map<Integer,Commitments[]> commitments() {
+		Map<Integer,Commitments[]> commitments = new HashMap<Integer,Commitments[]>();
+		bgwPublicParameters.toMap().forEach((j, share) -> commitments.put(j, share.commitments));
+		return commitments;
 	}
 	
-	public BGWData withCandidateN(BigInteger candidateN) {
-		return new BGWData(participants, bgwPrivateParameters, bgwPublicParameters, Ns);
+	/** Clears the current batch, keeping the participants, the candidate numbering, and the shares of N of the batch and the
+	 * digests of its commitments in order to check the ones received later.
+	 * @return the data for the next BGW round
+	 */
+	public BGWData forNextBatch() {
+		if (bgwPrivateParameters == null)
+			return new BGWData(participants, null, null, null, null, null, null, nextCandidateId, lastCandidateIds, lastNs, null,
+								lastCommitmentDigests);
+		long next = bgwPrivateParameters[bgwPrivateParameters.length-1].candidateId + 1;
+		return new BGWData(participants, null, null, null, null, null, null, next, candidateIds(), Ns, null, commitmentDigests);
 	}
 	
 }
\ No newline at end of file
@@ -1,27 +1,28 @@
 package actordata;
 
 import java.math.BigInteger;
-import java.util.Collection;
-import java.util.HashMap;
 import java.util.Map;
-import java.util.stream.Stream;
 
 import protocol.BGWParameters.BGWPrivateParameters;
 import akka.actor.ActorRef;
 
 /** Represents the state data of the Biprimality test protocol actor's FSM.
+ * <p>
+ * The Q<sub>j</sub>'s are collected in {@link PartyValues} and, for j &gt; 1, multiplied mod N as they arrive, so that the test
+ * of a round once all of them are received does not depend on the number of parties. As the parties can be one exchange
+ * apart, the Q<sub>j</sub>'s of two consecutive exchanges are kept.
  * <p>
  * This is an immutable object type in order to comply to the Akka good practices regarding FSMs.
  * @author Christian Mouchet
  */
-@SuppressWarnings("unchecked")
 public class BiprimalityTestData extends Data{
 
-	private final Map<Integer, BigInteger>[] Qs;
+	private final PartyValues<BigInteger[]>[] Qs;
+	private final BigInteger[][] productsOfQjs;
 	/** Current candidate to RSA modulus*/
 	public final BigInteger N;
-	/** Round number in the Biprimality test*/
-	public final int round;
+	/** Exchange number in the Biprimality test*/
+	public final int exchange;
 	/** BGW private parameters associated with the current candidate to RSA modulus*/
 	public final BGWPrivateParameters bgwPrivateParameters;
 	
@@ -29,69 +30,78 @@ public class BiprimalityTestData extends Data{
 	private BiprimalityTestData(Map<ActorRef, Integer> participants,
 			BigInteger N,
 			BGWPrivateParameters bgwPrivateParameters,
-			Map<Integer, BigInteger>[] Qs,
-			int round) {
+			PartyValues<BigInteger[]>[] Qs,
+			BigInteger[][] productsOfQjs,
+			int exchange) {
 		super(participants);
-		this.Qs = new HashMap[2];
-		
-		for (int i=0; i<Qs.length; i++)
-			this.Qs[i] = new HashMap<Integer, BigInteger>(Qs[i]);
-		
+		this.Qs = Qs;
+		this.productsOfQjs = productsOfQjs;
 		this.N = N;
 		this.bgwPrivateParameters = bgwPrivateParameters;
-		this.round = round;
+		this.exchange = exchange;
 	}
 	
 	public static BiprimalityTestData init() {
-		Map<Integer, BigInteger>[] Qs = new HashMap[2];
-		Qs[0] = new HashMap<Integer, BigInteger>();
-		Qs[1] = new HashMap<Integer, BigInteger>();
-		return new BiprimalityTestData(null,
-				null,
-				null,
-				Qs,
-				0);
+		return new BiprimalityTestData(null, null, null, noQs(), new BigInteger[2][], 0);
+	}
+	
+	/** @return the collections of the Q<sub>j</sub>'s of two consecutive exchanges, none of them started*/
+	@SuppressWarnings("unchecked")
+	private static PartyValues<BigInteger[]>[] noQs() {
+		return (PartyValues<BigInteger[]>[]) new PartyValues<?>[2];
 	}
 	
-	public boolean hasQiOf(Collection<Integer> is, int round) {
-		return is.stream().allMatch(i->Qs[round%2].containsKey(i));
+	/** @param exchange an exchange number
+	 * @return true if the Q<sub>j</sub>'s of all parties were received for the exchange
+	 */
+	public boolean hasAllQis(int exchange) {
+		return Qs[exchange%2] != null && Qs[exchange%2].isComplete();
 	}
 	
-	public Stream<Map.Entry<Integer, BigInteger>> qis(int round) {
-		return this.Qs[round%2].entrySet().stream();
+	public PartyValues<BigInteger[]> qis(int exchange) {
+		return this.Qs[exchange%2];
 	}
 	
-	public Map<Integer,BigInteger> qiss(int round) {
-		return this.Qs[round%2];
+	/** @param exchange an exchange number
+	 * @return the products &prod;<sub>j&gt;1</sub> Q<sub>j</sub> mod N of the received Q<sub>j</sub>'s, one per round of the exchange
+	 */
+	public BigInteger[] productsOfQjs(int exchange) {
+		return productsOfQjs[exchange%2].clone();
 	}
 	
 	public BiprimalityTestData withNewCandidateN(BigInteger N, BGWPrivateParameters bgwPrivateParameters) {
-		return new BiprimalityTestData(participants, N,bgwPrivateParameters ,Qs, round);
+		return new BiprimalityTestData(participants, N,bgwPrivateParameters ,Qs, productsOfQjs, exchange);
 	}
 	
-	public BiprimalityTestData withNewQi(BigInteger Qi, int fromId, int round) {
-		if(Qs[round%2].containsKey(fromId))
+	public BiprimalityTestData withNewQi(BigInteger[] Qis, int fromId, int exchange) {
+		PartyValues<BigInteger[]> exchangeQs = Qs[exchange%2] != null ? Qs[exchange%2] : PartyValues.empty(participants.size());
+		if(exchangeQs.has(fromId))
 			return this;
 		
-		Map<Integer, BigInteger> newMap = new HashMap<Integer, BigInteger>(Qs[round%2]);
-		newMap.put(fromId, Qi);
+		PartyValues<BigInteger[]>[] newQs = Qs.clone();
+		newQs[exchange%2] = exchangeQs.with(fromId, Qis);
 		
-		Map<Integer, BigInteger>[] newQs = new HashMap[2];
-		newQs[round%2] = newMap;
-		newQs[(round+1)%2] = Qs[(round+1)%2];
+		BigInteger[][] newProducts = productsOfQjs.clone();
+		if(fromId != 1) {
+			BigInteger[] products = new BigInteger[Qis.length];
+			for (int r=0; r < Qis.length; r++)
+				products[r] = productsOfQjs[exchange%2] != null ? productsOfQjs[exchange%2][r].multiply(Qis[r]).mod(N) : Qis[r].mod(N);
+			newProducts[exchange%2] = products;
+		}
 		
-		return new BiprimalityTestData(participants, N, bgwPrivateParameters,newQs,round);
+		return new BiprimalityTestData(participants, N, bgwPrivateParameters, newQs, newProducts, this.exchange);
 	}
 
 	public BiprimalityTestData withParticipants(Map<ActorRef,Integer> participants) { 
-		return new BiprimalityTestData(participants, N, bgwPrivateParameters,Qs, round);
+		return new BiprimalityTestData(participants, N, bgwPrivateParameters, Qs, productsOfQjs, exchange);
 	}
 	
-	public BiprimalityTestData forNextRound() {
-		Map<Integer, BigInteger>[] newQs = new Map[2];
-		newQs [round%2] = new HashMap<Integer, BigInteger>();
-		newQs[(round+1)%2] = new HashMap<Integer,BigInteger>( Qs[(round+1)%2]);
-		return new BiprimalityTestData(participants, N, bgwPrivateParameters, newQs, round+1);
+	public BiprimalityTestData forNextExchange() {
+		PartyValues<BigInteger[]>[] newQs = Qs.clone();
+		newQs[exchange%2] = null;
+		BigInteger[][] newProducts = productsOfQjs.clone();
+		newProducts[exchange%2] = null;
+		return new BiprimalityTestData(participants, N, bgwPrivateParameters, newQs, newProducts, exchange+1);
 	}
 
 	public BiprimalityTestData forNextCandidate() {
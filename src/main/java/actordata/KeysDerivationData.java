@@ -1,19 +1,21 @@
 package actordata;
 
 import java.math.BigInteger;
-import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.stream.Stream;
 
 import protocol.KeysDerivationParameters.KeysDerivationPrivateParameters;
 import protocol.KeysDerivationParameters.KeysDerivationPublicParameters;
+import protocol.VerifiableSharing.Commitments;
 import akka.actor.ActorRef;
 
 /**
  * Represents the state data of the keys derivation protocol actor's FSM.
  * <p>
+ * The shares are collected in {@link PartyValues} and the shares of &Beta;, &Delta;R, &Phi; and zero are summed as they arrive,
+ * so that computing the share of &Theta;' once all of them are received does not depend on the number of parties.
+ * <p>
  * This is an immutable object type in order to comply to the Akka good practices regarding FSMs.
  * @author Christian Mouchet
  */
@@ -38,12 +40,19 @@ public class KeysDerivationData extends Data{
 	public final KeysDerivationPrivateParameters keysDerivationPrivateParameters;
 
 	/** Collection of the shares of &Theta;' of all actors*/
-	public final Map<Integer, BigInteger> thetas;
+	public final PartyValues<BigInteger> thetas;
 	
 	/** Collection of the verification keys of all actors*/
-	public final Map<Integer, BigInteger> verificationKeys;
+	public final PartyValues<BigInteger> verificationKeys;
+
+	/** The digests of the commitments received from each dealer, null until the shares are checked or if they are not
+	 * verified*/
+	public final byte[][] commitmentDigests;
+
+	/** The sums of the received shares &beta;<sub>ji</sub>, &Delta;R<sub>ji</sub>, &Phi;<sub>ji</sub> and h<sub>ji</sub>, not reduced*/
+	public final BigInteger betaPoint, DRPoint, PhiPoint, hPoint;
 
-	private final Map<Integer, KeysDerivationPublicParameters> publicParameters;
+	private final PartyValues<KeysDerivationPublicParameters> publicParameters;
 	
 	private KeysDerivationData(Map<ActorRef, Integer> participants,
 								BigInteger N,
@@ -52,9 +61,11 @@ public class KeysDerivationData extends Data{
 								BigInteger fi,
 								BigInteger thetaprime,
 								KeysDerivationPrivateParameters keysDerivationPrivateParameters,
-								Map<Integer, KeysDerivationPublicParameters> publicParameters,
-								Map<Integer, BigInteger> thetas,
-								Map<Integer, BigInteger> verificationKeys) {
+								PartyValues<KeysDerivationPublicParameters> publicParameters,
+								BigInteger[] sums,
+								PartyValues<BigInteger> thetas,
+								PartyValues<BigInteger> verificationKeys,
+								byte[][] commitmentDigests) {
 		super(participants);
 		
 		this.N = N;
@@ -63,93 +74,125 @@ public class KeysDerivationData extends Data{
 		this.fi = fi;
 		this.thetaprime = thetaprime;
 		this.keysDerivationPrivateParameters = keysDerivationPrivateParameters;
-		this.publicParameters = publicParameters != null ? new HashMap<Integer, KeysDerivationPublicParameters>(publicParameters) : null;
-		this.thetas = thetas != null ? new HashMap<Integer, BigInteger>(thetas) : null;
-		this.verificationKeys = verificationKeys != null ? new HashMap<Integer, BigInteger>(verificationKeys) : null;
+		this.publicParameters = publicParameters;
+		this.betaPoint = sums[0];
+		this.DRPoint = sums[1];
+		this.PhiPoint = sums[2];
+		this.hPoint = sums[3];
+		this.thetas = thetas;
+		this.verificationKeys = verificationKeys;
+		this.commitmentDigests = commitmentDigests;
+	}
+	
+	private BigInteger[] sums() {
+		return new BigInteger[] {betaPoint, DRPoint, PhiPoint, hPoint};
 	}
 	
-	public boolean hasBetaiRiOf(Collection<Integer> is) {
-		return is.stream().allMatch(i->this.publicParameters.containsKey(i));
+	/** @return true if the shares of &Beta;, &Delta;R, &Phi; and zero of all parties were received*/
+	public boolean hasAllBetaiRi() {
+		return publicParameters.isComplete();
 	}
 	
-	public boolean hasThetaiOf(Collection<Integer> is){
-		return is.stream().allMatch(i -> this.thetas.containsKey(i));
+	/** @return the shares of &Beta;, &Delta;R, &Phi; and zero received so far, keyed by the id of their dealer*/
+	public Stream<Map.Entry<Integer,KeysDerivationPublicParameters>> shares() {
+		return publicParameters.toMap().entrySet().stream();
 	}
 	
-	public boolean hasVerifKeyOf(Collection<Integer> is){
-		return is.stream().allMatch(i -> this.verificationKeys.containsKey(i));
+	/** @return true if the shares of &Theta;' of all parties were received*/
+	public boolean hasAllThetai(){
+		return thetas.isComplete();
 	}
 	
-	public Stream<Entry<Integer, KeysDerivationPublicParameters>> publicParameters() {
-		return this.publicParameters.entrySet().stream();
+	/** @param points the number of points needed to interpolate &theta;'
+	 * @return true if at least that many shares of &theta;' were received
+	 */
+	public boolean hasThetasToInterpolate(int points) {
+		return thetas.size() >= points;
+	}
+	
+	/** @return true if the verification keys of all parties were received*/
+	public boolean hasAllVerifKeys(){
+		return verificationKeys.isComplete();
 	}
 	
 	public KeysDerivationData withParticipants(Map<ActorRef,Integer> participants) {
-		return new KeysDerivationData(participants, N, DRpoint, v, fi, thetaprime, keysDerivationPrivateParameters, publicParameters, thetas, verificationKeys);
+		return new KeysDerivationData(participants, N, DRpoint, v, fi, thetaprime, keysDerivationPrivateParameters, publicParameters, sums(), thetas, verificationKeys, commitmentDigests);
 	}
 
+	/** Starts the derivation of the keys for an accepted N: the collections of shares are emptied.
+	 * @param N the accepted candidate to RSA modulus
+	 * @return updated structure for the keys derivation of N
+	 */
 	public KeysDerivationData withN(BigInteger N) {
-		return new KeysDerivationData(participants, N, DRpoint, v, fi, thetaprime, keysDerivationPrivateParameters, publicParameters, thetas, verificationKeys);
+		int n = participants.size();
+		return new KeysDerivationData(participants, N, DRpoint, v, fi, thetaprime, keysDerivationPrivateParameters,
+										PartyValues.empty(n),
+										new BigInteger[] {BigInteger.ZERO, BigInteger.ZERO, BigInteger.ZERO, BigInteger.ZERO},
+										PartyValues.empty(n),
+										PartyValues.empty(n),
+										null);
 	}
 	
 	public KeysDerivationData withPrivateParameters(KeysDerivationPrivateParameters keysDerivationPrivateParameters) {
-		return new KeysDerivationData(participants, N, DRpoint, v, fi, thetaprime, keysDerivationPrivateParameters, publicParameters, thetas, verificationKeys);
+		return new KeysDerivationData(participants, N, DRpoint, v, fi, thetaprime, keysDerivationPrivateParameters, publicParameters, sums(), thetas, verificationKeys, commitmentDigests);
 	}
 	
 	public KeysDerivationData withFi(BigInteger fi) {
-		return new KeysDerivationData(participants, N, DRpoint, v, fi, thetaprime, keysDerivationPrivateParameters, publicParameters, thetas, verificationKeys);
+		return new KeysDerivationData(participants, N, DRpoint, v, fi, thetaprime, keysDerivationPrivateParameters, publicParameters, sums(), thetas, verificationKeys, commitmentDigests);
 	}
 	
 	public KeysDerivationData withThetaprime(BigInteger thetaprime) {
-		return new KeysDerivationData(participants, N, DRpoint, v, fi, thetaprime, keysDerivationPrivateParameters, publicParameters, thetas, verificationKeys);
+		return new KeysDerivationData(participants, N, DRpoint, v, fi, thetaprime, keysDerivationPrivateParameters, publicParameters, sums(), thetas, verificationKeys, commitmentDigests);
 	}
 	
 	public KeysDerivationData withNewPublicParametersFor(int j, KeysDerivationPublicParameters keysDerivationPublicParameters) {
-		if (this.publicParameters != null && this.publicParameters.containsKey(j)) {
+		if (this.publicParameters.has(j)) {
 			return this;
 		}
 	
-		HashMap<Integer, KeysDerivationPublicParameters> newBetasMap = this.publicParameters != null ? 
-				new HashMap<Integer, KeysDerivationPublicParameters>(this.publicParameters) : new HashMap<Integer, KeysDerivationPublicParameters>();
-
-		
-		newBetasMap.put(j, keysDerivationPublicParameters);
-		return new KeysDerivationData(participants, N, DRpoint, v,fi, thetaprime, keysDerivationPrivateParameters, newBetasMap, thetas, verificationKeys);
+		BigInteger[] newSums = new BigInteger[] {betaPoint.add(keysDerivationPublicParameters.betaij),
+												DRPoint.add(keysDerivationPublicParameters.DRij),
+												PhiPoint.add(keysDerivationPublicParameters.Phiij),
+												hPoint.add(keysDerivationPublicParameters.hij)};
+		return new KeysDerivationData(participants, N, DRpoint, v,fi, thetaprime, keysDerivationPrivateParameters,
+										publicParameters.with(j, keysDerivationPublicParameters), newSums, thetas, verificationKeys, commitmentDigests);
+	}
+	
+	/** @param commitmentDigests the digests of the commitments received from each dealer
+	 * @return updated structure with the digests
+	 */
+	public KeysDerivationData withCommitmentDigests(byte[][] commitmentDigests) {
+		return new KeysDerivationData(participants, N, DRpoint, v, fi, thetaprime, keysDerivationPrivateParameters, publicParameters, sums(), thetas, verificationKeys, commitmentDigests);
+	}
+	
+	/** @return the commitments received from each dealer, keyed by the id of the dealer*/
+	public Map<Integer,Commitments[]> commitments() {
+		Map<Integer,Commitments[]> commitments = new HashMap<Integer,Commitments[]>();
+		publicParameters.toMap().forEach((j, shares) -> commitments.put(j, new Commitments[]{shares.commitments}));
+		return commitments;
 	}
 	
 	public KeysDerivationData withRPoint(BigInteger RPoint) {
-		return new KeysDerivationData(participants, N, RPoint, v,fi, thetaprime, keysDerivationPrivateParameters, publicParameters, thetas, verificationKeys);
+		return new KeysDerivationData(participants, N, RPoint, v,fi, thetaprime, keysDerivationPrivateParameters, publicParameters, sums(), thetas, verificationKeys, commitmentDigests);
 	}
 	
 	public KeysDerivationData withNewV(BigInteger v) {
-		return new KeysDerivationData(participants, N, DRpoint, v,fi, thetaprime, keysDerivationPrivateParameters, publicParameters, thetas, verificationKeys);
+		return new KeysDerivationData(participants, N, DRpoint, v,fi, thetaprime, keysDerivationPrivateParameters, publicParameters, sums(), thetas, verificationKeys, commitmentDigests);
 	}
 	
 	public KeysDerivationData withNewThetaFor(int j, BigInteger theta) {
-		if (this.thetas != null && this.thetas.containsKey(j)){
-			return this;
-		}
-		
-		HashMap<Integer, BigInteger> newThetaMap = this.thetas != null ? new HashMap<Integer, BigInteger>(thetas) :
-																		new HashMap<Integer, BigInteger>();
-		newThetaMap.put(j, theta);
-		return new KeysDerivationData(participants, N, DRpoint, v,fi, thetaprime, keysDerivationPrivateParameters, publicParameters, newThetaMap, verificationKeys);
+		return new KeysDerivationData(participants, N, DRpoint, v,fi, thetaprime, keysDerivationPrivateParameters, publicParameters, sums(),
+										thetas.with(j, theta), verificationKeys, commitmentDigests);
 	}
 	
 	public KeysDerivationData withNewVerificationKeyFor(int j, BigInteger newVerifKey) {
-		if (this.verificationKeys != null && this.verificationKeys.containsKey(j)){
-			return this;
-		}
-		
-		HashMap<Integer, BigInteger> newVKMap = this.verificationKeys != null ? new HashMap<Integer, BigInteger>(verificationKeys) :
-																		new HashMap<Integer, BigInteger>();
-		newVKMap.put(j, newVerifKey);
-		return new KeysDerivationData(participants, N, DRpoint, v,fi, thetaprime, keysDerivationPrivateParameters, publicParameters, thetas, newVKMap);
+		return new KeysDerivationData(participants, N, DRpoint, v,fi, thetaprime, keysDerivationPrivateParameters, publicParameters, sums(),
+										thetas, verificationKeys.with(j, newVerifKey), commitmentDigests);
 	}
 
 	
 	public static KeysDerivationData init() {
-		return new KeysDerivationData(null, null, null, null, null, null, null, null, null,null);
+		return new KeysDerivationData(null, null, null, null, null, null, null, null, new BigInteger[4], null, null, null);
 	}
 
 }
@@ -0,0 +1,93 @@
+package actordata;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+/**
+ * An immutable collection of the values received from the parties 1 to n, at most one per party, such as the shares of a
+ * phase of the protocol.
+ * <p>
+ * Adding a value costs O(1): the values are kept in an array indexed by party id that is shared by the successive
+ * collections, each of them knowing which slots it holds through its own bitset. Since a slot is written at most once, a
+ * collection never sees the values added to its successors. Adding a value to a collection whose slot was already taken by
+ * another successor copies the array first, so that the collections stay immutable in any case.
+ * @author Christian Mouchet
+ */
+public final class PartyValues<T> {
+
+	private final Object[] values;
+	private final BitSet received;
+
+	private PartyValues(Object[] values, BitSet received) {
+		this.values = values;
+		this.received = received;
+	}
+
+	/** @param n the number of parties
+	 * @return a collection with no value
+	 */
+	public static <T> PartyValues<T> empty(int n) {
+		return new PartyValues<T>(new Object[n], new BitSet(n));
+	}
+
+	/** Returns a collection with the value of party j added. The value of a party cannot be replaced.
+	 * @param j the id of the party. j &in; [1;n]
+	 * @param value its value
+	 * @return updated collection, or this collection if it already holds a value for j
+	 */
+	public PartyValues<T> with(int j, T value) {
+		if (received.get(j-1))
+			return this;
+
+		Object[] newValues = values[j-1] == null ? values : values.clone();
+		newValues[j-1] = value;
+		BitSet newReceived = (BitSet) received.clone();
+		newReceived.set(j-1);
+		return new PartyValues<T>(newValues, newReceived);
+	}
+
+	/** @param j the id of a party
+	 * @return true if the collection holds a value for party j
+	 */
+	public boolean has(int j) {
+		return j >= 1 && j <= values.length && received.get(j-1);
+	}
+
+	/** @param j the id of a party
+	 * @return the value of party j, or null if there is none
+	 */
+	@SuppressWarnings("unchecked")
+	public T get(int j) {
+		return has(j) ? (T) values[j-1] : null;
+	}
+
+	/** @return the number of values in the collection*/
+	public int size() {
+		return received.cardinality();
+	}
+
+	/** @return true if the collection holds a value for every party*/
+	public boolean isComplete() {
+		return received.cardinality() == values.length;
+	}
+
+	/** @return the values indexed by party id*/
+	public Map<Integer,T> toMap() {
+		Map<Integer,T> map = new HashMap<Integer,T>();
+		for (int j = received.nextSetBit(0); j >= 0; j = received.nextSetBit(j+1))
+			map.put(j+1, get(j+1));
+		return map;
+	}
+
+	/** @param generator creates the array given its length, e.g. <code>BigInteger[]::new</code>
+	 * @return the values in an array, party j's at index <code>j-1</code>, null where there is no value
+	 */
+	public T[] toArray(IntFunction<T[]> generator) {
+		T[] array = generator.apply(values.length);
+		for (int j = received.nextSetBit(0); j >= 0; j = received.nextSetBit(j+1))
+			array[j] = get(j+1);
+		return array;
+	}
+}
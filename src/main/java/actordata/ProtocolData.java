@@ -1,10 +1,20 @@
 package actordata;
 
 import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import messages.Messages.CandidateN;
 
 import protocol.BGWParameters.BGWPrivateParameters;
 import akka.actor.ActorRef;
+import akka.japi.Pair;
 
 /**
  * Represents the state data of the top level actor of the protocol's FSM.
@@ -19,24 +29,233 @@ public class ProtocolData extends Data {
 	/** The BGW private parameters associated with the current N.*/
 	public final BGWPrivateParameters bgwPrivateParameters;
 	
-	private ProtocolData(Map<ActorRef,Integer> participants, BigInteger N, BGWPrivateParameters bgwPrivateParameters) {
+	/** The number of candidates to RSA modulus trial-divided so far*/
+	public final long trialDivisions;
+	
+	/** The number of batches of candidates asked to the sieving or BGW and not received yet*/
+	public final int batchesGenerating;
+	
+	/** True once the writing of the key share of the party ended, successfully or not*/
+	public final boolean keyShareWritten;
+	
+	private final List<CandidateN> candidates;
+	private final List<List<CandidateN>> queuedBatches;
+	private final SortedMap<Integer,Long> trialDivisionRejections;
+	private final Set<ActorRef> stoppedParticipants;
+	private final List<Pair<Object,ActorRef>> earlyMessages;
+	
+	private ProtocolData(Map<ActorRef,Integer> participants,
+						BigInteger N,
+						BGWPrivateParameters bgwPrivateParameters,
+						List<CandidateN> candidates,
+						List<List<CandidateN>> queuedBatches,
+						int batchesGenerating,
+						long trialDivisions,
+						SortedMap<Integer,Long> trialDivisionRejections,
+						boolean keyShareWritten,
+						Set<ActorRef> stoppedParticipants,
+						List<Pair<Object,ActorRef>> earlyMessages) {
 		super(participants);
 		this.N = N;
 		this.bgwPrivateParameters = bgwPrivateParameters;
+		this.candidates = new ArrayList<CandidateN>(candidates);
+		this.queuedBatches = new ArrayList<List<CandidateN>>(queuedBatches);
+		this.batchesGenerating = batchesGenerating;
+		this.trialDivisions = trialDivisions;
+		this.trialDivisionRejections = new TreeMap<Integer,Long>(trialDivisionRejections);
+		this.keyShareWritten = keyShareWritten;
+		this.stoppedParticipants = new HashSet<ActorRef>(stoppedParticipants);
+		this.earlyMessages = new ArrayList<Pair<Object,ActorRef>>(earlyMessages);
 	}
 	
 	public ProtocolData withNewN(BigInteger N, BGWPrivateParameters bgwPrivateParameters) {
-		return new ProtocolData(participants,N, bgwPrivateParameters);
+		return new ProtocolData(participants, N, bgwPrivateParameters, candidates, queuedBatches, batchesGenerating,
+								trialDivisions, trialDivisionRejections, keyShareWritten, stoppedParticipants, earlyMessages);
+	}
+	
+	/** Sets the candidates of the current batch, e.g. the ones produced by a BGW round, to be tested in order.
+	 * @param candidates the candidates to RSA modulus of the batch
+	 * @return updated structure with the candidates queued
+	 */
+	public ProtocolData withCandidates(List<CandidateN> candidates) {
+		return new ProtocolData(participants, N, bgwPrivateParameters, candidates, queuedBatches, batchesGenerating,
+								trialDivisions, trialDivisionRejections, keyShareWritten, stoppedParticipants, earlyMessages);
+	}
+	
+	/** @return true if some candidates of the current batch or of the queued ones were not tested yet*/
+	public boolean hasNextCandidate() {
+		return !candidates.isEmpty() || !queuedBatches.isEmpty();
+	}
+	
+	/** @return true if all the candidates of the current batch were taken out of the queue*/
+	public boolean isBatchTested() {
+		return candidates.isEmpty();
+	}
+	
+	/** @return the candidates of the current batch not tested yet*/
+	public List<CandidateN> getCandidates() {
+		return new ArrayList<CandidateN>(candidates);
+	}
+	
+	/** @return the batches queued after the current one, in the order in which they are tested*/
+	public List<List<CandidateN>> getQueuedBatches() {
+		return new ArrayList<List<CandidateN>>(queuedBatches);
+	}
+	
+	/** @return the number of candidates of the current batch and of the queued ones not tested yet*/
+	public int candidatesAhead() {
+		return candidates.size() + queuedBatches.stream().mapToInt(List::size).sum();
+	}
+	
+	/** Queues a batch after the current one, to be tested once all of its candidates are.
+	 * @param batch the candidates to RSA modulus of the batch
+	 * @return updated structure with the batch queued
+	 */
+	public ProtocolData withQueuedBatch(List<CandidateN> batch) {
+		List<List<CandidateN>> queued = new ArrayList<List<CandidateN>>(queuedBatches);
+		queued.add(batch);
+		return new ProtocolData(participants, N, bgwPrivateParameters, candidates, queued, batchesGenerating, trialDivisions,
+								trialDivisionRejections, keyShareWritten, stoppedParticipants, earlyMessages);
+	}
+	
+	/** Records that a batch was asked to the sieving or BGW.
+	 * @return updated structure with one more batch being generated
+	 */
+	public ProtocolData withBatchRequested() {
+		return new ProtocolData(participants, N, bgwPrivateParameters, candidates, queuedBatches, batchesGenerating+1,
+								trialDivisions, trialDivisionRejections, keyShareWritten, stoppedParticipants, earlyMessages);
+	}
+	
+	/** Queues a batch received from the BGW, see {@link #withQueuedBatch(List)}.
+	 * @param batch the candidates to RSA modulus of the batch
+	 * @return updated structure with the batch queued and one less batch being generated
+	 */
+	public ProtocolData withBatchGenerated(List<CandidateN> batch) {
+		List<List<CandidateN>> queued = new ArrayList<List<CandidateN>>(queuedBatches);
+		queued.add(batch);
+		return new ProtocolData(participants, N, bgwPrivateParameters, candidates, queued, batchesGenerating-1, trialDivisions,
+								trialDivisionRejections, keyShareWritten, stoppedParticipants, earlyMessages);
+	}
+	
+	/** Takes the first queued batch as the current one, once all the candidates of the current batch are tested.
+	 * @return updated structure with the candidates of the next batch queued
+	 */
+	public ProtocolData withNextBatch() {
+		return new ProtocolData(participants, N, bgwPrivateParameters, queuedBatches.get(0),
+								queuedBatches.subList(1, queuedBatches.size()), batchesGenerating, trialDivisions,
+								trialDivisionRejections, keyShareWritten, stoppedParticipants, earlyMessages);
+	}
+	
+	/** Takes the next candidate to be tested out of the queue.
+	 * @return updated structure with the next candidate as the current N
+	 */
+	public ProtocolData withNextCandidate() {
+		CandidateN next = candidates.get(0);
+		return new ProtocolData(participants, next.N, next.bgwPrivateParameters, candidates.subList(1, candidates.size()),
+								queuedBatches, batchesGenerating, trialDivisions, trialDivisionRejections, keyShareWritten, stoppedParticipants, earlyMessages);
+	}
+	
+	/** Counts the trial division of the current N.
+	 * @param smallestFactor the smallest factor found by the trial division, 0 if none
+	 * @return updated structure with the counters incremented
+	 */
+	public ProtocolData withTrialDivision(int smallestFactor) {
+		SortedMap<Integer,Long> rejections = new TreeMap<Integer,Long>(trialDivisionRejections);
+		if (smallestFactor != 0)
+			rejections.merge(smallestFactor, 1L, Long::sum);
+		return new ProtocolData(participants, N, bgwPrivateParameters, candidates, queuedBatches, batchesGenerating,
+								trialDivisions+1, rejections, keyShareWritten, stoppedParticipants, earlyMessages);
+	}
+	
+	/** Restores the counters of the trial division, e.g. from a journal.
+	 * @param trialDivisions the number of candidates to RSA modulus trial-divided so far
+	 * @param trialDivisionRejections the number of rejected candidates by their smallest factor
+	 * @return updated structure with the counters replaced
+	 */
+	public ProtocolData withTrialDivisions(long trialDivisions, SortedMap<Integer,Long> trialDivisionRejections) {
+		return new ProtocolData(participants, N, bgwPrivateParameters, candidates, queuedBatches, batchesGenerating,
+								trialDivisions, trialDivisionRejections, keyShareWritten, stoppedParticipants, earlyMessages);
+	}
+	
+	/** @return the number of candidates to RSA modulus rejected by the trial division so far*/
+	public long trialDivisionRejections() {
+		return trialDivisionRejections.values().stream().mapToLong(Long::longValue).sum();
+	}
+	
+	/** Helps tuning the trial division bound.
+	 * @param bound a bound
+	 * @return the number of candidates to RSA modulus that a trial division up to the given bound would have rejected so far
+	 */
+	public long trialDivisionRejectionsBelow(int bound) {
+		return trialDivisionRejections.headMap(bound).values().stream().mapToLong(Long::longValue).sum();
+	}
+	
+	/** @return the number of rejected candidates to RSA modulus by their smallest factor*/
+	public SortedMap<Integer,Long> getTrialDivisionRejections() {
+		return new TreeMap<Integer,Long>(trialDivisionRejections);
+	}
+
+	/** @return updated structure in which the writing of the key share of the party ended*/
+	public ProtocolData withKeyShareWritten() {
+		return new ProtocolData(participants, N, bgwPrivateParameters, candidates, queuedBatches, batchesGenerating,
+								trialDivisions, trialDivisionRejections, true, stoppedParticipants, earlyMessages);
+	}
+	
+	/** Records that another party stopped, after storing its key share.
+	 * @param participant the party
+	 * @return updated structure with the party recorded
+	 */
+	public ProtocolData withStoppedParticipant(ActorRef participant) {
+		Set<ActorRef> stopped = new HashSet<ActorRef>(stoppedParticipants);
+		stopped.add(participant);
+		return new ProtocolData(participants, N, bgwPrivateParameters, candidates, queuedBatches, batchesGenerating,
+								trialDivisions, trialDivisionRejections, keyShareWritten, stopped, earlyMessages);
+	}
+	
+	/** @param self the party
+	 * @return true if all the other parties stopped
+	 */
+	public boolean allOtherParticipantsStopped(ActorRef self) {
+		return participants.keySet().stream().allMatch(p -> p.equals(self) || stoppedParticipants.contains(p));
+	}
+
+	/** Holds a message of another party received before the participants are known, e.g. to transmit it over a simulated
+	 * network once its sender is known.
+	 * @param message the message
+	 * @param sender the sender of the message
+	 * @return updated structure with the message held
+	 */
+	public ProtocolData withEarlyMessage(Object message, ActorRef sender) {
+		List<Pair<Object,ActorRef>> early = new ArrayList<Pair<Object,ActorRef>>(earlyMessages);
+		early.add(new Pair<Object,ActorRef>(message, sender));
+		return new ProtocolData(participants, N, bgwPrivateParameters, candidates, queuedBatches, batchesGenerating,
+								trialDivisions, trialDivisionRejections, keyShareWritten, stoppedParticipants, early);
+	}
+	
+	/** @return the messages held by {@link #withEarlyMessage(Object, ActorRef)} with their senders, in the order in which they
+	 * were received*/
+	public List<Pair<Object,ActorRef>> getEarlyMessages() {
+		return new ArrayList<Pair<Object,ActorRef>>(earlyMessages);
+	}
+	
+	/** @return updated structure without the messages held by {@link #withEarlyMessage(Object, ActorRef)}*/
+	public ProtocolData withoutEarlyMessages() {
+		return new ProtocolData(participants, N, bgwPrivateParameters, candidates, queuedBatches, batchesGenerating,
+								trialDivisions, trialDivisionRejections, keyShareWritten, stoppedParticipants,
+								Collections.<Pair<Object,ActorRef>>emptyList());
 	}
 
 	/** Used to initialize the data object.
 	 * @return  a new object with all the field initialized to null
 	 */
 	public static ProtocolData init() {
-		return new ProtocolData(null,null, null);
+		return new ProtocolData(null,null, null, Collections.<CandidateN>emptyList(),
+								Collections.<List<CandidateN>>emptyList(), 0, 0, new TreeMap<Integer,Long>(),
+								false, Collections.<ActorRef>emptySet(), Collections.<Pair<Object,ActorRef>>emptyList());
 	}
 	
 	public ProtocolData withParticipants(Map<ActorRef,Integer> participants) { 
-		return new ProtocolData(participants, N, bgwPrivateParameters);
+		return new ProtocolData(participants, N, bgwPrivateParameters, candidates, queuedBatches, batchesGenerating,
+								trialDivisions, trialDivisionRejections, keyShareWritten, stoppedParticipants, earlyMessages);
 	}
 }
@@ -0,0 +1,178 @@
+package actordata;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import math.PolynomialMod;
+import protocol.SievingParameters.SievingPrivateParameters;
+import protocol.SievingParameters.SievingPublicParameters;
+import akka.actor.ActorRef;
+
+/** Represents the state data of the sieving Actor's FSM.
+ * <p>
+ * The shares are collected in {@link PartyValues}, and the shares of the &rho;<sub>j</sub>'s are summed as they arrive.
+ * <p>
+ * This is an immutable object type in order to comply to the Akka good practices regarding FSMs.
+ * @author Christian Mouchet
+ */
+public class SievingData extends Data {
+
+	/** The private parameters selected by the actor for the current batch (a<sub>i</sub>, &rho;<sub>i</sub>, ...)*/
+	public final SievingPrivateParameters sievingPrivateParameters;
+
+	/** The sum of the received shares of the &rho;<sub>j</sub>'s, one per value, not reduced*/
+	public final BigInteger[] rhoShares;
+
+	/** The current level in the product tree*/
+	public final int level;
+
+	/** The shares of the factors still to be multiplied at the current level, <code>factors[f][v]</code>*/
+	public final BigInteger[][] factors;
+
+	/** The polynomials used to reshare the local products of the current level, <code>resharings[m][v]</code>*/
+	public final PolynomialMod[][] resharings;
+
+	/** Collection of the recieved reshares of the products of the current level*/
+	public final PartyValues<BigInteger[][]> reshares;
+
+	/** Collection of the recieved shares of x*/
+	public final PartyValues<BigInteger[]> xs;
+
+	/** The id of the first candidate of the next batch*/
+	public final long nextCandidateId;
+
+	private final PartyValues<SievingPublicParameters> sievingPublicParameters;
+
+	private SievingData(Map<ActorRef,Integer> participants,
+						SievingPrivateParameters sievingPrivateParameters,
+						PartyValues<SievingPublicParameters> sievingPublicParameters,
+						BigInteger[] rhoShares,
+						int level,
+						BigInteger[][] factors,
+						PolynomialMod[][] resharings,
+						PartyValues<BigInteger[][]> reshares,
+						PartyValues<BigInteger[]> xs,
+						long nextCandidateId) {
+		super(participants);
+		this.sievingPrivateParameters = sievingPrivateParameters;
+		this.sievingPublicParameters = sievingPublicParameters;
+		this.rhoShares = rhoShares;
+		this.level = level;
+		this.factors = factors;
+		this.resharings = resharings;
+		this.reshares = reshares;
+		this.xs = xs;
+		this.nextCandidateId = nextCandidateId;
+	}
+
+	public static SievingData init() {
+		return new SievingData(null, null, null, null, 0, null, null, null, null, 0);
+	}
+
+	/** Checks whether some candidate ids are the ones of the current batch
+	 * @param candidateIds the candidate ids of a received message
+	 * @return true if the message is for the current batch
+	 */
+	public boolean isCurrentBatch(long[] candidateIds) {
+		return sievingPrivateParameters != null && Arrays.equals(candidateIds, sievingPrivateParameters.candidateIds);
+	}
+
+	/** Checks whether some candidate ids are the ones of a batch before the current one, or before the next one between
+	 * two batches
+	 * @param candidateIds the candidate ids of a received message
+	 * @return true if the message is for a batch that was already sieved
+	 */
+	public boolean isPastBatch(long[] candidateIds) {
+		long first = sievingPrivateParameters != null ? sievingPrivateParameters.candidateIds[0] : nextCandidateId;
+		return candidateIds.length > 0 && candidateIds[0] < first;
+	}
+
+	/** @return true if the shares of all parties were received*/
+	public boolean hasAllShares() {
+		return sievingPublicParameters.isComplete();
+	}
+
+	/** @param j the id of a party
+	 * @return the shares received from party j
+	 */
+	public SievingPublicParameters shareOf(int j) {
+		return sievingPublicParameters.get(j);
+	}
+
+	/** @return true if the reshares of the products of the current level of all parties were received*/
+	public boolean hasAllReshares() {
+		return reshares.isComplete();
+	}
+
+	/** @return true if the shares of x of all parties were received*/
+	public boolean hasAllXs() {
+		return xs.isComplete();
+	}
+
+	@Override
+	public SievingData withParticipants(Map<ActorRef,Integer> participants) {
+		return new SievingData(new HashMap<ActorRef, Integer>(participants), sievingPrivateParameters, sievingPublicParameters,
+								rhoShares, level, factors, resharings, reshares, xs, nextCandidateId);
+	}
+
+	/** Starts a new batch: the collections of shares are emptied.
+	 * @param params the private parameters of the batch
+	 * @return updated structure for the new batch
+	 */
+	public SievingData withPrivateParameters(SievingPrivateParameters params) {
+		BigInteger[] zeros = new BigInteger[params.rhoi.length];
+		Arrays.fill(zeros, BigInteger.ZERO);
+		return new SievingData(participants, params, PartyValues.empty(params.n),
+								zeros, 0, null, null, PartyValues.empty(params.n), PartyValues.empty(params.n), nextCandidateId);
+	}
+
+	public SievingData withNewShare(SievingPublicParameters share, int fromId) {
+		if (sievingPublicParameters.has(fromId))
+			return this;
+
+		BigInteger[] newRhoShares = new BigInteger[rhoShares.length];
+		for (int v=0; v < newRhoShares.length; v++)
+			newRhoShares[v] = rhoShares[v].add(share.rhoij[v]);
+		return new SievingData(participants, sievingPrivateParameters, sievingPublicParameters.with(fromId, share),
+								newRhoShares, level, factors, resharings, reshares, xs, nextCandidateId);
+	}
+
+	/** Moves to a new level of the product tree, clearing the reshares of the previous one.
+	 * @param level the new level
+	 * @param factors the shares of the factors to be multiplied at this level
+	 * @param resharings the polynomials resharing the local products of this level
+	 * @return updated structure at the given level
+	 */
+	public SievingData withLevel(int level, BigInteger[][] factors, PolynomialMod[][] resharings) {
+		return new SievingData(participants, sievingPrivateParameters, sievingPublicParameters,
+								rhoShares, level, factors, resharings, PartyValues.empty(sievingPrivateParameters.n), xs, nextCandidateId);
+	}
+
+	public SievingData withNewReshare(BigInteger[][] reshare, int fromId) {
+		return new SievingData(participants, sievingPrivateParameters, sievingPublicParameters,
+								rhoShares, level, factors, resharings, reshares.with(fromId, reshare), xs, nextCandidateId);
+	}
+
+	public SievingData withNewX(BigInteger[] x, int fromId) {
+		return new SievingData(participants, sievingPrivateParameters, sievingPublicParameters,
+								rhoShares, level, factors, resharings, reshares, xs.with(fromId, x), nextCandidateId);
+	}
+
+	/** @param nextCandidateId the id of the first candidate of the next batch
+	 * @return updated structure numbering the next batch from the given id
+	 */
+	public SievingData withNextCandidateId(long nextCandidateId) {
+		return new SievingData(participants, sievingPrivateParameters, sievingPublicParameters,
+								rhoShares, level, factors, resharings, reshares, xs, nextCandidateId);
+	}
+
+	/** Clears the current batch, keeping the participants and the candidate numbering.
+	 * @return the data for the next sieving round
+	 */
+	public SievingData forNextBatch() {
+		long next = sievingPrivateParameters != null ? nextCandidateId + sievingPrivateParameters.candidateIds.length : nextCandidateId;
+		return new SievingData(participants, null, null, null, 0, null, null, null, null, next);
+	}
+}
@@ -2,22 +2,30 @@ package actors;
 
 import java.math.BigInteger;
 import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.concurrent.Executor;
 
 import math.IntegersUtils;
 import messages.Messages;
 import messages.Messages.BGWNPoint;
+import messages.Messages.Broadcast;
+import messages.Messages.CandidateN;
+import messages.Messages.CandidateNBatch;
+import messages.Messages.CandidatesFrom;
 import messages.Messages.Participants;
+import messages.Messages.SievedContributions;
 import protocol.BGWParameters.BGWPrivateParameters;
 import protocol.BGWParameters.BGWPublicParameters;
 import protocol.ProtocolParameters;
+import protocol.ProtocolParameters.Interpolation;
+import protocol.VerifiableSharing;
 import actordata.BGWData;
+import actordata.PartyValues;
 import actors.BGWProtocolActor.States;
-import akka.actor.AbstractLoggingFSM;
 import akka.actor.ActorRef;
 
 
@@ -26,18 +34,56 @@ import akka.actor.ActorRef;
  * without revealing p and q to any party. Based on the paper <i>Completeness theorem for 
  * non-cryptographic fault-tolerant distributed computation </i> by Ben-Or M.,
  * Goldwasser S., Wigderson A.
+ * <p>
+ * The generation of the sharings and the computation of the shares of N run on the {@link ComputeDispatcher}, in the
+ * states BGW_SHARING and BGW_COMPUTING_Ni. When the protocol parameters verify the shares (see
+ * {@link ProtocolParameters#withShareVerification(ProtocolParameters.ShareVerification)}), all the shares received for a
+ * batch are checked at once before the shares of N are computed, and the party complains about the dealers of incorrect ones.
+ * Each party publishes the digests of the commitments it received with its shares of N, and aborts the batch if a dealer sent
+ * different commitments to another party, see {@link protocol.VerifiableSharing#equivocatingDealers}.
+ * <p>
+ * N is interpolated once all the shares of N are received, or as soon as 2t+1 of them are, see
+ * {@link ProtocolParameters#withInterpolation(Interpolation)}. The shares received later are then handled by
+ * {@link #handleWithoutDeferring(Object, BGWData)}.
  * 
  * @author Christian Mouchet
  */
-public class BGWProtocolActor extends AbstractLoggingFSM<States, BGWData>{
+public class BGWProtocolActor extends StashingFSM<States, BGWData>{
 	
 	public enum States {INITILIZATION,
+						BGW_SHARING,
 						BGW_COLLECTING_PjQj,
+						BGW_COMPUTING_Ni,
 						BGW_COLLECTING_Nj};
 	
-	private final SecureRandom sr = new SecureRandom();
+	/** The private parameters of a new batch and the shares of all parties, computed on the compute dispatcher*/
+	private static class SharedBatch {
+		private final BGWPrivateParameters[] bgwPrivateParameters;
+		private final BGWPublicParameters[] shares;
+		private SharedBatch(BGWPrivateParameters[] bgwPrivateParameters, BGWPublicParameters[] shares) {
+			this.bgwPrivateParameters = bgwPrivateParameters;
+			this.shares = shares;
+		}
+	}
+	
+	/** The parties whose shares are invalid, and the shares of N of the batch and the digests of the commitments if there is
+	 * none, computed on the compute dispatcher*/
+	private static class NiResult {
+		private final List<Integer> badActors;
+		private final BigInteger[] Ni;
+		private final byte[][] commitmentDigests;
+		private NiResult(List<Integer> badActors, BigInteger[] Ni, byte[][] commitmentDigests) {
+			this.badActors = badActors;
+			this.Ni = Ni;
+			this.commitmentDigests = commitmentDigests;
+		}
+	}
+	
+	private final SecureRandom sr;
 	private final ProtocolParameters protocolParameters;
 	private final ActorRef master;
+	private final ActorRef outbox;
+	private final Executor compute;
 	
 	/** Standalone actor constructor, when this actor is has no master actor
 	 * @param protocolParam the pre-agreed public parameters of the protocol
@@ -53,108 +99,214 @@ public class BGWProtocolActor extends AbstractLoggingFSM<States, BGWData>{
 	 * @param master the ActorRef of the master that executes this actor as a sub-protocol
 	 */
 	public BGWProtocolActor(ProtocolParameters protocolParam, ActorRef master) {
+		this(protocolParam, master, null);
+	}
+	
+	/** Subordinate constructor, when this actor is executed as a part of a bigger FSM. When
+	 *  a master is given, all messages sent by this actor have <code>sender=master</code>.
+	 * @param protocolParam the pre-agreed public parameters of the protocol
+	 * @param master the ActorRef of the master that executes this actor as a sub-protocol
+	 * @param outbox the outbox through which the messages to the other parties are sent, null to send them at once
+	 */
+	public BGWProtocolActor(ProtocolParameters protocolParam, ActorRef master, ActorRef outbox) {
+		super(protocolParam.n);
 		this.protocolParameters = protocolParam;
+		this.sr = protocolParam.newRandom(self().path().toStringWithoutAddress());
 		this.master = master != null ? master : self();
+		this.outbox = outbox;
+		this.compute = ComputeDispatcher.of(context());
 		
 		startWith(States.INITILIZATION, BGWData.init());
 		
 		when(States.INITILIZATION, matchEvent(Participants.class,
 				(participants,data) -> {
 					
-					// Generates new p, q and all necessary sharings
+					// Generates a new batch of p, q and all necessary sharings
 					Map<ActorRef,Integer> actors = participants.getParticipants();
-					BGWPrivateParameters bgwPrivateParameters = BGWPrivateParameters.genFor(actors.get(this.master),
-																							protocolParameters,
-																							sr);
-					BGWPublicParameters bgwSelfShare = BGWPublicParameters.genFor(actors.get(this.master),
-																					bgwPrivateParameters);
-					
-					BGWData nextStateData = data.withPrivateParameters(bgwPrivateParameters)
-										.withNewShare(bgwSelfShare, actors.get(this.master))
-										.withParticipants(actors);
+					int self = actors.get(this.master);
+					long firstCandidateId = data.nextCandidateId;
+					ComputeDispatcher.pipe(compute, () -> share(BGWPrivateParameters.genBatchFor(self,
+																								firstCandidateId,
+																								protocolParameters,
+																								sr)), self());
+					return goTo(States.BGW_SHARING).using(data.withParticipants(actors));
+				}
+				).event(SievedContributions.class,
+				(contributions,data) -> {
 					
-					return goTo(States.BGW_COLLECTING_PjQj).using(nextStateData);
+					// Shares a batch of sieved p and q
+					Map<ActorRef,Integer> actors = contributions.getParticipants();
+					int self = actors.get(this.master);
+					ComputeDispatcher.pipe(compute, () -> share(BGWPrivateParameters.genBatchFor(self,
+																								contributions.candidateIds,
+																								contributions.pis,
+																								contributions.qis,
+																								protocolParameters,
+																								sr)), self());
+					return goTo(States.BGW_SHARING).using(data.withParticipants(actors));
 				}
+				).event(CandidatesFrom.class,
+				(from, data) -> stay().using(data.withNextCandidateId(from.firstCandidateId))
 				));
 		
-		onTransition(matchState(States.INITILIZATION,States.BGW_COLLECTING_PjQj, () -> {
-			
-			// Send each party j its share of pi pij.
-			Map<ActorRef, Integer> actors = nextStateData().getParticipants();
-			actors.entrySet().stream()
-			.filter(e -> !e.getKey().equals(this.master))
-			.forEach(e -> e.getKey().tell(BGWPublicParameters.genFor(e.getValue(), nextStateData().bgwPrivateParameters), this.master));
-		}));
+		when(States.BGW_SHARING, matchEvent(SharedBatch.class,
+				(batch, data) -> {
+					
+					// Send each party j its share of pi pij.
+					Map<ActorRef, Integer> actors = data.getParticipants();
+					actors.entrySet().stream()
+					.filter(e -> !e.getKey().equals(this.master))
+					.forEach(e -> Outbox.send(outbox, e.getKey(), batch.shares[e.getValue()-1], this.master));
+					
+					int self = actors.get(this.master);
+					return goTo(States.BGW_COLLECTING_PjQj).using(data.withPrivateParameters(batch.bgwPrivateParameters)
+																		.withNewShare(batch.shares[self-1], self));
+				}));
 		
 		
-		when(States.BGW_COLLECTING_PjQj, matchEvent(BGWPublicParameters.class, 
+		when(States.BGW_COLLECTING_PjQj, matchEvent(BGWPublicParameters.class,
+				(newShare, data) -> data.isCurrentBatch(newShare.candidateIds),
 				(newShare, data) -> {
 					
-					// Collect the pji and qji shares and compute its own Ni share
+					// Collect the pji and qji shares, then check them and compute its own Ni share
 					Map<ActorRef,Integer> actors = data.getParticipants();
 					BGWData dataWithNewShare = data.withNewShare(newShare, actors.get(sender()));
-					if(!dataWithNewShare.hasShareOf(actors.values()))
+					if(!dataWithNewShare.hasAllShares())
 						return stay().using(dataWithNewShare);
-					else {
-						
-						Stream<Integer> badActors = dataWithNewShare.shares()
-								.filter(e -> !e.getValue().isCorrect(protocolParameters))
-								.map(e -> (Integer) e.getKey()); // Check the shares (not implemented yet)
-						
-						if (badActors.count() > 0) { 
-							badActors.forEach(id -> broadCast(new Messages.Complaint(id),actors.keySet()));
-							return stop().withStopReason(new Failure("A BGW share was invalid."));
-						} else {
-							BigInteger sumPj = dataWithNewShare.shares().map(e -> e.getValue().pij).reduce(BigInteger.ZERO, (p1,p2) -> p1.add(p2));
-							BigInteger sumQj = dataWithNewShare.shares().map(e -> e.getValue().qij).reduce(BigInteger.ZERO, (q1,q2) -> q1.add(q2));
-							BigInteger sumHj = dataWithNewShare.shares().map(e -> e.getValue().hij).reduce(BigInteger.ZERO, (h1,h2) -> h1.add(h2));
-							BigInteger Ni = (sumPj.multiply(sumQj)).add(sumHj).mod(protocolParameters.P);
-							
-							return goTo(States.BGW_COLLECTING_Nj).using(dataWithNewShare.withNewNi(Ni, actors.get(this.master)));
-						}
+					
+					ComputeDispatcher.pipe(compute, () -> computeNi(dataWithNewShare), self());
+					return goTo(States.BGW_COMPUTING_Ni).using(dataWithNewShare);
+				}));
+		
+		when(States.BGW_COMPUTING_Ni, matchEvent(NiResult.class,
+				(result, data) -> {
+					
+					Map<ActorRef,Integer> actors = data.getParticipants();
+					if (!result.badActors.isEmpty()) { 
+						result.badActors.forEach(id -> broadCast(new Messages.Complaint(id),actors.keySet()));
+						return stop().withStopReason(new Failure("A BGW share was invalid."));
 					}
+					return goTo(States.BGW_COLLECTING_Nj).using(data.withNewNi(result.Ni, actors.get(this.master))
+																	.withCommitmentDigests(result.commitmentDigests));
 				}));
 		
-		onTransition(matchState(States.BGW_COLLECTING_PjQj,States.BGW_COLLECTING_Nj, () -> {
+		onTransition(matchState(States.BGW_COMPUTING_Ni,States.BGW_COLLECTING_Nj, () -> {
 			
-			// Publish its share of N
+			// Publish its shares of N, with the digests of the commitments it received
 			Map<ActorRef, Integer> actors = nextStateData().getParticipants();
-			broadCast(new BGWNPoint(nextStateData().Ns.get(actors.get(this.master))), actors.keySet());
+			broadCast(new BGWNPoint(nextStateData().candidateIds(), nextStateData().Ns.get(actors.get(this.master)),
+									nextStateData().commitmentDigests), actors.keySet());
 		}));
 		
 		
 		when(States.BGW_COLLECTING_Nj, matchEvent(BGWNPoint.class,
+				(newNi,data) -> data.isCurrentBatch(newNi.candidateIds),
 				(newNi,data) -> {
 					
-					// Collect the Nj shares and compute N using Lagrangian interpolation
+					// Collect the Nj shares and compute the N of each candidate using Lagrangian interpolation, from all the shares
+					// or from the first 2t+1 depending on the interpolation mode. Aborts if a dealer sent different commitments to
+					// different parties.
 					Map<ActorRef,Integer> actors = data.getParticipants();
-					BGWData dataWithNewNi = data.withNewNi(newNi.point, actors.get(sender()));
-					if (!dataWithNewNi.hasNiOf(actors.values())){
+					List<Integer> equivocating = VerifiableSharing.equivocatingDealers(data.commitmentDigests, newNi.commitmentDigests,
+																						actors.get(sender()));
+					if (!equivocating.isEmpty()) {
+						equivocating.forEach(id -> broadCast(new Messages.Complaint(id), actors.keySet()));
+						return stop().withStopReason(new Failure("A dealer sent different commitments to different parties."));
+					}
+					BGWData dataWithNewNi = data.withNewNi(newNi.points, actors.get(sender()));
+					if (!dataWithNewNi.hasNisToInterpolate(protocolParameters.pointsToInterpolate())){
 						return stay().using(dataWithNewNi);
 					}
 					else {
-						List<BigInteger> Nis = dataWithNewNi.nis()
-								.map(e -> e.getValue())
-								.collect(Collectors.toList());
-						BigInteger N = IntegersUtils.getIntercept(Nis, protocolParameters.P);
+						List<CandidateN> candidates = new ArrayList<CandidateN>(data.bgwPrivateParameters.length);
+						for (int b=0; b < data.bgwPrivateParameters.length; b++) {
+							BigInteger N = IntegersUtils.getIntercept(pointsOf(dataWithNewNi.Ns, b), protocolParameters.P);
+							candidates.add(new CandidateN(N, data.bgwPrivateParameters[b]));
+						}
 						
 						if(this.master != self())
-							this.master.tell(new Messages.CandidateN(N, data.bgwPrivateParameters),  self());
+							this.master.tell(new CandidateNBatch(candidates),  self());
 					}
 					
-					return goTo(States.INITILIZATION).using(BGWData.init().withParticipants(data.getParticipants()));
+					return goTo(States.INITILIZATION).using(dataWithNewNi.forNextBatch());
 				}));
 		
-		// A message that cannot be handled goes back to the message queue
-		whenUnhandled(matchAnyEvent((evt,data) -> {
-			self().tell(evt, sender());
-			return stay();
-		}));
 	}
 
 
+	/** Drops the shares of N of the previous batch received after its interpolation, checking first that they are on the
+	 * interpolated polynomials if the interpolation mode asks for it. A party whose share is not is complained about, as well
+	 * as the dealers whose commitments differ from the ones the sender received.*/
+	@Override
+	protected boolean handleWithoutDeferring(Object event, BGWData data) {
+		if (!(event instanceof BGWNPoint) || !data.isLastBatch(((BGWNPoint) event).candidateIds))
+			return false;
+		
+		BGWNPoint late = (BGWNPoint) event;
+		int sender = data.getParticipants().get(sender());
+		List<Integer> equivocating = VerifiableSharing.equivocatingDealers(data.lastCommitmentDigests, late.commitmentDigests, sender);
+		if (!equivocating.isEmpty()) {
+			log().warning("Party {} received other commitments than this party from the dealers {}", sender, equivocating);
+			equivocating.forEach(id -> broadCast(new Messages.Complaint(id), data.getParticipants().keySet()));
+		}
+		
+		if (protocolParameters.interpolation == Interpolation.EARLY_CHECKED) {
+			boolean onPolynomials = true;
+			for (int b=0; b < late.points.length; b++) {
+				if (!IntegersUtils.getValueAt(pointsOf(data.lastNs, b), sender, protocolParameters.P).equals(late.points[b].mod(protocolParameters.P))) {
+					log().warning("The share of N of candidate {} from party {} is not on the interpolated polynomial",
+									late.candidateIds[b], sender);
+					onPolynomials = false;
+				}
+			}
+			if (!onPolynomials)
+				broadCast(new Messages.Complaint(sender), data.getParticipants().keySet());
+		}
+		return true;
+	}
+	
+	/** Drops the shares of the batches already generated, and the shares of N of the batches before the previous one*/
+	@Override
+	protected boolean isStale(Object event, BGWData data) {
+		if (event instanceof BGWPublicParameters)
+			return data.isPastBatch(((BGWPublicParameters) event).candidateIds);
+		return event instanceof BGWNPoint && data.isPastBatch(((BGWNPoint) event).candidateIds);
+	}
+	
+	/** @return the shares of N of the b-th candidate of a batch, indexed by party id*/
+	private static Map<Integer,BigInteger> pointsOf(PartyValues<BigInteger[]> Ns, int b) {
+		Map<Integer,BigInteger> points = new HashMap<Integer,BigInteger>();
+		Ns.toMap().forEach((j, Nj) -> points.put(j, Nj[b]));
+		return points;
+	}
+	
+	/** Generates the shares of a batch for all parties. Runs on the compute dispatcher.*/
+	private static SharedBatch share(BGWPrivateParameters[] bgwPrivateParameters) {
+		return new SharedBatch(bgwPrivateParameters, BGWPublicParameters.genForAll(bgwPrivateParameters));
+	}
+	
+	/** Checks all the shares received at once, and computes the shares of N of the batch and the digests of the commitments.
+	 * Runs on the compute dispatcher.*/
+	private NiResult computeNi(BGWData data) {
+		List<Integer> badActors = BGWPublicParameters.incorrectDealers(data.shares(), protocolParameters);
+		
+		BigInteger[] Ni = new BigInteger[data.bgwPrivateParameters.length];
+		byte[][] commitmentDigests = null;
+		if (badActors.isEmpty()) {
+			for (int b=0; b < Ni.length; b++) {
+				Ni[b] = (data.sumPj(b).multiply(data.sumQj(b))).add(data.sumHj(b)).mod(protocolParameters.P);
+			}
+			if (protocolParameters.isVerifyingShares())
+				commitmentDigests = VerifiableSharing.digests(data.commitments(), protocolParameters.n);
+		}
+		return new NiResult(badActors, Ni, commitmentDigests);
+	}
+	
 	private void broadCast(Object o, Set<ActorRef> targets) {
-		targets.stream().forEach(actor -> {if (!actor.equals(this.master)) actor.tell(o, this.master);});
+		if (protocolParameters.isBroadcastTree())
+			this.master.tell(new Broadcast(o), self());
+		else
+			targets.stream().forEach(actor -> {if (!actor.equals(this.master)) Outbox.send(outbox, actor, o, this.master);});
 	}
 	
 
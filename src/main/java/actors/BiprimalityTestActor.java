@@ -3,17 +3,20 @@ package actors;
 import java.math.BigInteger;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
 
 import messages.Messages.BiprimalityTestResult;
+import messages.Messages.Broadcast;
 import messages.Messages.CandidateN;
 import messages.Messages.Participants;
-import messages.Messages.QiTestForRound;
+import messages.Messages.QiTestBatch;
+import messages.Messages.ResendRequest;
 
 import org.bouncycastle.pqc.math.linearalgebra.IntegerFunctions;
 
+import protocol.ProtocolParameters;
 import actordata.BiprimalityTestData;
 import actors.BiprimalityTestActor.States;
-import akka.actor.AbstractLoggingFSM;
 import akka.actor.ActorRef;
 
 /**
@@ -21,34 +24,63 @@ import akka.actor.ActorRef;
  * by Boneh D., Franklin M. 
  * <p> It allows the parties to check whether some integer N is the product of two
  * primes without leaking the knowledge of p or q to any of the party.
+ * <p> The g' of each round are derived from N, so that the parties compute and send the Q<sub>i</sub>'s of many rounds at once.
+ * The rounds are done in at most two exchanges: a short first one, that already rejects most candidates, and one with all
+ * the remaining rounds. See {@link ProtocolParameters#withBiprimalityFirstRounds(int)}.
+ * <p> The Q<sub>i</sub>'s are computed on the {@link ComputeDispatcher}, in the state COMPUTING_Qis.
+ * <p> A party resuming the test from its journal asks the others to send their Q<sub>i</sub>'s again with a
+ * {@link ResendRequest}. They are derived from N and the contributions to p and q only, and are thus the same.
  * @author Christian Mouchet
  */
-public class BiprimalityTestActor extends AbstractLoggingFSM<States, BiprimalityTestData> {
+public class BiprimalityTestActor extends StashingFSM<States, BiprimalityTestData> {
 	
-	public enum States {INITIALIZATION, AWAITING_N, COLLECT_Qjs}
-
+	public enum States {INITIALIZATION, AWAITING_N, COMPUTING_Qis, COLLECT_Qjs}
 	
-	/**
-	 * The number of tests that a candidate N needs to pass in order to be considered as prime.
-	 */
-	public static final int NUMBER_OF_ROUNDS = 10;
+	/** The Qi's of the rounds of an exchange, computed on the compute dispatcher*/
+	private static class QisResult {
+		private final int exchange;
+		private final BigInteger[] Qis;
+		private QisResult(int exchange, BigInteger[] Qis) {
+			this.exchange = exchange;
+			this.Qis = Qis;
+		}
+	}
 	
+	private final ProtocolParameters protocolParameters;
 	private final ActorRef master;
+	private final ActorRef outbox;
+	private final Executor compute;
 	
 	/**
 	 * Standalone actor constructor, when this actor is has no master actor.
+	 * @param protocolParam the pre-agreed public parameters of the protocol
 	 */
-	public BiprimalityTestActor() {
-		this(null);
+	public BiprimalityTestActor(ProtocolParameters protocolParam) {
+		this(protocolParam, null);
 	}
 	
 	/**Subordinate constructor, when this actor is executed as a part of a bigger FSM. When
 	 *  a master is given, all messages sent by this actor have <code>sender=master</code>.
+	 * @param protocolParam the pre-agreed public parameters of the protocol
 	 * @param master the ActorRef of the master that executes this actor as a sub-protocol
 	 */
-	public BiprimalityTestActor(ActorRef master) {
+	public BiprimalityTestActor(ProtocolParameters protocolParam, ActorRef master) {
+		this(protocolParam, master, null);
+	}
+	
+	/**Subordinate constructor, when this actor is executed as a part of a bigger FSM. When
+	 *  a master is given, all messages sent by this actor have <code>sender=master</code>.
+	 * @param protocolParam the pre-agreed public parameters of the protocol
+	 * @param master the ActorRef of the master that executes this actor as a sub-protocol
+	 * @param outbox the outbox through which the messages to the other parties are sent, null to send them at once
+	 */
+	public BiprimalityTestActor(ProtocolParameters protocolParam, ActorRef master, ActorRef outbox) {
+		super(protocolParam.n);
 		
+		this.protocolParameters = protocolParam;
 		this.master = master != null ? master : self();
+		this.outbox = outbox;
+		this.compute = ComputeDispatcher.of(context());
 		
 		startWith(States.INITIALIZATION, BiprimalityTestData.init());
 		
@@ -59,60 +91,56 @@ public class BiprimalityTestActor extends AbstractLoggingFSM<States, Biprimality
 		
 		when(States.AWAITING_N, matchEvent(CandidateN.class, (candidateN, data) -> {
 			
-			// Generates gprime = |H(N)*round| and its Qi 
+			// Generates the gprimes = |H(N)*round| and Qi's of the rounds of the first exchange
+			BiprimalityTestData nextData = data.withNewCandidateN(candidateN.N, candidateN.bgwPrivateParameters);
+			computeQis(nextData);
+			return goTo(States.COMPUTING_Qis).using(nextData);
+		}));
+		
+		when(States.COMPUTING_Qis, matchEvent(QisResult.class, (result, data) -> {
 			Map<ActorRef, Integer> actors = data.getParticipants();
-			BigInteger gp = getGp(candidateN.N, 0);
-			BigInteger Qi = getQi(gp,candidateN.N, candidateN.bgwPrivateParameters.pi, candidateN.bgwPrivateParameters.qi, actors.get(this.master));
-						
-			return goTo(States.COLLECT_Qjs).using(data.withNewCandidateN(candidateN.N, candidateN.bgwPrivateParameters)
-														.withNewQi(Qi, actors.get(this.master), data.round));
+			return goTo(States.COLLECT_Qjs).using(data.withNewQi(result.Qis, actors.get(this.master), result.exchange));
 		}));
 		
 		onTransition((from,to) -> {
 			if (to == States.COLLECT_Qjs) {
-				// Publish its Qi 
-				broadCast(new QiTestForRound(nextStateData().qiss(nextStateData().round).get(nextStateData().getParticipants().get(this.master)),
-											nextStateData().round), nextStateData().getParticipants().keySet());
+				// Publish its Qi's
+				broadCast(new QiTestBatch(nextStateData().qis(nextStateData().exchange).get(nextStateData().getParticipants().get(this.master)),
+											nextStateData().bgwPrivateParameters.candidateId,
+											nextStateData().exchange), nextStateData().getParticipants().keySet());
 			}
 		});
 		
-		when(States.COLLECT_Qjs, matchEvent(QiTestForRound.class,
-				(newQi, data) -> {
+		when(States.COLLECT_Qjs, matchEvent(QiTestBatch.class,
+				(newQis, data) -> newQis.candidateId == data.bgwPrivateParameters.candidateId,
+				(newQis, data) -> {
 					
-					// Collect the Qj and perform the test
+					// Collect the Qj's and perform the tests of all the rounds of the exchange
 					Map<ActorRef,Integer> actors = data.getParticipants();
-					BiprimalityTestData newData = data.withNewQi(newQi.Qi, actors.get(sender()), newQi.round);
+					BiprimalityTestData newData = data.withNewQi(newQis.Qis, actors.get(sender()), newQis.exchange);
 					
 					
-					if(!newData.hasQiOf(actors.values(), data.round)) {
+					if(!newData.hasAllQis(data.exchange)) {
 						return stay().using(newData);
 					} else {
 						
-						BigInteger check = newData.qis(data.round).map(qi -> {if (qi.getKey() == 1) return qi.getValue(); 
-																	else return qi.getValue().modInverse(newData.N);})
-									.reduce(BigInteger.ONE, (qi,qj) -> qi.multiply(qj)).mod(newData.N);
-						
-						BigInteger minusOne = BigInteger.ONE.negate().mod(newData.N);
-						
-						
-						if (check.equals(minusOne) || check.equals(BigInteger.ONE)) {
+						int firstRound = protocolParameters.biprimalityRoundsBefore(data.exchange);
+						if (passes(newData.qis(data.exchange).get(1), newData.productsOfQjs(data.exchange), newData.N)) {
 							if(actors.get(this.master)==1)
-								System.out.println("PASSED TEST "+data.round);
+								System.out.println("PASSED TESTS "+firstRound+" TO "+(protocolParameters.biprimalityRoundsBefore(data.exchange+1)-1));
 							
-							if (data.round == NUMBER_OF_ROUNDS) {
+							if (data.exchange+1 == protocolParameters.biprimalityExchanges()) {
 								if(this.master != self())
 									this.master.tell(new BiprimalityTestResult(data.N, data.bgwPrivateParameters, true), self());
 								return stop();
 							}
 							
-							// Resets N, bgwPrivateParameters, gprime, Qi and increments round counter for next round
-							BiprimalityTestData nextData = data.forNextRound();
+							// Resets the Qi's and increments the exchange counter for the remaining rounds
+							BiprimalityTestData nextData = data.forNextExchange();
+							computeQis(nextData);
 							
-							BigInteger nextgp = getGp(nextData.N, nextData.round);
-							BigInteger nextQi = getQi(nextgp, nextData.N, nextData.bgwPrivateParameters.pi, nextData.bgwPrivateParameters.qi, actors.get(this.master));
-							
-							// Loop back to the collection of Qj for next test round
-							return goTo(States.COLLECT_Qjs).using(nextData.withNewQi(nextQi, actors.get(this.master), nextData.round));
+							// Loop back to the collection of Qj for next exchange, once the Qi's are computed
+							return goTo(States.COMPUTING_Qis).using(nextData);
 						} else {
 							
 							if (this.master != self())
@@ -125,14 +153,69 @@ public class BiprimalityTestActor extends AbstractLoggingFSM<States, Biprimality
 					}
 				}));
 		
-		whenUnhandled(matchAnyEvent((evt,data) -> {			
-			self().tell(evt, sender()); // An unhandled message goes back in the message queue
-			return stay();
-		}));
 		
 	
 	}
 	
+	/** Answers the {@link ResendRequest} of a party resuming the test of the current candidate with its Q<sub>i</sub>'s of the
+	 * exchanges done so far*/
+	@Override
+	protected boolean handleWithoutDeferring(Object event, BiprimalityTestData data) {
+		if (!(event instanceof ResendRequest))
+			return false;
+		
+		if (data.N != null && data.N.equals(((ResendRequest) event).N)) {
+			int self = data.getParticipants().get(this.master);
+			long candidateId = data.bgwPrivateParameters.candidateId;
+			int lastExchange = stateName() == States.COLLECT_Qjs ? data.exchange : data.exchange-1;
+			for (int exchange=0; exchange <= lastExchange; exchange++) {
+				BigInteger[] Qis = exchange == data.exchange ? data.qis(exchange).get(self)
+															: getQis(data.N, data.bgwPrivateParameters.pi, data.bgwPrivateParameters.qi, self, exchange);
+				Outbox.send(outbox, sender(), new QiTestBatch(Qis, candidateId, exchange), this.master);
+			}
+		}
+		return true;
+	}
+	
+	/** Drops the Q<sub>j</sub>'s of the candidates tested before the current one, and of the exchanges of the current one
+	 * already checked*/
+	@Override
+	protected boolean isStale(Object event, BiprimalityTestData data) {
+		if (!(event instanceof QiTestBatch) || data.bgwPrivateParameters == null)
+			return false;
+		QiTestBatch Qjs = (QiTestBatch) event;
+		long candidateId = data.bgwPrivateParameters.candidateId;
+		return Qjs.candidateId < candidateId || Qjs.candidateId == candidateId && Qjs.exchange < data.exchange;
+	}
+	
+	/** Checks all the rounds of an exchange at once. Each round passes if Q<sub>1</sub>/&prod;<sub>j&gt;1</sub> Q<sub>j</sub> = &plusmn;1 mod N,
+	 * which is checked as Q<sub>1</sub> = &plusmn;&prod;<sub>j&gt;1</sub> Q<sub>j</sub> mod N so that no inverse has to be computed.*/
+	private boolean passes(BigInteger[] Q1s, BigInteger[] productsOfQjs, BigInteger N) {
+		for (int r=0; r < Q1s.length; r++) {
+			if (!Q1s[r].equals(productsOfQjs[r]) && !Q1s[r].equals(N.subtract(productsOfQjs[r])))
+				return false;
+		}
+		return true;
+	}
+	
+	/** Starts computing the Qi's of the current exchange on the compute dispatcher*/
+	private void computeQis(BiprimalityTestData data) {
+		BigInteger N = data.N;
+		BigInteger pi = data.bgwPrivateParameters.pi;
+		BigInteger qi = data.bgwPrivateParameters.qi;
+		int self = data.getParticipants().get(this.master);
+		int exchange = data.exchange;
+		ComputeDispatcher.pipe(compute, () -> new QisResult(exchange, getQis(N, pi, qi, self, exchange)), self());
+	}
+	
+	private BigInteger[] getQis(BigInteger N, BigInteger pi, BigInteger qi, int i, int exchange) {
+		int firstRound = protocolParameters.biprimalityRoundsBefore(exchange);
+		BigInteger[] Qis = new BigInteger[protocolParameters.biprimalityRoundsBefore(exchange+1)-firstRound];
+		for (int r=0; r < Qis.length; r++)
+			Qis[r] = getQi(getGp(N, firstRound+r), N, pi, qi, i);
+		return Qis;
+	}
+	
 	private BigInteger getGp(BigInteger N,int round) {
 		
 		int hash = N.hashCode()*(round+1);
@@ -157,6 +240,9 @@ public class BiprimalityTestActor extends AbstractLoggingFSM<States, Biprimality
 	}
 	
 	private void broadCast(Object o, Set<ActorRef> targets) {
-		targets.stream().forEach(actor -> {if (!actor.equals(this.master)) actor.tell(o, this.master);});
+		if (protocolParameters.isBroadcastTree())
+			this.master.tell(new Broadcast(o), self());
+		else
+			targets.stream().forEach(actor -> {if (!actor.equals(this.master)) Outbox.send(outbox, actor, o, this.master);});
 	}
 }
@@ -0,0 +1,53 @@
+package actors;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+import akka.actor.ActorContext;
+import akka.actor.ActorRef;
+import akka.actor.Status;
+import akka.dispatch.Dispatchers;
+
+/**
+ * Runs the heavy arithmetic of the protocol actors (generation and evaluation of the sharings, Q<sub>i</sub>'s of the
+ * biprimality test, verification keys, ...) off the dispatcher of the actors, so that a party computing does not hold a
+ * thread that the other parties' actors need to process their messages.
+ * <p>
+ * The computations run on the dispatcher {@link #ID}, defined by the <code>reference.conf</code> of this project, and on the
+ * dispatcher of the actor if the configuration of the actor system does not define it. Their result is sent
+ * back to the actor as a message, or an {@link Status.Failure} if they threw. An FSM waits for it in a state of its own, in
+ * which the messages of the other parties are deferred.
+ * @author Christian Mouchet
+ */
+public class ComputeDispatcher {
+
+	/** The id of the dispatcher of the computations in the configuration of the actor system*/
+	public static final String ID = "thresh-paillier.compute-dispatcher";
+
+	private ComputeDispatcher() {
+	}
+
+	/** @param context the context of an actor
+	 * @return the executor of the computations of that actor
+	 */
+	public static Executor of(ActorContext context) {
+		Dispatchers dispatchers = context.system().dispatchers();
+		return dispatchers.hasDispatcher(ID) ? dispatchers.lookup(ID) : context.dispatcher();
+	}
+
+	/** Starts a computation and sends its result to an actor once it is done.
+	 * @param executor the executor of the computation, see {@link #of(ActorContext)}
+	 * @param computation the computation. It must not access the state of the actor.
+	 * @param self the actor to which the result, or a {@link Status.Failure}, is sent
+	 */
+	public static <T> void pipe(Executor executor, Supplier<T> computation, ActorRef self) {
+		CompletableFuture.supplyAsync(computation, executor)
+		.whenComplete((result, failure) -> {
+			if (failure instanceof CompletionException && failure.getCause() != null)
+				failure = failure.getCause();
+			self.tell(failure == null ? result : new Status.Failure(failure), self);
+		});
+	}
+}
@@ -0,0 +1,238 @@
+package actors;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import messages.Messages.GetKeyPoolMetrics;
+import messages.Messages.KeyPoolMetrics;
+import messages.Messages.KeyRequest;
+import messages.Messages.Participants;
+import messages.Messages.SessionEnded;
+import messages.Messages.ThresholdKeySet;
+import paillierp.key.PaillierPrivateThresholdKey;
+import protocol.KeyShareStore;
+import protocol.ProtocolParameters;
+import akka.actor.AbstractLoggingActor;
+import akka.actor.ActorRef;
+import akka.actor.Props;
+import akka.event.LoggingAdapter;
+import akka.japi.pf.ReceiveBuilder;
+
+/**
+ * Keeps a pool of sets of threshold keys ready for one profile of protocol parameters (k, n and t), so that a key set is
+ * handed out at once when asked with a {@link KeyRequest}, rather than after a full run of the protocol.
+ * <p>
+ * The pool runs all n parties itself, as {@link SessionSupervisor} children, and fills up to its capacity on start. Whenever
+ * the number of key sets ready or being generated, minus the requests waiting for one, drops below the low-water mark, it
+ * starts new sessions in the background until it is back to its capacity. A request that finds the pool empty is a miss and
+ * is answered with the next key set generated.
+ * <p>
+ * The key shares of the pool stay in its {@link KeyShareStore}, one directory per session, so that the key sets generated
+ * before a restart are loaded back. A key set is removed from the store before it is handed out: its directory is atomically
+ * renamed, so that it is not loaded back after a restart, and deleted afterwards. The files are read and deleted off the
+ * actor's thread.
+ * <p>
+ * The hits, misses and time to generate a key set are answered to {@link GetKeyPoolMetrics}.
+ * @author Christian Mouchet
+ */
+public class KeyPool extends AbstractLoggingActor {
+
+	/** The prefix of the name of the directories of the key sets handed out, until they are deleted*/
+	private static final String HANDED_OUT = "handed-out-";
+
+	/** Sent by the pool to itself when the key shares of a session were read, or could not be*/
+	private static class KeySetLoaded {
+		private final long sessionId;
+		private final ThresholdKeySet keySet;
+		private final Throwable failure;
+		private KeySetLoaded(long sessionId, ThresholdKeySet keySet, Throwable failure) {
+			this.sessionId = sessionId;
+			this.keySet = keySet;
+			this.failure = failure;
+		}
+	}
+
+	private final ProtocolParameters protocolParams;
+	private final int capacity;
+	private final int lowWaterMark;
+	private final KeyShareStore keyShareStore;
+	private final Map<ActorRef,Integer> parties = new HashMap<ActorRef,Integer>();
+	private final SecureRandom sr;
+
+	private final Deque<ThresholdKeySet> ready = new ArrayDeque<ThresholdKeySet>();
+	private final Deque<ActorRef> waiting = new ArrayDeque<ActorRef>();
+	/** The sessions being generated or read, with their start time, 0 for the ones read from a previous run*/
+	private final Map<Long,Long> refilling = new HashMap<Long,Long>();
+	/** The number of parties that ended each session being generated*/
+	private final Map<Long,Integer> ended = new HashMap<Long,Integer>();
+	private long nextSessionId = 1;
+
+	private long hits = 0;
+	private long misses = 0;
+	private long refills = 0;
+	private long totalRefillMillis = 0;
+	private long maxRefillMillis = 0;
+
+	/** @param protocolParams the parameters of the keys of the pool
+	 * @param capacity the number of key sets the pool fills up to
+	 * @param lowWaterMark the number of key sets below which the pool is refilled. Must be at most capacity.
+	 * @param maxSessions the maximum number of key sets generated at once
+	 * @param keyShareStore the store in which the key shares of the pool are kept
+	 */
+	public KeyPool(ProtocolParameters protocolParams, int capacity, int lowWaterMark, int maxSessions, KeyShareStore keyShareStore) {
+		if (capacity < 1 || lowWaterMark < 0 || lowWaterMark > capacity)
+			throw new IllegalArgumentException("capacity should be at least 1 and lowWaterMark between 0 and capacity");
+		this.protocolParams = protocolParams;
+		this.sr = protocolParams.newRandom(self().path().toStringWithoutAddress());
+		this.capacity = capacity;
+		this.lowWaterMark = lowWaterMark;
+		this.keyShareStore = keyShareStore;
+
+		for (int i=1; i <= protocolParams.n; i++)
+			parties.put(context().actorOf(Props.create(SessionSupervisor.class, protocolParams, maxSessions, keyShareStore),
+											"Party"+i), i);
+
+		receive(ReceiveBuilder
+				.match(KeyRequest.class, request -> {
+					if (!ready.isEmpty()) {
+						hits++;
+						handOut(ready.poll(), sender());
+					} else {
+						misses++;
+						waiting.add(sender());
+					}
+					refill(lowWaterMark);
+				})
+				.match(SessionEnded.class, end -> refilling.containsKey(end.sessionId), end -> {
+					if (ended.merge(end.sessionId, 1, Integer::sum) == protocolParams.n) {
+						ended.remove(end.sessionId);
+						load(end.sessionId);
+					}
+				})
+				.match(KeySetLoaded.class, loaded -> {
+					long start = refilling.remove(loaded.sessionId);
+					if (loaded.failure != null) {
+						log().warning("Dropping the key set of session {}: {}", loaded.sessionId, loaded.failure.getMessage());
+						delete(loaded.sessionId);
+					} else {
+						if (start != 0) {
+							long millis = System.currentTimeMillis() - start;
+							refills++;
+							totalRefillMillis += millis;
+							maxRefillMillis = Math.max(maxRefillMillis, millis);
+						}
+						if (!waiting.isEmpty())
+							handOut(loaded.keySet, waiting.poll());
+						else
+							ready.add(loaded.keySet);
+					}
+					refill(lowWaterMark);
+				})
+				.match(GetKeyPoolMetrics.class, get -> {
+					sender().tell(new KeyPoolMetrics(hits, misses, ready.size(), refilling.size(), refills,
+														refills == 0 ? 0 : (double) totalRefillMillis/refills, maxRefillMillis), self());
+				})
+				.build());
+	}
+
+	/** Loads the key sets of a previous run, then fills the pool up to its capacity*/
+	@Override
+	public void preStart() throws IOException {
+		if (Files.isDirectory(keyShareStore.directory)) {
+			try (DirectoryStream<Path> sessions = Files.newDirectoryStream(keyShareStore.directory, "session-*")) {
+				for (Path session : sessions) {
+					try {
+						long sessionId = Long.parseLong(session.getFileName().toString().substring("session-".length()));
+						nextSessionId = Math.max(nextSessionId, sessionId+1);
+						refilling.put(sessionId, 0L);
+						load(sessionId);
+					} catch (NumberFormatException e) {
+						log().warning("Ignoring {}", session);
+					}
+				}
+			}
+			try (DirectoryStream<Path> handedOut = Files.newDirectoryStream(keyShareStore.directory, HANDED_OUT+"*")) {
+				for (Path keySet : handedOut)
+					delete(new KeyShareStore(keySet));
+			}
+		}
+		refill(capacity);
+	}
+
+	/** Starts new sessions until the key sets ready or being generated, minus the waiting requests, reach the capacity, if they
+	 * are below the given level*/
+	private void refill(int level) {
+		if (ready.size() + refilling.size() - waiting.size() >= level)
+			return;
+		while (ready.size() + refilling.size() - waiting.size() < capacity) {
+			long sessionId = nextSessionId++;
+			refilling.put(sessionId, System.currentTimeMillis());
+			Participants participants = new Participants(parties, sessionId);
+			parties.keySet().forEach(party -> party.tell(participants, self()));
+		}
+	}
+
+	/** Reads the key shares of a session off the actor's thread*/
+	private void load(long sessionId) {
+		ActorRef self = self();
+		KeyShareStore store = keyShareStore.forSession(sessionId);
+		long seed = sr.nextLong();
+		CompletableFuture.supplyAsync(() -> {
+			try {
+				List<PaillierPrivateThresholdKey> keys = new ArrayList<PaillierPrivateThresholdKey>();
+				for (byte[] share : store.readAll())
+					keys.add(new PaillierPrivateThresholdKey(share, seed + keys.size()));
+				if (keys.size() != protocolParams.n)
+					throw new IOException("found "+keys.size()+" key shares instead of "+protocolParams.n);
+				keys.sort(Comparator.comparingInt(PaillierPrivateThresholdKey::getID));
+				return new ThresholdKeySet(sessionId, keys);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}).whenComplete((keySet, failure) -> self.tell(new KeySetLoaded(sessionId, keySet, failure), self));
+	}
+
+	/** Removes a key set from the store and gives it. If it cannot be removed, the key set is put back first in the ready
+	 * ones, as it is still in the store, and the requester waits for the next key set.*/
+	private void handOut(ThresholdKeySet keySet, ActorRef requester) {
+		KeyShareStore handedOut;
+		try {
+			handedOut = keyShareStore.forSession(keySet.sessionId).renameTo(HANDED_OUT+keySet.sessionId);
+		} catch (IOException e) {
+			log().error(e, "Could not remove the key set of session {} from the store", keySet.sessionId);
+			ready.addFirst(keySet);
+			waiting.addFirst(requester);
+			return;
+		}
+		requester.tell(keySet, self());
+		delete(handedOut);
+	}
+
+	/** Deletes the key shares of a session off the actor's thread*/
+	private void delete(long sessionId) {
+		delete(keyShareStore.forSession(sessionId));
+	}
+
+	/** Deletes the key shares of a store off the actor's thread*/
+	private void delete(KeyShareStore store) {
+		LoggingAdapter log = log();
+		CompletableFuture.runAsync(() -> {
+			try {
+				store.deleteAll();
+			} catch (IOException e) {
+				log.warning("Could not delete the key shares in {}: {}", store.directory, e.getMessage());
+			}
+		});
+	}
+}
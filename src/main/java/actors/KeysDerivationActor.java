@@ -1,26 +1,30 @@
 package actors;
 
 import java.math.BigInteger;
+import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.concurrent.Executor;
 
 import math.IntegersUtils;
 import messages.Messages.BiprimalityTestResult;
+import messages.Messages.Broadcast;
+import messages.Messages.Complaint;
 import messages.Messages.Participants;
+import messages.Messages.ResendRequest;
 import messages.Messages.ThetaPoint;
 import messages.Messages.VerificationKey;
 import paillierp.key.PaillierPrivateThresholdKey;
 import protocol.KeysDerivationParameters.KeysDerivationPrivateParameters;
 import protocol.KeysDerivationParameters.KeysDerivationPublicParameters;
 import protocol.ProtocolParameters;
+import protocol.ProtocolParameters.Interpolation;
+import protocol.ProtocolParameters.ShareVerification;
+import protocol.VerifiableSharing;
 import actordata.KeysDerivationData;
 import actors.KeysDerivationActor.States;
-import akka.actor.AbstractLoggingFSM;
 import akka.actor.ActorRef;
 
 /**
@@ -32,18 +36,73 @@ import akka.actor.ActorRef;
  * <p>
  * The output of this protocol is a PaillierThresholdPrivateKey object from the UTD Paillier Threshold Encryption Toolbox
  * ({@link http://cs.utdallas.edu/dspl/cgi-bin/pailliertoolbox/} )
+ * <p>
+ * The generation of the sharings and the derivation of the verification key run on the {@link ComputeDispatcher}, in the
+ * states SHARING and COMPUTING_VERIF_KEY.
+ * <p>
+ * &theta;' is interpolated once all the shares of theta are received, or as soon as 2t+1 of them are, see
+ * {@link ProtocolParameters#withInterpolation(Interpolation)}.
+ * <p>
+ * When the protocol parameters verify the shares (see {@link ProtocolParameters#withShareVerification(ShareVerification)}),
+ * all the shares received are checked at once in the state CHECKING_SHARES, on the compute dispatcher, before theta_i is
+ * computed. The party complains about the dealers of incorrect shares and stops. It publishes the digests of the commitments
+ * it received with theta_i, and stops as well if a dealer sent different commitments to another party, see
+ * {@link VerifiableSharing#equivocatingDealers}.
+ * <p>
+ * The sharings are drawn from a generator seeded by the master when it gives one with N, so that a party resuming the
+ * derivation from its journal sends the same shares again.
  * @author Christian Mouchet
  */
-public class KeysDerivationActor extends AbstractLoggingFSM<States, KeysDerivationData> {
+public class KeysDerivationActor extends StashingFSM<States, KeysDerivationData> {
 	
 	public static enum States {INITIALIZATION,
 								AWAITING_N,
-								COLLECTING_BETAj_DRj_PHIj, 
+								SHARING,
+								COLLECTING_BETAj_DRj_PHIj,
+								CHECKING_SHARES,
 								COLLECTING_THETAj, 
+								COMPUTING_VERIF_KEY,
 								COLLECTING_VERIF_KEYS }
+	
+	/** The private parameters and the shares of all parties, computed on the compute dispatcher*/
+	private static class Sharing {
+		private final KeysDerivationPrivateParameters keysDerivationPrivateParameters;
+		private final KeysDerivationPublicParameters[] shares;
+		private Sharing(KeysDerivationPrivateParameters keysDerivationPrivateParameters, KeysDerivationPublicParameters[] shares) {
+			this.keysDerivationPrivateParameters = keysDerivationPrivateParameters;
+			this.shares = shares;
+		}
+	}
+	
+	/** The parties whose shares are incorrect, computed on the compute dispatcher*/
+	private static class CheckedShares {
+		private final List<Integer> badActors;
+		private final byte[][] commitmentDigests;
+		private CheckedShares(List<Integer> badActors, byte[][] commitmentDigests) {
+			this.badActors = badActors;
+			this.commitmentDigests = commitmentDigests;
+		}
+	}
+	
+	/** The values derived from theta, computed on the compute dispatcher*/
+	private static class VerificationKeyResult {
+		private final BigInteger thetaprime;
+		private final BigInteger v;
+		private final BigInteger secreti;
+		private final BigInteger verificationKeyi;
+		private VerificationKeyResult(BigInteger thetaprime, BigInteger v, BigInteger secreti, BigInteger verificationKeyi) {
+			this.thetaprime = thetaprime;
+			this.v = v;
+			this.secreti = secreti;
+			this.verificationKeyi = verificationKeyi;
+		}
+	}
 
-	private SecureRandom rand = new SecureRandom();
+	private final SecureRandom rand;
+	private final ProtocolParameters protocolParameters;
 	private ActorRef master;
+	private final ActorRef outbox;
+	private final Executor compute;
 	
 	/** Standalone actor constructor, when this actor is has no master actor
 	 * @param protocolParam the pre-agreed public parameters of the protocol
@@ -58,8 +117,23 @@ public class KeysDerivationActor extends AbstractLoggingFSM<States, KeysDerivati
 	 * @param master the ActorRef of the master that executes this actor as a sub-protocol
 	 */
 	public KeysDerivationActor(ProtocolParameters protocolParameters, ActorRef master) {
+		this(protocolParameters, master, null);
+	}
+	
+	/** Subordinate constructor, when this actor is executed as a part of a bigger FSM. When
+	 *  a master is given, all messages sent by this actor have <code>sender=master</code>.
+	 * @param protocolParam the pre-agreed public parameters of the protocol
+	 * @param master the ActorRef of the master that executes this actor as a sub-protocol
+	 * @param outbox the outbox through which the messages to the other parties are sent, null to send them at once
+	 */
+	public KeysDerivationActor(ProtocolParameters protocolParameters, ActorRef master, ActorRef outbox) {
+		super(protocolParameters.n);
 		
+		this.protocolParameters = protocolParameters;
+		this.rand = protocolParameters.newRandom(self().path().toStringWithoutAddress());
 		this.master = master != null ? master : self();
+		this.outbox = outbox;
+		this.compute = ComputeDispatcher.of(context());
 		
 		startWith(States.INITIALIZATION, KeysDerivationData.init());
 		
@@ -79,27 +153,31 @@ public class KeysDerivationActor extends AbstractLoggingFSM<States, KeysDerivati
 			BigInteger Phii = self == 1 ? N.subtract(pi).subtract(qi).add(BigInteger.ONE):
 											pi.negate().subtract(qi);
 
-			KeysDerivationPrivateParameters keysDerivationPrivateParameters = KeysDerivationPrivateParameters.gen(protocolParameters, self, N, Phii, rand);
-			
-			KeysDerivationPublicParameters keysDerivationPublicParameters = KeysDerivationPublicParameters.genFor(self, keysDerivationPrivateParameters);
+			SecureRandom sharingRand = acceptedN.keysDerivationSeed != null ? seeded(acceptedN.keysDerivationSeed) : rand;
+			ComputeDispatcher.pipe(compute, () -> {
+				KeysDerivationPrivateParameters keysDerivationPrivateParameters = KeysDerivationPrivateParameters.gen(protocolParameters, self, N, Phii, sharingRand);
+				return new Sharing(keysDerivationPrivateParameters,
+									KeysDerivationPublicParameters.genForAll(protocolParameters.n, keysDerivationPrivateParameters));
+			}, self());
 			
-			KeysDerivationData nextData = data.withN(N)
-												.withPrivateParameters(keysDerivationPrivateParameters)
-												.withNewPublicParametersFor(self, keysDerivationPublicParameters);
-			
-			return goTo(States.COLLECTING_BETAj_DRj_PHIj).using(nextData);
+			return goTo(States.SHARING).using(data.withN(N));
 		}));
 		
-		onTransition(matchState(States.AWAITING_N, States.COLLECTING_BETAj_DRj_PHIj, () -> {
+		when(States.SHARING, matchEvent(Sharing.class, (sharing, data) -> {
 			
 			// Distribute the beta_ij, delta*R_ij and phi_ij shares to the parties
-			Map<ActorRef, Integer> actors = nextStateData().getParticipants();
-			KeysDerivationPrivateParameters privateParameters = nextStateData().keysDerivationPrivateParameters;
+			Map<ActorRef, Integer> actors = data.getParticipants();
+			int self = actors.get(this.master);
 			actors.entrySet().stream().forEach(e -> {
 				if(!e.getKey().equals(this.master)){
-					e.getKey().tell(KeysDerivationPublicParameters.genFor(e.getValue(), privateParameters), this.master);
+					Outbox.send(outbox, e.getKey(), sharing.shares[e.getValue()-1], this.master);
 				}
 			});
+			
+			KeysDerivationData nextData = data.withPrivateParameters(sharing.keysDerivationPrivateParameters)
+												.withNewPublicParametersFor(self, sharing.shares[self-1]);
+			
+			return goTo(States.COLLECTING_BETAj_DRj_PHIj).using(nextData);
 		}));
 		
 		when(States.COLLECTING_BETAj_DRj_PHIj, matchEvent(KeysDerivationPublicParameters.class, (newShare, data) -> {
@@ -111,81 +189,67 @@ public class KeysDerivationActor extends AbstractLoggingFSM<States, KeysDerivati
 			
 			KeysDerivationData nextData = data.withNewPublicParametersFor(sender, newShare);
 			
-			if(!nextData.hasBetaiRiOf(actors.values())) {
+			if(!nextData.hasAllBetaiRi()) {
 				return stay().using(nextData);
-			} else {				
-				Stream<Entry<Integer, KeysDerivationPublicParameters>> publicParameters = nextData.publicParameters();
-				
-				BigInteger betaPointi = publicParameters.map(e -> e.getValue().betaij)
-													.reduce(BigInteger.ZERO, (b1, b2) -> b1.add(b2));
-				publicParameters = nextData.publicParameters();
-				BigInteger DRPointi = publicParameters.map(e -> e.getValue().DRij)
-													.reduce(BigInteger.ZERO, (b1, b2) -> b1.add(b2));
-				publicParameters = nextData.publicParameters();
-				BigInteger PhiPointi = publicParameters.map(e -> e.getValue().Phiij)
-													.reduce(BigInteger.ZERO, (b1, b2) -> b1.add(b2));
-				publicParameters = nextData.publicParameters();
-				
-				BigInteger hij = publicParameters.map(e -> e.getValue().hij)
-						.reduce(BigInteger.ZERO, (b1, b2) -> b1.add(b2));
-				
-				
-				BigInteger delta = IntegersUtils.factorial(BigInteger.valueOf(protocolParameters.n));
-				
-				
-				BigInteger thetai =  (delta.multiply(PhiPointi).multiply(betaPointi).mod(protocolParameters.P))
-											.add(nextData.N.multiply(DRPointi).mod(protocolParameters.P))
-											.add(hij).mod(protocolParameters.P);
-				
-				return goTo(States.COLLECTING_THETAj).using(nextData.withNewThetaFor(self, thetai)
-																	.withRPoint(DRPointi));
+			} else if (protocolParameters.isVerifyingShares()) {
+				ComputeDispatcher.pipe(compute, () -> checkShares(nextData), self());
+				return goTo(States.CHECKING_SHARES).using(nextData);
+			} else {
+				return goTo(States.COLLECTING_THETAj).using(withThetai(nextData, self));
 			}
 			
 		}));
 		
-		onTransition(matchState(States.COLLECTING_BETAj_DRj_PHIj, States.COLLECTING_THETAj, () -> {
+		when(States.CHECKING_SHARES, matchEvent(CheckedShares.class, (checked, data) -> {
+			
+			// Complain about the dealers of incorrect shares, or compute theta_i
+			Map<ActorRef, Integer> actors = data.getParticipants();
+			if (!checked.badActors.isEmpty()) {
+				checked.badActors.forEach(id -> broadCast(new Complaint(id), actors.keySet()));
+				return stop().withStopReason(new Failure("A key derivation share was invalid."));
+			}
+			return goTo(States.COLLECTING_THETAj).using(withThetai(data.withCommitmentDigests(checked.commitmentDigests),
+																	actors.get(this.master)));
+		}));
+		
+		onTransition(matchState(null, States.COLLECTING_THETAj, () -> {
 			
-			// Publish its own theta share theta_i
+			// Publish its own theta share theta_i, with the digests of the commitments it received
 			int self = nextStateData().getParticipants().get(this.master);
 			BigInteger thetai = nextStateData().thetas.get(self);
-			broadCast(new ThetaPoint(thetai), nextStateData().getParticipants().keySet());
+			broadCast(new ThetaPoint(thetai, nextStateData().commitmentDigests), nextStateData().getParticipants().keySet());
 		}));
 		
 		when(States.COLLECTING_THETAj, matchEvent(ThetaPoint.class, (newTheta, data) -> {
 			
-			// Collect the theta shares theta_j and reconstruct theta' using Lagrangian interpolation
-			// Also compute its own verification keys VK_i
+			// Collect the theta shares theta_j and reconstruct theta' using Lagrangian interpolation, from all the shares or from
+			// the first 2t+1 depending on the interpolation mode. Also compute its own verification keys VK_i. Aborts if a
+			// dealer sent different commitments to different parties.
 			Map<ActorRef, Integer> actors = data.getParticipants();
 			int sender = actors.get(sender());
-			int self = actors.get(this.master);
+			List<Integer> equivocating = VerifiableSharing.equivocatingDealers(data.commitmentDigests, newTheta.commitmentDigests, sender);
+			if (!equivocating.isEmpty()) {
+				equivocating.forEach(id -> broadCast(new Complaint(id), actors.keySet()));
+				return stop().withStopReason(new Failure("A dealer sent different commitments to different parties."));
+			}
 			KeysDerivationData newData = data.withNewThetaFor(sender, newTheta.thetai);
-			if (!newData.hasThetaiOf(actors.values())) {
+			if (!newData.hasThetasToInterpolate(protocolParameters.pointsToInterpolate())) {
 				return stay().using(newData);
 			} else {
-				List<BigInteger> thetas = newData.thetas.entrySet().stream()
-						.map(e -> e.getValue())
-						.collect(Collectors.toList());
-				BigInteger thetap = IntegersUtils.getIntercept(thetas, protocolParameters.P);
-				BigInteger theta = thetap.mod(newData.N);
-								
-				// Parties should have the same v, using theta to seed the random generator
-				BigInteger v = IntegersUtils.pickProbableGeneratorOfZNSquare(newData.N,
-																				2*protocolParameters.k,
-																				new SecureRandom(theta.toByteArray())); //TODO ok ?
-				
-				BigInteger secreti = thetap.subtract(newData.N.multiply(newData.DRpoint));
-				BigInteger delta = IntegersUtils.factorial(BigInteger.valueOf(protocolParameters.n));
-				
-				BigInteger verificationKeyi = v.modPow(delta.multiply(secreti), newData.N.multiply(newData.N));
-				
-				return goTo(States.COLLECTING_VERIF_KEYS).using(newData.withNewVerificationKeyFor(self, verificationKeyi)
-																		.withNewV(v)
-																		.withFi(secreti)
-																		.withThetaprime(thetap));
+				ComputeDispatcher.pipe(compute, () -> deriveVerificationKey(newData), self());
+				return goTo(States.COMPUTING_VERIF_KEY).using(newData);
 			}
 		}));
 		
-		onTransition(matchState(States.COLLECTING_THETAj, States.COLLECTING_VERIF_KEYS, () -> {
+		when(States.COMPUTING_VERIF_KEY, matchEvent(VerificationKeyResult.class, (result, data) -> {
+			int self = data.getParticipants().get(this.master);
+			return goTo(States.COLLECTING_VERIF_KEYS).using(data.withNewVerificationKeyFor(self, result.verificationKeyi)
+																.withNewV(result.v)
+																.withFi(result.secreti)
+																.withThetaprime(result.thetaprime));
+		}));
+		
+		onTransition(matchState(States.COMPUTING_VERIF_KEY, States.COLLECTING_VERIF_KEYS, () -> {
 			
 			// Publish its verification key
 			int self = nextStateData().getParticipants().get(this.master);
@@ -200,14 +264,11 @@ public class KeysDerivationActor extends AbstractLoggingFSM<States, KeysDerivati
 			int sender = actors.get(sender());
 			int self = actors.get(this.master);
 			KeysDerivationData newData = data.withNewVerificationKeyFor(sender, newVerifKey.verificationKey);
-			if (!newData.hasVerifKeyOf(actors.values())) {
+			if (!newData.hasAllVerifKeys()) {
 				return stay().using(newData);
 			} else {
 				
-				BigInteger[] verificationKeys = new BigInteger[protocolParameters.n];
-				for (Entry<Integer, BigInteger> entry : newData.verificationKeys.entrySet()) {
-					verificationKeys[entry.getKey()-1] = entry.getValue();
-				}
+				BigInteger[] verificationKeys = newData.verificationKeys.toArray(BigInteger[]::new);
 				
 				PaillierPrivateThresholdKey privateKey = new PaillierPrivateThresholdKey(newData.N,
 																							newData.thetaprime,
@@ -225,14 +286,119 @@ public class KeysDerivationActor extends AbstractLoggingFSM<States, KeysDerivati
 			}
 		}));
 		
-		whenUnhandled(matchAnyEvent((evt, data) -> {
-			self().tell(evt, sender()); // An unhandled message goes back to the message queue
-			return stay();
-		}));
 		
 	}
 	
+	/** Computes its own share of theta, theta_i, from the sums of the shares received*/
+	private KeysDerivationData withThetai(KeysDerivationData data, int self) {
+		BigInteger betaPointi = data.betaPoint;
+		BigInteger DRPointi = data.DRPoint;
+		BigInteger PhiPointi = data.PhiPoint;
+		BigInteger hij = data.hPoint;
+		
+		
+		BigInteger delta = IntegersUtils.factorial(BigInteger.valueOf(protocolParameters.n));
+		
+		
+		BigInteger thetai =  (delta.multiply(PhiPointi).multiply(betaPointi).mod(protocolParameters.P))
+									.add(data.N.multiply(DRPointi).mod(protocolParameters.P))
+									.add(hij).mod(protocolParameters.P);
+		
+		return data.withNewThetaFor(self, thetai).withRPoint(DRPointi);
+	}
+	
+	/** Drops the shares of theta received after the interpolation of theta', checking first that they are on the
+	 * interpolated polynomial if the interpolation mode asks for it, and complaining about the party otherwise, and that
+	 * the commitments the party received are the same, complaining about the dealers otherwise. Drops as
+	 * well the shares of beta, delta*R, phi and zero sent again once all of them are received, and answers the
+	 * {@link ResendRequest} of a party resuming the derivation of the same N.*/
+	@Override
+	protected boolean handleWithoutDeferring(Object event, KeysDerivationData data) {
+		if (event instanceof ResendRequest) {
+			if (data.N != null && data.N.equals(((ResendRequest) event).N))
+				resendTo(sender(), data);
+			return true;
+		}
+		if (event instanceof KeysDerivationPublicParameters)
+			return stateName() == States.CHECKING_SHARES || stateName() == States.COLLECTING_THETAj || stateName() == States.COMPUTING_VERIF_KEY
+					|| stateName() == States.COLLECTING_VERIF_KEYS;
+		if (!(event instanceof ThetaPoint) || (stateName() != States.COMPUTING_VERIF_KEY && stateName() != States.COLLECTING_VERIF_KEYS))
+			return false;
+		
+		int sender = data.getParticipants().get(sender());
+		List<Integer> equivocating = VerifiableSharing.equivocatingDealers(data.commitmentDigests, ((ThetaPoint) event).commitmentDigests,
+																			sender);
+		if (!equivocating.isEmpty()) {
+			log().warning("Party {} received other commitments than this party from the dealers {}", sender, equivocating);
+			equivocating.forEach(id -> broadCast(new Complaint(id), data.getParticipants().keySet()));
+		}
+		
+		if (protocolParameters.interpolation == Interpolation.EARLY_CHECKED) {
+			BigInteger expected = IntegersUtils.getValueAt(data.thetas.toMap(), sender, protocolParameters.P);
+			if (!expected.equals(((ThetaPoint) event).thetai.mod(protocolParameters.P))) {
+				log().warning("The share of theta from party {} is not on the interpolated polynomial", sender);
+				broadCast(new Complaint(sender), data.getParticipants().keySet());
+			}
+		}
+		return true;
+	}
+	
+	/** Sends again to a party the messages sent to it so far: its shares of beta, delta*R, phi and zero, theta_i and the
+	 * verification key VK_i*/
+	private void resendTo(ActorRef party, KeysDerivationData data) {
+		Map<ActorRef, Integer> actors = data.getParticipants();
+		int self = actors.get(this.master);
+		if (data.keysDerivationPrivateParameters != null)
+			Outbox.send(outbox, party, KeysDerivationPublicParameters.genFor(actors.get(party), data.keysDerivationPrivateParameters), this.master);
+		if (data.thetas != null && data.thetas.has(self))
+			Outbox.send(outbox, party, new ThetaPoint(data.thetas.get(self), data.commitmentDigests), this.master);
+		if (data.verificationKeys != null && data.verificationKeys.has(self))
+			Outbox.send(outbox, party, new VerificationKey(data.verificationKeys.get(self)), this.master);
+	}
+	
+	/** Checks all the shares received at once and digests the commitments if they are correct. Runs on the compute
+	 * dispatcher.*/
+	private CheckedShares checkShares(KeysDerivationData data) {
+		List<Integer> badActors = KeysDerivationPublicParameters.incorrectDealers(data.shares(), protocolParameters);
+		byte[][] commitmentDigests = null;
+		if (badActors.isEmpty())
+			commitmentDigests = VerifiableSharing.digests(data.commitments(), protocolParameters.n);
+		return new CheckedShares(badActors, commitmentDigests);
+	}
+	
+	/** Reconstructs theta' using Lagrangian interpolation and computes its own verification key VK_i. Runs on the compute
+	 * dispatcher.*/
+	private VerificationKeyResult deriveVerificationKey(KeysDerivationData data) {
+		BigInteger thetap = IntegersUtils.getIntercept(data.thetas.toMap(), protocolParameters.P);
+		BigInteger theta = thetap.mod(data.N);
+						
+		// Parties should have the same v, using theta to seed the random generator
+		BigInteger v = IntegersUtils.pickProbableGeneratorOfZNSquare(data.N,
+																		2*protocolParameters.k,
+																		new SecureRandom(theta.toByteArray())); //TODO ok ?
+		
+		BigInteger secreti = thetap.subtract(data.N.multiply(data.DRpoint));
+		BigInteger delta = IntegersUtils.factorial(BigInteger.valueOf(protocolParameters.n));
+		
+		BigInteger verificationKeyi = v.modPow(delta.multiply(secreti), data.N.multiply(data.N));
+		return new VerificationKeyResult(thetap, v, secreti, verificationKeyi);
+	}
+	
+	/** @return a generator whose output is determined by the seed, so that a resumed party derives the same shares*/
+	private static SecureRandom seeded(byte[] seed) {
+		try {
+			SecureRandom seeded = SecureRandom.getInstance("SHA1PRNG");
+			seeded.setSeed(seed);
+			return seeded;
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+	
 	private void broadCast(Object o, Set<ActorRef> targets) {
-		targets.stream().forEach(actor -> {if (!actor.equals(this.master)) actor.tell(o, this.master);});
+		if (protocolParameters.isBroadcastTree())
+			this.master.tell(new Broadcast(o), self());
+		else
+			targets.stream().forEach(actor -> {if (!actor.equals(this.master)) Outbox.send(outbox, actor, o, this.master);});
 	}
 }
\ No newline at end of file
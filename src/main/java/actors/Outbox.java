@@ -0,0 +1,94 @@
+package actors;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import messages.Messages.Envelope;
+import messages.Messages.Outgoing;
+import protocol.ProtocolParameters;
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.japi.pf.ReceiveBuilder;
+import scala.concurrent.duration.FiniteDuration;
+
+/**
+ * Coalesces the messages a party sends to each other party into {@link Envelope}'s, when the protocol parameters set a
+ * coalescing window (see {@link ProtocolParameters#withCoalescing(long)}), so that a step of a sub-protocol sending several
+ * messages to a party, e.g. its shares and a resent value, costs one message on the network.
+ * <p>
+ * The actors of the sub-protocols give the messages to the outbox of their party in {@link Outgoing}'s, see
+ * {@link #send(ActorRef, ActorRef, Object, ActorRef)}. The outbox keeps them until the end of the window that starts with the
+ * first of them, or with a window of 0, until it processed all the messages already in its mailbox, i.e. until the end of the
+ * current step. It then sends to each party the messages for it in their order, in one Envelope if there are several.
+ * The ProtocolActor of the receiving party routes the messages of an Envelope one by one, as if they were received alone.
+ * @author Christian Mouchet
+ */
+public class Outbox extends AbstractActor {
+
+	/** The largest number of messages in an Envelope, the messages for a party are sent at once when there are that many*/
+	public static final int MAX_ENVELOPE = 256;
+
+	/** Tells the outbox to send the messages kept so far*/
+	private static class Flush {
+	}
+
+	private final long windowMicros;
+	private final ActorRef master;
+	private final Map<ActorRef,List<Object>> kept = new LinkedHashMap<ActorRef,List<Object>>();
+	private boolean flushing = false;
+
+	/** @param protocolParameters the parameters of the protocol, with a coalescing window
+	 * @param master the ProtocolActor of this party, the sender of the messages
+	 */
+	public Outbox(ProtocolParameters protocolParameters, ActorRef master) {
+		if (!protocolParameters.isCoalescing())
+			throw new IllegalArgumentException("The protocol parameters have no coalescing window");
+		this.windowMicros = protocolParameters.coalescingWindow;
+		this.master = master;
+
+		receive(ReceiveBuilder
+				.match(Outgoing.class, outgoing -> {
+					List<Object> messages = kept.computeIfAbsent(outgoing.to, to -> new ArrayList<Object>());
+					messages.add(outgoing.message);
+					if (messages.size() >= MAX_ENVELOPE)
+						send(kept.remove(outgoing.to), outgoing.to);
+					if (!flushing) {
+						flushing = true;
+						if (windowMicros == 0)
+							self().tell(new Flush(), self());
+						else
+							context().system().scheduler().scheduleOnce(new FiniteDuration(windowMicros, TimeUnit.MICROSECONDS),
+																		self(), new Flush(), context().dispatcher(), self());
+					}
+				})
+				.match(Flush.class, flush -> {
+					kept.forEach((to, messages) -> send(messages, to));
+					kept.clear();
+					flushing = false;
+				})
+				.build());
+	}
+
+	/** Sends a message to another party, through an outbox if any.
+	 * @param outbox the outbox of the party, null to send the message at once
+	 * @param to the ProtocolActor of the other party
+	 * @param message the message
+	 * @param master the ProtocolActor of the party, the sender of the message
+	 */
+	public static void send(ActorRef outbox, ActorRef to, Object message, ActorRef master) {
+		if (outbox != null)
+			outbox.tell(new Outgoing(to, message), master);
+		else
+			to.tell(message, master);
+	}
+
+	private void send(List<Object> messages, ActorRef to) {
+		if (messages.size() == 1)
+			to.tell(messages.get(0), master);
+		else
+			to.tell(new Envelope(messages.toArray()), master);
+	}
+}
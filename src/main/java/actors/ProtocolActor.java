@@ -1,26 +1,67 @@
 package actors;
 
-import java.io.DataOutputStream;
-import java.io.File;
-import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import messages.Messages.BGWNPoint;
 import messages.Messages.BiprimalityTestResult;
+import messages.Messages.Broadcast;
 import messages.Messages.CandidateN;
+import messages.Messages.CandidateNBatch;
+import messages.Messages.CandidatesFrom;
+import messages.Messages.Delivered;
+import messages.Messages.Envelope;
+import messages.Messages.JournalFailed;
+import messages.Messages.KeyShareStored;
 import messages.Messages.Participants;
-import messages.Messages.QiTestForRound;
+import messages.Messages.QiTestBatch;
+import messages.Messages.ResendRequest;
+import messages.Messages.Resume;
+import messages.Messages.SievedContributions;
+import messages.Messages.SievingProductPoint;
+import messages.Messages.SievingXPoint;
 import messages.Messages.ThetaPoint;
+import messages.Messages.TreeAggregate;
+import messages.Messages.TreeFanout;
 import messages.Messages.VerificationKey;
+import math.TrialDivision;
 import paillierp.key.PaillierPrivateThresholdKey;
 import protocol.BGWParameters.BGWPublicParameters;
+import protocol.Journal;
+import protocol.Journal.Accepted;
+import protocol.Journal.Batch;
+import protocol.Journal.Generating;
+import protocol.Journal.Received;
+import protocol.Journal.Record;
+import protocol.Journal.Started;
+import protocol.Journal.Testing;
+import protocol.KeyShareStore;
 import protocol.KeysDerivationParameters.KeysDerivationPublicParameters;
 import protocol.ProtocolParameters;
+import protocol.SievingParameters.SievingPublicParameters;
 import actordata.ProtocolData;
 import actors.ProtocolActor.States;
 import akka.actor.AbstractLoggingFSM;
 import akka.actor.ActorRef;
+import akka.actor.OneForOneStrategy;
 import akka.actor.PoisonPill;
 import akka.actor.Props;
+import akka.actor.SupervisorStrategy;
+import akka.actor.Terminated;
+import akka.dispatch.Dispatchers;
+import akka.japi.pf.DeciderBuilder;
+import scala.Option;
+import scala.concurrent.duration.Duration;
+import scala.concurrent.duration.FiniteDuration;
 
 /**
  * This is the encoding of the main phases of the protocol described by Takashi Nishide 
@@ -28,57 +69,191 @@ import akka.actor.Props;
  * <p> This Akka actor describes the transition between the main phases of the protocol and 
  * the forwarding of the messages to its children. There is one children actor per phases,
  * each of them implementing a sub-protocol: 
- * <ul> <li> The BGWActor implements the BGW protocol in which the parties generate N=pq
+ * <ul> <li> The SievingActor implements a distributed sieving of the contributions to p and q, so that they have no small
+ * 			 prime factor. It is only used if the protocol parameters set a sieving bound.
+ * 		<li> The BGWActor implements the BGW protocol in which the parties generate N=pq
+ * 		<li> Each candidate N is first trial-divided by the small primes, locally. Since all parties see the same N, they
+ * 			 all reject it without exchanging any message. It is only done if the protocol parameters set a trial
+ * 			 division bound.
  * 		<li> The BiprimalityTestActor implements a distributed biprimality test for N. It accept
  * 			 N in the case p and q are prime.
  * 		<li> The KeysDerivationActor implements a distributed key derivation based on an accepted
  * 			 N.
  * </ul>
+ * <p> The key share is then written by a {@link KeyShareStore}, without blocking the actor. Each party stops once its share
+ * is on the disk, and party 1 shuts the actor system down once all parties stopped, unless the actor runs a session of a
+ * {@link SessionSupervisor}.
+ * <p> Each party keeps a {@link Journal} next to its key share, with a checkpoint at the start of each biprimality test and
+ * at the acceptance of N, and the messages of the other parties for these two phases. A child of the biprimality test or
+ * of the key derivation that fails, be it an exception or the child stopping before its phase ended, is replaced by a new
+ * one, which resumes the phase from the journal: it is given the journaled messages, and the other parties are asked to
+ * send theirs again with a {@link ResendRequest}. Any other failure restarts the actor, which then resumes the phase of its
+ * last checkpoint in the same way. The restart stops all the children, so that a failure during the generation of
+ * candidates, by the sieving and BGW, cannot be resumed and stops the party. The journal is deleted once the key share is
+ * written, or once the party stops for good without it.
+ * <p> The journal is written in order on the dispatcher {@link #JOURNAL_DISPATCHER}, so that forcing a checkpoint to the
+ * disk does not hold the actor, and a failed write is sent back to the actor as a {@link JournalFailed}. A restarting
+ * actor waits for the pending writes before its next instance reads the journal.
+ * <p> When the protocol parameters set a pipeline depth, the next batches of candidates are generated while the current
+ * candidate is tested, see {@link ProtocolParameters#withPipelineDepth(int)}. The batches received meanwhile are journaled
+ * and queued after the current one, and they are dropped with the ones still being generated once N is accepted. The
+ * SIEVING and BGW states then only mean that the party waits for a batch. A failed biprimality test or key derivation is
+ * resumed while the next batches are generated, but a restart of the actor while a batch is generated ahead cannot be.
+ * <p> When the protocol parameters set a broadcast tree, the children broadcast their public values through a
+ * {@link RelayActor}, which delivers the values of the other parties as if they were received from them.
+ * <p> When the protocol parameters set a coalescing window, the children send their messages to the other parties through
+ * an {@link Outbox}, and the messages of the {@link Envelope}'s received from the other parties are routed one by one.
+ * <p> Given a {@link SimulatedNetwork}, the actor delivers the messages of the other parties to its children only once they
+ * would have crossed the simulated link from their sender.
  * <p>
  * @author Christian Mouchet
  */
 public class ProtocolActor extends AbstractLoggingFSM<States, ProtocolData> {
 	
-	public static enum States {INITIALIZATION,BGW,BIPRIMAL_TEST, KEYS_DERIVATION};
+	public static enum States {INITIALIZATION,SIEVING,BGW,BIPRIMAL_TEST, KEYS_DERIVATION, STORING_KEY_SHARE};
 	
+	private  ActorRef sievingActor;
 	private  ActorRef bgwActor;
 	private  ActorRef biprimalTestActor;
 	private  ActorRef keysDerivationActor;
+	private  ActorRef relayActor;
+	private  ActorRef outbox;
 	
-	/** Constructor of the actor. This makes use of the Akka AbstractFSM DSL to build the FSM.
+	private final ProtocolParameters protocolParams;
+	private final TrialDivision trialDivision;
+	private final KeyShareStore keyShareStore;
+	private final String keyShareName;
+	private final boolean session;
+	private final Journal journal;
+	private final Executor journalExecutor;
+	private CompletableFuture<Void> journalWrites = CompletableFuture.completedFuture(null);
+	private boolean restarting = false;
+	private final SecureRandom rand;
+	private final SimulatedNetwork network;
+	
+	/** The id of the dispatcher of the writes to the journal in the configuration of the actor system. The dispatcher of the
+	 * actor is used if the configuration does not define it.*/
+	public static final String JOURNAL_DISPATCHER = "thresh-paillier.journal-dispatcher";
+	
+	/** Stops a sub-protocol that fails, which is then handled as a child stopping before its phase ended*/
+	private static final SupervisorStrategy STOP = new OneForOneStrategy(-1, Duration.Inf(),
+			DeciderBuilder.matchAny(e -> SupervisorStrategy.stop()).build());
+	
+	/** A write to the journal*/
+	private interface JournalWrite {
+		void run() throws IOException;
+	}
+	
+	/** Constructor of the actor, writing the key share in the default {@link KeyShareStore}.
 	 * @param protocolParams the public parameters on which the parties agreed 
 	 */
-	@SuppressWarnings("deprecation")
 	public ProtocolActor(ProtocolParameters protocolParams) {
-		bgwActor = context().actorOf(Props.create(BGWProtocolActor.class, protocolParams,self()), "BGWActor");
-		biprimalTestActor = context().actorOf(Props.create(BiprimalityTestActor.class, self()), "BiprimalityTestActor");
-		keysDerivationActor = context().actorOf(Props.create(KeysDerivationActor.class, protocolParams,  self()), "KeysDerivationActor");
+		this(protocolParams, KeyShareStore.getDefault());
+	}
+	
+	/** Constructor of the actor, writing the key share in the given {@link KeyShareStore}.
+	 * @param protocolParams the public parameters on which the parties agreed 
+	 * @param keyShareStore the store in which the key share is written
+	 */
+	public ProtocolActor(ProtocolParameters protocolParams, KeyShareStore keyShareStore) {
+		this(protocolParams, keyShareStore, null);
+	}
+	
+	/** Constructor of the actor. This makes use of the Akka AbstractFSM DSL to build the FSM.
+	 * @param protocolParams the public parameters on which the parties agreed 
+	 * @param keyShareStore the store in which the key share is written
+	 * @param keyShareName the name of the key share in the store, null to name it after this actor
+	 */
+	public ProtocolActor(ProtocolParameters protocolParams, KeyShareStore keyShareStore, String keyShareName) {
+		this(protocolParams, keyShareStore, keyShareName, false, null);
+	}
+	
+	/** Constructor of the actor, receiving the messages of the other parties through a simulated network.
+	 * @param protocolParams the public parameters on which the parties agreed 
+	 * @param keyShareStore the store in which the key share is written
+	 * @param keyShareName the name of the key share in the store, null to name it after this actor
+	 * @param network the simulated network between the parties, null to deliver their messages at once
+	 */
+	public ProtocolActor(ProtocolParameters protocolParams, KeyShareStore keyShareStore, String keyShareName, SimulatedNetwork network) {
+		this(protocolParams, keyShareStore, keyShareName, false, network);
+	}
+	
+	/** Constructor of the actor. When it runs a session of a {@link SessionSupervisor}, the actor does not shut the actor
+	 * system down when done.
+	 * @param protocolParams the public parameters on which the parties agreed 
+	 * @param keyShareStore the store in which the key share is written
+	 * @param keyShareName the name of the key share in the store, null to name it after this actor
+	 * @param session true if the actor runs a session of a {@link SessionSupervisor}
+	 * @param network the simulated network between the parties, null to deliver their messages at once
+	 */
+	public ProtocolActor(ProtocolParameters protocolParams, KeyShareStore keyShareStore, String keyShareName, boolean session,
+							SimulatedNetwork network) {
+		this.protocolParams = protocolParams;
+		this.rand = protocolParams.newRandom(self().path().toStringWithoutAddress());
+		this.keyShareStore = keyShareStore;
+		this.keyShareName = keyShareName;
+		this.session = session;
+		this.network = network;
+		this.trialDivision = protocolParams.trialDivisionBound != 0 ? TrialDivision.upTo(protocolParams.trialDivisionBound) : null;
+		this.journal = new Journal(keyShareStore.journalFor(keyShareName != null ? keyShareName : self().path().name()));
+		Dispatchers dispatchers = context().system().dispatchers();
+		this.journalExecutor = dispatchers.hasDispatcher(JOURNAL_DISPATCHER) ? dispatchers.lookup(JOURNAL_DISPATCHER) : context().dispatcher();
+		
+		outbox = protocolParams.isCoalescing() ? context().actorOf(Props.create(Outbox.class, protocolParams, self()), "Outbox") : null;
+		sievingActor = context().actorOf(Props.create(SievingActor.class, protocolParams, self(), outbox), "SievingActor");
+		bgwActor = context().actorOf(Props.create(BGWProtocolActor.class, protocolParams,self(), outbox), "BGWActor");
+		biprimalTestActor = context().actorOf(Props.create(BiprimalityTestActor.class, protocolParams, self(), outbox), "BiprimalityTestActor");
+		keysDerivationActor = context().actorOf(Props.create(KeysDerivationActor.class, protocolParams,  self(), outbox), "KeysDerivationActor");
+		if(protocolParams.isBroadcastTree())
+			relayActor = context().actorOf(Props.create(RelayActor.class, protocolParams, self(), outbox), "RelayActor");
+		
+		// A child stopping with a failure does not throw, so the supervisor strategy would not see it
+		for(ActorRef child : new ActorRef[]{outbox, sievingActor, bgwActor, biprimalTestActor, keysDerivationActor, relayActor}) {
+			if(child != null)
+				context().watch(child);
+		}
 		
 		startWith(States.INITIALIZATION, ProtocolData.init());
 		
 		
 		when(States.INITIALIZATION, matchEvent(Participants.class,
 				(participants,data) -> {
+					journal(() -> journal.start(started(participants.getParticipants())));
+					transmitEarlyMessages(data);
+					
 					biprimalTestActor.tell(participants, self());
 					keysDerivationActor.tell(participants, self());
-					return goTo(States.BGW).using(data.withParticipants(participants.getParticipants()));
-				}));
+					if(relayActor != null)
+						relayActor.tell(participants, self());
+					return waitForBatch(data.withoutEarlyMessages().withParticipants(participants.getParticipants()));
+				}).event(Resume.class, (resume, data) -> resume(data)));
 		
-		when(States.BGW, matchEvent(CandidateN.class, 
-				(candidateN, data) -> {
-					if(data.getParticipants().get(self())==1)
-						System.out.println("TRY: N="+candidateN.N);
-					return goTo(States.BIPRIMAL_TEST).using(data.withNewN(candidateN.N, candidateN.bgwPrivateParameters));
+		// With pipelining, a batch can be received during the sieving of the next one
+		when(States.SIEVING, matchEvent(SievedContributions.class,
+				(contributions, data) -> {
+					bgwActor.tell(contributions, self());
+					return goTo(States.BGW);
+				}).event(CandidateNBatch.class,
+				(candidates, data) -> testNextCandidate(data.withBatchGenerated(candidates.getCandidates()))));
+		
+		when(States.BGW, matchEvent(CandidateNBatch.class, 
+				(candidates, data) -> testNextCandidate(data.withBatchGenerated(candidates.getCandidates()))
+				).event(SievedContributions.class,
+				(contributions, data) -> {
+					bgwActor.tell(contributions, self());
+					return stay();
 				}));
 		
 		onTransition((from,to) -> {		
 			
-			// Starting or looping back to BGW after rejecting N
-			if(to == States.BGW) {
-				bgwActor.tell(new Participants(nextStateData().getParticipants()), self());
-			}
-			// Starting Biprimality test after generating a new N
+			// Starting Biprimality test after generating a new N, or on the next N of the batch
 			if(to == States.BIPRIMAL_TEST) {
+				ProtocolData data = nextStateData();
+				journal(() -> journal.checkpoint(new Testing(data.bgwPrivateParameters.candidateId, data.trialDivisions,
+																data.getTrialDivisionRejections())));
+				
+				if(nextStateData().getParticipants().get(self())==1)
+					System.out.println("TRY: N="+nextStateData().N);
 				biprimalTestActor.tell(new CandidateN(nextStateData().N, nextStateData().bgwPrivateParameters), sender());
 			}
 			
@@ -88,55 +263,478 @@ public class ProtocolActor extends AbstractLoggingFSM<States, ProtocolData> {
 				(result, data) -> {
 					
 					if(result.passes) {
-						if(data.getParticipants().get(self())==1)
+						if(data.getParticipants().get(self())==1) {
 							System.out.println("FOUND N="+result.N);
+							if(trialDivision != null)
+								log().info("Trial division rejected {} of {} candidates, by smallest factor {}",
+											data.trialDivisionRejections(), data.trialDivisions, data.getTrialDivisionRejections());
+						}
 						return goTo(States.KEYS_DERIVATION).using(data.withNewN(result.N, result.bgwPrivateParameters));
 					} else {
 						if(data.getParticipants().get(self())==1)
 							System.out.println("DID NOT PASS");
-						return goTo(States.BGW).using(data);
+						return testNextCandidate(data);
 					}
+		}).event(CandidateNBatch.class,
+				(candidates, data) -> {
+					// A batch generated ahead is queued after the ones already there
+					journal(() -> journal.checkpoint(new Batch(candidates.getCandidates())));
+					return stay().using(data.withBatchGenerated(candidates.getCandidates()));
+		}).event(SievedContributions.class,
+				(contributions, data) -> {
+					bgwActor.tell(contributions, self());
+					return stay();
 		}));
 		
+		// The candidates generated ahead are dropped once N is accepted, as well as the batches still being generated
+		onTransition((from, to) -> {
+			if(to == States.KEYS_DERIVATION) {
+				context().unwatch(sievingActor);
+				context().unwatch(bgwActor);
+				context().unwatch(biprimalTestActor);
+				sievingActor.tell(PoisonPill.getInstance(), self());
+				bgwActor.tell(PoisonPill.getInstance(), self());
+			}
+		});
+		
 		// N passes all biprimality tests
 		onTransition(matchState(States.BIPRIMAL_TEST, States.KEYS_DERIVATION, () -> {
 			ProtocolData data = nextStateData();
-			keysDerivationActor.tell(new BiprimalityTestResult(data.N, data.bgwPrivateParameters, true),  self());
+			byte[] seed = new byte[32];
+			rand.nextBytes(seed);
+			journal(() -> journal.checkpoint(new Accepted(new CandidateN(data.N, data.bgwPrivateParameters), seed)));
+			keysDerivationActor.tell(new BiprimalityTestResult(data.N, data.bgwPrivateParameters, true, seed),  self());
 		}));
 		
 		when(States.KEYS_DERIVATION, matchEvent(PaillierPrivateThresholdKey.class, (key, data) -> {
-			new File("keys").mkdirs();
-			DataOutputStream out = new DataOutputStream(new FileOutputStream("keys/"+self().path().name()+".privkey"));
-			out.write(key.toByteArray());
-			out.close();
+			// The share is written off the actor's thread, which is told when the writing ends
+			ActorRef self = self();
+			keyShareStore.write(keyShareName != null ? keyShareName : self().path().name(), key.toByteArray())
+			.whenComplete((file, failure) -> self.tell(new KeyShareStored(file != null ? file.toString() : null, failure), self));
+			return goTo(States.STORING_KEY_SHARE);
+		}));
+		
+		// Party 1 watches the other parties, which stop once their share is written
+		onTransition(matchState(States.KEYS_DERIVATION, States.STORING_KEY_SHARE, () -> {
+			context().unwatch(keysDerivationActor);
+			if(nextStateData().getParticipants().get(self()) == 1) {
+				nextStateData().getParticipants().keySet().stream()
+				.filter(actor -> !actor.equals(self()))
+				.forEach(actor -> context().watch(actor));
+			}
+		}));
+		
+		when(States.STORING_KEY_SHARE, matchEvent(KeyShareStored.class, (stored, data) -> {
+			if(stored.failure != null) {
+				log().error(stored.failure, "Could not write the key share");
+			} else {
+				journal(() -> journal.delete());
+				System.out.println(self().path()+" DONE");
+			}
+			return stopOnceAllWritten(data.withKeyShareWritten());
+		}).event(Terminated.class, (terminated, data) -> data.getParticipants().containsKey(terminated.actor()), (terminated, data) -> {
+			return stopOnceAllWritten(data.withStoppedParticipant(terminated.actor()));
+		}));
+		
+		
+		// A child stopped before its phase ended: the child of the biprimality test or of the derivation is replaced, otherwise
+		// the party restarts in order to resume from the journal. Routing logic otherwise.
+		whenUnhandled(matchEvent(Terminated.class,
+				(terminated, data) -> (terminated.actor().equals(biprimalTestActor) || terminated.actor().equals(keysDerivationActor))
+										&& stateName() != States.INITIALIZATION && stateName() != States.STORING_KEY_SHARE,
+				(terminated, data) -> resumeChild(terminated.actor(), data)
+		).event(Terminated.class, (terminated, data) -> {
+			throw new IllegalStateException("The child "+terminated.actor().path().name()+" stopped in state "+stateName());
+		}).event(JournalFailed.class, (failed, data) -> {
+			log().error(failed.failure, "Could not write the journal {}", journal.file);
+			return stay();
+		}).anyEvent((event,data) -> {
+			// The sender of a message received before the participants are known is not known either
+			if(network != null && !(event instanceof Delivered) && stateName() == States.INITIALIZATION)
+				return stay().using(data.withEarlyMessage(event, sender()));
+			if(network != null && !(event instanceof Delivered) && transmit(event, data))
+				return stay();
+			Object evt = event instanceof Delivered ? ((Delivered) event).message : event;
 			
-			System.out.println(self().path()+" DONE");
-			bgwActor.tell(PoisonPill.getInstance(), self());
-			if(data.getParticipants().get(self()) == 1){
-				Thread.sleep(1000);
-				context().system().shutdown();
+			if(evt instanceof Envelope) {
+				for(Object message : ((Envelope) evt).messages)
+					route(message, sender(), data);
+			} else {
+				route(evt, sender(), data);
 			}
-			return stop();
+			return stay();
 		}));
 		
+	}
+	
+	/** Forwards a message to the child of its phase
+	 * @param evt the message
+	 * @param from the sender of the message, the other party for the messages of the other parties
+	 * @param data the current data of the actor
+	 */
+	private void route(Object evt, ActorRef from, ProtocolData data) {
+		if(evt instanceof SievingPublicParameters || evt instanceof SievingProductPoint || evt instanceof SievingXPoint) {
+			sievingActor.tell(evt, from);
+		}
+		else if(evt instanceof BGWPublicParameters || evt instanceof BGWNPoint) {
+			bgwActor.tell(evt, from);
+		}
+		else if(evt instanceof QiTestBatch) {
+			journalReceived(evt, from, data);
+			biprimalTestActor.tell(evt, from);
+		}
+		else if(evt instanceof KeysDerivationPublicParameters || evt instanceof ThetaPoint || evt instanceof VerificationKey) {
+			journalReceived(evt, from, data);
+			keysDerivationActor.tell(evt, from);
+		}
+		else if(evt instanceof ResendRequest) {
+			biprimalTestActor.tell(evt, from);
+			keysDerivationActor.tell(evt, from);
+			if(relayActor != null)
+				relayActor.tell(evt, from);
+		}
+		else if(relayActor != null && (evt instanceof Broadcast || evt instanceof TreeAggregate || evt instanceof TreeFanout)) {
+			relayActor.tell(evt, from);
+		}
+	}
+	
+	@Override
+	public SupervisorStrategy supervisorStrategy() {
+		return STOP;
+	}
+	
+	/** Resumes the protocol from the journal once restarted. The messages received before are processed first, and are
+	 * forwarded to the children until then.*/
+	@Override
+	public void postRestart(Throwable reason) throws Exception {
+		super.postRestart(reason);
+		log().warning("Restarted after {}, resuming from the journal {}", reason, journal.file);
+		self().tell(new Resume(), self());
+	}
+	
+	@Override
+	public void preRestart(Throwable reason, Option<Object> message) throws Exception {
+		restarting = true;
+		super.preRestart(reason, message);
+	}
+	
+	/** Closes the journal once its pending writes are done, or deletes it if the actor stops for good: it is only read by
+	 * a restarted actor, and holds the secrets of the party.*/
+	@Override
+	public void postStop() {
+		journal(() -> {
+			if(restarting)
+				journal.close();
+			else
+				journal.delete();
+		});
+		journalWrites.join();
+		super.postStop();
+	}
+	
+	/** Resumes the phase of the last checkpoint of the journal: restores the data of the party and the children of the phase,
+	 * replays the journaled messages of the other parties and asks them to send theirs again.*/
+	private State<States, ProtocolData> resume(ProtocolData data) {
+		List<Record> records;
+		try {
+			records = journal.read();
+		} catch (IOException e) {
+			log().error(e, "Could not read the journal {}", journal.file);
+			return stop(new Failure("Could not read the journal "+journal.file));
+		}
+		if(records.isEmpty() || !(records.get(0) instanceof Started) || !((Started) records.get(0)).isFor(protocolParams))
+			return stop(new Failure("No journal of this run of the protocol in "+journal.file));
+		
+		Map<ActorRef,Integer> participants = new HashMap<ActorRef,Integer>();
+		((Started) records.get(0)).getParticipants().forEach((path, id) ->
+			participants.put(context().system().provider().resolveActorRef(path), id));
+		
+		int last = records.size()-1;
+		while(last > 0 && (records.get(last) instanceof Received || records.get(last) instanceof Batch))
+			last--;
+		// Each batch journaled after a Generating record is the one that it asked for, the batches before it were queued
+		int generating = 0;
+		for(Record record : records) {
+			if(record instanceof Generating)
+				generating++;
+			else if(record instanceof Batch && generating > 0)
+				generating--;
+		}
+		if(!(records.get(last) instanceof Testing) && !(records.get(last) instanceof Accepted)
+				|| records.get(last) instanceof Testing && generating > 0)
+			return stop(new Failure("The party failed while generating candidates, which cannot be resumed"));
+		
+		biprimalTestActor.tell(new Participants(participants), self());
+		keysDerivationActor.tell(new Participants(participants), self());
+		if(relayActor != null)
+			relayActor.tell(new Participants(participants), self());
+		
+		transmitEarlyMessages(data);
+		Record checkpoint = records.get(last);
+		ProtocolData resumed = data.withoutEarlyMessages().withParticipants(participants);
+		CandidateN candidate;
+		State<States, ProtocolData> next;
+		if(checkpoint instanceof Testing) {
+			Testing testing = (Testing) checkpoint;
+			List<List<CandidateN>> batches = records.stream()
+											.filter(record -> record instanceof Batch)
+											.map(record -> ((Batch) record).getCandidatesFrom(testing.candidateId))
+											.filter(batch -> !batch.isEmpty())
+											.collect(Collectors.toList());
+			List<CandidateN> candidates = batches.get(0);
+			candidate = candidates.get(0);
+			
+			// The next batch is numbered as the other parties number it
+			List<CandidateN> lastBatch = batches.get(batches.size()-1);
+			long nextCandidateId = lastBatch.get(lastBatch.size()-1).bgwPrivateParameters.candidateId + 1;
+			sievingActor.tell(new CandidatesFrom(nextCandidateId), self());
+			bgwActor.tell(new CandidatesFrom(nextCandidateId), self());
+			
+			ProtocolData queued = resumed.withCandidates(candidates);
+			for(List<CandidateN> batch : batches.subList(1, batches.size()))
+				queued = queued.withQueuedBatch(batch);
+			next = goTo(States.BIPRIMAL_TEST).using(generateAhead(queued.withNextCandidate()
+																		.withTrialDivisions(testing.trialDivisions, testing.getTrialDivisionRejections())));
+		} else {
+			Accepted accepted = (Accepted) checkpoint;
+			candidate = accepted.accepted;
+			keysDerivationActor.tell(new BiprimalityTestResult(candidate.N, candidate.bgwPrivateParameters, true,
+																accepted.getKeysDerivationSeed()), self());
+			next = goTo(States.KEYS_DERIVATION).using(resumed.withNewN(candidate.N, candidate.bgwPrivateParameters));
+		}
+		
+		// The Qj's of the candidates tested before would be dropped, and the ones of the later candidates are still needed
+		replay(records, participants, candidate.bgwPrivateParameters.candidateId, checkpoint instanceof Testing, true);
+		askToResend(participants, candidate.N);
+		
+		log().info("Resumed {} of candidate {} from the journal", next.stateName(), candidate.bgwPrivateParameters.candidateId);
+		return next;
+	}
+	
+	/** Replaces the child of the biprimality test or of the key derivation, which stopped before its phase ended, and resumes
+	 * the phase from the journal: the new child is given the current candidate, or the accepted N, and the journaled messages
+	 * of the other parties, which are asked to send theirs again. A child stopping while it waits for its phase is replaced
+	 * as well, and given the messages received for it meanwhile. The party itself is not restarted, so that the batches
+	 * being generated go on.*/
+	private State<States, ProtocolData> resumeChild(ActorRef child, ProtocolData data) {
+		List<Record> records;
+		try {
+			journalWrites.join();
+			records = journal.read();
+		} catch (IOException e) {
+			log().error(e, "Could not read the journal {}", journal.file);
+			return stop(new Failure("Could not read the journal "+journal.file));
+		}
 		
-		// Routing logic
-		whenUnhandled(matchAnyEvent((evt,data) -> {
-			if(evt instanceof BGWPublicParameters || evt instanceof BGWNPoint) {
-				//Thread.sleep(1); // SIMULATE DELAY
-				bgwActor.tell(evt, sender());
+		Participants participants = new Participants(data.getParticipants());
+		boolean testing = child.equals(biprimalTestActor);
+		if(testing) {
+			biprimalTestActor = context().actorOf(Props.create(BiprimalityTestActor.class, protocolParams, self(), outbox), child.path().name());
+			context().watch(biprimalTestActor);
+			biprimalTestActor.tell(participants, self());
+			if(stateName() == States.BIPRIMAL_TEST)
+				biprimalTestActor.tell(new CandidateN(data.N, data.bgwPrivateParameters), self());
+		} else {
+			keysDerivationActor = context().actorOf(Props.create(KeysDerivationActor.class, protocolParams, self(), outbox), child.path().name());
+			context().watch(keysDerivationActor);
+			keysDerivationActor.tell(participants, self());
+			if(stateName() == States.KEYS_DERIVATION) {
+				Accepted accepted = records.stream()
+									.filter(record -> record instanceof Accepted)
+									.map(record -> (Accepted) record)
+									.reduce((first, second) -> second)
+									.orElseThrow(() -> new IllegalStateException("No accepted N in the journal "+journal.file));
+				keysDerivationActor.tell(new BiprimalityTestResult(data.N, data.bgwPrivateParameters, true,
+																	accepted.getKeysDerivationSeed()), self());
 			}
-			else if(evt instanceof QiTestForRound) {
-				//Thread.sleep(1); // SIMULATE DELAY
-				biprimalTestActor.tell(evt, sender());
+		}
+		
+		// Waiting for a batch, the Qj's of the candidates tested before would be dropped
+		boolean current = stateName() == States.BIPRIMAL_TEST || stateName() == States.KEYS_DERIVATION;
+		long firstCandidateId = data.bgwPrivateParameters == null ? 0 : data.bgwPrivateParameters.candidateId + (current ? 0 : 1);
+		replay(records, data.getParticipants(), firstCandidateId, testing, !testing);
+		if(current)
+			askToResend(data.getParticipants(), data.N);
+		
+		log().warning("The child {} stopped in state {}, resumed it from the journal", child.path().name(), stateName());
+		return stay();
+	}
+	
+	/** Replays the journaled messages of the other parties to the children of the biprimality test and of the key derivation
+	 * @param firstCandidateId the id of the first candidate whose Q<sub>j</sub>'s are replayed, the ones of the candidates
+	 * tested before would be dropped
+	 * @param testing true to replay the Q<sub>j</sub>'s
+	 * @param deriving true to replay the messages of the key derivation
+	 */
+	private void replay(List<Record> records, Map<ActorRef,Integer> participants, long firstCandidateId, boolean testing,
+						boolean deriving) {
+		Map<Integer,ActorRef> parties = new HashMap<Integer,ActorRef>();
+		participants.forEach((actor, id) -> parties.put(id, actor));
+		records.stream().filter(record -> record instanceof Received).map(record -> (Received) record).forEach(received -> {
+			if(received.message instanceof QiTestBatch) {
+				if(testing && ((QiTestBatch) received.message).candidateId >= firstCandidateId)
+					biprimalTestActor.tell(received.message, parties.get(received.from));
+			} else if(deriving) {
+				keysDerivationActor.tell(received.message, parties.get(received.from));
 			}
-			else if(evt instanceof KeysDerivationPublicParameters || evt instanceof ThetaPoint || evt instanceof VerificationKey) {
-				//Thread.sleep(1); // SIMULATE DELAY
-				keysDerivationActor.tell(evt, sender());
+		});
+	}
+	
+	/** Asks the other parties to send their messages for the candidate N again, see {@link ResendRequest}*/
+	private void askToResend(Map<ActorRef,Integer> participants, BigInteger N) {
+		participants.keySet().stream()
+		.filter(actor -> !actor.equals(self()))
+		.forEach(actor -> actor.tell(new ResendRequest(N), self()));
+	}
+	
+	/** Sends a message of another party to self once it crossed the simulated network, wrapped in a {@link Delivered}. The
+	 * messages received before the participants are known are held until they are, see {@link #transmitEarlyMessages}.
+	 * @return true if the message is being transmitted, false if it is to be delivered at once*/
+	private boolean transmit(Object message, ProtocolData data) {
+		Map<ActorRef,Integer> participants = data.getParticipants();
+		Integer from = participants.get(sender());
+		if(from == null || sender().equals(self()))
+			return false;
+		
+		long delay = network.transmit(from, participants.get(self()), message);
+		if(delay <= 0) {
+			self().tell(new Delivered(message), sender());
+		} else {
+			context().system().scheduler().scheduleOnce(new FiniteDuration(delay, TimeUnit.NANOSECONDS), self(),
+														new Delivered(message), context().dispatcher(), sender());
+		}
+		return true;
+	}
+	
+	/** Sends the messages of the other parties held until the participants are known to self again, so that they are
+	 * transmitted over the simulated network, and counted, as the later ones*/
+	private void transmitEarlyMessages(ProtocolData data) {
+		data.getEarlyMessages().forEach(early -> self().tell(early.first(), early.second()));
+	}
+	
+	/** @return the first record of the journal of a run with the given participants*/
+	private Started started(Map<ActorRef,Integer> participants) {
+		Map<String,Integer> paths = new HashMap<String,Integer>();
+		participants.forEach((actor, id) -> paths.put(actor.path().toSerializationFormat(), id));
+		return new Started(protocolParams, paths);
+	}
+	
+	/** Journals a message of another party for the biprimality test or the key derivation*/
+	private void journalReceived(Object message, ActorRef sender, ProtocolData data) {
+		if(stateName() == States.INITIALIZATION || stateName() == States.STORING_KEY_SHARE)
+			return;
+		Integer from = data.getParticipants().get(sender);
+		if(from != null)
+			journal(() -> journal.received(from, message));
+	}
+	
+	/** Writes to the journal on the journal dispatcher, after the previous writes, whether they failed or not*/
+	private void journal(JournalWrite write) {
+		ActorRef self = self();
+		journalWrites = journalWrites.thenRunAsync(() -> {
+			try {
+				write.run();
+			} catch (IOException | RuntimeException e) {
+				self.tell(new JournalFailed(e), self);
 			}
+		}, journalExecutor);
+	}
+	
+	/** Takes the next candidate out of the queue that passes the trial division, if any, and tests its biprimality.
+	 * Otherwise loops back to the generation of a new batch.*/
+	private State<States, ProtocolData> testNextCandidate(ProtocolData data) {
+		ProtocolData nextData = data;
+		while(nextData.hasNextCandidate()) {
+			if(nextData.isBatchTested())
+				nextData = startBatch(nextData.withNextBatch());
+			nextData = nextData.withNextCandidate();
+			if(trialDivision == null)
+				return goTo(States.BIPRIMAL_TEST).using(generateAhead(nextData));
 			
-			return stay();
-		}));
+			int smallestFactor = trialDivision.smallestFactor(nextData.N);
+			nextData = nextData.withTrialDivision(smallestFactor);
+			if(smallestFactor == 0)
+				return goTo(States.BIPRIMAL_TEST).using(generateAhead(nextData));
+		}
+		return waitForBatch(nextData);
+	}
+	
+	/** Starts the journal again with a new current batch, the previous ones are not needed anymore. The batches queued after
+	 * it and the ones being generated are journaled with it, as well as the Q<sub>j</sub>'s already received for its
+	 * candidates: the parties that sent them may be done with these candidates, and unable to send them again.*/
+	private ProtocolData startBatch(ProtocolData data) {
+		long firstCandidateId = data.getCandidates().get(0).bgwPrivateParameters.candidateId;
+		journal(() -> {
+			List<Received> early = journaledQjsFrom(firstCandidateId);
+			journal.start(started(data.getParticipants()));
+			journal.checkpoint(new Batch(data.getCandidates()));
+			for(List<CandidateN> batch : data.getQueuedBatches())
+				journal.checkpoint(new Batch(batch));
+			for(int g=0; g < data.batchesGenerating; g++)
+				journal.checkpoint(new Generating());
+			for(Received received : early)
+				journal.received(received.from, received.message);
+		});
+		return data;
+	}
+	
+	/** Reads the Q<sub>j</sub>'s of the given candidate and of the later ones from the journal. Runs on the journal
+	 * dispatcher.
+	 * @return the journaled Q<sub>j</sub>'s, none if the journal cannot be read, since it is started again anyway*/
+	private List<Received> journaledQjsFrom(long firstCandidateId) {
+		try {
+			return journal.read().stream()
+					.filter(record -> record instanceof Received && ((Received) record).message instanceof QiTestBatch
+										&& ((QiTestBatch) ((Received) record).message).candidateId >= firstCandidateId)
+					.map(record -> (Received) record)
+					.collect(Collectors.toList());
+		} catch (IOException e) {
+			return Collections.emptyList();
+		}
+	}
+	
+	/** Goes to the generation of a new batch once there is no candidate left to test, asking for one unless the ones
+	 * generated ahead are still being generated*/
+	private State<States, ProtocolData> waitForBatch(ProtocolData data) {
+		ProtocolData nextData = generateAhead(data);
+		return goTo(firstPhase(protocolParams)).using(nextData.batchesGenerating == 0 ? requestBatch(nextData) : nextData);
+	}
+	
+	/** Asks for new batches until the candidates queued or being generated ahead of the tested one fill the pipeline*/
+	private ProtocolData generateAhead(ProtocolData data) {
+		int pipeline = protocolParams.pipelineDepth*protocolParams.batchSize;
+		ProtocolData nextData = data;
+		while(nextData.candidatesAhead() + nextData.batchesGenerating*protocolParams.batchSize < pipeline)
+			nextData = requestBatch(nextData);
+		return nextData;
+	}
+	
+	/** Asks the sieving, or the BGW without sieving, for a new batch of candidates. The generation of a batch cannot be
+	 * resumed until the batch is received.*/
+	private ProtocolData requestBatch(ProtocolData data) {
+		journal(() -> journal.checkpoint(new Generating()));
+		(protocolParams.isSieving() ? sievingActor : bgwActor).tell(new Participants(data.getParticipants()), self());
+		return data.withBatchRequested();
+	}
+	
+	/** Stops once the key share is written and, for party 1, once all other parties stopped, then shuts the system down if
+	 * it does not run a session*/
+	@SuppressWarnings("deprecation")
+	private State<States, ProtocolData> stopOnceAllWritten(ProtocolData data) {
+		if(!data.keyShareWritten)
+			return stay().using(data);
+		if(data.getParticipants().get(self()) != 1)
+			return stop();
+		if(!data.allOtherParticipantsStopped(self()))
+			return stay().using(data);
 		
+		if(!session)
+			context().system().shutdown();
+		return stop();
+	}
+	
+	/** @return the phase in which a new batch of candidates starts*/
+	private static States firstPhase(ProtocolParameters protocolParams) {
+		return protocolParams.isSieving() ? States.SIEVING : States.BGW;
 	}
 }
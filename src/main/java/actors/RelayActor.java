@@ -0,0 +1,258 @@
+package actors;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import messages.Messages.BGWNPoint;
+import messages.Messages.Broadcast;
+import messages.Messages.Delivered;
+import messages.Messages.Participants;
+import messages.Messages.QiTestBatch;
+import messages.Messages.ResendRequest;
+import messages.Messages.SievingXPoint;
+import messages.Messages.ThetaPoint;
+import messages.Messages.TreeAggregate;
+import messages.Messages.TreeFanout;
+import messages.Messages.VerificationKey;
+import protocol.ProtocolParameters;
+import akka.actor.AbstractLoggingActor;
+import akka.actor.ActorRef;
+import akka.japi.pf.ReceiveBuilder;
+
+/**
+ * Broadcasts the public values of the sub-protocols along a tree, when the protocol parameters set one (see
+ * {@link ProtocolParameters#withBroadcastTree(int)}), so that each party sends a constant number of messages per broadcast
+ * rather than one to each other party.
+ * <p>
+ * The parties are the nodes of a complete tree of the given arity, rooted at party 1, party i having the parties
+ * arity&middot;(i-1)+2 to arity&middot;(i-1)+arity+1 as children. A value to broadcast is sent by the actor of a sub-protocol to
+ * its ProtocolActor in a {@link Broadcast}, which forwards it to the RelayActor of the party. For each broadcast:
+ * <ul><li> each party waits for the {@link TreeAggregate}'s of its children, and sends them to its parent in one
+ * 			 TreeAggregate with its own value,
+ * 		<li> party 1 then has the values of all parties, and sends them to its children in one {@link TreeFanout},
+ * 		<li> each party forwards the TreeFanout to its children, and delivers the values of the other parties to its
+ * 			 ProtocolActor as if they were received from them, in {@link Delivered}'s.
+ * </ul>
+ * The broadcasts are told apart by the type of their values and the candidates they are for, see {@link #broadcastOf(Object)}.
+ * The values of any other type, e.g. complaints, are sent to all the parties at once.
+ * <p>
+ * When a party resumes from its journal, the values it relayed before are lost. On its {@link ResendRequest}, its children
+ * send their pending TreeAggregate's again, and its parent the last TreeFanout's.
+ * <p>
+ * Each party broadcasts its values for the candidates in order, so once a broadcast for some candidates is fanned out, the
+ * broadcasts of the same type for the earlier candidates are over at all parties, and all the broadcasts for candidates
+ * once the key derivation starts. The values collected for them are dropped, as well as the duplicates received once the
+ * TreeAggregate of this party is sent or after their TreeFanout is not kept anymore, which would otherwise be collected
+ * forever.
+ * @author Christian Mouchet
+ */
+public class RelayActor extends AbstractLoggingActor {
+
+	/** The number of TreeFanout's kept to be sent again to a resuming child*/
+	private static final int KEPT_FANOUTS = 8;
+
+	private final ProtocolParameters protocolParameters;
+	private final ActorRef master;
+	private final ActorRef outbox;
+
+	private Map<Integer,ActorRef> parties;
+	private int id;
+	private final List<Object> beforeParticipants = new ArrayList<Object>();
+	private final List<ActorRef> beforeParticipantsSenders = new ArrayList<ActorRef>();
+
+	/** The values received so far for the broadcasts of which the TreeAggregate of this party is not sent yet*/
+	private final Map<String,Map<Integer,Object>> collecting = new HashMap<String,Map<Integer,Object>>();
+	/** The first candidate whose broadcasts of each type of value are not over yet*/
+	private final Map<Class<?>,Long> relayedFrom = new HashMap<Class<?>,Long>();
+	/** The TreeAggregate's sent to the parent, until the TreeFanout of their broadcast comes back*/
+	private final Map<String,TreeAggregate> pending = new LinkedHashMap<String,TreeAggregate>();
+	@SuppressWarnings("serial")
+	private final Map<String,TreeFanout> lastFanouts = new LinkedHashMap<String,TreeFanout>() {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String,TreeFanout> eldest) {
+			return size() > KEPT_FANOUTS;
+		}
+	};
+
+	/** @param protocolParameters the parameters of the protocol, with a broadcast tree
+	 * @param master the ProtocolActor of this party
+	 * @param outbox the outbox through which the messages to the other parties are sent, null to send them at once
+	 */
+	public RelayActor(ProtocolParameters protocolParameters, ActorRef master, ActorRef outbox) {
+		if (!protocolParameters.isBroadcastTree())
+			throw new IllegalArgumentException("The protocol parameters have no broadcast tree");
+		this.protocolParameters = protocolParameters;
+		this.master = master;
+		this.outbox = outbox;
+
+		receive(ReceiveBuilder
+				.match(Participants.class, participants -> {
+					Map<Integer,ActorRef> parties = new HashMap<Integer,ActorRef>();
+					participants.getParticipants().forEach((actor, id) -> parties.put(id, actor));
+					this.parties = parties;
+					this.id = participants.getParticipants().get(master);
+					for (int m=0; m < beforeParticipants.size(); m++)
+						self().tell(beforeParticipants.get(m), beforeParticipantsSenders.get(m));
+					beforeParticipants.clear();
+					beforeParticipantsSenders.clear();
+				})
+				.match(Object.class, message -> parties == null, message -> {
+					beforeParticipants.add(message);
+					beforeParticipantsSenders.add(sender());
+				})
+				.match(Broadcast.class, broadcast -> {
+					String name = broadcastOf(broadcast.message);
+					if (name == null) {
+						parties.values().stream()
+						.filter(party -> !party.equals(master))
+						.forEach(party -> Outbox.send(outbox, party, broadcast.message, master));
+					} else {
+						collect(name, new int[]{id}, new Object[]{broadcast.message});
+					}
+				})
+				.match(TreeAggregate.class, aggregate -> collect(aggregate.broadcast, aggregate.from, aggregate.values))
+				.match(TreeFanout.class, fanout -> {
+					if (lastFanouts.containsKey(fanout.broadcast))
+						return;
+					pending.remove(fanout.broadcast);
+					fanout(fanout);
+				})
+				.match(ResendRequest.class, request -> {
+					Integer from = idOf(sender());
+					if (from == null)
+						return;
+					if (from == parent(id))
+						pending.values().forEach(aggregate -> Outbox.send(outbox, sender(), aggregate, master));
+					else if (from != id && parent(from) == id)
+						lastFanouts.values().forEach(fanout -> Outbox.send(outbox, sender(), fanout, master));
+				})
+				.build());
+	}
+
+	/** @param message a public value of a sub-protocol
+	 * @return the name of the broadcast of this value, the same at all the parties, or null if the value is not broadcast along
+	 * the tree
+	 */
+	public static String broadcastOf(Object message) {
+		if (message instanceof SievingXPoint)
+			return "SievingXPoint"+Arrays.toString(((SievingXPoint) message).candidateIds);
+		if (message instanceof BGWNPoint)
+			return "BGWNPoint"+Arrays.toString(((BGWNPoint) message).candidateIds);
+		if (message instanceof QiTestBatch)
+			return "QiTestBatch["+((QiTestBatch) message).candidateId+"]["+((QiTestBatch) message).exchange+"]";
+		if (message instanceof ThetaPoint || message instanceof VerificationKey)
+			return message.getClass().getSimpleName();
+		return null;
+	}
+
+	/** @param value a public value of a sub-protocol
+	 * @return the first candidate of the broadcast of this value, -1 if it is not for candidates
+	 */
+	private static long firstCandidateOf(Object value) {
+		if (value instanceof SievingXPoint)
+			return ((SievingXPoint) value).candidateIds[0];
+		if (value instanceof BGWNPoint)
+			return ((BGWNPoint) value).candidateIds[0];
+		if (value instanceof QiTestBatch)
+			return ((QiTestBatch) value).candidateId;
+		return -1;
+	}
+
+	/** @return true if the broadcast of this value is over at all parties, see {@link RelayActor}*/
+	private boolean isOver(Object value) {
+		Long from = relayedFrom.get(value.getClass());
+		long candidate = firstCandidateOf(value);
+		return from != null && candidate >= 0 && candidate < from;
+	}
+
+	/** Drops the values collected for the broadcasts that are over once the broadcast of this value is fanned out*/
+	private void prune(Object value) {
+		long candidate = firstCandidateOf(value);
+		if (candidate < 0) {
+			for (Class<?> type : new Class<?>[]{SievingXPoint.class, BGWNPoint.class, QiTestBatch.class})
+				relayedFrom.put(type, Long.MAX_VALUE);
+		} else {
+			relayedFrom.merge(value.getClass(), candidate, Math::max);
+		}
+		collecting.values().removeIf(collected -> isOver(collected.values().iterator().next()));
+	}
+
+	/** Adds values to a broadcast, and sends them up the tree once the values of all the subtree of this party are there*/
+	private void collect(String broadcast, int[] from, Object[] values) {
+		if (lastFanouts.containsKey(broadcast) || pending.containsKey(broadcast) || values.length == 0 || isOver(values[0])) {
+			log().debug("Dropped late values of the broadcast {}", broadcast);
+			return;
+		}
+		Map<Integer,Object> collected = collecting.computeIfAbsent(broadcast, name -> new HashMap<Integer,Object>());
+		for (int v=0; v < from.length; v++)
+			collected.put(from[v], values[v]);
+		if (collected.size() < subtreeSize(id))
+			return;
+
+		collecting.remove(broadcast);
+		int[] ids = new int[collected.size()];
+		Object[] collectedValues = new Object[collected.size()];
+		int v = 0;
+		for (Map.Entry<Integer,Object> value : collected.entrySet()) {
+			ids[v] = value.getKey();
+			collectedValues[v++] = value.getValue();
+		}
+
+		if (id == 1) {
+			fanout(new TreeFanout(broadcast, ids, collectedValues));
+		} else {
+			TreeAggregate aggregate = new TreeAggregate(broadcast, ids, collectedValues);
+			pending.put(broadcast, aggregate);
+			Outbox.send(outbox, parties.get(parent(id)), aggregate, master);
+		}
+	}
+
+	/** Sends the values of all parties down the tree, and delivers the ones of the other parties to the ProtocolActor*/
+	private void fanout(TreeFanout fanout) {
+		lastFanouts.put(fanout.broadcast, fanout);
+		if (fanout.values.length > 0)
+			prune(fanout.values[0]);
+		for (int child : children(id))
+			Outbox.send(outbox, parties.get(child), fanout, master);
+		for (int v=0; v < fanout.from.length; v++) {
+			if (fanout.from[v] != id)
+				master.tell(new Delivered(fanout.values[v]), parties.get(fanout.from[v]));
+		}
+	}
+
+	private Integer idOf(ActorRef party) {
+		for (Map.Entry<Integer,ActorRef> e : parties.entrySet()) {
+			if (e.getValue().equals(party))
+				return e.getKey();
+		}
+		return null;
+	}
+
+	/** @return the parent of party i in the tree, 0 for party 1*/
+	private int parent(int i) {
+		return i == 1 ? 0 : (i-2)/protocolParameters.broadcastArity + 1;
+	}
+
+	/** @return the children of party i in the tree*/
+	private int[] children(int i) {
+		int arity = protocolParameters.broadcastArity;
+		int first = arity*(i-1) + 2;
+		int last = Math.min(protocolParameters.n, first + arity - 1);
+		int[] children = new int[Math.max(0, last - first + 1)];
+		for (int c=0; c < children.length; c++)
+			children[c] = first + c;
+		return children;
+	}
+
+	/** @return the number of parties in the subtree of party i, itself included*/
+	private int subtreeSize(int i) {
+		int size = 1;
+		for (int child : children(i))
+			size += subtreeSize(child);
+		return size;
+	}
+}
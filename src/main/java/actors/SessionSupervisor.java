@@ -0,0 +1,151 @@
+package actors;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+
+import messages.Messages.Participants;
+import messages.Messages.SessionEnded;
+import messages.Messages.SessionJoined;
+import protocol.KeyShareStore;
+import protocol.ProtocolParameters;
+import akka.actor.AbstractLoggingActor;
+import akka.actor.ActorRef;
+import akka.actor.OneForOneStrategy;
+import akka.actor.Props;
+import akka.actor.SupervisorStrategy;
+import akka.actor.Terminated;
+import akka.japi.pf.DeciderBuilder;
+import akka.japi.pf.ReceiveBuilder;
+import scala.concurrent.duration.Duration;
+
+/**
+ * Runs many sessions of the protocol for a party, so that one set of parties generates many keys in parallel. Each session
+ * is run by its own {@link ProtocolActor} child, with its own sub-protocol actors, and the parties' actors of a session
+ * exchange their messages directly. At most a given number of sessions run at once, the others wait for a running one to end.
+ * <p>
+ * A session is started by sending {@link Participants} with the session id and the supervisors of all parties to each
+ * supervisor. The supervisors then exchange the actors running the session with {@link SessionJoined}, and give them the
+ * Participants of the session once they know all of them. When the session ends, its sender is told {@link SessionEnded}.
+ * The key share of a session is written in the {@link KeyShareStore#forSession(long) store of the session}, named after the
+ * supervisor.
+ * <p>
+ * Sessions are started in the order in which their Participants are received, so all supervisors must receive them in the
+ * same order, e.g. from a single sender. Otherwise the parties could each wait for a session that the others did not start.
+ * A session that fails is restarted, and resumes from its journal as a {@link ProtocolActor} does, at most
+ * {@link #MAX_RESTARTS} times. It is then stopped and reported as ended.
+ * @author Christian Mouchet
+ */
+public class SessionSupervisor extends AbstractLoggingActor {
+
+	/** The maximum number of times a session is restarted before it is stopped*/
+	public static final int MAX_RESTARTS = 3;
+
+	private static final SupervisorStrategy RESTART = new OneForOneStrategy(MAX_RESTARTS, Duration.Inf(),
+			DeciderBuilder.matchAny(e -> SupervisorStrategy.restart()).build());
+
+	/** The state of a session at this party*/
+	private static class Session {
+		/** The supervisors of the session, null until this supervisor is asked to run it*/
+		private Map<ActorRef,Integer> supervisors;
+		/** The sender of the Participants of the session*/
+		private ActorRef requester;
+		/** The actor running the session for this party, null until the session starts*/
+		private ActorRef actor;
+		/** The actors running the session for the parties that joined it so far*/
+		private final Map<ActorRef,Integer> actors = new HashMap<ActorRef,Integer>();
+	}
+
+	private final ProtocolParameters protocolParams;
+	private final int maxSessions;
+	private final KeyShareStore keyShareStore;
+
+	private final Map<Long,Session> sessions = new HashMap<Long,Session>();
+	private final Map<ActorRef,Long> running = new HashMap<ActorRef,Long>();
+	private final Queue<Long> waiting = new ArrayDeque<Long>();
+
+	/** Constructor of a supervisor running as many sessions at once as there are processors, writing the key shares in the
+	 * default {@link KeyShareStore}.
+	 * @param protocolParams the public parameters on which the parties agreed
+	 */
+	public SessionSupervisor(ProtocolParameters protocolParams) {
+		this(protocolParams, Runtime.getRuntime().availableProcessors(), KeyShareStore.getDefault());
+	}
+
+	/** @param protocolParams the public parameters on which the parties agreed
+	 * @param maxSessions the maximum number of sessions running at once
+	 * @param keyShareStore the store in which the key shares are written
+	 */
+	public SessionSupervisor(ProtocolParameters protocolParams, int maxSessions, KeyShareStore keyShareStore) {
+		if (maxSessions < 1)
+			throw new IllegalArgumentException("maxSessions should be at least 1");
+		this.protocolParams = protocolParams;
+		this.maxSessions = maxSessions;
+		this.keyShareStore = keyShareStore;
+
+		receive(ReceiveBuilder
+				.match(Participants.class, participants -> {
+					Session session = sessions.computeIfAbsent(participants.sessionId, id -> new Session());
+					if (session.supervisors != null) {
+						log().warning("Session {} was already requested", participants.sessionId);
+						return;
+					}
+					session.supervisors = participants.getParticipants();
+					session.requester = sender();
+					if (running.size() < maxSessions)
+						start(participants.sessionId);
+					else
+						waiting.add(participants.sessionId);
+				})
+				.match(SessionJoined.class, joined -> {
+					Session session = sessions.computeIfAbsent(joined.sessionId, id -> new Session());
+					session.actors.put(joined.session, joined.id);
+					startIfAllJoined(joined.sessionId);
+				})
+				.match(Terminated.class, terminated -> running.containsKey(terminated.actor()), terminated -> {
+					long sessionId = running.remove(terminated.actor());
+					Session session = sessions.remove(sessionId);
+					session.requester.tell(new SessionEnded(sessionId), self());
+					while (running.size() < maxSessions && !waiting.isEmpty())
+						start(waiting.poll());
+				})
+				.build());
+	}
+
+	/** Sessions that fail are restarted, so that they resume from their journal, unless they failed too many times*/
+	@Override
+	public SupervisorStrategy supervisorStrategy() {
+		return RESTART;
+	}
+
+	/** @return the number of sessions running at once*/
+	public int getMaxSessions() {
+		return maxSessions;
+	}
+
+	/** Creates the actor running a session for this party and announces it to the other parties*/
+	private void start(long sessionId) {
+		Session session = sessions.get(sessionId);
+		int self = session.supervisors.get(self());
+		KeyShareStore sessionStore = keyShareStore.forSession(sessionId);
+		session.actor = context().actorOf(Props.create(ProtocolActor.class, protocolParams, sessionStore, self().path().name(),
+																	true, null), "session-"+sessionId);
+		context().watch(session.actor);
+		running.put(session.actor, sessionId);
+
+		SessionJoined joined = new SessionJoined(sessionId, self, session.actor);
+		session.supervisors.keySet().stream()
+		.filter(supervisor -> !supervisor.equals(self()))
+		.forEach(supervisor -> supervisor.tell(joined, self()));
+		session.actors.put(session.actor, self);
+		startIfAllJoined(sessionId);
+	}
+
+	/** Gives the actor running the session its participants once they all joined*/
+	private void startIfAllJoined(long sessionId) {
+		Session session = sessions.get(sessionId);
+		if (session.actor != null && session.actors.size() == session.supervisors.size())
+			session.actor.tell(new Participants(session.actors, sessionId), self());
+	}
+}
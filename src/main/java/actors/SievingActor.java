@@ -0,0 +1,249 @@
+package actors;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import math.IntegersUtils;
+import math.PolynomialMod;
+import messages.Messages.Broadcast;
+import messages.Messages.CandidatesFrom;
+import messages.Messages.Participants;
+import messages.Messages.SievedContributions;
+import messages.Messages.SievingProductPoint;
+import messages.Messages.SievingXPoint;
+import protocol.ProtocolParameters;
+import protocol.SievingParameters;
+import protocol.SievingParameters.SievingPrivateParameters;
+import protocol.SievingParameters.SievingPublicParameters;
+import actordata.SievingData;
+import actors.SievingActor.States;
+import akka.actor.ActorRef;
+
+/**
+ * Encodes the distributed sieving of the contributions to p and q done before each BGW round, so that p and q have no
+ * prime factor smaller than the sieving bound. Based on the paper <i>Efficient generation of shared RSA keys</i> by
+ * Boneh D., Franklin M. See {@link SievingParameters} for the details.
+ * <p> The product of the t+1 shared factors is computed along a binary tree, one BGW multiplication with degree reduction
+ * per level, so that the sieving takes &lceil;log<sub>2</sub>(t+1)&rceil;+2 rounds.
+ * @author Christian Mouchet
+ */
+public class SievingActor extends StashingFSM<States, SievingData> {
+
+	public enum States {INITIALIZATION,
+						SIEVING_COLLECTING_SHARES,
+						SIEVING_COLLECTING_PRODUCTS,
+						SIEVING_COLLECTING_X};
+
+	private final SecureRandom sr;
+	private final ProtocolParameters protocolParameters;
+	private final ActorRef master;
+	private final ActorRef outbox;
+
+	/** Standalone actor constructor, when this actor is has no master actor
+	 * @param protocolParam the pre-agreed public parameters of the protocol
+	 */
+	public SievingActor(ProtocolParameters protocolParam) {
+		this(protocolParam, null);
+	}
+
+	/** Subordinate constructor, when this actor is executed as a part of a bigger FSM. When
+	 *  a master is given, all messages sent by this actor have <code>sender=master</code>.
+	 * @param protocolParam the pre-agreed public parameters of the protocol
+	 * @param master the ActorRef of the master that executes this actor as a sub-protocol
+	 */
+	public SievingActor(ProtocolParameters protocolParam, ActorRef master) {
+		this(protocolParam, master, null);
+	}
+	
+	/** Subordinate constructor, when this actor is executed as a part of a bigger FSM. When
+	 *  a master is given, all messages sent by this actor have <code>sender=master</code>.
+	 * @param protocolParam the pre-agreed public parameters of the protocol
+	 * @param master the ActorRef of the master that executes this actor as a sub-protocol
+	 * @param outbox the outbox through which the messages to the other parties are sent, null to send them at once
+	 */
+	public SievingActor(ProtocolParameters protocolParam, ActorRef master, ActorRef outbox) {
+		super(protocolParam.n);
+		this.protocolParameters = protocolParam;
+		this.sr = protocolParam.newRandom(self().path().toStringWithoutAddress());
+		this.master = master != null ? master : self();
+		this.outbox = outbox;
+
+		startWith(States.INITIALIZATION, SievingData.init());
+
+		when(States.INITIALIZATION, matchEvent(Participants.class,
+				(participants,data) -> {
+
+					// Picks the factors a_i and masks rho_i of a new batch and sends each party j its shares
+					Map<ActorRef,Integer> actors = participants.getParticipants();
+					int self = actors.get(this.master);
+					SievingPrivateParameters sievingPrivateParameters = SievingPrivateParameters.genFor(self,
+																										data.nextCandidateId,
+																										protocolParameters,
+																										sr);
+					SievingPublicParameters[] shares = SievingPublicParameters.genForAll(sievingPrivateParameters);
+					actors.entrySet().stream()
+					.filter(e -> !e.getKey().equals(this.master))
+					.forEach(e -> Outbox.send(outbox, e.getKey(), shares[e.getValue()-1], this.master));
+
+					SievingData nextStateData = data.withPrivateParameters(sievingPrivateParameters)
+											.withNewShare(shares[self-1], self)
+											.withParticipants(actors);
+
+					return goTo(States.SIEVING_COLLECTING_SHARES).using(nextStateData);
+				}).event(CandidatesFrom.class,
+				(from, data) -> stay().using(data.withNextCandidateId(from.firstCandidateId))));
+
+		when(States.SIEVING_COLLECTING_SHARES, matchEvent(SievingPublicParameters.class,
+				(newShare, data) -> data.isCurrentBatch(newShare.candidateIds),
+				(newShare, data) -> {
+
+					// Collect the shares of the a_j's and rho_j's, then starts multiplying the a_j's
+					Map<ActorRef,Integer> actors = data.getParticipants();
+					SievingData dataWithNewShare = data.withNewShare(newShare, actors.get(sender()));
+					if(!dataWithNewShare.hasAllShares())
+						return stay().using(dataWithNewShare);
+
+					BigInteger[][] factors = new BigInteger[SievingParameters.contributors(protocolParameters)][];
+					for (int j=1; j <= factors.length; j++)
+						factors[j-1] = dataWithNewShare.shareOf(j).aij;
+
+					return multiply(dataWithNewShare, 0, factors);
+				}));
+
+		onTransition((from, to) -> {
+
+			// Reshare the local products of the new level
+			if (to == States.SIEVING_COLLECTING_PRODUCTS) {
+				Map<ActorRef, Integer> actors = nextStateData().getParticipants();
+				SievingData data = nextStateData();
+				actors.entrySet().stream()
+				.filter(e -> !e.getKey().equals(this.master))
+				.forEach(e -> Outbox.send(outbox, e.getKey(), new SievingProductPoint(data.sievingPrivateParameters.candidateIds,
+																	data.level,
+																	evalResharings(data.resharings, e.getValue())), this.master));
+			}
+
+			// Publish its shares of x
+			if (to == States.SIEVING_COLLECTING_X) {
+				Map<ActorRef, Integer> actors = nextStateData().getParticipants();
+				broadCast(new SievingXPoint(nextStateData().sievingPrivateParameters.candidateIds,
+											nextStateData().xs.get(actors.get(this.master))), actors.keySet());
+			}
+		});
+
+		when(States.SIEVING_COLLECTING_PRODUCTS, matchEvent(SievingProductPoint.class,
+				(newReshare, data) -> data.isCurrentBatch(newReshare.candidateIds) && newReshare.level == data.level,
+				(newReshare, data) -> {
+
+					// Collect the reshared products and reduce their degree to t
+					Map<ActorRef,Integer> actors = data.getParticipants();
+					SievingData dataWithNewReshare = data.withNewReshare(newReshare.points, actors.get(sender()));
+					if(!dataWithNewReshare.hasAllReshares())
+						return stay().using(dataWithNewReshare);
+
+					BigInteger[][] products = SievingParameters.reduceProducts(dataWithNewReshare.reshares.toMap(), protocolParameters.P);
+					BigInteger[][] factors = new BigInteger[(data.factors.length+1)/2][];
+					System.arraycopy(products, 0, factors, 0, products.length);
+					if (data.factors.length % 2 == 1)
+						factors[factors.length-1] = data.factors[data.factors.length-1];
+
+					return multiply(dataWithNewReshare, data.level+1, factors);
+				}));
+
+		when(States.SIEVING_COLLECTING_X, matchEvent(SievingXPoint.class,
+				(newX, data) -> data.isCurrentBatch(newX.candidateIds),
+				(newX, data) -> {
+
+					// Collect the shares of x, interpolate it and derive the contributions
+					Map<ActorRef,Integer> actors = data.getParticipants();
+					SievingData dataWithNewX = data.withNewX(newX.points, actors.get(sender()));
+					if(!dataWithNewX.hasAllXs())
+						return stay().using(dataWithNewX);
+
+					int self = actors.get(this.master);
+					SievingPrivateParameters sievingPrivateParameters = data.sievingPrivateParameters;
+					BigInteger[] contributions = new BigInteger[sievingPrivateParameters.rhoi.length];
+					BigInteger[][] xjs = dataWithNewX.xs.toArray(BigInteger[][]::new);
+					for (int v=0; v < contributions.length; v++) {
+						List<BigInteger> xvs = new ArrayList<BigInteger>(xjs.length);
+						for (BigInteger[] xj : xjs)
+							xvs.add(xj[v]);
+						BigInteger x = IntegersUtils.getIntercept(xvs, protocolParameters.P);
+						BigInteger s = (self == 1 ? x : BigInteger.ZERO).subtract(sievingPrivateParameters.rhoi[v]);
+						contributions[v] = SievingParameters.contributionFor(self, s, protocolParameters, sr);
+					}
+
+					BigInteger[] pis = new BigInteger[contributions.length/2];
+					BigInteger[] qis = new BigInteger[contributions.length/2];
+					for (int b=0; b < pis.length; b++) {
+						pis[b] = contributions[2*b];
+						qis[b] = contributions[2*b+1];
+					}
+
+					if(this.master != self())
+						this.master.tell(new SievedContributions(actors, sievingPrivateParameters.candidateIds, pis, qis), self());
+
+					return goTo(States.INITIALIZATION).using(data.forNextBatch());
+				}));
+
+	}
+
+	/** Drops the shares of the batches already sieved, and the reshares of the levels of the product tree already reduced*/
+	@Override
+	protected boolean isStale(Object event, SievingData data) {
+		if (event instanceof SievingPublicParameters)
+			return data.isPastBatch(((SievingPublicParameters) event).candidateIds);
+		if (event instanceof SievingProductPoint) {
+			SievingProductPoint reshare = (SievingProductPoint) event;
+			return data.isPastBatch(reshare.candidateIds)
+					|| data.isCurrentBatch(reshare.candidateIds) && (stateName() == States.SIEVING_COLLECTING_X
+																	|| stateName() == States.SIEVING_COLLECTING_PRODUCTS && reshare.level < data.level);
+		}
+		if (event instanceof SievingXPoint)
+			return data.isPastBatch(((SievingXPoint) event).candidateIds);
+		return false;
+	}
+
+	/** Multiplies the factors of a level pairwise, or masks the product once a single factor remains*/
+	private State<States, SievingData> multiply(SievingData data, int level, BigInteger[][] factors) {
+		int self = data.getParticipants().get(this.master);
+
+		if (factors.length == 1) {
+			BigInteger[] x = new BigInteger[factors[0].length];
+			for (int v=0; v < x.length; v++)
+				x[v] = factors[0][v].add(data.rhoShares[v]).mod(protocolParameters.P);
+			return goTo(States.SIEVING_COLLECTING_X).using(data.withNewX(x, self));
+		}
+
+		BigInteger[][] products = SievingParameters.localProducts(factors, protocolParameters.P);
+		PolynomialMod[][] resharings = new PolynomialMod[products.length][];
+		for (int m=0; m < products.length; m++) {
+			resharings[m] = new PolynomialMod[products[m].length];
+			for (int v=0; v < products[m].length; v++)
+				resharings[m][v] = new PolynomialMod(protocolParameters.t, protocolParameters.P, products[m][v], protocolParameters.k, sr);
+		}
+		return goTo(States.SIEVING_COLLECTING_PRODUCTS).using(data.withLevel(level, factors, resharings)
+																.withNewReshare(evalResharings(resharings, self), self));
+	}
+
+	private static BigInteger[][] evalResharings(PolynomialMod[][] resharings, int j) {
+		BigInteger[][] points = new BigInteger[resharings.length][];
+		for (int m=0; m < resharings.length; m++) {
+			points[m] = new BigInteger[resharings[m].length];
+			for (int v=0; v < resharings[m].length; v++)
+				points[m][v] = resharings[m][v].eval(j);
+		}
+		return points;
+	}
+
+	private void broadCast(Object o, Set<ActorRef> targets) {
+		if (protocolParameters.isBroadcastTree())
+			this.master.tell(new Broadcast(o), self());
+		else
+			targets.stream().forEach(actor -> {if (!actor.equals(this.master)) Outbox.send(outbox, actor, o, this.master);});
+	}
+}
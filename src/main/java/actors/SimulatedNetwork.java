@@ -0,0 +1,331 @@
+package actors;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigInteger;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+/**
+ * Simulates the network between the parties of the protocol when they all run in one actor system, so that the behavior of
+ * the protocol across data centers can be predicted on one machine. A {@link ProtocolActor} given a simulated network
+ * delivers the messages of the other parties to its children only once they would have crossed the link between the two
+ * parties:
+ * <ul><li> a message is first transmitted at the bandwidth of the link, after the messages sent before on the same link,
+ * 		<li> then arrives after the latency of the link, plus a uniform jitter,
+ * 		<li> and is delivered after the messages sent before on the same link, as with TCP, unless it is reordered. A reordered
+ * 			 message is delayed by up to one more latency and may overtake or be overtaken by the others.
+ * </ul>
+ * The size of a message is estimated from its public fields, see {@link #sizeOf(Object)}, and the number of messages and
+ * bytes sent and received by each party are counted.
+ * <p>
+ * The network is described by a configuration such as:
+ * <pre>
+ * seed = 1
+ * default { latency = 1ms, jitter = 200us, bandwidth = 1G, reorder = 0 }
+ * datacenters = [ "1-10", "11-20" ]
+ * between-datacenters { latency = 40ms, jitter = 5ms, bandwidth = 12M }
+ * links = [ { between = [3, 14], latency = 120ms } ]
+ * </pre>
+ * The bandwidth is in bytes per second, 0 for unlimited, and the reorder setting is the probability of a message to be
+ * reordered. The links within a data center have the <code>default</code> conditions, and the links between two data centers
+ * the <code>between-datacenters</code> ones. The <code>links</code> override the conditions of the links between some parties,
+ * in both directions. Omitted settings are taken from the <code>default</code> conditions, and all are optional.
+ * <p>
+ * The delays are counted from the reception of the message by the actor and are applied with the scheduler of the actor
+ * system, whose <code>akka.scheduler.tick-duration</code> should thus be well below the simulated latencies.
+ * @author Christian Mouchet
+ */
+public class SimulatedNetwork {
+
+	/**
+	 * The conditions of a link between two parties
+	 */
+	public static class Link {
+		/** The one-way latency of the link, in nanoseconds*/
+		public final long latency;
+		/** The maximal jitter added to the latency, in nanoseconds*/
+		public final long jitter;
+		/** The bandwidth of the link in bytes per second, 0 for unlimited*/
+		public final long bandwidth;
+		/** The probability of a message to be reordered*/
+		public final double reorder;
+
+		public Link(long latency, long jitter, long bandwidth, double reorder) {
+			if(latency < 0 || jitter < 0 || bandwidth < 0 || reorder < 0 || reorder > 1)
+				throw new IllegalArgumentException("Invalid link conditions");
+			this.latency = latency;
+			this.jitter = jitter;
+			this.bandwidth = bandwidth;
+			this.reorder = reorder;
+		}
+
+		/** @param config the settings of the link
+		 * @param fallback the conditions of the omitted settings
+		 * @return the conditions of the link*/
+		public static Link of(Config config, Link fallback) {
+			return new Link(config.hasPath("latency") ? config.getDuration("latency", TimeUnit.NANOSECONDS) : fallback.latency,
+							config.hasPath("jitter") ? config.getDuration("jitter", TimeUnit.NANOSECONDS) : fallback.jitter,
+							config.hasPath("bandwidth") ? config.getBytes("bandwidth") : fallback.bandwidth,
+							config.hasPath("reorder") ? config.getDouble("reorder") : fallback.reorder);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("Link(latency=%.3fms, jitter=%.3fms, bandwidth=%d B/s, reorder=%.3f)",
+									latency/1e6, jitter/1e6, bandwidth, reorder);
+		}
+	}
+
+	/** A link without latency nor bandwidth limit*/
+	public static final Link PERFECT = new Link(0, 0, 0, 0);
+
+	/** The number of parties*/
+	public final int n;
+
+	// All indexed from 1. The state of the links to party j is only accessed by the actor of party j.
+	private final Link[][] links;
+	private final long[][] transmittedUntil;
+	private final long[][] deliveredUntil;
+	private final Random[] rands;
+	private final LongAdder[] messagesSent;
+	private final LongAdder[] bytesSent;
+	private final LongAdder[] bytesReceived;
+
+	private SimulatedNetwork(Link[][] links, long seed) {
+		this.n = links.length-1;
+		this.links = links;
+		this.transmittedUntil = new long[n+1][n+1];
+		this.deliveredUntil = new long[n+1][n+1];
+		this.rands = new Random[n+1];
+		this.messagesSent = new LongAdder[n+1];
+		this.bytesSent = new LongAdder[n+1];
+		this.bytesReceived = new LongAdder[n+1];
+		for(int i=1; i <= n; i++) {
+			rands[i] = new Random(seed*31 + i);
+			messagesSent[i] = new LongAdder();
+			bytesSent[i] = new LongAdder();
+			bytesReceived[i] = new LongAdder();
+		}
+	}
+
+	/** @param n the number of parties
+	 * @param link the conditions of all the links
+	 * @param seed the seed of the jitter and reordering
+	 * @return a network in which all links have the same conditions*/
+	public static SimulatedNetwork uniform(int n, Link link, long seed) {
+		Link[][] links = new Link[n+1][n+1];
+		for(int i=1; i <= n; i++)
+			for(int j=1; j <= n; j++)
+				links[i][j] = link;
+		return new SimulatedNetwork(links, seed);
+	}
+
+	/** @param config the description of the network, see {@link SimulatedNetwork}
+	 * @param n the number of parties
+	 * @return the described network*/
+	public static SimulatedNetwork of(Config config, int n) {
+		Link local = config.hasPath("default") ? Link.of(config.getConfig("default"), PERFECT) : PERFECT;
+		Link remote = config.hasPath("between-datacenters") ? Link.of(config.getConfig("between-datacenters"), local) : local;
+
+		int[] datacenter = new int[n+1];
+		if(config.hasPath("datacenters")) {
+			List<? extends Object> datacenters = config.getAnyRefList("datacenters");
+			for(int d=0; d < datacenters.size(); d++) {
+				for(int i : parties(datacenters.get(d), n))
+					datacenter[i] = d+1;
+			}
+		}
+
+		Link[][] links = new Link[n+1][n+1];
+		for(int i=1; i <= n; i++)
+			for(int j=1; j <= n; j++)
+				links[i][j] = datacenter[i] == datacenter[j] ? local : remote;
+
+		if(config.hasPath("links")) {
+			for(Config link : config.getConfigList("links")) {
+				List<Integer> between = link.getIntList("between");
+				if(between.size() != 2)
+					throw new IllegalArgumentException("A link is between two parties: "+between);
+				int i = party(between.get(0), n);
+				int j = party(between.get(1), n);
+				links[i][j] = links[j][i] = Link.of(link, links[i][j]);
+			}
+		}
+
+		return new SimulatedNetwork(links, config.hasPath("seed") ? config.getLong("seed") : 0);
+	}
+
+	/** @param file a configuration file describing the network, see {@link SimulatedNetwork}
+	 * @param n the number of parties
+	 * @return the described network*/
+	public static SimulatedNetwork load(File file, int n) {
+		return of(ConfigFactory.parseFile(file).resolve(), n);
+	}
+
+	/** @param from the id of the sending party
+	 * @param to the id of the receiving party
+	 * @return the conditions of the link between the two parties*/
+	public Link link(int from, int to) {
+		return links[party(from, n)][party(to, n)];
+	}
+
+	/** Transmits a message over a link, counting it. Only called by the actor of the receiving party.
+	 * @param from the id of the sending party
+	 * @param to the id of the receiving party
+	 * @param message the message
+	 * @return the delay after which the message is delivered, in nanoseconds from now
+	 */
+	long transmit(int from, int to, Object message) {
+		long size = sizeOf(message);
+		messagesSent[from].increment();
+		bytesSent[from].add(size);
+		bytesReceived[to].add(size);
+
+		Link link = links[from][to];
+		long now = System.nanoTime();
+		long transmitted = now;
+		if(link.bandwidth != 0) {
+			transmitted = Math.max(now, transmittedUntil[from][to]) + size * 1_000_000_000L / link.bandwidth;
+			transmittedUntil[from][to] = transmitted;
+		}
+
+		Random rand = rands[to];
+		long arrival = transmitted + link.latency + (link.jitter != 0 ? (long) (rand.nextDouble() * link.jitter) : 0);
+		if(link.reorder != 0 && rand.nextDouble() < link.reorder) {
+			arrival += (long) (rand.nextDouble() * link.latency);
+		} else {
+			arrival = Math.max(arrival, deliveredUntil[from][to]);
+			deliveredUntil[from][to] = arrival;
+		}
+		return arrival - now;
+	}
+
+	/** @param i the id of a party
+	 * @return the number of messages party i sent to the other parties*/
+	public long messagesSent(int i) {
+		return messagesSent[party(i, n)].sum();
+	}
+
+	/** @param i the id of a party
+	 * @return the number of bytes party i sent to the other parties*/
+	public long bytesSent(int i) {
+		return bytesSent[party(i, n)].sum();
+	}
+
+	/** @param i the id of a party
+	 * @return the number of bytes party i received from the other parties*/
+	public long bytesReceived(int i) {
+		return bytesReceived[party(i, n)].sum();
+	}
+
+	/** @return the number of bytes sent by all the parties*/
+	public long totalBytes() {
+		long total = 0;
+		for(int i=1; i <= n; i++)
+			total += bytesSent[i].sum();
+		return total;
+	}
+
+	/** @return the number of messages sent by all the parties*/
+	public long totalMessages() {
+		long total = 0;
+		for(int i=1; i <= n; i++)
+			total += messagesSent[i].sum();
+		return total;
+	}
+
+	/** Estimates the size of a message on the wire, as the size of its public fields encoded without any overhead: 4 bytes
+	 * per int, 8 per long and double, the length and the two's complement bytes of a BigInteger, and the length and elements of
+	 * the arrays, collections and maps. The public fields of the other objects are counted recursively.
+	 * @param message a message exchanged by the parties
+	 * @return the estimated size of the message in bytes
+	 */
+	public static long sizeOf(Object message) {
+		if(message == null)
+			return 1;
+		if(message instanceof BigInteger)
+			return 4 + ((BigInteger) message).bitLength()/8 + 1;
+		if(message instanceof Integer || message instanceof Float)
+			return 4;
+		if(message instanceof Long || message instanceof Double)
+			return 8;
+		if(message instanceof Number || message instanceof Boolean || message instanceof Character || message instanceof Enum)
+			return 2;
+		if(message instanceof String)
+			return 4 + ((String) message).length();
+		if(message instanceof int[])
+			return 4 + 4*((int[]) message).length;
+		if(message instanceof long[])
+			return 4 + 8*((long[]) message).length;
+		if(message instanceof byte[])
+			return 4 + ((byte[]) message).length;
+		if(message instanceof Object[]) {
+			long size = 4;
+			for(Object element : (Object[]) message)
+				size += sizeOf(element);
+			return size;
+		}
+		if(message instanceof Collection) {
+			long size = 4;
+			for(Object element : (Collection<?>) message)
+				size += sizeOf(element);
+			return size;
+		}
+		if(message instanceof Map) {
+			long size = 4;
+			for(Map.Entry<?,?> entry : ((Map<?,?>) message).entrySet())
+				size += sizeOf(entry.getKey()) + sizeOf(entry.getValue());
+			return size;
+		}
+
+		long size = 0;
+		for(Field field : message.getClass().getFields()) {
+			if(Modifier.isStatic(field.getModifiers()))
+				continue;
+			try {
+				size += field.getType().isPrimitive() ? primitiveSize(field.getType()) : sizeOf(field.get(message));
+			} catch (IllegalAccessException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+		return size;
+	}
+
+	private static long primitiveSize(Class<?> type) {
+		if(type == int.class || type == float.class)
+			return 4;
+		if(type == long.class || type == double.class)
+			return 8;
+		return type == byte.class || type == boolean.class ? 1 : 2;
+	}
+
+	/** @return the ids of the parties described by a number or a range "i-j"*/
+	private static int[] parties(Object description, int n) {
+		if(description instanceof Number)
+			return new int[]{party(((Number) description).intValue(), n)};
+		String[] range = description.toString().trim().split("-");
+		if(range.length != 2)
+			throw new IllegalArgumentException("Not a party nor a range of parties: "+description);
+		int first = party(Integer.parseInt(range[0].trim()), n);
+		int last = party(Integer.parseInt(range[1].trim()), n);
+		int[] parties = new int[Math.max(0, last-first+1)];
+		for(int i=first; i <= last; i++)
+			parties[i-first] = i;
+		return parties;
+	}
+
+	private static int party(int i, int n) {
+		if(i < 1 || i > n)
+			throw new IllegalArgumentException("No party "+i+" in a network of "+n+" parties");
+		return i;
+	}
+}
@@ -0,0 +1,107 @@
+package actors;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import akka.actor.AbstractFSMWithStash;
+import akka.actor.Status;
+
+/**
+ * Super-type of the actors implementing the sub-protocols. A message that cannot be handled in the current state, typically
+ * because it was sent by a faster party that already moved to a later phase or round, is deferred: it is stashed and
+ * unstashed on the next transition, including the transitions from one round to the next. The actor thus does not process
+ * it again until its state changed, unlike sending it back to its own mailbox. A message for a batch, candidate or round the
+ * actor is already past is dropped instead, see {@link #isStale(Object, Object)}, since no later state would handle it.
+ * <p>
+ * The number of messages deferred at once is bounded by {@link #MAX_DEFERRED_PER_PARTY} per party, since parties cannot get
+ * more than a few rounds ahead of the others. The actor stops with a failure if the bound is exceeded. The number of deferred
+ * messages per state, each counted once however many transitions it is deferred over, is logged at debug level when the
+ * actor stops.
+ * <p>
+ * The actor stops with a failure as well on a {@link Status.Failure}, the result of a computation of the
+ * {@link ComputeDispatcher} that threw.
+ * @author Christian Mouchet
+ */
+public abstract class StashingFSM<S, D> extends AbstractFSMWithStash<S, D> {
+
+	/** The maximum number of messages from each party that can be deferred at once*/
+	public static final int MAX_DEFERRED_PER_PARTY = 16;
+
+	private final int capacity;
+	private int stashed = 0;
+	private final Map<S, Long> deferred = new HashMap<S, Long>();
+	private Set<Object> deferredNow = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+	private Set<Object> deferredBefore = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+
+	/** Sets the deferring of unhandled messages up. The subclasses must not define their own <code>whenUnhandled</code> handler.
+	 * @param parties the number of parties in the protocol
+	 */
+	protected StashingFSM(int parties) {
+		this.capacity = MAX_DEFERRED_PER_PARTY * parties;
+
+		onTransition((from, to) -> {
+			unstashAll();
+			stashed = 0;
+			deferredBefore = deferredNow;
+			deferredNow = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+		});
+
+		whenUnhandled(matchEvent(Status.Failure.class, (failure, data) -> {
+			return stop(new Failure("A computation failed in state "+stateName()+": "+failure.cause()));
+		}).anyEvent((evt, data) -> {
+			if (handleWithoutDeferring(evt, data))
+				return stay();
+			if (isStale(evt, data)) {
+				log().debug("Dropped the stale {} from {} in state {}", evt, sender(), stateName());
+				return stay();
+			}
+			if (stashed == capacity)
+				return stop(new Failure("Too many deferred messages in state "+stateName()));
+			stash();
+			stashed++;
+			deferredNow.add(evt);
+			if (!deferredBefore.contains(evt))
+				deferred.merge(stateName(), 1L, Long::sum);
+			return stay();
+		}));
+	}
+
+	/** Handles a message that must not be deferred instead of deferring it: a message that arrives after the actor moved past
+	 * the phase it is for, e.g. a point of a polynomial that was already interpolated from the points of other parties, or the
+	 * request of a party resuming the protocol. Such a message would otherwise stay deferred until the actor stops. Does
+	 * nothing by default.
+	 * @param event an unhandled message, whose sender is <code>sender()</code>
+	 * @param data the current data of the actor
+	 * @return true if the message was handled, false to defer it
+	 */
+	protected boolean handleWithoutDeferring(Object event, D data) {
+		return false;
+	}
+	
+	/** Tells whether a message is for a batch, candidate or round the actor is already past, e.g. a share of a batch of
+	 * candidates that was already generated. Such a message is dropped, while a message for a later one is deferred. Called
+	 * after {@link #handleWithoutDeferring(Object, Object)}. Returns false by default.
+	 * @param event an unhandled message, whose sender is <code>sender()</code>
+	 * @param data the current data of the actor
+	 * @return true if the message is to be dropped, false to defer it
+	 */
+	protected boolean isStale(Object event, D data) {
+		return false;
+	}
+	
+	/** @return the number of messages deferred so far, by the state in which they were first deferred. A message deferred over
+	 * many transitions is counted once.
+	 */
+	public Map<S, Long> deferredMessages() {
+		return new HashMap<S, Long>(deferred);
+	}
+
+	@Override
+	public void postStop() {
+		log().debug("Deferred messages: {}", deferred);
+		super.postStop();
+	}
+}
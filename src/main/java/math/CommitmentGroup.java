@@ -0,0 +1,213 @@
+package math;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The subgroup of prime order P' of the integers modulo a prime Q = mP'+1, in which the parties commit to their sharing
+ * polynomials so that the shares they deal can be verified.
+ * <p> The commitment to a polynomial a(x) = a<sub>0</sub> + a<sub>1</sub>x + ... + a<sub>d</sub>x<sup>d</sup> is
+ * (C<sub>0</sub>, ..., C<sub>d</sub>), C<sub>k</sub> = g<sup>a<sub>k</sub></sup>h<sup>b<sub>k</sub></sup> with b(x) a random
+ * blinding polynomial of the same degree (Pedersen), or C<sub>k</sub> = g<sup>a<sub>k</sub></sup> without blinding
+ * polynomial (Feldman). The share (a(j), b(j)) of party j is correct if and only if
+ * g<sup>a(j)</sup>h<sup>b(j)</sup> = &prod;<sub>k</sub> C<sub>k</sub><sup>j<sup>k</sup></sup>. Since the exponents live in
+ * the integers mod P', the polynomials over the integers can be committed to as well.
+ * <p> Q, g and h only depend on P', so that all parties derive the same group without exchanging it. g and h are derived
+ * from a hash of P', so that no party knows the discrete logarithm of h in base g.
+ * @author Christian Mouchet
+ */
+public class CommitmentGroup {
+
+	/** The bitlength of the random coefficients of the linear combinations checked by a {@link BatchVerifier}. A batch with
+	 * an incorrect share passes the check with probability 2<sup>-RHO_BITS</sup>.*/
+	public static final int RHO_BITS = 64;
+
+	private static final int CERTAINTY = 100;
+	private static final TrialDivision SIEVE = TrialDivision.upTo(10000);
+	private static final Map<BigInteger,CommitmentGroup> GROUPS = new ConcurrentHashMap<BigInteger,CommitmentGroup>();
+
+	/** The prime order of the group*/
+	public final BigInteger P;
+
+	/** The prime modulus, Q = mP'+1*/
+	public final BigInteger Q;
+
+	/** The generators of the group*/
+	public final BigInteger g, h;
+
+	private CommitmentGroup(BigInteger P) {
+		this.P = P;
+
+		// The smallest even m such that mP'+1 is prime
+		BigInteger two = BigInteger.valueOf(2);
+		BigInteger m = two;
+		BigInteger Q = P.multiply(m).add(BigInteger.ONE);
+		while (SIEVE.smallestFactor(Q) != 0 || !Q.isProbablePrime(CERTAINTY)) {
+			m = m.add(two);
+			Q = P.multiply(m).add(BigInteger.ONE);
+		}
+		this.Q = Q;
+		this.g = generator(m, "g");
+		this.h = generator(m, "h");
+	}
+
+	/** Returns the group of order P', derived once per P'. The first call for a P' searches Q, which takes up to seconds for
+	 * the largest P'.
+	 * @param P the prime P' of the protocol parameters
+	 * @return the group of order P'
+	 */
+	public static CommitmentGroup of(BigInteger P) {
+		return GROUPS.computeIfAbsent(P, CommitmentGroup::new);
+	}
+
+	/** Commits to a polynomial.
+	 * @param polynomial the polynomial a(x)
+	 * @param blinding the blinding polynomial b(x) of the same degree, null for a Feldman commitment
+	 * @return the commitments (C<sub>0</sub>, ..., C<sub>d</sub>)
+	 */
+	public BigInteger[] commit(Polynomial polynomial, Polynomial blinding) {
+		BigInteger[] commitments = new BigInteger[polynomial.degree()+1];
+		for (int k=0; k < commitments.length; k++) {
+			commitments[k] = g.modPow(polynomial.coefficient(k).mod(P), Q);
+			if (blinding != null)
+				commitments[k] = commitments[k].multiply(h.modPow(blinding.coefficient(k).mod(P), Q)).mod(Q);
+		}
+		return commitments;
+	}
+
+	/** Computes &prod;<sub>k</sub> C<sub>k</sub><sup>j<sup>k</sup></sup> with Horner's scheme, so that only small powers are
+	 * taken.
+	 * @param commitments the commitments (C<sub>0</sub>, ..., C<sub>d</sub>) to a polynomial
+	 * @param j the id of a party
+	 * @return the value the share of party j must be committed to
+	 */
+	public BigInteger commitmentAt(BigInteger[] commitments, int j) {
+		BigInteger x = BigInteger.valueOf(j);
+		BigInteger result = commitments[commitments.length-1];
+		for (int k = commitments.length-2; k >= 0; k--)
+			result = result.modPow(x, Q).multiply(commitments[k]).mod(Q);
+		return result;
+	}
+
+	/** Checks a single share, at the cost of a full exponentiation per generator.
+	 * @param commitments the commitments of the dealer to the polynomial
+	 * @param j the id of the party the share is for
+	 * @param share the share a(j)
+	 * @param blinding the blinding share b(j), null with Feldman commitments
+	 * @return true if the share is correct
+	 */
+	public boolean verify(BigInteger[] commitments, int j, BigInteger share, BigInteger blinding) {
+		return committed(share.mod(P), blinding == null ? null : blinding.mod(P)).equals(commitmentAt(commitments, j));
+	}
+
+	/** @param j the id of the party the shares to verify are for
+	 * @param random a randomness generator, that the dealers cannot predict
+	 * @return a new verifier of the shares a party receives in a phase, for this group
+	 */
+	public BatchVerifier verifier(int j, Random random) {
+		return new BatchVerifier(j, random);
+	}
+
+	/** @return g<sup>s</sup>h<sup>r</sup> mod Q, or g<sup>s</sup> mod Q if r is null*/
+	private BigInteger committed(BigInteger s, BigInteger r) {
+		BigInteger value = g.modPow(s, Q);
+		return r == null ? value : value.multiply(h.modPow(r, Q)).mod(Q);
+	}
+
+	/** Derives a generator of the group from P' and a label, by hashing them into the integers mod Q and raising the result to
+	 * the power m*/
+	private BigInteger generator(BigInteger m, String label) {
+		MessageDigest sha;
+		try {
+			sha = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		for (int counter=0; ; counter++) {
+			byte[] expanded = new byte[(Q.bitLength() + 64 + 7)/8];
+			for (int block=0; block*32 < expanded.length; block++) {
+				sha.update(P.toByteArray());
+				sha.update((label+"/"+counter+"/"+block).getBytes(StandardCharsets.US_ASCII));
+				byte[] digest = sha.digest();
+				System.arraycopy(digest, 0, expanded, block*32, Math.min(32, expanded.length - block*32));
+			}
+			BigInteger generator = new BigInteger(1, expanded).mod(Q).modPow(m, Q);
+			if (!generator.equals(BigInteger.ONE) && !generator.equals(BigInteger.ZERO))
+				return generator;
+		}
+	}
+
+	/**
+	 * Verifies all the shares a party receives in a phase with a single check of a random linear combination of them,
+	 * &prod;<sub>s</sub> (g<sup>a<sub>s</sub>(j)</sup>h<sup>b<sub>s</sub>(j)</sup>)<sup>&rho;<sub>s</sub></sup> =
+	 * &prod;<sub>s</sub> (&prod;<sub>k</sub> C<sub>s,k</sub><sup>j<sup>k</sup></sup>)<sup>&rho;<sub>s</sub></sup>, which
+	 * costs one full exponentiation per generator and a short one per share instead of full ones per share. If the check
+	 * fails, the shares of each dealer are checked alone to find the ones that are incorrect.
+	 * @author Christian Mouchet
+	 */
+	public class BatchVerifier {
+
+		private final int j;
+		private final Random random;
+		private final Map<Integer,List<BigInteger[]>> commitments = new LinkedHashMap<Integer,List<BigInteger[]>>();
+		private final Map<Integer,List<BigInteger[]>> shares = new LinkedHashMap<Integer,List<BigInteger[]>>();
+
+		private BatchVerifier(int j, Random random) {
+			this.j = j;
+			this.random = random;
+		}
+
+		/** Adds a share to verify.
+		 * @param dealer the id of the party that dealt the share
+		 * @param commitments the commitments of the dealer to the polynomial
+		 * @param share the share a(j)
+		 * @param blinding the blinding share b(j), null with Feldman commitments
+		 */
+		public void add(int dealer, BigInteger[] commitments, BigInteger share, BigInteger blinding) {
+			this.commitments.computeIfAbsent(dealer, d -> new ArrayList<BigInteger[]>()).add(commitments);
+			this.shares.computeIfAbsent(dealer, d -> new ArrayList<BigInteger[]>()).add(new BigInteger[]{share, blinding});
+		}
+
+		/** @return the ids of the dealers of which some shares are incorrect, empty if all shares are correct*/
+		public List<Integer> incorrectDealers() {
+			List<Integer> incorrect = new ArrayList<Integer>();
+			if (holds(new ArrayList<Integer>(shares.keySet())))
+				return incorrect;
+			for (int dealer : shares.keySet()) {
+				List<Integer> alone = new ArrayList<Integer>();
+				alone.add(dealer);
+				if (!holds(alone))
+					incorrect.add(dealer);
+			}
+			return incorrect;
+		}
+
+		/** Checks a random linear combination of the shares of the given dealers*/
+		private boolean holds(List<Integer> dealers) {
+			BigInteger s = BigInteger.ZERO;
+			BigInteger r = null;
+			BigInteger combined = BigInteger.ONE;
+			for (int dealer : dealers) {
+				List<BigInteger[]> dealerCommitments = commitments.get(dealer);
+				List<BigInteger[]> dealerShares = shares.get(dealer);
+				for (int c=0; c < dealerShares.size(); c++) {
+					BigInteger rho = new BigInteger(RHO_BITS, random).add(BigInteger.ONE);
+					BigInteger[] share = dealerShares.get(c);
+					s = s.add(rho.multiply(share[0]));
+					if (share[1] != null)
+						r = (r == null ? BigInteger.ZERO : r).add(rho.multiply(share[1]));
+					combined = combined.multiply(commitmentAt(dealerCommitments.get(c), j).modPow(rho, Q)).mod(Q);
+				}
+			}
+			return committed(s.mod(P), r == null ? null : r.mod(P)).equals(combined);
+		}
+	}
+}
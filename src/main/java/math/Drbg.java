@@ -0,0 +1,232 @@
+package math;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.security.SecureRandomSpi;
+
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.engines.AESEngine;
+import org.bouncycastle.crypto.macs.HMac;
+import org.bouncycastle.crypto.prng.EntropySource;
+import org.bouncycastle.crypto.prng.EntropySourceProvider;
+import org.bouncycastle.crypto.prng.drbg.CTRSP800DRBG;
+import org.bouncycastle.crypto.prng.drbg.HMacSP800DRBG;
+import org.bouncycastle.crypto.prng.drbg.SP80090DRBG;
+
+/**
+ * A deterministic random bit generator of NIST SP 800-90A, HMAC_DRBG with SHA-256 or CTR_DRBG with AES-256, from
+ * BouncyCastle. Each actor that draws many random values, e.g. the coefficients of the sharing polynomials, owns one, so
+ * that the actors of the parties running in a JVM do not all draw from the generator of the system.
+ * <p> A generator is seeded from its own source, a new {@link SecureRandom} of the system unless one is given, and reseeded
+ * from it after every {@link #RESEED_INTERVAL} bytes it outputs. The entropy and the nonce are drawn from the source with
+ * {@link SecureRandom#nextBytes(byte[])} rather than {@link SecureRandom#generateSeed(int)}, so that reseeding never waits
+ * for the entropy pool of the system. A generator whose source is seeded, e.g. a SHA1PRNG, thus outputs the same values
+ * from run to run.
+ * <p> The generators of BouncyCastle update their state after each request, which costs as much as drawing a few blocks.
+ * Small requests, e.g. a coefficient, are thus served from a buffer of {@link #BUFFER} bytes drawn at once.
+ * <p> A generator is synchronized like the ones of the JDK, since an actor draws from its own on the compute dispatcher too.
+ * The lock is then only taken by one thread at a time.
+ * @author Christian Mouchet
+ */
+@SuppressWarnings("serial")
+public class Drbg extends SecureRandom {
+
+	/** The number of bytes output between two reseeds*/
+	public static final long RESEED_INTERVAL = 1L << 20;
+
+	/** The security strength of the generators, in bits*/
+	public static final int SECURITY_STRENGTH = 256;
+
+	/** The number of bytes drawn at once to serve the small requests*/
+	public static final int BUFFER = 4096;
+
+	/** The largest number of bytes BouncyCastle outputs in one request*/
+	private static final int MAX_REQUEST = (1 << 18) / 8;
+
+	private final SecureRandom source;
+	private final SP80090DRBG drbg;
+	private final long reseedInterval;
+	private long output = 0;
+	private final byte[] buffer = new byte[BUFFER];
+	private int position = BUFFER;
+
+	private Drbg(Spi spi, SecureRandom source, SP80090DRBG drbg, long reseedInterval) {
+		super(spi, null);
+		spi.drbg = this;
+		this.source = source;
+		this.drbg = drbg;
+		this.reseedInterval = reseedInterval;
+	}
+
+	/** @return a new HMAC_DRBG with SHA-256, seeded from a new generator of the system and reseeded every
+	 * {@link #RESEED_INTERVAL} bytes
+	 */
+	public static Drbg hmac() {
+		return hmac(new SecureRandom(), RESEED_INTERVAL);
+	}
+
+	/** @param source the generator the entropy and the nonce are drawn from
+	 * @param reseedInterval the number of bytes output between two reseeds
+	 * @return a new HMAC_DRBG with SHA-256
+	 */
+	public static Drbg hmac(SecureRandom source, long reseedInterval) {
+		return new Drbg(new Spi(), source, new HMacSP800DRBG(new HMac(new SHA256Digest()), SECURITY_STRENGTH,
+																new Entropy(source).get(SECURITY_STRENGTH), null, nonce(source)),
+						reseedInterval);
+	}
+
+	/** @return a new CTR_DRBG with AES-256, seeded from a new generator of the system and reseeded every
+	 * {@link #RESEED_INTERVAL} bytes
+	 */
+	public static Drbg ctr() {
+		return ctr(new SecureRandom(), RESEED_INTERVAL);
+	}
+
+	/** @param source the generator the entropy and the nonce are drawn from
+	 * @param reseedInterval the number of bytes output between two reseeds
+	 * @return a new CTR_DRBG with AES-256
+	 */
+	public static Drbg ctr(SecureRandom source, long reseedInterval) {
+		return new Drbg(new Spi(), source, new CTRSP800DRBG(new AESEngine(), 256, SECURITY_STRENGTH,
+																new Entropy(source).get(SECURITY_STRENGTH), null, nonce(source)),
+						reseedInterval);
+	}
+
+	@Override
+	public synchronized void nextBytes(byte[] bytes) {
+		if (bytes.length <= BUFFER) {
+			int offset = 0;
+			while (offset < bytes.length) {
+				if (position == BUFFER) {
+					generate(buffer);
+					position = 0;
+				}
+				int length = Math.min(bytes.length - offset, BUFFER - position);
+				System.arraycopy(buffer, position, bytes, offset, length);
+				position += length;
+				offset += length;
+			}
+			return;
+		}
+		if (bytes.length <= MAX_REQUEST) {
+			generate(bytes);
+			return;
+		}
+		byte[] chunk = new byte[MAX_REQUEST];
+		for (int offset=0; offset < bytes.length; offset += MAX_REQUEST) {
+			int length = Math.min(MAX_REQUEST, bytes.length - offset);
+			if (length < MAX_REQUEST)
+				chunk = new byte[length];
+			generate(chunk);
+			System.arraycopy(chunk, 0, bytes, offset, length);
+		}
+	}
+
+	/** Mixes the seed into the state of the generator, along with fresh entropy. The seed only adds to the entropy.*/
+	@Override
+	public synchronized void setSeed(byte[] seed) {
+		// Called by the constructor of Random before the generator is set
+		if (drbg != null) {
+			drbg.reseed(seed);
+			output = 0;
+			position = BUFFER;
+		}
+	}
+
+	@Override
+	public void setSeed(long seed) {
+		setSeed(BigInteger.valueOf(seed).toByteArray());
+	}
+
+	/** Reseeds the generator with fresh entropy from its source, as {@link SecureRandom}<code>.reseed()</code> does from
+	 * Java 9.*/
+	public synchronized void reseed() {
+		drbg.reseed(null);
+		output = 0;
+		position = BUFFER;
+	}
+
+	/** Draws the seed from the source of the generator with {@link SecureRandom#generateSeed(int)}, which may wait for the
+	 * entropy pool of the system*/
+	@Override
+	public byte[] generateSeed(int numBytes) {
+		return source.generateSeed(numBytes);
+	}
+
+	@Override
+	public String getAlgorithm() {
+		return drbg instanceof HMacSP800DRBG ? "HMAC_DRBG/SHA-256" : "CTR_DRBG/AES-256";
+	}
+
+	private void generate(byte[] bytes) {
+		if (output >= reseedInterval)
+			reseed();
+		if (drbg.generate(bytes, null, false) < 0) {
+			drbg.reseed(null);
+			drbg.generate(bytes, null, false);
+		}
+		output += bytes.length;
+	}
+
+	private static byte[] nonce(SecureRandom source) {
+		byte[] nonce = new byte[SECURITY_STRENGTH/16];
+		source.nextBytes(nonce);
+		return nonce;
+	}
+
+	/** Draws the entropy from a generator with {@link SecureRandom#nextBytes(byte[])}. The BasicEntropySourceProvider of
+	 * BouncyCastle draws it with {@link SecureRandom#generateSeed(int)}.*/
+	private static class Entropy implements EntropySourceProvider {
+		private final SecureRandom source;
+		private Entropy(SecureRandom source) {
+			this.source = source;
+		}
+
+		@Override
+		public EntropySource get(int bitsRequired) {
+			return new EntropySource() {
+				@Override
+				public boolean isPredictionResistant() {
+					return false;
+				}
+
+				@Override
+				public byte[] getEntropy() {
+					byte[] entropy = new byte[(bitsRequired + 7) / 8];
+					source.nextBytes(entropy);
+					return entropy;
+				}
+
+				@Override
+				public int entropySize() {
+					return bitsRequired;
+				}
+			};
+		}
+	}
+
+	/** Hands the calls of {@link SecureRandom} to its generator, e.g. toString*/
+	private static class Spi extends SecureRandomSpi {
+		private Drbg drbg;
+
+		@Override
+		protected void engineSetSeed(byte[] seed) {
+			drbg.setSeed(seed);
+		}
+
+		@Override
+		protected void engineNextBytes(byte[] bytes) {
+			drbg.nextBytes(bytes);
+		}
+
+		@Override
+		protected byte[] engineGenerateSeed(int numBytes) {
+			return drbg.generateSeed(numBytes);
+		}
+
+		@Override
+		public String toString() {
+			return drbg.getAlgorithm();
+		}
+	}
+}
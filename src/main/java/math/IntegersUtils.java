@@ -1,7 +1,10 @@
 package math;
 
 import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 
 /**
@@ -24,12 +27,15 @@ public class IntegersUtils {
 		return candidate;
 	}
 	
+	/** Picks a probable prime at random in the given range, boundaries included. The Lagrange coefficients mod P'
+	 * need P' to be prime. The search is done in parallel, see {@link PrimeSearch}.
+	 * @param min the lower bound of the range
+	 * @param max the upper bound of the range
+	 * @param rand a randomness generator
+	 * @return a random probable prime in the range [min; max]
+	 */
 	public static BigInteger pickPrimeInRange(BigInteger min, BigInteger max, Random rand) {
-		BigInteger candidate;
-		do {
-			candidate = min.add(BigInteger.probablePrime(max.bitLength()-1, rand));
-		} while(candidate.compareTo(max) > 0);
-		return candidate;
+		return PrimeSearch.find(min, max, rand);
 	}
 	
 	/** Picks a random integer that is a generator of Z<sub>N<sup>2</sup></sub> with high probability.
@@ -67,22 +73,169 @@ public class IntegersUtils {
 	 * @return <code>f(0)</code>
 	 */
 	public static BigInteger getIntercept(List<BigInteger> points, BigInteger mod) {
-		int k = points.size();
+		int[] ids = new int[points.size()];
+		for (int j=0; j < ids.length; j++)
+			ids[j] = j+1;
+		return dot(getLagrangeCoefficients(ids, mod), points.toArray(new BigInteger[ids.length]), mod);
+	}
+	
+	/** Computes the intercept of a polynomial mod N over the integers given the points of any subset of the parties
+	 * using Lagrangian interpolation.
+	 * @param points the points <code>f(j)</code> indexed by party id <code>j</code>
+	 * @param mod the modulo of the polynomial
+	 * @return <code>f(0)</code>
+	 */
+	public static BigInteger getIntercept(Map<Integer,BigInteger> points, BigInteger mod) {
+		int[] ids = points.keySet().stream().mapToInt(Integer::intValue).sorted().toArray();
+		BigInteger[] values = new BigInteger[ids.length];
+		for (int j=0; j < ids.length; j++)
+			values[j] = points.get(ids[j]);
+		return dot(getLagrangeCoefficients(ids, mod), values, mod);
+	}
+	
+	/** Evaluates a polynomial mod N given by the points of any subset of the parties at another point, e.g. in order to check
+	 * that a point received after the interpolation is on the same polynomial.
+	 * @param points the points <code>f(j)</code> indexed by party id <code>j</code>, as many as the degree of f plus one
+	 * @param x the point at which f is evaluated
+	 * @param mod the modulo of the polynomial. Must be a prime greater than the ids.
+	 * @return <code>f(x)</code>
+	 */
+	public static BigInteger getValueAt(Map<Integer,BigInteger> points, int x, BigInteger mod) {
+		int[] ids = points.keySet().stream().mapToInt(Integer::intValue).sorted().toArray();
 		BigInteger sum = BigInteger.ZERO;
-		for(int j=1; j <= k; j++){
-			int numerator = 1;
-			int denominator = 1;
-			for(int m=1; m<=k; m++){
+		for (int j=0; j < ids.length; j++) {
+			if (ids[j] == x)
+				return points.get(x).mod(mod);
+			BigInteger numerator = BigInteger.ONE;
+			BigInteger denominator = BigInteger.ONE;
+			for (int m=0; m < ids.length; m++) {
 				if (m != j) {
-					numerator *= -m;
-					denominator *= (j-m);
+					numerator = numerator.multiply(BigInteger.valueOf(x-ids[m]));
+					denominator = denominator.multiply(BigInteger.valueOf(ids[j]-ids[m]));
 				}
 			}
-			BigInteger lambdaj = BigInteger.valueOf(numerator/denominator);
-			sum = sum.add(points.get(j-1).multiply(lambdaj)).mod(mod);
+			sum = sum.add(points.get(ids[j]).multiply(numerator).multiply(denominator.modInverse(mod)));
+		}
+		return sum.mod(mod);
+	}
+	
+	/** Returns the Lagrange coefficients &lambda;<sub>j</sub> = &prod;<sub>m&ne;j</sub> x<sub>m</sub>/(x<sub>m</sub>-x<sub>j</sub>) mod N
+	 * for interpolating in 0 from the given points, so that <code>f(0) = &sum; &lambda;<sub>j</sub> f(x<sub>j</sub>) mod N</code>.
+	 * <p> The coefficients only depend on the set of points and the modulo, and are cached.
+	 * @param ids the points x<sub>j</sub> (the ids of the parties), all distinct
+	 * @param mod the modulo of the polynomial. Must be a prime greater than the ids.
+	 * @return the coefficients, &lambda;<sub>j</sub> at the same index as x<sub>j</sub> in <code>ids</code>
+	 */
+	public static BigInteger[] getLagrangeCoefficients(int[] ids, BigInteger mod) {
+		LagrangeKey key = new LagrangeKey(ids, mod);
+		BigInteger[] lambdas;
+		synchronized (lagrangeCoefficientsCache) {
+			lambdas = lagrangeCoefficientsCache.get(key);
+		}
+		if (lambdas == null) {
+			lambdas = new BigInteger[ids.length];
+			for (int j=0; j < ids.length; j++) {
+				BigInteger[] fraction = lagrangeFraction(ids, j);
+				lambdas[j] = fraction[0].multiply(fraction[1].modInverse(mod)).mod(mod);
+			}
+			synchronized (lagrangeCoefficientsCache) {
+				lagrangeCoefficientsCache.put(key, lambdas);
+			}
 		}
-		return sum;
+		return lambdas.clone();
 	}
 	
+	/** Returns the Lagrange coefficients scaled by &Delta; as integers, &Delta;&lambda;<sub>j</sub>, to be used in the
+	 * exponent where no modular inverse is available. This is exact as long as every denominator divides &Delta;, which is
+	 * the case for &Delta; = n! and ids in [1;n].
+	 * <p> The coefficients only depend on the set of points and &Delta;, and are cached.
+	 * @param ids the points x<sub>j</sub> (the ids of the parties), all distinct
+	 * @param delta &Delta;
+	 * @return the coefficients, &Delta;&lambda;<sub>j</sub> at the same index as x<sub>j</sub> in <code>ids</code>
+	 */
+	public static BigInteger[] getIntegerLagrangeCoefficients(int[] ids, BigInteger delta) {
+		LagrangeKey key = new LagrangeKey(ids, delta);
+		BigInteger[] lambdas;
+		synchronized (integerLagrangeCoefficientsCache) {
+			lambdas = integerLagrangeCoefficientsCache.get(key);
+		}
+		if (lambdas == null) {
+			lambdas = new BigInteger[ids.length];
+			for (int j=0; j < ids.length; j++) {
+				BigInteger[] fraction = lagrangeFraction(ids, j);
+				BigInteger[] quotient = delta.multiply(fraction[0]).divideAndRemainder(fraction[1]);
+				if (quotient[1].signum() != 0)
+					throw new IllegalArgumentException("delta is not a multiple of the denominator of the coefficient of "+ids[j]);
+				lambdas[j] = quotient[0];
+			}
+			synchronized (integerLagrangeCoefficientsCache) {
+				integerLagrangeCoefficientsCache.put(key, lambdas);
+			}
+		}
+		return lambdas.clone();
+	}
+	
+	/** The maximum number of coefficient vectors kept in each cache. The least recently used is evicted first.*/
+	private static final int LAGRANGE_CACHE_SIZE = 256;
+	
+	private static final Map<LagrangeKey, BigInteger[]> lagrangeCoefficientsCache = lruCache(LAGRANGE_CACHE_SIZE);
+	private static final Map<LagrangeKey, BigInteger[]> integerLagrangeCoefficientsCache = lruCache(LAGRANGE_CACHE_SIZE);
+	
+	private static <K,V> Map<K,V> lruCache(int capacity) {
+		return new LinkedHashMap<K,V>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+	
+	/** Numerator and denominator of the j-th Lagrange coefficient in 0: &prod;<sub>m&ne;j</sub> -x<sub>m</sub> and
+	 * &prod;<sub>m&ne;j</sub> (x<sub>j</sub>-x<sub>m</sub>)*/
+	private static BigInteger[] lagrangeFraction(int[] ids, int j) {
+		BigInteger numerator = BigInteger.ONE;
+		BigInteger denominator = BigInteger.ONE;
+		for (int m=0; m < ids.length; m++) {
+			if (m != j) {
+				if (ids[m] == ids[j])
+					throw new IllegalArgumentException("The points must be distinct");
+				numerator = numerator.multiply(BigInteger.valueOf(-ids[m]));
+				denominator = denominator.multiply(BigInteger.valueOf(ids[j]-ids[m]));
+			}
+		}
+		return new BigInteger[] {numerator, denominator};
+	}
+	
+	private static BigInteger dot(BigInteger[] lambdas, BigInteger[] values, BigInteger mod) {
+		BigInteger sum = BigInteger.ZERO;
+		for (int j=0; j < lambdas.length; j++)
+			sum = sum.add(lambdas[j].multiply(values[j]));
+		return sum.mod(mod);
+	}
+	
+	/** Key of the Lagrange coefficients caches: a set of points and a modulo (or &Delta;)*/
+	private static class LagrangeKey {
+		private final int[] ids;
+		private final BigInteger mod;
+		
+		private LagrangeKey(int[] ids, BigInteger mod) {
+			this.ids = ids.clone();
+			this.mod = mod;
+		}
+		
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof LagrangeKey))
+				return false;
+			LagrangeKey other = (LagrangeKey) o;
+			return Arrays.equals(ids, other.ids) && mod.equals(other.mod);
+		}
+		
+		@Override
+		public int hashCode() {
+			return 31*Arrays.hashCode(ids) + mod.hashCode();
+		}
+	}
 	
 }
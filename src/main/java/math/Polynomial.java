@@ -6,6 +6,8 @@ import java.util.Random;
 /**
  * Represents a polynomial over the integers. This simply wraps an array of the
  * coefficient and provides convenience methods to build and evaluate a polynomial.
+ * <p> Evaluation uses Horner's scheme, so that it is exact for any <code>x</code> and never computes
+ * the powers of <code>x</code>.
  * @author Christian Mouchet
  */
 public class Polynomial {
@@ -31,17 +33,56 @@ public class Polynomial {
 	 * @return <code>f(x)</code>
 	 */
 	public BigInteger eval(int x) {
-        BigInteger result = a[0];
-        BigInteger powx;
-        BigInteger term;
-        
-        for(int i = 1;i < a.length;i++) {
-        	powx = BigInteger.valueOf((long) Math.pow(x, i));
-            term = a[i].multiply(powx);
-            result = result.add(term);
-        }
-        return result;
+		BigInteger bigx = BigInteger.valueOf(x);
+		BigInteger result = a[a.length-1];
+		for(int i = a.length-2; i >= 0; i--) {
+			result = result.multiply(bigx).add(a[i]);
+		}
+		return result;
+	}
+	
+	/** @return the degree of this polynomial*/
+	public int degree() {
+		return a.length-1;
+	}
+	
+	/** @param k the index of a coefficient, between 0 and the degree
+	 * @return the coefficient of <code>x<sup>k</sup></code>
+	 */
+	public BigInteger coefficient(int k) {
+		return a[k];
+	}
+	
+	/** Evaluate this polynomial in all the given points.
+	 * @param xs the points <code>(x<sub>1</sub>, x<sub>2</sub>, ...)</code>
+	 * @return <code>(f(x<sub>1</sub>), f(x<sub>2</sub>), ...)</code>
+	 */
+	public BigInteger[] evalAll(int[] xs) {
+		BigInteger[] results = new BigInteger[xs.length];
+		for (int j=0; j < xs.length; j++) {
+			results[j] = eval(xs[j]);
+		}
+		return results;
+	}
+	
+	/** Evaluate this polynomial in the ids of n parties, <code>1, 2, ..., n</code>.
+	 * @param n the number of parties
+	 * @return <code>(f(1), f(2), ..., f(n))</code>, that is f(j) at index <code>j-1</code>
+	 */
+	public BigInteger[] evalRange(int n) {
+		return evalAll(range(n));
 	}
 	
+	/** Returns the ids of n parties.
+	 * @param n the number of parties
+	 * @return <code>(1, 2, ..., n)</code>
+	 */
+	public static int[] range(int n) {
+		int[] xs = new int[n];
+		for (int j=0; j < n; j++) {
+			xs[j] = j+1;
+		}
+		return xs;
+	}
 	
 }
@@ -6,7 +6,9 @@ import java.util.Random;
 /**
  * Represents a polynomial over the integers modulo N. This extends the {@link Polynomial} class with a constructor
  * taking N as a parameter.
- * <p> the <code>eval</code> method is overridden to reduce mod N at each step.
+ * <p> the <code>eval</code> method is overridden to reduce the result mod N. Since the coefficients are already
+ * reduced and <code>x</code> is small, the intermediate values of Horner's scheme only grow by a few bits per
+ * coefficient and a single reduction at the end is cheaper than one per step.
  * @author Christian Mouchet
  */
 public class PolynomialMod extends Polynomial{
@@ -23,7 +25,6 @@ public class PolynomialMod extends Polynomial{
 	public PolynomialMod(int degree, BigInteger mod, BigInteger a0,  int numbit, Random random) {
 		super(degree, a0, numbit, random);
 		this.mod = mod;
-		a[0] = a[0].mod(mod);
 		for(int t=0; t<=degree; t++) {
 			a[t] = a[t].mod(mod);
 		}
@@ -31,16 +32,7 @@ public class PolynomialMod extends Polynomial{
 	
 	@Override
 	public BigInteger eval(int x) {
-        BigInteger result = a[0];
-        BigInteger powx;
-        BigInteger term;
-        
-        for(int i = 1;i < a.length;i++) {
-        	powx = BigInteger.valueOf((long) Math.pow(x, i));
-            term = a[i].multiply(powx).mod(mod);
-            result = result.add(term).mod(mod);
-        }
-        return result;
+		return super.eval(x).mod(mod);
 	}
 	
 }
@@ -0,0 +1,194 @@
+package math;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Parallel search of a prime in a range. The odd integers of the range are split into windows of {@link #WINDOW} consecutive
+ * odd integers, starting from a random point of the range and wrapping around to its lower bound. Each worker of a fork-join
+ * pool takes every p-th window, p being the parallelism of the pool, sieves it by the odd primes smaller than
+ * {@link #SIEVE_BOUND}, and tests the remaining integers for primality in order. The first prime found by any worker is
+ * returned and the other workers stop at their next candidate.
+ * <p>
+ * The sieve removes about 90% of the candidates, so that the primality tests, which dominate the cost, are only done on the
+ * integers that are likely to be prime. The small primes are computed once and shared by all searches.
+ * <p>
+ * A search can be cancelled with {@link ForkJoinTask#cancel(boolean)} on the task returned by
+ * {@link #submit(BigInteger, BigInteger, Random, ForkJoinPool)}.
+ * @author Christian Mouchet
+ */
+public class PrimeSearch extends RecursiveTask<BigInteger> {
+
+	private static final long serialVersionUID = 1L;
+
+	/** The bound below which the odd primes are used to sieve the windows*/
+	public static final int SIEVE_BOUND = 1 << 16;
+
+	/** The number of odd integers in a window*/
+	public static final int WINDOW = 1024;
+
+	/** The certainty of the primality tests, such that a composite is returned with probability at most 2<sup>-100</sup>*/
+	public static final int CERTAINTY = 100;
+
+	/** The number of small primes whose product fits in a long*/
+	private static final int GROUP = 3;
+
+	private static final int[] smallPrimes = oddPrimesBelow(SIEVE_BOUND);
+	private static final long[] groupProducts = groupProducts(smallPrimes);
+
+	private final BigInteger firstOdd;
+	private final BigInteger oddCount;
+	private final BigInteger start;
+	private final int workers;
+	private final AtomicReference<BigInteger> found = new AtomicReference<BigInteger>();
+
+	/** @param firstOdd the smallest odd integer of the range
+	 * @param oddCount the number of odd integers in the range
+	 * @param start the index, among the odd integers of the range, of the first candidate
+	 * @param workers the number of windows searched in parallel
+	 */
+	private PrimeSearch(BigInteger firstOdd, BigInteger oddCount, BigInteger start, int workers) {
+		this.firstOdd = firstOdd;
+		this.oddCount = oddCount;
+		this.start = start;
+		this.workers = workers;
+	}
+
+	/** Searches an odd prime in the given range, boundaries included, using all the processors.
+	 * @param min the lower bound of the range
+	 * @param max the upper bound of the range
+	 * @param rand a randomness generator, used once to pick the starting point
+	 * @return a prime in the range [min; max], prime with probability at least 1-2<sup>-100</sup>
+	 * @throws IllegalArgumentException if there is no odd prime in the range
+	 */
+	public static BigInteger find(BigInteger min, BigInteger max, Random rand) {
+		return submit(min, max, rand, ForkJoinPool.commonPool()).join();
+	}
+
+	/** Starts searching an odd prime in the given range, boundaries included, with as many workers as the parallelism of a pool.
+	 * @param min the lower bound of the range
+	 * @param max the upper bound of the range
+	 * @param rand a randomness generator, used once to pick the starting point
+	 * @param pool the pool in which the search is done
+	 * @return the search, whose result is a prime in the range [min; max]. Joining it throws an IllegalArgumentException if
+	 * there is no odd prime in the range.
+	 */
+	public static ForkJoinTask<BigInteger> submit(BigInteger min, BigInteger max, Random rand, ForkJoinPool pool) {
+		if (min.compareTo(max) > 0)
+			throw new IllegalArgumentException("min should be at most max");
+
+		BigInteger firstOdd = min.testBit(0) ? min : min.add(BigInteger.ONE);
+		BigInteger lastOdd = max.testBit(0) ? max : max.subtract(BigInteger.ONE);
+		if (firstOdd.compareTo(lastOdd) > 0)
+			throw new IllegalArgumentException("there is no odd integer in the range");
+
+		BigInteger oddCount = lastOdd.subtract(firstOdd).shiftRight(1).add(BigInteger.ONE);
+		BigInteger start = IntegersUtils.pickInRange(BigInteger.ZERO, oddCount.subtract(BigInteger.ONE), rand);
+		return pool.submit(new PrimeSearch(firstOdd, oddCount, start, pool.getParallelism()));
+	}
+
+	@Override
+	protected BigInteger compute() {
+		List<Worker> tasks = new ArrayList<Worker>(workers);
+		for (int w=0; w < workers; w++)
+			tasks.add(new Worker(w));
+		invokeAll(tasks);
+
+		if (found.get() == null && !isCancelled())
+			throw new IllegalArgumentException("there is no odd prime in the range");
+		return found.get();
+	}
+
+	/** Searches the windows w, w+p, w+2p, ... with p the number of workers*/
+	private class Worker extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int firstWindow;
+
+		private Worker(int first) {
+			this.firstWindow = first;
+		}
+
+		@Override
+		protected void compute() {
+			BigInteger window = BigInteger.valueOf(WINDOW);
+			for (BigInteger w = BigInteger.valueOf(firstWindow); w.multiply(window).compareTo(oddCount) < 0; w = w.add(BigInteger.valueOf(workers))) {
+				if (isOver())
+					return;
+
+				// The window covers the odd integers of indexes [from; from+length) counted from the random point, i.e. one
+				// segment, or two if it wraps around the upper bound of the range
+				int length = oddCount.subtract(w.multiply(window)).min(window).intValue();
+				BigInteger from = start.add(w.multiply(window)).mod(oddCount);
+				int firstLength = oddCount.subtract(from).min(BigInteger.valueOf(length)).intValue();
+				BigInteger prime = searchWindow(firstOdd.add(from.shiftLeft(1)), firstLength);
+				if (prime == null && firstLength < length)
+					prime = searchWindow(firstOdd, length - firstLength);
+				if (prime != null) {
+					found.compareAndSet(null, prime);
+					return;
+				}
+			}
+		}
+
+		/** Sieves the odd integers first, first+2, ..., first+2(length-1) and tests the remaining ones*/
+		private BigInteger searchWindow(BigInteger first, int length) {
+			boolean[] composite = new boolean[length];
+			if (first.bitLength() > 16) {
+				for (int g=0; g < smallPrimes.length; g+=GROUP) {
+					// One reduction of first by the product of a group of primes, then one per prime on longs
+					long rg = first.mod(BigInteger.valueOf(groupProducts[g/GROUP])).longValue();
+					for (int i=g; i < Math.min(g+GROUP, smallPrimes.length); i++) {
+						int p = smallPrimes[i];
+						// first+2j = 0 mod p iff j = -first/2 mod p
+						long r = rg % p;
+						int j = (int) ((p - r) % p * ((p + 1) / 2) % p);
+						for (; j < length; j += p)
+							composite[j] = true;
+					}
+				}
+			}
+
+			for (int j=0; j < length; j++) {
+				if (isOver())
+					return null;
+				BigInteger candidate = first.add(BigInteger.valueOf(2L*j));
+				if (!composite[j] && candidate.isProbablePrime(CERTAINTY))
+					return candidate;
+			}
+			return null;
+		}
+
+		private boolean isOver() {
+			return found.get() != null || PrimeSearch.this.isCancelled();
+		}
+	}
+
+	private static int[] oddPrimesBelow(int bound) {
+		boolean[] composite = new boolean[bound];
+		List<Integer> primes = new ArrayList<Integer>();
+		for (int r=3; r < bound; r+=2) {
+			if (!composite[r]) {
+				primes.add(r);
+				for (long m=(long) r*r; m < bound; m+=2*r)
+					composite[(int) m] = true;
+			}
+		}
+		return primes.stream().mapToInt(Integer::intValue).toArray();
+	}
+
+	private static long[] groupProducts(int[] primes) {
+		long[] products = new long[(primes.length+GROUP-1)/GROUP];
+		for (int i=0; i < primes.length; i++)
+			products[i/GROUP] = (i % GROUP == 0 ? 1 : products[i/GROUP]) * primes[i];
+		return products;
+	}
+}
@@ -0,0 +1,81 @@
+package math;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Trial division of integers by all the odd primes smaller than a bound. The primes are multiplied along a product tree, so
+ * that checking an integer for a small factor costs a single gcd with the product of all primes. The tree is only walked down
+ * when a factor is found, to find the smallest one.
+ * <p> The tree only depends on the bound and is built once per bound.
+ * @author Christian Mouchet
+ */
+public class TrialDivision {
+
+	private static final Map<Integer,TrialDivision> instances = new ConcurrentHashMap<Integer,TrialDivision>();
+
+	/** The bound below which the primes are tried*/
+	public final int bound;
+
+	/** The product tree: <code>tree[0]</code> are the primes, <code>tree[h][i] = tree[h-1][2i]*tree[h-1][2i+1]</code>*/
+	private final BigInteger[][] tree;
+
+	private TrialDivision(int bound) {
+		this.bound = bound;
+
+		List<BigInteger> primes = new ArrayList<BigInteger>();
+		boolean[] composite = new boolean[Math.max(bound, 0)];
+		for (int r=3; r < bound; r+=2) {
+			if (!composite[r]) {
+				primes.add(BigInteger.valueOf(r));
+				for (long m=(long) r*r; m < bound; m+=2*r)
+					composite[(int) m] = true;
+			}
+		}
+
+		List<BigInteger[]> levels = new ArrayList<BigInteger[]>();
+		levels.add(primes.isEmpty() ? new BigInteger[] {BigInteger.ONE} : primes.toArray(new BigInteger[primes.size()]));
+		while (levels.get(levels.size()-1).length > 1) {
+			BigInteger[] below = levels.get(levels.size()-1);
+			BigInteger[] level = new BigInteger[(below.length+1)/2];
+			for (int i=0; i < level.length; i++)
+				level[i] = 2*i+1 < below.length ? below[2*i].multiply(below[2*i+1]) : below[2*i];
+			levels.add(level);
+		}
+		this.tree = levels.toArray(new BigInteger[levels.size()][]);
+	}
+
+	/** Returns the trial division by the odd primes smaller than a bound, building it on first use.
+	 * @param bound the bound
+	 * @return the trial division for that bound
+	 */
+	public static TrialDivision upTo(int bound) {
+		return instances.computeIfAbsent(bound, TrialDivision::new);
+	}
+
+	/** @return the number of primes tried*/
+	public int numberOfPrimes() {
+		return tree[0].length == 1 && tree[0][0].equals(BigInteger.ONE) ? 0 : tree[0].length;
+	}
+
+	/** Finds the smallest odd prime smaller than the bound that divides an integer.
+	 * @param N the integer
+	 * @return the smallest factor of N smaller than the bound, or 0 if there is none
+	 */
+	public int smallestFactor(BigInteger N) {
+		BigInteger g = N.gcd(tree[tree.length-1][0]);
+		if (g.equals(BigInteger.ONE))
+			return 0;
+
+		int i = 0;
+		for (int h=tree.length-2; h >= 0; h--) {
+			i = 2*i;
+			if (tree[h][i].gcd(g).equals(BigInteger.ONE))
+				i++;
+		}
+		return tree[0][i].intValue();
+	}
+}
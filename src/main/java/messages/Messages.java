@@ -2,9 +2,12 @@ package messages;
 
 import java.io.Serializable;
 import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
+import paillierp.key.PaillierPrivateThresholdKey;
 import protocol.BGWParameters.BGWPrivateParameters;
 import akka.actor.ActorRef;
 
@@ -32,25 +35,67 @@ public class Messages {
 	
 	
 	/**
-	 * Wraps a BigInteger as a share of N
+	 * Wraps the shares of N of a batch of candidates, with the digests of the commitments received with the shares of p and q
 	 */
 	public static class BGWNPoint implements Serializable {
-		/**A share of N*/
-		public final BigInteger point;
-		public BGWNPoint(BigInteger point) {
-			this.point = point;
+		/** The ids of the candidates to RSA modulus*/
+		public final long[] candidateIds;
+		/**The shares of N, the b-th one for candidate <code>candidateIds[b]</code>*/
+		public final BigInteger[] points;
+		/** The digests of the commitments the party received from each dealer of the batch, null if the shares are not
+		 * verified, see {@link protocol.VerifiableSharing#digests}*/
+		public final byte[][] commitmentDigests;
+		public BGWNPoint(long[] candidateIds, BigInteger[] points, byte[][] commitmentDigests) {
+			this.candidateIds = candidateIds;
+			this.points = points;
+			this.commitmentDigests = commitmentDigests;
 		}
 	}
 	
 	
 	/**
-	 * Wraps a BigInteger as a share of Theta
+	 * Wraps the reshared degree 2t shares of the products of one level of the sieving product tree
+	 */
+	public static class SievingProductPoint implements Serializable {
+		/** The ids of the candidates to RSA modulus*/
+		public final long[] candidateIds;
+		/** The level in the product tree*/
+		public final int level;
+		/** The shares of the products, <code>points[m][v]</code> for the m-th product of value v*/
+		public final BigInteger[][] points;
+		public SievingProductPoint(long[] candidateIds, int level, BigInteger[][] points) {
+			this.candidateIds = candidateIds;
+			this.level = level;
+			this.points = points;
+		}
+	}
+	
+	/**
+	 * Wraps the shares of the masked products x = a + &sum; &rho;<sub>i</sub> of the sieving
+	 */
+	public static class SievingXPoint implements Serializable {
+		/** The ids of the candidates to RSA modulus*/
+		public final long[] candidateIds;
+		/** The shares of x, one per value*/
+		public final BigInteger[] points;
+		public SievingXPoint(long[] candidateIds, BigInteger[] points) {
+			this.candidateIds = candidateIds;
+			this.points = points;
+		}
+	}
+	
+	/**
+	 * Wraps a BigInteger as a share of Theta, with the digests of the commitments received with the shares it is computed from
 	 */
 	public static class ThetaPoint implements Serializable {
 		/**a share of Theta*/
 		public final BigInteger thetai;
-		public ThetaPoint(BigInteger thetai) {
+		/** The digests of the commitments the party received from each dealer, null if the shares are not verified, see
+		 * {@link protocol.VerifiableSharing#digests}*/
+		public final byte[][] commitmentDigests;
+		public ThetaPoint(BigInteger thetai, byte[][] commitmentDigests) {
 			this.thetai = thetai;
+			this.commitmentDigests = commitmentDigests;
 		}
 	}
 	
@@ -66,28 +111,38 @@ public class Messages {
 	}
 	
 	/** 
-	 * Wraps a BigInteger as a Qi used for Biprimality test. It also contains the round number to avoid concurrency issues 
+	 * Wraps the Qi's of the rounds of one exchange of the Biprimality test. It also contains the candidate id and the exchange
+	 * number to avoid concurrency issues 
 	 */
-	public static class QiTestForRound implements Serializable {
-		/** A Qi in the Biprimality test*/
-		public final BigInteger Qi;
-		/** The current round number in the Biprimality test*/
-		public final int round;
-		public QiTestForRound(BigInteger Qi, int round) {
-			this.Qi = Qi;
-			this.round = round;
+	public static class QiTestBatch implements Serializable {
+		/** The Qi's of the rounds of the exchange, in increasing order of round*/
+		public final BigInteger[] Qis;
+		/** The id of the tested candidate to RSA modulus*/
+		public final long candidateId;
+		/** The exchange number in the Biprimality test*/
+		public final int exchange;
+		public QiTestBatch(BigInteger[] Qis, long candidateId, int exchange) {
+			this.Qis = Qis;
+			this.candidateId = candidateId;
+			this.exchange = exchange;
 		}
 	}
 	
 	
 	
 	/**
-	 * Wraps an HashMap containing the mapping between ActorRef's and id in the protocol
+	 * Wraps an HashMap containing the mapping between ActorRef's and id in the protocol, for a given session of the protocol
 	 */
 	public static class Participants implements Serializable {
 		private final HashMap<ActorRef,Integer> participants;
+		/** The id of the session, 0 when the parties run a single session*/
+		public final long sessionId;
 		public Participants(Map<ActorRef,Integer> participants) {
+			this(participants, 0);
+		}
+		public Participants(Map<ActorRef,Integer> participants, long sessionId) {
 			this.participants = new HashMap<ActorRef, Integer>(participants);
+			this.sessionId = sessionId;
 		}
 		/** @return the map containing the mapping between ActorRef's and id in the protocol*/
 		public Map<ActorRef, Integer> getParticipants() {
@@ -95,10 +150,242 @@ public class Messages {
 		}
 	}
 	
+	/**
+	 * Sent by the session supervisor of a party to the supervisors of the other parties when it starts a session, with the
+	 * actor running the session for the party
+	 */
+	public static class SessionJoined implements Serializable {
+		/** The id of the session*/
+		public final long sessionId;
+		/** The id of the party in the protocol*/
+		public final int id;
+		/** The actor running the session for the party*/
+		public final ActorRef session;
+		public SessionJoined(long sessionId, int id, ActorRef session) {
+			this.sessionId = sessionId;
+			this.id = id;
+			this.session = session;
+		}
+	}
+	
+	/**
+	 * Sent by a session supervisor to the sender of the Participants of a session when the session ended
+	 */
+	public static class SessionEnded implements Serializable {
+		/** The id of the session*/
+		public final long sessionId;
+		public SessionEnded(long sessionId) {
+			this.sessionId = sessionId;
+		}
+	}
+	
+	/**
+	 * Asks a key pool for a set of threshold keys. The pool answers with a ThresholdKeySet, at once if it has one ready.
+	 */
+	public static class KeyRequest implements Serializable {
+	}
+	
+	/**
+	 * The private threshold keys of all parties generated by a session of the protocol, in increasing order of party id
+	 */
+	public static class ThresholdKeySet implements Serializable {
+		/** The id of the session that generated the keys*/
+		public final long sessionId;
+		private final ArrayList<PaillierPrivateThresholdKey> keys;
+		public ThresholdKeySet(long sessionId, List<PaillierPrivateThresholdKey> keys) {
+			this.sessionId = sessionId;
+			this.keys = new ArrayList<PaillierPrivateThresholdKey>(keys);
+		}
+		/** @return the private threshold keys, the key of party i at index i-1*/
+		public List<PaillierPrivateThresholdKey> getKeys() {
+			return new ArrayList<PaillierPrivateThresholdKey>(this.keys);
+		}
+	}
+	
+	/**
+	 * Asks a key pool for its metrics. The pool answers with a KeyPoolMetrics.
+	 */
+	public static class GetKeyPoolMetrics implements Serializable {
+	}
+	
+	/**
+	 * The metrics of a key pool since it started
+	 */
+	public static class KeyPoolMetrics implements Serializable {
+		/** The number of requests answered at once from the pool*/
+		public final long hits;
+		/** The number of requests that had to wait for a new key set*/
+		public final long misses;
+		/** The number of key sets ready in the pool*/
+		public final int available;
+		/** The number of key sets being generated*/
+		public final int refilling;
+		/** The number of key sets generated*/
+		public final long refills;
+		/** The mean time to generate a key set, in milliseconds*/
+		public final double meanRefillMillis;
+		/** The longest time to generate a key set, in milliseconds*/
+		public final long maxRefillMillis;
+		public KeyPoolMetrics(long hits, long misses, int available, int refilling, long refills,
+								double meanRefillMillis, long maxRefillMillis) {
+			this.hits = hits;
+			this.misses = misses;
+			this.available = available;
+			this.refilling = refilling;
+			this.refills = refills;
+			this.meanRefillMillis = meanRefillMillis;
+			this.maxRefillMillis = maxRefillMillis;
+		}
+		@Override
+		public String toString() {
+			return String.format("hits=%d misses=%d available=%d refilling=%d refills=%d meanRefill=%.0fms maxRefill=%dms",
+									hits, misses, available, refilling, refills, meanRefillMillis, maxRefillMillis);
+		}
+	}
+	
+	/**
+	 * Sent by a party resuming the protocol from its journal to the other parties, so that they send it again their messages
+	 * of the phase it resumes
+	 */
+	public static class ResendRequest implements Serializable {
+		/** The candidate to RSA modulus tested or accepted by the party*/
+		public final BigInteger N;
+		public ResendRequest(BigInteger N) {
+			this.N = N;
+		}
+	}
+	
+	/**
+	 * Carries public values broadcast along a tree towards its root, party 1: the values of the parties of the subtree of its
+	 * sender, for one broadcast. See {@link actors.RelayActor}.
+	 */
+	public static class TreeAggregate implements Serializable {
+		/** The broadcast the values are for, see {@link actors.RelayActor#broadcastOf(Object)}*/
+		public final String broadcast;
+		/** The ids of the parties that sent the values*/
+		public final int[] from;
+		/** The values, the v-th one sent by party <code>from[v]</code>*/
+		public final Object[] values;
+		public TreeAggregate(String broadcast, int[] from, Object[] values) {
+			this.broadcast = broadcast;
+			this.from = from;
+			this.values = values;
+		}
+	}
+	
+	/**
+	 * Carries public values broadcast along a tree from its root, party 1, towards the leaves: the values of all parties, for
+	 * one broadcast. See {@link actors.RelayActor}.
+	 */
+	public static class TreeFanout implements Serializable {
+		/** The broadcast the values are for, see {@link actors.RelayActor#broadcastOf(Object)}*/
+		public final String broadcast;
+		/** The ids of the parties that sent the values*/
+		public final int[] from;
+		/** The values, the v-th one sent by party <code>from[v]</code>*/
+		public final Object[] values;
+		public TreeFanout(String broadcast, int[] from, Object[] values) {
+			this.broadcast = broadcast;
+			this.from = from;
+			this.values = values;
+		}
+	}
+	
+	/**
+	 * Carries several messages of a party to another one, coalesced by the {@link actors.Outbox} of the sender. They are
+	 * handled one by one, in their order, as if they were received alone.
+	 */
+	public static class Envelope implements Serializable {
+		/** The messages*/
+		public final Object[] messages;
+		public Envelope(Object[] messages) {
+			this.messages = messages;
+		}
+	}
+	
 	/*
 	 * INTERNAL MESSAGES 
 	 */
 	
+	/**
+	 * Gives a message for another party to the {@link actors.Outbox} of its sender
+	 */
+	public static class Outgoing implements Serializable {
+		/** The ProtocolActor of the other party*/
+		public final ActorRef to;
+		/** The message*/
+		public final Object message;
+		public Outgoing(ActorRef to, Object message) {
+			this.to = to;
+			this.message = message;
+		}
+	}
+	
+	/**
+	 * Sent by the actor of a sub-protocol to its ProtocolActor to broadcast a public value to all the other parties along a
+	 * tree, see {@link actors.RelayActor}
+	 */
+	public static class Broadcast implements Serializable {
+		/** The public value*/
+		public final Object message;
+		public Broadcast(Object message) {
+			this.message = message;
+		}
+	}
+	
+	/**
+	 * Sent by a party to itself to resume the protocol from its journal, after it was restarted
+	 */
+	public static class Resume implements Serializable {
+	}
+	
+	/**
+	 * Sent by a party to itself to deliver a message of another party once it crossed a simulated network
+	 */
+	public static class Delivered implements Serializable {
+		/** The message of the other party*/
+		public final Object message;
+		public Delivered(Object message) {
+			this.message = message;
+		}
+	}
+	
+	/**
+	 * Sets the id of the first candidate of the next batch of a resumed party, so that it numbers its candidates as the other
+	 * parties do
+	 */
+	public static class CandidatesFrom implements Serializable {
+		/** The id of the first candidate of the next batch*/
+		public final long firstCandidateId;
+		public CandidatesFrom(long firstCandidateId) {
+			this.firstCandidateId = firstCandidateId;
+		}
+	}
+	
+	/**
+	 * Wraps the sieved contributions p<sub>i</sub> and q<sub>i</sub> of a batch of candidates, to be used in the next BGW round
+	 * by the given participants
+	 */
+	public static class SievedContributions implements Serializable {
+		private final HashMap<ActorRef,Integer> participants;
+		/** The ids of the candidates to RSA modulus*/
+		public final long[] candidateIds;
+		/** The contributions p<sub>i</sub>, the b-th one for candidate <code>candidateIds[b]</code>*/
+		public final BigInteger[] pis;
+		/** The contributions q<sub>i</sub>, the b-th one for candidate <code>candidateIds[b]</code>*/
+		public final BigInteger[] qis;
+		public SievedContributions(Map<ActorRef,Integer> participants, long[] candidateIds, BigInteger[] pis, BigInteger[] qis) {
+			this.participants = new HashMap<ActorRef, Integer>(participants);
+			this.candidateIds = candidateIds;
+			this.pis = pis;
+			this.qis = qis;
+		}
+		/** @return the map containing the mapping between ActorRef's and id in the protocol*/
+		public Map<ActorRef, Integer> getParticipants() {
+			return new HashMap<ActorRef, Integer>(this.participants);
+		}
+	}
+	
 	/**
 	 * Wraps a BigInteger as a candidate to RSA modulus and its associated BGW private parameters
 	 */
@@ -113,6 +400,20 @@ public class Messages {
 		}
 	}
 
+	/**
+	 * Wraps the candidates to RSA modulus produced by one BGW round, in increasing order of candidate id
+	 */
+	public static class CandidateNBatch implements Serializable {
+		private final ArrayList<CandidateN> candidates;
+		public CandidateNBatch(List<CandidateN> candidates) {
+			this.candidates = new ArrayList<CandidateN>(candidates);
+		}
+		/** @return the candidates of the batch, in increasing order of candidate id*/
+		public List<CandidateN> getCandidates() {
+			return new ArrayList<CandidateN>(this.candidates);
+		}
+	}
+
 	/**
 	 *	Wraps a BigInteger as a tested candidate to RSA modulus along with its associated BGW private parameters and
 	 *	a boolean indicating success or failure of the Biprimality test.
@@ -124,11 +425,44 @@ public class Messages {
 		public BGWPrivateParameters bgwPrivateParameters;
 		/** The result of the Biprimality test. True if succeed, false if not.*/
 		public boolean passes;
+		/** The seed of the randomness of the key derivation of an accepted N, so that a resumed party derives the same
+		 * shares. Null to use the randomness of the key derivation actor.*/
+		public byte[] keysDerivationSeed;
 		public BiprimalityTestResult(BigInteger N,
 				BGWPrivateParameters bgwPrivateParameters, boolean passes) {
+			this(N, bgwPrivateParameters, passes, null);
+		}
+		public BiprimalityTestResult(BigInteger N,
+				BGWPrivateParameters bgwPrivateParameters, boolean passes, byte[] keysDerivationSeed) {
 			this.N = N;
 			this.bgwPrivateParameters = bgwPrivateParameters;
 			this.passes = passes;
+			this.keysDerivationSeed = keysDerivationSeed;
+		}
+	}
+
+	/**
+	 * Signals the end of the writing of the key share of a party to the disk, successful or not.
+	 */
+	public static class KeyShareStored implements Serializable {
+		/** The file of the key share*/
+		public final String file;
+		/** The reason of the failure of the writing, null if it succeeded*/
+		public final Throwable failure;
+		public KeyShareStored(String file, Throwable failure) {
+			this.file = file;
+			this.failure = failure;
+		}
+	}
+	
+	/**
+	 * Sent by a party to itself when a write to its journal, done off the thread of the actor, failed
+	 */
+	public static class JournalFailed implements Serializable {
+		/** The reason of the failure of the writing*/
+		public final Throwable failure;
+		public JournalFailed(Throwable failure) {
+			this.failure = failure;
 		}
 	}
 	
@@ -1,9 +1,18 @@
 package protocol;
 
 import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.stream.Stream;
 
+import math.CommitmentGroup;
+import math.CommitmentGroup.BatchVerifier;
 import math.PolynomialMod;
+import protocol.VerifiableSharing.Commitments;
 
 /**
  * Provide structures for, and generation of, parameters of the BGW protocol.
@@ -30,6 +39,9 @@ public abstract class BGWParameters {
 	 * @author Christian Mouchet
 	 */
 	public static class BGWPrivateParameters extends BGWParameters {
+		/** The id of the candidate to RSA modulus these contributions are for. All parties number their candidates identically.*/
+		public final long candidateId;
+		
 		/** The contribution of party Pi to p = &sum;<sup>N</sup><sub>i=1</sub>   pi*/
 		public final BigInteger pi;
 		
@@ -45,22 +57,45 @@ public abstract class BGWParameters {
 		/** The polynomial used to share Ni*/
 		public final PolynomialMod hi;
 		
-		private BGWPrivateParameters(int i, int n, BigInteger p, BigInteger q,PolynomialMod f, PolynomialMod g, PolynomialMod h) {
+		/** The commitments to fi, gi and hi, null if the shares are not verified*/
+		public final VerifiableSharing verifiableSharing;
+		
+		private BGWPrivateParameters(int i, int n, long candidateId, BigInteger p, BigInteger q,PolynomialMod f, PolynomialMod g, PolynomialMod h,
+										VerifiableSharing verifiableSharing) {
 			super(i,n);
+			this.candidateId = candidateId;
 			this.pi = p;
 			this.qi = q;
 			this.fi = f;
 			this.gi = g;
 			this.hi = h;
+			this.verifiableSharing = verifiableSharing;
+		}
+		
+		/** Generates the private parameters of a batch of candidates with consecutive ids for a given party in the BGW protocol.
+		 * The size of the batch is given by the protocol parameters.
+		 * @param i the id of the party. i &in; [1,n], n the number of parties
+		 * @param firstCandidateId the id of the first candidate of the batch
+		 * @param protParam the security parameters
+		 * @param rand a randomness generator
+		 * @return the generated parameters, in increasing order of candidate id
+		 */
+		public static BGWPrivateParameters[] genBatchFor(int i, long firstCandidateId, ProtocolParameters protParam, Random rand) {
+			BGWPrivateParameters[] batch = new BGWPrivateParameters[protParam.batchSize];
+			for (int b=0; b < batch.length; b++) {
+				batch[b] = genFor(i, firstCandidateId+b, protParam, rand);
+			}
+			return batch;
 		}
 		
 		/** Generates the private parameters for a given party in the BGW protocol
 		 * @param i the id of the party. i &in; [1,n], n the number of parties
+		 * @param candidateId the id of the candidate to RSA modulus
 		 * @param protParam the security parameters
 		 * @param rand a randomness generator
 		 * @return the generated parameters
 		 */
-		public static BGWPrivateParameters genFor(int i, ProtocolParameters protParam, Random rand) {
+		public static BGWPrivateParameters genFor(int i, long candidateId, ProtocolParameters protParam, Random rand) {
 			
 			if (i < 1 || i > protParam.n)
 				throw new IllegalArgumentException("i must be between 1 and the number of parties");
@@ -81,24 +116,75 @@ public abstract class BGWParameters {
 					! p.mod(four).equals(modFourTarget) ||
 					! q.mod(four).equals(modFourTarget));
 			
+			return genFor(i, candidateId, p, q, protParam, rand);
+		}
+		
+		/** Generates the private parameters of a batch of candidates for a given party in the BGW protocol, from given
+		 * contributions to p and q, e.g. sieved ones.
+		 * @param i the id of the party. i &in; [1,n], n the number of parties
+		 * @param candidateIds the ids of the candidates of the batch
+		 * @param pis the contributions to p, the b-th one for candidate <code>candidateIds[b]</code>
+		 * @param qis the contributions to q, the b-th one for candidate <code>candidateIds[b]</code>
+		 * @param protParam the security parameters
+		 * @param rand a randomness generator
+		 * @return the generated parameters, in the order of the batch
+		 */
+		public static BGWPrivateParameters[] genBatchFor(int i, long[] candidateIds, BigInteger[] pis, BigInteger[] qis, ProtocolParameters protParam, Random rand) {
+			BGWPrivateParameters[] batch = new BGWPrivateParameters[candidateIds.length];
+			for (int b=0; b < batch.length; b++) {
+				batch[b] = genFor(i, candidateIds[b], pis[b], qis[b], protParam, rand);
+			}
+			return batch;
+		}
+		
+		/** Generates the private parameters for a given party in the BGW protocol, from given contributions to p and q.
+		 * @param i the id of the party. i &in; [1,n], n the number of parties
+		 * @param candidateId the id of the candidate to RSA modulus
+		 * @param p the contribution to p
+		 * @param q the contribution to q
+		 * @param protParam the security parameters
+		 * @param rand a randomness generator
+		 * @return the generated parameters
+		 */
+		public static BGWPrivateParameters genFor(int i, long candidateId, BigInteger p, BigInteger q, ProtocolParameters protParam, Random rand) {
+			
+			if (i < 1 || i > protParam.n)
+				throw new IllegalArgumentException("i must be between 1 and the number of parties");
+			
 			// polynomials generation
 			
 			PolynomialMod f = new PolynomialMod(protParam.t, protParam.P, p, protParam.k, rand);
 			PolynomialMod g = new PolynomialMod(protParam.t, protParam.P, q, protParam.k, rand);
 			PolynomialMod h = new PolynomialMod(2*protParam.t, protParam.P, BigInteger.ZERO, protParam.k, rand); 
 			
-			return new BGWPrivateParameters(i, protParam.n, p, q, f, g, h);
+			VerifiableSharing verifiableSharing = VerifiableSharing.commit(protParam, rand, f, g, h);
+			
+			return new BGWPrivateParameters(i, protParam.n, candidateId, p, q, f, g, h, verifiableSharing);
+		}
+		
+		/** Restores the contributions of a party to a candidate whose N is computed, e.g. from a {@link Journal}. The sharing
+		 * polynomials and their commitments are not needed anymore and are null.
+		 * @param i the id of the party. i &in; [1,n], n the number of parties
+		 * @param n the number of parties
+		 * @param candidateId the id of the candidate to RSA modulus
+		 * @param p the contribution to p
+		 * @param q the contribution to q
+		 * @return the restored parameters
+		 */
+		public static BGWPrivateParameters restore(int i, int n, long candidateId, BigInteger p, BigInteger q) {
+			return new BGWPrivateParameters(i, n, candidateId, p, q, null, null, null, null);
 		}
 		
 		@Override
 		public String toString() {
-			return String.format("BGWPrivateParameters[%d]", i);
+			return String.format("BGWPrivateParameters[%d](%d)", i, candidateId);
 		}
 		
 	}
 	
 	/**
-	 * The structure used by the parties to exchange their shares.
+	 * The structure used by the parties to exchange their shares. It carries the shares of a whole batch of candidates,
+	 * the b-th shares being for the candidate <code>candidateIds[b]</code>.
 	 * @author Christian Mouchet
 	 */
 	public static class BGWPublicParameters extends BGWParameters {
@@ -106,47 +192,144 @@ public abstract class BGWParameters {
 		/** The id of the party for which these shares were generated*/
 		public final int j;
 		
-		/** The share pij = f(j) of party i's pi generated for party j*/
-		public final BigInteger pij;
+		/** The ids of the candidates to RSA modulus the shares are for*/
+		public final long[] candidateIds;
+		
+		/** The shares pij = f(j) of party i's pi generated for party j*/
+		public final BigInteger[] pij;
 		
-		/** The share qij = g(j) of party i's qi generated for party j*/
-		public final BigInteger qij;
+		/** The shares qij = g(j) of party i's qi generated for party j*/
+		public final BigInteger[] qij;
 		
-		/** The share hij = h(j) of party i's zero generated for party j*/
-		public final BigInteger hij;
+		/** The shares hij = h(j) of party i's zero generated for party j*/
+		public final BigInteger[] hij;
+		
+		/** The commitments of party i to fi, gi and hi of each candidate, null if the shares are not verified*/
+		public final Commitments[] commitments;
 
-		private BGWPublicParameters(int i, int j, int n, BigInteger pj, BigInteger qj, BigInteger hj) {
+		private BGWPublicParameters(int i, int j, int n, long[] candidateIds, BigInteger[] pj, BigInteger[] qj, BigInteger[] hj,
+									Commitments[] commitments) {
 			super(i, n);
+			this.candidateIds = candidateIds;
 			this.pij = pj;
 			this.qij = qj;
 			this.hij = hj;
 			this.j = j;
+			this.commitments = commitments;
 		}
 		
-		/** Checks the shares for correctness. Not implemented yet.
+		/** Checks the shares against the commitments of party i, if the protocol parameters verify the shares.
 		 * @param protocolParameters the security parameters of the protocol
 		 * @return true if the share could be verified, false otherwise
 		 */
 		public boolean isCorrect(ProtocolParameters protocolParameters) {
-			// Not implemented yet
-			return true;
+			return incorrectDealers(Stream.of(new SimpleImmutableEntry<Integer,BGWPublicParameters>(i, this)), protocolParameters).isEmpty();
+		}
+		
+		/** Checks all the shares a party received for a batch at once, see {@link BatchVerifier}, if the protocol parameters
+		 * verify the shares. The shares the party dealt to itself are not checked.
+		 * @param shares the shares received by the party, keyed by the id of their dealer
+		 * @param protocolParameters the security parameters of the protocol
+		 * @return the ids of the dealers of incorrect shares, or of shares without well formed commitments
+		 */
+		public static List<Integer> incorrectDealers(Stream<Map.Entry<Integer,BGWPublicParameters>> shares, ProtocolParameters protocolParameters) {
+			List<Integer> incorrect = new ArrayList<Integer>();
+			if (!protocolParameters.isVerifyingShares())
+				return incorrect;
+			
+			CommitmentGroup group = CommitmentGroup.of(protocolParameters.P);
+			SecureRandom random = new SecureRandom();
+			BatchVerifier verifier = null;
+			for (Map.Entry<Integer,BGWPublicParameters> e : (Iterable<Map.Entry<Integer,BGWPublicParameters>>) shares::iterator) {
+				BGWPublicParameters share = e.getValue();
+				if (e.getKey() == share.j)
+					continue;
+				if (verifier == null)
+					verifier = group.verifier(share.j, random);
+				BigInteger[][] values = new BigInteger[share.candidateIds.length][];
+				for (int b=0; b < values.length; b++)
+					values[b] = new BigInteger[]{share.pij[b], share.qij[b], share.hij[b]};
+				Commitments.addAllTo(protocolParameters, verifier, e.getKey(), share.commitments, values, incorrect,
+									protocolParameters.t, protocolParameters.t, 2*protocolParameters.t);
+			}
+			if (verifier != null)
+				incorrect.addAll(verifier.incorrectDealers());
+			return incorrect;
 		}
 		
 		/** Generates the shares for a given party j.
 		 * @param j the id of the party for which we want to generate the share
-		 * @param bgwPrivParam the private parameters to use
+		 * @param bgwPrivParams the private parameters of each candidate of the batch
 		 * @return a structure containing the shares generated to party j
 		 */
-		public static BGWPublicParameters genFor(int j, BGWPrivateParameters bgwPrivParam) {
+		public static BGWPublicParameters genFor(int j, BGWPrivateParameters[] bgwPrivParams) {
 			
-			if (j < 1 || j > bgwPrivParam.n)
+			if (j < 1 || j > bgwPrivParams[0].n)
 				throw new IllegalArgumentException("j must be between 1 and the number of parties");
 			
-			int i = bgwPrivParam.i;
-			BigInteger pj = bgwPrivParam.fi.eval(j);
-			BigInteger qj = bgwPrivParam.gi.eval(j);
-			BigInteger hj = bgwPrivParam.hi.eval(j);
-			return new BGWPublicParameters(i,j, bgwPrivParam.n, pj, qj, hj);
+			int B = bgwPrivParams.length;
+			BigInteger[] pj = new BigInteger[B];
+			BigInteger[] qj = new BigInteger[B];
+			BigInteger[] hj = new BigInteger[B];
+			Commitments[] commitments = bgwPrivParams[0].verifiableSharing == null ? null : new Commitments[B];
+			for (int b=0; b < B; b++) {
+				pj[b] = bgwPrivParams[b].fi.eval(j);
+				qj[b] = bgwPrivParams[b].gi.eval(j);
+				hj[b] = bgwPrivParams[b].hi.eval(j);
+				if (commitments != null)
+					commitments[b] = bgwPrivParams[b].verifiableSharing.sharesFor(j);
+			}
+			return new BGWPublicParameters(bgwPrivParams[0].i, j, bgwPrivParams[0].n, candidateIds(bgwPrivParams), pj, qj, hj, commitments);
+		}
+		
+		/** Generates the shares for all parties at once. Each polynomial is evaluated at all the parties' ids in one pass.
+		 * @param bgwPrivParams the private parameters of each candidate of the batch
+		 * @return the structures containing the shares generated for each party, party j's at index <code>j-1</code>
+		 */
+		public static BGWPublicParameters[] genForAll(BGWPrivateParameters[] bgwPrivParams) {
+			int n = bgwPrivParams[0].n;
+			int B = bgwPrivParams.length;
+			BigInteger[][] pjs = new BigInteger[B][];
+			BigInteger[][] qjs = new BigInteger[B][];
+			BigInteger[][] hjs = new BigInteger[B][];
+			Commitments[][] allCommitments = bgwPrivParams[0].verifiableSharing == null ? null : new Commitments[B][];
+			for (int b=0; b < B; b++) {
+				pjs[b] = bgwPrivParams[b].fi.evalRange(n);
+				qjs[b] = bgwPrivParams[b].gi.evalRange(n);
+				hjs[b] = bgwPrivParams[b].hi.evalRange(n);
+				if (allCommitments != null)
+					allCommitments[b] = bgwPrivParams[b].verifiableSharing.sharesForAll(n);
+			}
+			
+			long[] candidateIds = candidateIds(bgwPrivParams);
+			BGWPublicParameters[] shares = new BGWPublicParameters[n];
+			for (int j=1; j<=n; j++) {
+				BigInteger[] pj = new BigInteger[B];
+				BigInteger[] qj = new BigInteger[B];
+				BigInteger[] hj = new BigInteger[B];
+				Commitments[] commitments = allCommitments == null ? null : new Commitments[B];
+				for (int b=0; b < B; b++) {
+					pj[b] = pjs[b][j-1];
+					qj[b] = qjs[b][j-1];
+					hj[b] = hjs[b][j-1];
+					if (commitments != null)
+						commitments[b] = allCommitments[b][j-1];
+				}
+				shares[j-1] = new BGWPublicParameters(bgwPrivParams[0].i, j, n, candidateIds, pj, qj, hj, commitments);
+			}
+			return shares;
+		}
+		
+		/** Returns the ids of the candidates of a batch
+		 * @param bgwPrivParams the private parameters of each candidate of the batch
+		 * @return the candidate ids, in the order of the batch
+		 */
+		public static long[] candidateIds(BGWPrivateParameters[] bgwPrivParams) {
+			long[] candidateIds = new long[bgwPrivParams.length];
+			for (int b=0; b < bgwPrivParams.length; b++) {
+				candidateIds[b] = bgwPrivParams[b].candidateId;
+			}
+			return candidateIds;
 		}
 		
 		@Override
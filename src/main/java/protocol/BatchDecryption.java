@@ -0,0 +1,168 @@
+package protocol;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import math.IntegersUtils;
+import paillierp.PaillierThreshold;
+import paillierp.key.PaillierPrivateThresholdKey;
+
+/**
+ * Threshold decryption of batches of ciphertexts, e.g. the ballots of a tally, with the key shares of w parties of a key
+ * generated by the protocol. The ciphertexts are split among the workers of a fork-join pool, and the plaintexts are returned
+ * in the order of the ciphertexts.
+ * <p>
+ * The result is the one of {@link PaillierThreshold#combineShares(paillierp.PartialDecryption...)} on the partial
+ * decryptions of the same shares, but everything that depends only on the participating subset is computed once: the
+ * Lagrange coefficients &lambda;<sub>i</sub>, taken from the cache of {@link IntegersUtils#getIntegerLagrangeCoefficients},
+ * and for each share the exponent 2&Delta;s<sub>i</sub> &middot; 2&lambda;<sub>i</sub>
+ * of the partial decryption raised to its coefficient. Each share then costs one exponentiation per ciphertext instead of two,
+ * and the shares with a negative coefficient share a single inversion. The shares are still applied one by one, their sum
+ * is never computed.
+ * @author Christian Mouchet
+ */
+public class BatchDecryption {
+
+	/** The number of ciphertexts below which a task decrypts its range rather than splitting it*/
+	public static final int LEAF_SIZE = 16;
+
+	private final BigInteger n;
+	private final BigInteger nSquare;
+	private final BigInteger combineSharesConstant;
+	private final int[] ids;
+	/** The exponents of the shares with a non-negative coefficient, 4&Delta;&lambda;<sub>i</sub>s<sub>i</sub>*/
+	private final BigInteger[] positiveExponents;
+	/** The opposite of the exponents of the shares with a negative coefficient*/
+	private final BigInteger[] negativeExponents;
+	private final ForkJoinPool pool;
+
+	/** Constructor of a decryption in the common fork-join pool.
+	 * @param keys the key shares of at least w parties of the same key. The w shares of smallest ids are used.
+	 */
+	public BatchDecryption(List<PaillierPrivateThresholdKey> keys) {
+		this(keys, ForkJoinPool.commonPool());
+	}
+
+	/** @param keys the key shares of at least w parties of the same key. The w shares of smallest ids are used.
+	 * @param pool the pool in which the ciphertexts are decrypted
+	 */
+	public BatchDecryption(List<PaillierPrivateThresholdKey> keys, ForkJoinPool pool) {
+		if (keys.isEmpty())
+			throw new IllegalArgumentException("at least one key share is needed");
+		PaillierPrivateThresholdKey first = keys.get(0);
+		int w = first.getW();
+		List<PaillierPrivateThresholdKey> subset = keys.stream()
+				.sorted(Comparator.comparingInt(PaillierPrivateThresholdKey::getID))
+				.limit(w)
+				.collect(Collectors.toList());
+		if (subset.size() < w)
+			throw new IllegalArgumentException("at least "+w+" key shares are needed, got "+keys.size());
+		for (int i=0; i < w; i++) {
+			if (!subset.get(i).getN().equals(first.getN()))
+				throw new IllegalArgumentException("the key shares are not of the same key");
+			if (i > 0 && subset.get(i).getID() == subset.get(i-1).getID())
+				throw new IllegalArgumentException("the key share "+subset.get(i).getID()+" is repeated");
+		}
+
+		this.n = first.getN();
+		this.nSquare = first.getNSPlusOne();
+		this.combineSharesConstant = first.getCombineSharesConstant();
+		this.ids = subset.stream().mapToInt(PaillierPrivateThresholdKey::getID).toArray();
+		this.pool = pool;
+
+		BigInteger delta = first.getDelta();
+		BigInteger[] lambdas = IntegersUtils.getIntegerLagrangeCoefficients(ids, delta);
+		List<BigInteger> positive = new ArrayList<BigInteger>();
+		List<BigInteger> negative = new ArrayList<BigInteger>();
+		for (int i=0; i < w; i++) {
+			BigInteger exponent = subset.get(i).getSi().multiply(delta).multiply(lambdas[i]).shiftLeft(2);
+			if (exponent.signum() < 0)
+				negative.add(exponent.negate());
+			else
+				positive.add(exponent);
+		}
+		this.positiveExponents = positive.toArray(new BigInteger[positive.size()]);
+		this.negativeExponents = negative.toArray(new BigInteger[negative.size()]);
+	}
+
+	/** @return the ids of the key shares used, in increasing order*/
+	public int[] getIds() {
+		return ids.clone();
+	}
+
+	/** Decrypts a batch of ciphertexts in parallel.
+	 * @param ciphertexts the ciphertexts, smaller than n<sup>2</sup>
+	 * @return the plaintexts, in the order of the ciphertexts
+	 */
+	public List<BigInteger> decrypt(List<BigInteger> ciphertexts) {
+		BigInteger[] cs = ciphertexts.toArray(new BigInteger[ciphertexts.size()]);
+		BigInteger[] plaintexts = new BigInteger[cs.length];
+		pool.invoke(new Decryption(cs, plaintexts, 0, cs.length));
+		return Collections.unmodifiableList(Arrays.asList(plaintexts));
+	}
+
+	/** Decrypts a stream of ciphertexts in parallel. The stream is collected before the decryption starts.
+	 * @param ciphertexts the ciphertexts, smaller than n<sup>2</sup>
+	 * @return the plaintexts, in the order of the ciphertexts
+	 */
+	public List<BigInteger> decrypt(Stream<BigInteger> ciphertexts) {
+		return decrypt(ciphertexts.collect(Collectors.toList()));
+	}
+
+	/** Decrypts a single ciphertext in the calling thread.
+	 * @param c a ciphertext, smaller than n<sup>2</sup>
+	 * @return the plaintext
+	 */
+	public BigInteger decrypt(BigInteger c) {
+		if (c.signum() < 0 || c.compareTo(nSquare) >= 0)
+			throw new IllegalArgumentException("c must be less than n^2");
+		BigInteger cprime = BigInteger.ONE;
+		for (BigInteger e : positiveExponents)
+			cprime = cprime.multiply(c.modPow(e, nSquare)).mod(nSquare);
+		if (negativeExponents.length > 0) {
+			BigInteger denominator = BigInteger.ONE;
+			for (BigInteger e : negativeExponents)
+				denominator = denominator.multiply(c.modPow(e, nSquare)).mod(nSquare);
+			cprime = cprime.multiply(denominator.modInverse(nSquare)).mod(nSquare);
+		}
+		return cprime.subtract(BigInteger.ONE).divide(n).multiply(combineSharesConstant).mod(n);
+	}
+
+	/** Decrypts the ciphertexts of indexes [from; to), splitting the range in halves down to {@link #LEAF_SIZE}*/
+	private class Decryption extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final BigInteger[] ciphertexts;
+		private final BigInteger[] plaintexts;
+		private final int from;
+		private final int to;
+
+		private Decryption(BigInteger[] ciphertexts, BigInteger[] plaintexts, int from, int to) {
+			this.ciphertexts = ciphertexts;
+			this.plaintexts = plaintexts;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= LEAF_SIZE) {
+				for (int i=from; i < to; i++)
+					plaintexts[i] = decrypt(ciphertexts[i]);
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			invokeAll(new Decryption(ciphertexts, plaintexts, from, middle),
+						new Decryption(ciphertexts, plaintexts, middle, to));
+		}
+	}
+}
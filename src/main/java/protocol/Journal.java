@@ -0,0 +1,628 @@
+package protocol;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import messages.Messages.CandidateN;
+import messages.Messages.QiTestBatch;
+import messages.Messages.ThetaPoint;
+import messages.Messages.VerificationKey;
+import protocol.BGWParameters.BGWPrivateParameters;
+import protocol.KeysDerivationParameters.KeysDerivationPublicParameters;
+import protocol.VerifiableSharing.Commitments;
+
+/**
+ * Append-only journal of a party, from which it resumes the protocol after a restart. The party writes the candidates of
+ * each batch, then a checkpoint when it starts the biprimality test of a candidate and when it accepts N, and appends the
+ * messages of the other parties for these two phases as it receives them. A party resuming from its last checkpoint thus
+ * replays at most one phase. The generation of a new batch of candidates is only marked in the journal, a party cannot
+ * resume it. The journal is started again with each batch, so that it holds the records of one batch at most, and of the
+ * batches generated ahead of it with pipelining (see {@link ProtocolParameters#withPipelineDepth(int)}).
+ * <p>
+ * The file starts with the magic number {@link #MAGIC} and the {@link #FORMAT_VERSION}. Each record follows as its length,
+ * its CRC32 checksum and its content, the first byte of which is its type. The checkpoints are forced to the disk, the
+ * received messages are only written, since the other parties can send them again. A record cut by a crash ends the
+ * journal: it is ignored when reading and overwritten by the next record.
+ * <p>
+ * The journal holds the contributions of the party to p and q, so it is written like the key shares of a
+ * {@link KeyShareStore}: a new journal is written to a temporary file, only readable by its owner where the file system
+ * has POSIX permissions, and renamed over the previous one. Its methods block on the disk, and must be called by one
+ * thread at a time.
+ * @author Christian Mouchet
+ */
+public class Journal {
+
+	/** The first four bytes of a journal file, "TPJL"*/
+	public static final int MAGIC = 0x54504a4c;
+
+	/** The version of the format of the journal files*/
+	public static final int FORMAT_VERSION = 3;
+
+	/** The extension of the journal files*/
+	public static final String EXTENSION = ".journal";
+
+	private static final int FILE_HEADER_LENGTH = 4 + 4;
+	private static final int RECORD_HEADER_LENGTH = 4 + 8;
+
+	private static final byte STARTED = 1;
+	private static final byte TESTING = 2;
+	private static final byte ACCEPTED = 3;
+	private static final byte RECEIVED = 4;
+	private static final byte GENERATING = 5;
+	private static final byte BATCH = 6;
+
+	private static final byte QI_TEST_BATCH = 1;
+	private static final byte KEYS_DERIVATION_SHARES = 2;
+	private static final byte THETA_POINT = 3;
+	private static final byte VERIFICATION_KEY = 4;
+
+	/** The file of the journal*/
+	public final Path file;
+
+	private FileChannel channel;
+	private long validLength = -1;
+
+	/** @param file the file of the journal. It is created, with its directory, when the journal is started.*/
+	public Journal(Path file) {
+		this.file = file;
+	}
+
+	/** Starts a new journal, atomically replacing the previous one if any.
+	 * @param started the first record of the journal
+	 * @throws IOException if the journal cannot be written
+	 */
+	public void start(Started started) throws IOException {
+		close();
+		Path directory = file.toAbsolutePath().getParent();
+		Files.createDirectories(directory);
+		// The temporary file is created owner-only, and keeps its permissions when renamed
+		Path tmp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+		try {
+			channel = FileChannel.open(tmp, StandardOpenOption.WRITE);
+			ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_LENGTH).putInt(MAGIC).putInt(FORMAT_VERSION);
+			header.flip();
+			writeFully(header);
+			append(started, true);
+			close();
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			if (channel != null)
+				channel.close();
+			channel = null;
+			validLength = -1;
+			Files.deleteIfExists(tmp);
+			throw e;
+		}
+	}
+
+	/** Appends a checkpoint and forces it to the disk.
+	 * @param checkpoint a {@link Generating}, {@link Batch}, {@link Testing} or {@link Accepted} record
+	 * @throws IOException if the journal cannot be written, or was not started nor read
+	 */
+	public void checkpoint(Record checkpoint) throws IOException {
+		append(checkpoint, true);
+	}
+
+	/** Appends a message received from another party, without forcing it to the disk.
+	 * @param from the id of the sender
+	 * @param message a {@link QiTestBatch}, {@link KeysDerivationPublicParameters}, {@link ThetaPoint} or {@link VerificationKey}
+	 * @throws IOException if the journal cannot be written, or was not started nor read
+	 */
+	public void received(int from, Object message) throws IOException {
+		append(new Received(from, message), false);
+	}
+
+	/** Reads the records of the journal, up to the first incomplete or corrupted one. The next records are appended after
+	 * the last valid one.
+	 * @return the records, in the order in which they were appended. Empty if there is no journal.
+	 * @throws IOException if the journal cannot be read or is of another format
+	 */
+	public List<Record> read() throws IOException {
+		close();
+		if (!Files.exists(file))
+			return Collections.emptyList();
+
+		ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+		if (buffer.remaining() < FILE_HEADER_LENGTH || buffer.getInt() != MAGIC)
+			throw new IOException(file+" is not a journal file");
+		int version = buffer.getInt();
+		if (version != FORMAT_VERSION)
+			throw new IOException(file+" is of unsupported format version "+version);
+
+		List<Record> records = new ArrayList<Record>();
+		while (buffer.remaining() >= RECORD_HEADER_LENGTH) {
+			int length = buffer.getInt();
+			long checksum = buffer.getLong();
+			if (length <= 0 || length > buffer.remaining())
+				break;
+			byte[] content = new byte[length];
+			buffer.get(content);
+			CRC32 crc = new CRC32();
+			crc.update(content);
+			if (crc.getValue() != checksum)
+				break;
+			records.add(Record.decode(content));
+			validLength = buffer.position();
+		}
+		if (records.isEmpty())
+			validLength = FILE_HEADER_LENGTH;
+		return records;
+	}
+
+	/** Deletes the journal, once the party does not need to resume anymore, be it done or stopped for good.
+	 * @throws IOException if the file cannot be deleted
+	 */
+	public void delete() throws IOException {
+		close();
+		Files.deleteIfExists(file);
+		validLength = -1;
+	}
+
+	/** Closes the file of the journal, which is reopened by the next record.
+	 * @throws IOException if the file cannot be closed
+	 */
+	public void close() throws IOException {
+		if (channel != null) {
+			validLength = channel.position();
+			channel.close();
+			channel = null;
+		}
+	}
+
+	private void append(Record record, boolean force) throws IOException {
+		if (channel == null) {
+			if (validLength < 0)
+				throw new IOException("the journal "+file+" was neither started nor read");
+			channel = FileChannel.open(file, StandardOpenOption.WRITE);
+			channel.truncate(validLength);
+			channel.position(validLength);
+		}
+
+		byte[] content = record.encode();
+		CRC32 crc = new CRC32();
+		crc.update(content);
+		ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER_LENGTH + content.length);
+		buffer.putInt(content.length).putLong(crc.getValue()).put(content);
+		buffer.flip();
+		writeFully(buffer);
+		if (force)
+			channel.force(false);
+	}
+
+	private void writeFully(ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+	}
+
+	/**
+	 * A record of the journal
+	 */
+	public static abstract class Record {
+
+		private byte[] encode() throws IOException {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			writeTo(out);
+			out.flush();
+			return bytes.toByteArray();
+		}
+
+		abstract void writeTo(DataOutputStream out) throws IOException;
+
+		private static Record decode(byte[] content) throws IOException {
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(content));
+			byte type = in.readByte();
+			switch (type) {
+				case STARTED:
+					return Started.readFrom(in);
+				case TESTING:
+					return Testing.readFrom(in);
+				case ACCEPTED:
+					return Accepted.readFrom(in);
+				case RECEIVED:
+					return Received.readFrom(in);
+				case GENERATING:
+					return new Generating();
+				case BATCH:
+					return Batch.readFrom(in);
+				default:
+					throw new IOException("unknown journal record type "+type);
+			}
+		}
+	}
+
+	/**
+	 * The first record of a journal: the parameters of the protocol and the parties, so that a party does not resume a run
+	 * with other parameters
+	 */
+	public static class Started extends Record {
+		/** The security parameter, the number of parties and the threshold*/
+		public final int k, n, t;
+		/** The prime of the sharings*/
+		public final BigInteger P;
+		private final HashMap<String,Integer> participants;
+
+		/** @param protocolParameters the public parameters of the protocol
+		 * @param participants the ids of the parties by the serialized paths of their actors
+		 */
+		public Started(ProtocolParameters protocolParameters, Map<String,Integer> participants) {
+			this(protocolParameters.k, protocolParameters.n, protocolParameters.t, protocolParameters.P, participants);
+		}
+
+		private Started(int k, int n, int t, BigInteger P, Map<String,Integer> participants) {
+			this.k = k;
+			this.n = n;
+			this.t = t;
+			this.P = P;
+			this.participants = new HashMap<String,Integer>(participants);
+		}
+
+		/** @return the ids of the parties by the serialized paths of their actors*/
+		public Map<String,Integer> getParticipants() {
+			return new HashMap<String,Integer>(participants);
+		}
+
+		/** @param protocolParameters the public parameters of a run of the protocol
+		 * @return true if they are the ones of the journal, up to the tuning of the protocol that the parties need not share
+		 */
+		public boolean isFor(ProtocolParameters protocolParameters) {
+			return k == protocolParameters.k && n == protocolParameters.n && t == protocolParameters.t
+					&& P.equals(protocolParameters.P);
+		}
+
+		@Override
+		void writeTo(DataOutputStream out) throws IOException {
+			out.writeByte(STARTED);
+			out.writeInt(k);
+			out.writeInt(n);
+			out.writeInt(t);
+			writeBigInteger(out, P);
+			out.writeInt(participants.size());
+			for (Map.Entry<String,Integer> participant : participants.entrySet()) {
+				out.writeUTF(participant.getKey());
+				out.writeInt(participant.getValue());
+			}
+		}
+
+		private static Started readFrom(DataInputStream in) throws IOException {
+			int k = in.readInt();
+			int n = in.readInt();
+			int t = in.readInt();
+			BigInteger P = readBigInteger(in);
+			int size = in.readInt();
+			Map<String,Integer> participants = new HashMap<String,Integer>();
+			for (int p=0; p < size; p++)
+				participants.put(in.readUTF(), in.readInt());
+			return new Started(k, n, t, P, participants);
+		}
+	}
+
+	/**
+	 * The candidates to RSA modulus of a batch, written once before their biprimality tests
+	 */
+	public static class Batch extends Record {
+		private final ArrayList<CandidateN> candidates;
+
+		/** @param candidates the candidates of the batch, in increasing order of candidate id*/
+		public Batch(List<CandidateN> candidates) {
+			this.candidates = new ArrayList<CandidateN>(candidates);
+		}
+
+		/** @param firstCandidateId the id of a candidate of the batch
+		 * @return the candidates of the batch from the given one on, in increasing order of candidate id. The sharing
+		 * polynomials of their BGW private parameters are not journaled.
+		 */
+		public List<CandidateN> getCandidatesFrom(long firstCandidateId) {
+			List<CandidateN> from = new ArrayList<CandidateN>();
+			for (CandidateN candidate : candidates) {
+				if (candidate.bgwPrivateParameters.candidateId >= firstCandidateId)
+					from.add(candidate);
+			}
+			return from;
+		}
+
+		@Override
+		void writeTo(DataOutputStream out) throws IOException {
+			out.writeByte(BATCH);
+			out.writeInt(candidates.size());
+			for (CandidateN candidate : candidates)
+				writeCandidate(out, candidate);
+		}
+
+		private static Batch readFrom(DataInputStream in) throws IOException {
+			int size = in.readInt();
+			List<CandidateN> candidates = new ArrayList<CandidateN>(size);
+			for (int c=0; c < size; c++)
+				candidates.add(readCandidate(in));
+			return new Batch(candidates);
+		}
+	}
+
+	/**
+	 * Checkpoint of the start of the biprimality test of a candidate of the last {@link Batch}
+	 */
+	public static class Testing extends Record {
+		/** The id of the tested candidate*/
+		public final long candidateId;
+		/** The number of candidates trial-divided so far*/
+		public final long trialDivisions;
+		private final TreeMap<Integer,Long> trialDivisionRejections;
+
+		/** @param candidateId the id of the tested candidate
+		 * @param trialDivisions the number of candidates trial-divided so far
+		 * @param trialDivisionRejections the number of rejected candidates by their smallest factor
+		 */
+		public Testing(long candidateId, long trialDivisions, SortedMap<Integer,Long> trialDivisionRejections) {
+			this.candidateId = candidateId;
+			this.trialDivisions = trialDivisions;
+			this.trialDivisionRejections = new TreeMap<Integer,Long>(trialDivisionRejections);
+		}
+
+		/** @return the number of rejected candidates by their smallest factor*/
+		public SortedMap<Integer,Long> getTrialDivisionRejections() {
+			return new TreeMap<Integer,Long>(trialDivisionRejections);
+		}
+
+		@Override
+		void writeTo(DataOutputStream out) throws IOException {
+			out.writeByte(TESTING);
+			out.writeLong(candidateId);
+			out.writeLong(trialDivisions);
+			out.writeInt(trialDivisionRejections.size());
+			for (Map.Entry<Integer,Long> rejections : trialDivisionRejections.entrySet()) {
+				out.writeInt(rejections.getKey());
+				out.writeLong(rejections.getValue());
+			}
+		}
+
+		private static Testing readFrom(DataInputStream in) throws IOException {
+			long candidateId = in.readLong();
+			long trialDivisions = in.readLong();
+			int factors = in.readInt();
+			SortedMap<Integer,Long> rejections = new TreeMap<Integer,Long>();
+			for (int f=0; f < factors; f++)
+				rejections.put(in.readInt(), in.readLong());
+			return new Testing(candidateId, trialDivisions, rejections);
+		}
+	}
+
+	/**
+	 * Checkpoint of the start of the generation of a new batch of candidates, from which a party cannot resume until the
+	 * batch is journaled
+	 */
+	public static class Generating extends Record {
+
+		@Override
+		void writeTo(DataOutputStream out) throws IOException {
+			out.writeByte(GENERATING);
+		}
+	}
+
+	/**
+	 * Checkpoint of the acceptance of N, before the key derivation
+	 */
+	public static class Accepted extends Record {
+		/** The accepted candidate to RSA modulus. The sharing polynomials of its BGW private parameters are not journaled.*/
+		public final CandidateN accepted;
+		private final byte[] keysDerivationSeed;
+
+		/** @param accepted the accepted candidate to RSA modulus
+		 * @param keysDerivationSeed the seed of the randomness of the key derivation
+		 */
+		public Accepted(CandidateN accepted, byte[] keysDerivationSeed) {
+			this.accepted = accepted;
+			this.keysDerivationSeed = keysDerivationSeed.clone();
+		}
+
+		/** @return the seed of the randomness of the key derivation*/
+		public byte[] getKeysDerivationSeed() {
+			return keysDerivationSeed.clone();
+		}
+
+		@Override
+		void writeTo(DataOutputStream out) throws IOException {
+			out.writeByte(ACCEPTED);
+			writeCandidate(out, accepted);
+			out.writeInt(keysDerivationSeed.length);
+			out.write(keysDerivationSeed);
+		}
+
+		private static Accepted readFrom(DataInputStream in) throws IOException {
+			CandidateN accepted = readCandidate(in);
+			byte[] seed = new byte[in.readInt()];
+			in.readFully(seed);
+			return new Accepted(accepted, seed);
+		}
+	}
+
+	/**
+	 * A message received from another party during the biprimality test or the key derivation
+	 */
+	public static class Received extends Record {
+		/** The id of the sender*/
+		public final int from;
+		/** The message*/
+		public final Object message;
+
+		/** @param from the id of the sender
+		 * @param message a {@link QiTestBatch}, {@link KeysDerivationPublicParameters}, {@link ThetaPoint} or {@link VerificationKey}
+		 */
+		public Received(int from, Object message) {
+			this.from = from;
+			this.message = message;
+		}
+
+		@Override
+		void writeTo(DataOutputStream out) throws IOException {
+			out.writeByte(RECEIVED);
+			out.writeInt(from);
+			if (message instanceof QiTestBatch) {
+				QiTestBatch batch = (QiTestBatch) message;
+				out.writeByte(QI_TEST_BATCH);
+				out.writeLong(batch.candidateId);
+				out.writeInt(batch.exchange);
+				out.writeInt(batch.Qis.length);
+				for (BigInteger Qi : batch.Qis)
+					writeBigInteger(out, Qi);
+			} else if (message instanceof KeysDerivationPublicParameters) {
+				KeysDerivationPublicParameters shares = (KeysDerivationPublicParameters) message;
+				out.writeByte(KEYS_DERIVATION_SHARES);
+				out.writeInt(shares.i);
+				out.writeInt(shares.j);
+				writeBigInteger(out, shares.betaij);
+				writeBigInteger(out, shares.DRij);
+				writeBigInteger(out, shares.Phiij);
+				writeBigInteger(out, shares.hij);
+				writeCommitments(out, shares.commitments);
+			} else if (message instanceof ThetaPoint) {
+				out.writeByte(THETA_POINT);
+				writeBigInteger(out, ((ThetaPoint) message).thetai);
+				writeDigests(out, ((ThetaPoint) message).commitmentDigests);
+			} else if (message instanceof VerificationKey) {
+				out.writeByte(VERIFICATION_KEY);
+				writeBigInteger(out, ((VerificationKey) message).verificationKey);
+			} else {
+				throw new IOException("cannot journal a "+message.getClass().getName());
+			}
+		}
+
+		private static Received readFrom(DataInputStream in) throws IOException {
+			int from = in.readInt();
+			byte type = in.readByte();
+			switch (type) {
+				case QI_TEST_BATCH:
+					long candidateId = in.readLong();
+					int exchange = in.readInt();
+					BigInteger[] Qis = new BigInteger[in.readInt()];
+					for (int r=0; r < Qis.length; r++)
+						Qis[r] = readBigInteger(in);
+					return new Received(from, new QiTestBatch(Qis, candidateId, exchange));
+				case KEYS_DERIVATION_SHARES:
+					int i = in.readInt();
+					int j = in.readInt();
+					return new Received(from, new KeysDerivationPublicParameters(i, j, readBigInteger(in), readBigInteger(in),
+																				readBigInteger(in), readBigInteger(in),
+																				readCommitments(in)));
+				case THETA_POINT:
+					return new Received(from, new ThetaPoint(readBigInteger(in), readDigests(in)));
+				case VERIFICATION_KEY:
+					return new Received(from, new VerificationKey(readBigInteger(in)));
+				default:
+					throw new IOException("unknown journaled message type "+type);
+			}
+		}
+	}
+
+	private static void writeCandidate(DataOutputStream out, CandidateN candidate) throws IOException {
+		BGWPrivateParameters bgwPrivateParameters = candidate.bgwPrivateParameters;
+		writeBigInteger(out, candidate.N);
+		out.writeInt(bgwPrivateParameters.i);
+		out.writeInt(bgwPrivateParameters.n);
+		out.writeLong(bgwPrivateParameters.candidateId);
+		writeBigInteger(out, bgwPrivateParameters.pi);
+		writeBigInteger(out, bgwPrivateParameters.qi);
+	}
+
+	private static CandidateN readCandidate(DataInputStream in) throws IOException {
+		BigInteger N = readBigInteger(in);
+		int i = in.readInt();
+		int n = in.readInt();
+		long candidateId = in.readLong();
+		BigInteger pi = readBigInteger(in);
+		BigInteger qi = readBigInteger(in);
+		return new CandidateN(N, BGWPrivateParameters.restore(i, n, candidateId, pi, qi));
+	}
+
+	/** Writes the commitments received with shares, as a flag, each vector of commitments and the blinding shares if any*/
+	private static void writeCommitments(DataOutputStream out, Commitments commitments) throws IOException {
+		out.writeBoolean(commitments != null);
+		if (commitments == null)
+			return;
+		out.writeInt(commitments.commitments.length);
+		for (BigInteger[] vector : commitments.commitments) {
+			out.writeInt(vector.length);
+			for (BigInteger commitment : vector)
+				writeBigInteger(out, commitment);
+		}
+		out.writeBoolean(commitments.blindings != null);
+		if (commitments.blindings != null) {
+			for (BigInteger blinding : commitments.blindings)
+				writeBigInteger(out, blinding);
+		}
+	}
+
+	private static Commitments readCommitments(DataInputStream in) throws IOException {
+		if (!in.readBoolean())
+			return null;
+		BigInteger[][] vectors = new BigInteger[in.readInt()][];
+		for (int s=0; s < vectors.length; s++) {
+			vectors[s] = new BigInteger[in.readInt()];
+			for (int k=0; k < vectors[s].length; k++)
+				vectors[s][k] = readBigInteger(in);
+		}
+		BigInteger[] blindings = null;
+		if (in.readBoolean()) {
+			blindings = new BigInteger[vectors.length];
+			for (int s=0; s < blindings.length; s++)
+				blindings[s] = readBigInteger(in);
+		}
+		return new Commitments(vectors, blindings);
+	}
+
+	/** Writes the digests of the commitments published with a share, as a flag, and each digest if any*/
+	private static void writeDigests(DataOutputStream out, byte[][] digests) throws IOException {
+		out.writeBoolean(digests != null);
+		if (digests == null)
+			return;
+		out.writeInt(digests.length);
+		for (byte[] digest : digests) {
+			out.writeInt(digest == null ? -1 : digest.length);
+			if (digest != null)
+				out.write(digest);
+		}
+	}
+
+	private static byte[][] readDigests(DataInputStream in) throws IOException {
+		if (!in.readBoolean())
+			return null;
+		byte[][] digests = new byte[in.readInt()][];
+		for (int j=0; j < digests.length; j++) {
+			int length = in.readInt();
+			if (length >= 0) {
+				digests[j] = new byte[length];
+				in.readFully(digests[j]);
+			}
+		}
+		return digests;
+	}
+
+	private static void writeBigInteger(DataOutputStream out, BigInteger value) throws IOException {
+		byte[] bytes = value.toByteArray();
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static BigInteger readBigInteger(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new BigInteger(bytes);
+	}
+}
@@ -0,0 +1,231 @@
+package protocol;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.CRC32;
+
+/**
+ * Store of the private key shares generated by the protocol, one file per share. The files are written asynchronously, so
+ * that the actors never wait for the disk: the share is written to a temporary file with an {@link AsynchronousFileChannel},
+ * forced to the disk, and the file is then atomically renamed, so that a crash leaves either the previous file or the new
+ * one, never a partial one.
+ * <p>
+ * A file starts with a header of {@link #HEADER_LENGTH} bytes: the magic number {@link #MAGIC}, the
+ * {@link #FORMAT_VERSION}, the length of the share and its CRC32 checksum. The share follows, in the format of
+ * <code>PaillierPrivateThresholdKey.toByteArray()</code>. Use {@link #read(Path)} to check the header and get the share back.
+ * @author Christian Mouchet
+ */
+public class KeyShareStore {
+
+	/** The first four bytes of a key share file, "TPKS"*/
+	public static final int MAGIC = 0x54504b53;
+
+	/** The version of the format of the key share files*/
+	public static final int FORMAT_VERSION = 1;
+
+	/** The length of the header: magic number, version, length of the share and checksum*/
+	public static final int HEADER_LENGTH = 4 + 4 + 4 + 8;
+
+	/** The extension of the key share files*/
+	public static final String EXTENSION = ".privkey";
+
+	private static final KeyShareStore DEFAULT = new KeyShareStore(Paths.get("keys"));
+
+	/** The directory of the key share files*/
+	public final Path directory;
+
+	/** @param directory the directory in which the key shares are written. It is created on first write.*/
+	public KeyShareStore(Path directory) {
+		this.directory = directory;
+	}
+
+	/** @return the store of the <code>keys</code> directory of the working directory*/
+	public static KeyShareStore getDefault() {
+		return DEFAULT;
+	}
+
+	/** @param sessionId the id of a session of the protocol
+	 * @return the store of the key shares of that session, in the <code>session-&lt;id&gt;</code> directory of this store
+	 */
+	public KeyShareStore forSession(long sessionId) {
+		return new KeyShareStore(directory.resolve("session-"+sessionId));
+	}
+
+	/** @param name the name of a key share
+	 * @return the file of that key share in this store
+	 */
+	public Path fileFor(String name) {
+		return directory.resolve(name+EXTENSION);
+	}
+
+	/** @param name the name of a key share
+	 * @return the file of the {@link Journal} of the party writing that key share, in this store
+	 */
+	public Path journalFor(String name) {
+		return directory.resolve(name+Journal.EXTENSION);
+	}
+
+	/** Starts writing a key share, replacing the previous share of the same name if any. Only the creation of the temporary
+	 * file is done by the calling thread, the writing, forcing and renaming are done by the threads of the asynchronous
+	 * channel.
+	 * @param name the name of the key share
+	 * @param share the key share
+	 * @return the writing, completed with the file of the share once it is on the disk, or exceptionally if it failed
+	 */
+	public CompletableFuture<Path> write(String name, byte[] share) {
+		CompletableFuture<Path> done = new CompletableFuture<Path>();
+		Path file = fileFor(name);
+
+		CRC32 crc = new CRC32();
+		crc.update(share);
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH + share.length);
+		buffer.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(share.length).putLong(crc.getValue()).put(share);
+		buffer.flip();
+
+		Path tmp = null;
+		try {
+			Files.createDirectories(directory);
+			tmp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+			AsynchronousFileChannel channel = AsynchronousFileChannel.open(tmp, StandardOpenOption.WRITE);
+			writeFrom(channel, buffer, tmp, file, done);
+		} catch (IOException e) {
+			deleteQuietly(tmp);
+			done.completeExceptionally(e);
+		}
+		return done;
+	}
+
+	/** Reads a key share written by {@link #write(String, byte[])}.
+	 * @param file the file of the key share
+	 * @return the key share
+	 * @throws IOException if the file cannot be read, is of another format version, or does not match its checksum
+	 */
+	public static byte[] read(Path file) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+		if (buffer.remaining() < HEADER_LENGTH || buffer.getInt() != MAGIC)
+			throw new IOException(file+" is not a key share file");
+		int version = buffer.getInt();
+		if (version != FORMAT_VERSION)
+			throw new IOException(file+" is of unsupported format version "+version);
+		int length = buffer.getInt();
+		long checksum = buffer.getLong();
+		if (length != buffer.remaining())
+			throw new IOException(file+" is truncated");
+
+		byte[] share = new byte[length];
+		buffer.get(share);
+		CRC32 crc = new CRC32();
+		crc.update(share);
+		if (crc.getValue() != checksum)
+			throw new IOException(file+" does not match its checksum");
+		return share;
+	}
+
+	/** Reads all the key shares of this store.
+	 * @return the key shares, in no particular order
+	 * @throws IOException if a file cannot be read or is not a valid key share file
+	 */
+	public List<byte[]> readAll() throws IOException {
+		List<byte[]> shares = new ArrayList<byte[]>();
+		if (!Files.isDirectory(directory))
+			return shares;
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*"+EXTENSION)) {
+			for (Path file : files)
+				shares.add(read(file));
+		}
+		return shares;
+	}
+
+	/** Atomically renames the directory of this store within its parent directory, so that its key shares are not found
+	 * under the previous name anymore, even after a crash.
+	 * @param name the new name of the directory
+	 * @return the store of the renamed directory
+	 * @throws IOException if the directory cannot be renamed
+	 */
+	public KeyShareStore renameTo(String name) throws IOException {
+		Path renamed = directory.resolveSibling(name);
+		Files.move(directory, renamed, StandardCopyOption.ATOMIC_MOVE);
+		forceDirectory(renamed.toAbsolutePath().getParent());
+		return new KeyShareStore(renamed);
+	}
+
+	/** Deletes the key shares of this store, the temporary files of the writings that did not complete, the journals of the
+	 * parties that did not complete, and its directory if it is then empty.
+	 * @throws IOException if a file cannot be deleted
+	 */
+	public void deleteAll() throws IOException {
+		if (!Files.isDirectory(directory))
+			return;
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*{"+EXTENSION+",.tmp,"+Journal.EXTENSION+"}")) {
+			for (Path file : files)
+				Files.delete(file);
+		}
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+			if (!files.iterator().hasNext())
+				Files.delete(directory);
+		}
+	}
+
+	/** Writes the rest of the buffer, then forces the file to the disk and renames it*/
+	private static void writeFrom(AsynchronousFileChannel channel, ByteBuffer buffer, Path tmp, Path file,
+									CompletableFuture<Path> done) {
+		channel.write(buffer, buffer.position(), null, new CompletionHandler<Integer, Void>() {
+
+			@Override
+			public void completed(Integer written, Void attachment) {
+				if (buffer.hasRemaining()) {
+					writeFrom(channel, buffer, tmp, file, done);
+					return;
+				}
+				try {
+					channel.force(true);
+					channel.close();
+					Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+					forceDirectory(file.toAbsolutePath().getParent());
+					done.complete(file);
+				} catch (IOException e) {
+					failed(e, attachment);
+				}
+			}
+
+			@Override
+			public void failed(Throwable e, Void attachment) {
+				try {
+					channel.close();
+				} catch (IOException ignored) {
+				}
+				deleteQuietly(tmp);
+				done.completeExceptionally(e);
+			}
+		});
+	}
+
+	/** Forces the renaming to the disk, where the file system allows it*/
+	private static void forceDirectory(Path directory) {
+		try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+			channel.force(true);
+		} catch (IOException e) {
+			// Some platforms cannot open a directory, the renaming is then only as durable as the file system makes it
+		}
+	}
+
+	private static void deleteQuietly(Path file) {
+		try {
+			if (file != null)
+				Files.deleteIfExists(file);
+		} catch (IOException ignored) {
+		}
+	}
+}
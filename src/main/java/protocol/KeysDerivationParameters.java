@@ -1,11 +1,20 @@
 package protocol;
 
 import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.stream.Stream;
 
+import math.CommitmentGroup;
+import math.CommitmentGroup.BatchVerifier;
 import math.IntegersUtils;
 import math.Polynomial;
 import math.PolynomialMod;
+import protocol.VerifiableSharing.Commitments;
 
 /**
  * Provide structures for, and generation of, parameters of the Key Derivation protocol.
@@ -35,12 +44,17 @@ public abstract class KeysDerivationParameters {
 		public final PolynomialMod PhiSharing;
 		public final PolynomialMod zeroSharing;
 		
-		private KeysDerivationPrivateParameters(int i, PolynomialMod betaiSharing, PolynomialMod PhiSharing, PolynomialMod zeroSharing, Polynomial DRiSharing) {
+		/** The commitments to the sharings of beta, delta*R, phi and zero, in this order, null if the shares are not verified*/
+		public final VerifiableSharing verifiableSharing;
+		
+		private KeysDerivationPrivateParameters(int i, PolynomialMod betaiSharing, PolynomialMod PhiSharing, PolynomialMod zeroSharing, Polynomial DRiSharing,
+												VerifiableSharing verifiableSharing) {
 			super(i);
 			this.betaiSharing = betaiSharing;
 			this.DRiSharing = DRiSharing;
 			this.PhiSharing = PhiSharing;
 			this.zeroSharing = zeroSharing;
+			this.verifiableSharing = verifiableSharing;
 		}
 		
 		/** Generate the key derivation private parameters for a given party i.
@@ -68,7 +82,9 @@ public abstract class KeysDerivationParameters {
 			PolynomialMod zeroSharing = new PolynomialMod(protocolParameters.t, protocolParameters.P, BigInteger.ZERO, protocolParameters.k, rand);
 			Polynomial DRiSharing = new Polynomial(protocolParameters.t, delta.multiply(Ri), protocolParameters.k, rand);
 			
-			return new KeysDerivationPrivateParameters(i, betaiSharing, PhiiSharing, zeroSharing, DRiSharing);
+			VerifiableSharing verifiableSharing = VerifiableSharing.commit(protocolParameters, rand, betaiSharing, DRiSharing, PhiiSharing, zeroSharing);
+			
+			return new KeysDerivationPrivateParameters(i, betaiSharing, PhiiSharing, zeroSharing, DRiSharing, verifiableSharing);
 		}
 		
 	}
@@ -84,13 +100,54 @@ public abstract class KeysDerivationParameters {
 		public final BigInteger Phiij;
 		public final BigInteger hij;
 		
-		private KeysDerivationPublicParameters(int i, int j, BigInteger betaij, BigInteger Rij, BigInteger Phiij, BigInteger hij){
+		/** The commitments of party i to its sharings of beta, delta*R, phi and zero, null if the shares are not verified*/
+		public final Commitments commitments;
+		
+		KeysDerivationPublicParameters(int i, int j, BigInteger betaij, BigInteger Rij, BigInteger Phiij, BigInteger hij, Commitments commitments){
 			super(i);
 			this.j = j;
 			this.betaij = betaij;
 			this.DRij = Rij;
 			this.Phiij = Phiij;
 			this.hij = hij;
+			this.commitments = commitments;
+		}
+		
+		/** Checks the shares against the commitments of party i, if the protocol parameters verify the shares.
+		 * @param protocolParameters the security parameters of the protocol
+		 * @return true if the shares could be verified, false otherwise
+		 */
+		public boolean isCorrect(ProtocolParameters protocolParameters) {
+			return incorrectDealers(Stream.of(new SimpleImmutableEntry<Integer,KeysDerivationPublicParameters>(i, this)), protocolParameters).isEmpty();
+		}
+		
+		/** Checks all the shares a party received at once, see {@link BatchVerifier}, if the protocol parameters verify the
+		 * shares. The shares the party dealt to itself are not checked.
+		 * @param shares the shares received by the party, keyed by the id of their dealer
+		 * @param protocolParameters the security parameters of the protocol
+		 * @return the ids of the dealers of incorrect shares, or of shares without well formed commitments
+		 */
+		public static List<Integer> incorrectDealers(Stream<Map.Entry<Integer,KeysDerivationPublicParameters>> shares, ProtocolParameters protocolParameters) {
+			List<Integer> incorrect = new ArrayList<Integer>();
+			if (!protocolParameters.isVerifyingShares())
+				return incorrect;
+			
+			CommitmentGroup group = CommitmentGroup.of(protocolParameters.P);
+			SecureRandom random = new SecureRandom();
+			BatchVerifier verifier = null;
+			for (Map.Entry<Integer,KeysDerivationPublicParameters> e : (Iterable<Map.Entry<Integer,KeysDerivationPublicParameters>>) shares::iterator) {
+				KeysDerivationPublicParameters share = e.getValue();
+				if (e.getKey() == share.j)
+					continue;
+				if (verifier == null)
+					verifier = group.verifier(share.j, random);
+				int t = protocolParameters.t;
+				Commitments.addAllTo(protocolParameters, verifier, e.getKey(), new Commitments[]{share.commitments},
+									new BigInteger[][]{{share.betaij, share.DRij, share.Phiij, share.hij}}, incorrect, t, t, t, t);
+			}
+			if (verifier != null)
+				incorrect.addAll(verifier.incorrectDealers());
+			return incorrect;
 		}
 		
 		/** Generates the structure containing the shares for party j
@@ -103,7 +160,31 @@ public abstract class KeysDerivationParameters {
 			BigInteger DRij = keysDerivationPrivateParameters.DRiSharing.eval(j);
 			BigInteger Phiij = keysDerivationPrivateParameters.PhiSharing.eval(j);
 			BigInteger hij = keysDerivationPrivateParameters.zeroSharing.eval(j);
-			return new KeysDerivationPublicParameters(keysDerivationPrivateParameters.i, j, Betaij, DRij, Phiij, hij);
+			VerifiableSharing verifiableSharing = keysDerivationPrivateParameters.verifiableSharing;
+			return new KeysDerivationPublicParameters(keysDerivationPrivateParameters.i, j, Betaij, DRij, Phiij, hij,
+														verifiableSharing == null ? null : verifiableSharing.sharesFor(j));
+		}
+		
+		/** Generates the structures containing the shares for all parties at once. Each polynomial is evaluated at all the
+		 * parties' ids in one pass.
+		 * @param n the number of parties
+		 * @param keysDerivationPrivateParameters the private parameters to use
+		 * @return the structures containing the shares for each party, party j's at index <code>j-1</code>
+		 */
+		public static KeysDerivationPublicParameters[] genForAll(int n, KeysDerivationPrivateParameters keysDerivationPrivateParameters) {
+			BigInteger[] Betaijs = keysDerivationPrivateParameters.betaiSharing.evalRange(n);
+			BigInteger[] DRijs = keysDerivationPrivateParameters.DRiSharing.evalRange(n);
+			BigInteger[] Phiijs = keysDerivationPrivateParameters.PhiSharing.evalRange(n);
+			BigInteger[] hijs = keysDerivationPrivateParameters.zeroSharing.evalRange(n);
+			VerifiableSharing verifiableSharing = keysDerivationPrivateParameters.verifiableSharing;
+			Commitments[] commitments = verifiableSharing == null ? null : verifiableSharing.sharesForAll(n);
+			
+			KeysDerivationPublicParameters[] shares = new KeysDerivationPublicParameters[n];
+			for (int j=1; j<=n; j++) {
+				shares[j-1] = new KeysDerivationPublicParameters(keysDerivationPrivateParameters.i, j, Betaijs[j-1], DRijs[j-1], Phiijs[j-1], hijs[j-1],
+																	commitments == null ? null : commitments[j-1]);
+			}
+			return shares;
 		}
 	}
 }
@@ -0,0 +1,199 @@
+package protocol;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+import protocol.ProtocolParameters.Interpolation;
+import protocol.ProtocolParameters.Randomness;
+import protocol.ProtocolParameters.ShareVerification;
+
+/**
+ * Store of the {@link ProtocolParameters}, so that the prime P' does not have to be searched again each time the protocol is
+ * started. P' is public and only depends on k and n, so it is reused for any t and any tuning of the other parameters.
+ * <p>
+ * P' is looked up, by (k, n), in:
+ * <ol>
+ * <li>the primes already used by this store,
+ * <li>the presets shipped in the <code>protocol/presets.properties</code> resource, for the common k and n,
+ * <li>the parameter files of the store directory, one per (k, n), written by {@link #save(ProtocolParameters, Path)},
+ * </ol>
+ * and generated with {@link ProtocolParameters#gen(int, int, int, Random)} only if none is found, in which case it is saved
+ * to the store directory for the next runs.
+ * <p>
+ * The parameter files are properties files starting with a format version. A file of another version, or with a P' that is
+ * not a prime large enough for its k and n, is ignored and overwritten.
+ * @author Christian Mouchet
+ */
+public class ParameterStore {
+
+	/** The version of the format of the parameter files*/
+	public static final int FORMAT_VERSION = 1;
+
+	private static final String PRESETS_RESOURCE = "/protocol/presets.properties";
+	private static final int CERTAINTY = 40;
+
+	private static final ParameterStore DEFAULT = new ParameterStore(Paths.get("params"));
+	private static final Properties presets = loadPresets();
+
+	/** The directory of the parameter files*/
+	public final Path directory;
+
+	private final Map<String,BigInteger> primes = new ConcurrentHashMap<String,BigInteger>();
+
+	/** @param directory the directory in which the parameter files are read and written. It is created on first write.*/
+	public ParameterStore(Path directory) {
+		this.directory = directory;
+	}
+
+	/** @return the store of the <code>params</code> directory of the working directory*/
+	public static ParameterStore getDefault() {
+		return DEFAULT;
+	}
+
+	/** Returns the parameters for n parties, t of which can be corrupted, with a stored P' if there is one for k and n, or a
+	 * newly generated one that is then stored.
+	 * @param k the bitlength of p and q, such that N has a security of 2k
+	 * @param n the number of parties
+	 * @param t the maximum number of parties an adversary can corrupt. Must be < <code>n/2</code>
+	 * @param random the randomness generator used if P' has to be generated
+	 * @return the protocol parameters, with the same defaults as {@link ProtocolParameters#gen(int, int, int, Random)}
+	 */
+	public ProtocolParameters get(int k, int n, int t, Random random) {
+		String key = k+"."+n;
+		BigInteger Pp = primes.computeIfAbsent(key, kn -> {
+			String preset = presets.getProperty(kn);
+			if (preset != null)
+				return new BigInteger(preset, 16);
+
+			ProtocolParameters stored = loadIfValid(fileFor(k, n), k, n);
+			if (stored != null)
+				return stored.P;
+
+			ProtocolParameters generated = ProtocolParameters.gen(k, n, t, random);
+			save(generated, fileFor(k, n));
+			return generated.P;
+		});
+		return ProtocolParameters.withPrime(Pp, k, n, t);
+	}
+
+	/** @param k the bitlength of p and q
+	 * @param n the number of parties
+	 * @return the parameter file for k and n in this store
+	 */
+	public Path fileFor(int k, int n) {
+		return directory.resolve("k"+k+"-n"+n+".properties");
+	}
+
+	/** Writes parameters to a file, replacing it atomically if it exists.
+	 * @param params the parameters
+	 * @param file the file
+	 * @throws UncheckedIOException if the file cannot be written
+	 */
+	public static void save(ProtocolParameters params, Path file) {
+		Properties properties = new Properties();
+		properties.setProperty("version", Integer.toString(FORMAT_VERSION));
+		properties.setProperty("k", Integer.toString(params.k));
+		properties.setProperty("n", Integer.toString(params.n));
+		properties.setProperty("t", Integer.toString(params.t));
+		properties.setProperty("P", params.P.toString(16));
+		properties.setProperty("batchSize", Integer.toString(params.batchSize));
+		properties.setProperty("sieveBound", Integer.toString(params.sieveBound));
+		properties.setProperty("trialDivisionBound", Integer.toString(params.trialDivisionBound));
+		properties.setProperty("biprimalityRounds", Integer.toString(params.biprimalityRounds));
+		properties.setProperty("biprimalityFirstRounds", Integer.toString(params.biprimalityFirstRounds));
+		properties.setProperty("interpolation", params.interpolation.name());
+		properties.setProperty("broadcastArity", Integer.toString(params.broadcastArity));
+		properties.setProperty("coalescingWindow", Long.toString(params.coalescingWindow));
+		properties.setProperty("pipelineDepth", Integer.toString(params.pipelineDepth));
+		properties.setProperty("shareVerification", params.shareVerification.name());
+		properties.setProperty("randomness", params.randomness.name());
+
+		try {
+			Path directory = file.toAbsolutePath().getParent();
+			Files.createDirectories(directory);
+			Path tmp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+			try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.ISO_8859_1)) {
+				properties.store(writer, "Threshold Paillier protocol parameters");
+			}
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/** Reads parameters written by {@link #save(ProtocolParameters, Path)}. The tuning settings missing from the files written
+	 * before they were stored take their default values.
+	 * @param file the file
+	 * @return the parameters
+	 * @throws UncheckedIOException if the file cannot be read
+	 * @throws IllegalArgumentException if the file is of another format version, or holds invalid parameters
+	 */
+	public static ProtocolParameters load(Path file) {
+		Properties properties = new Properties();
+		try (Reader reader = Files.newBufferedReader(file, StandardCharsets.ISO_8859_1)) {
+			properties.load(reader);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		try {
+			if (Integer.parseInt(properties.getProperty("version", "0")) != FORMAT_VERSION)
+				throw new IllegalArgumentException("unsupported format version "+properties.getProperty("version"));
+			return ProtocolParameters.withPrime(new BigInteger(properties.getProperty("P"), 16),
+												Integer.parseInt(properties.getProperty("k")),
+												Integer.parseInt(properties.getProperty("n")),
+												Integer.parseInt(properties.getProperty("t")))
+									.withBatchSize(Integer.parseInt(properties.getProperty("batchSize")))
+									.withSieveBound(Integer.parseInt(properties.getProperty("sieveBound")))
+									.withTrialDivisionBound(Integer.parseInt(properties.getProperty("trialDivisionBound")))
+									.withBiprimalityRounds(Integer.parseInt(properties.getProperty("biprimalityRounds")))
+									.withBiprimalityFirstRounds(Integer.parseInt(properties.getProperty("biprimalityFirstRounds")))
+									.withInterpolation(Interpolation.valueOf(properties.getProperty("interpolation",
+																									Interpolation.ALL_POINTS.name())))
+									.withBroadcastTree(Integer.parseInt(properties.getProperty("broadcastArity", "0")))
+									.withCoalescing(Long.parseLong(properties.getProperty("coalescingWindow", "-1")))
+									.withPipelineDepth(Integer.parseInt(properties.getProperty("pipelineDepth", "0")))
+									.withShareVerification(ShareVerification.valueOf(properties.getProperty("shareVerification",
+																											ShareVerification.NONE.name())))
+									.withRandomness(Randomness.valueOf(properties.getProperty("randomness", Randomness.SYSTEM.name())));
+		} catch (NullPointerException | NumberFormatException e) {
+			throw new IllegalArgumentException("missing or malformed parameter in "+file, e);
+		}
+	}
+
+	/** Reads a parameter file, if it exists and holds a prime P' for k and n*/
+	private static ProtocolParameters loadIfValid(Path file, int k, int n) {
+		if (!Files.isRegularFile(file))
+			return null;
+		try {
+			ProtocolParameters params = load(file);
+			return params.k == k && params.n == n && params.P.isProbablePrime(CERTAINTY) ? params : null;
+		} catch (IllegalArgumentException | UncheckedIOException e) {
+			return null;
+		}
+	}
+
+	private static Properties loadPresets() {
+		Properties properties = new Properties();
+		try (InputStream in = ParameterStore.class.getResourceAsStream(PRESETS_RESOURCE)) {
+			if (in != null)
+				properties.load(in);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return properties;
+	}
+}
@@ -1,16 +1,56 @@
 package protocol;
 
 import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
 import java.util.Random;
 
+import math.Drbg;
 import math.IntegersUtils;
 
+import com.typesafe.config.Config;
+
 /**
  * Provides structure for, and generation of, the parameters of distributed Threshold Paillier key generation protocol .
  * @author Christian Mouchet
  */
 public class ProtocolParameters {
 	
+	/** When the parties interpolate the values shared by polynomials of degree 2t, N in the BGW protocol and &theta;' in the
+	 * key derivation*/
+	public enum Interpolation {
+		/** Once the points of all parties are received*/
+		ALL_POINTS,
+		/** As soon as 2t+1 points are received, the points received later are dropped*/
+		EARLY,
+		/** As soon as 2t+1 points are received, the points received later are checked to be on the interpolated polynomial,
+		 * and their sender is complained about if they are not*/
+		EARLY_CHECKED
+	}
+	
+	/** How the parties verify the shares dealt to them in the BGW protocol and the key derivation*/
+	public enum ShareVerification {
+		/** The shares are not verified*/
+		NONE,
+		/** The dealers commit to their polynomials with Feldman commitments, which reveal g<sup>s</sup> for each secret s*/
+		FELDMAN,
+		/** The dealers commit to their polynomials with Pedersen commitments, which reveal nothing on the secrets, at the cost
+		 * of a blinding polynomial per polynomial*/
+		PEDERSEN
+	}
+	
+	/** The generator each actor draws its random values from, e.g. its contributions to p and q and the coefficients of its
+	 * sharing polynomials*/
+	public enum Randomness {
+		/** A new {@link SecureRandom} of the system per actor*/
+		SYSTEM,
+		/** A HMAC_DRBG with SHA-256 per actor, see {@link Drbg#hmac()}*/
+		HMAC_DRBG,
+		/** A CTR_DRBG with AES-256 per actor, see {@link Drbg#ctr()}*/
+		CTR_DRBG
+	}
+	
 	/** Large prime P' used for secret sharing with polynomials over the integer mod P' */
 	public final BigInteger P;
 	
@@ -25,16 +65,341 @@ public class ProtocolParameters {
 	
 	/** The security of the statistical hiding of &Phi;(N) with &Beta; and R */
 	public final int K;
+	
+	/** The number of candidates to RSA modulus generated in each BGW round*/
+	public final int batchSize;
+	
+	/** The bound B below which no prime divides p or q, 0 if p and q are not sieved. See {@link SievingParameters}*/
+	public final int sieveBound;
+	
+	/** The bound below which the primes are tried as factors of each candidate N before its biprimality test, 0 if
+	 * there is no trial division*/
+	public final int trialDivisionBound;
+	
+	/** The number of rounds of the biprimality test a candidate N needs to pass in order to be considered as biprime*/
+	public final int biprimalityRounds;
+	
+	/** The number of rounds of the biprimality test done in a first, short exchange before the other rounds, 0 if all rounds
+	 * are done in a single exchange*/
+	public final int biprimalityFirstRounds;
+	
+	/** When N and &theta;' are interpolated*/
+	public final Interpolation interpolation;
+	
+	/** The arity of the tree along which the public values are broadcast, 0 if each party sends them to all the others*/
+	public final int broadcastArity;
+	
+	/** The window during which the messages of a party to another one are coalesced, in microseconds, 0 for the messages of
+	 * one step, -1 if they are sent at once*/
+	public final long coalescingWindow;
+	
+	/** The number of batches of candidates generated ahead of the candidate being tested, 0 if a batch is only generated once
+	 * all the candidates of the previous ones are tested*/
+	public final int pipelineDepth;
+	
+	/** How the parties verify the shares dealt to them*/
+	public final ShareVerification shareVerification;
+	
+	/** The generator each actor draws its random values from*/
+	public final Randomness randomness;
+	
+	/** The seed of the generators of the actors, null if they are seeded by the system*/
+	public final Long seed;
 
-	private ProtocolParameters(BigInteger Pp, int t, int k, int K, int n) {
+	private ProtocolParameters(BigInteger Pp, int t, int k, int K, int n, int batchSize, int sieveBound, int trialDivisionBound,
+								int biprimalityRounds, int biprimalityFirstRounds, Interpolation interpolation, int broadcastArity,
+								long coalescingWindow, int pipelineDepth, ShareVerification shareVerification,
+								Randomness randomness, Long seed) {
 		this.P = Pp;
 		this.t = t;
 		this.k = k;
 		this.K = K;
 		this.n = n;
+		this.batchSize = batchSize;
+		this.sieveBound = sieveBound;
+		this.trialDivisionBound = trialDivisionBound;
+		this.biprimalityRounds = biprimalityRounds;
+		this.biprimalityFirstRounds = biprimalityFirstRounds;
+		this.interpolation = interpolation;
+		this.broadcastArity = broadcastArity;
+		this.coalescingWindow = coalescingWindow;
+		this.pipelineDepth = pipelineDepth;
+		this.shareVerification = shareVerification;
+		this.randomness = randomness;
+		this.seed = seed;
+	}
+	
+	/** Returns a copy of these parameters in which each BGW round generates a batch of candidates to RSA modulus.
+	 * Larger batches need fewer rounds to find an N at the cost of larger messages. Defaults to 1.
+	 * @param batchSize the number of candidates generated per BGW round
+	 * @return the updated parameters
+	 */
+	public ProtocolParameters withBatchSize(int batchSize) {
+		if (batchSize < 1)
+			throw new IllegalArgumentException("batchSize should be at least 1");
+		return new ProtocolParameters(P, t, k, K, n, batchSize, sieveBound, trialDivisionBound, biprimalityRounds, biprimalityFirstRounds, interpolation, broadcastArity, coalescingWindow, pipelineDepth, shareVerification, randomness, seed);
+	}
+	
+	/** Returns a copy of these parameters in which the parties sieve their contributions so that p and q have no prime factor
+	 * smaller than a bound. This cuts the number of candidates to RSA modulus needed to find one, at the cost of a few more
+	 * rounds per BGW round. Since the contributions must stay of bitlength k, the largest usable bound grows with k and
+	 * shrinks with t. Defaults to 0 (no sieving).
+	 * @param sieveBound the bound B, or 0 to disable the sieving
+	 * @return the updated parameters
+	 * @see SievingParameters#isValidBound(int, int, int, int)
+	 */
+	public ProtocolParameters withSieveBound(int sieveBound) {
+		if (sieveBound != 0 && !SievingParameters.isValidBound(sieveBound, k, n, t))
+			throw new IllegalArgumentException("sieveBound is too large for k, or too small to sieve any prime");
+		return new ProtocolParameters(P, t, k, K, n, batchSize, sieveBound, trialDivisionBound, biprimalityRounds, biprimalityFirstRounds, interpolation, broadcastArity, coalescingWindow, pipelineDepth, shareVerification, randomness, seed);
+	}
+	
+	/** Returns a copy of these parameters in which each party trial-divides the candidates N by the primes smaller than a bound
+	 * before testing their biprimality. Since all parties see the same N, they all reject it without exchanging any message.
+	 * A larger bound rejects more candidates, at the cost of a larger product of primes to compute gcd's with. Defaults to 0
+	 * (no trial division).
+	 * @param trialDivisionBound the bound, or 0 to disable the trial division. Must be smaller than 2<sup>k-1</sup>, the lower
+	 * bound on p and q.
+	 * @return the updated parameters
+	 */
+	public ProtocolParameters withTrialDivisionBound(int trialDivisionBound) {
+		if (trialDivisionBound < 0 || BigInteger.valueOf(trialDivisionBound).bitLength() >= k)
+			throw new IllegalArgumentException("trialDivisionBound should be between 0 and 2^(k-1)");
+		return new ProtocolParameters(P, t, k, K, n, batchSize, sieveBound, trialDivisionBound, biprimalityRounds, biprimalityFirstRounds, interpolation, broadcastArity, coalescingWindow, pipelineDepth, shareVerification, randomness, seed);
+	}
+	
+	/** Returns a copy of these parameters in which a candidate N needs to pass a given number of rounds of the biprimality test.
+	 * A biprime N always passes a round, other N's fail each round with probability at least 1/2. Defaults to 10.
+	 * @param biprimalityRounds the number of rounds
+	 * @return the updated parameters
+	 */
+	public ProtocolParameters withBiprimalityRounds(int biprimalityRounds) {
+		if (biprimalityRounds < 1 || biprimalityRounds < biprimalityFirstRounds)
+			throw new IllegalArgumentException("biprimalityRounds should be at least 1 and biprimalityFirstRounds");
+		return new ProtocolParameters(P, t, k, K, n, batchSize, sieveBound, trialDivisionBound, biprimalityRounds, biprimalityFirstRounds, interpolation, broadcastArity, coalescingWindow, pipelineDepth, shareVerification, randomness, seed);
+	}
+	
+	/** Returns a copy of these parameters in which the rounds of the biprimality test are done in two exchanges: a short first one
+	 * of the given number of rounds, which already rejects most candidates, then one with all the other rounds. Defaults to 1.
+	 * @param biprimalityFirstRounds the number of rounds of the first exchange, or 0 to do all rounds in a single exchange
+	 * @return the updated parameters
+	 */
+	public ProtocolParameters withBiprimalityFirstRounds(int biprimalityFirstRounds) {
+		if (biprimalityFirstRounds < 0 || biprimalityFirstRounds > biprimalityRounds)
+			throw new IllegalArgumentException("biprimalityFirstRounds should be between 0 and biprimalityRounds");
+		return new ProtocolParameters(P, t, k, K, n, batchSize, sieveBound, trialDivisionBound, biprimalityRounds, biprimalityFirstRounds, interpolation, broadcastArity, coalescingWindow, pipelineDepth, shareVerification, randomness, seed);
+	}
+	
+	/** Returns a copy of these parameters in which N and &theta;' are interpolated as soon as enough points are received, so
+	 * that a slow party does not set the latency of every candidate. Both are shared by polynomials of degree 2t, so any 2t+1
+	 * points are enough, provided that they are correct. Defaults to {@link Interpolation#ALL_POINTS}.
+	 * @param interpolation when N and &theta;' are interpolated
+	 * @return the updated parameters
+	 */
+	public ProtocolParameters withInterpolation(Interpolation interpolation) {
+		if (interpolation == null)
+			throw new IllegalArgumentException("interpolation cannot be null");
+		return new ProtocolParameters(P, t, k, K, n, batchSize, sieveBound, trialDivisionBound, biprimalityRounds, biprimalityFirstRounds, interpolation, broadcastArity, coalescingWindow, pipelineDepth, shareVerification, randomness, seed);
+	}
+	
+	/** Returns a copy of these parameters in which the public values (the points of N, x and &theta;', the Q<sub>i</sub>'s and
+	 * the verification keys) are broadcast along a tree rather than sent by each party to all the others. The values go up to
+	 * party 1, each party bundling the values of its subtree, and the bundle of all values goes down from party 1. Each party
+	 * thus sends at most arity+1 messages per broadcast instead of n-1, at the cost of 2&lceil;log<sub>arity</sub>(n)&rceil;
+	 * hops and of waiting for the slowest party. Defaults to 0 (no tree).
+	 * @param arity the number of children of each party in the tree, at least 2, or 0 to send the values to all the parties
+	 * @return the updated parameters
+	 * @see actors.RelayActor
+	 */
+	public ProtocolParameters withBroadcastTree(int arity) {
+		if (arity != 0 && arity < 2)
+			throw new IllegalArgumentException("arity should be 0 or at least 2");
+		return new ProtocolParameters(P, t, k, K, n, batchSize, sieveBound, trialDivisionBound, biprimalityRounds, biprimalityFirstRounds, interpolation, arity, coalescingWindow, pipelineDepth, shareVerification, randomness, seed);
+	}
+	
+	/** @return true if the public values are broadcast along a tree*/
+	public boolean isBroadcastTree() {
+		return broadcastArity != 0;
+	}
+	
+	/** Returns a copy of these parameters in which the messages of a party to another one are coalesced into envelopes, each
+	 * carrying the messages sent during a window. With a window of 0, the messages sent in one step of a sub-protocol are
+	 * coalesced without delaying them. Fewer, larger messages cut the per-message costs of remote parties, at the cost of the
+	 * window. Defaults to -1 (no coalescing).
+	 * @param windowMicros the window in microseconds, 0 for the messages of one step, or -1 to send the messages at once
+	 * @return the updated parameters
+	 * @see actors.Outbox
+	 */
+	public ProtocolParameters withCoalescing(long windowMicros) {
+		if (windowMicros < -1)
+			throw new IllegalArgumentException("windowMicros should be -1 or at least 0");
+		return new ProtocolParameters(P, t, k, K, n, batchSize, sieveBound, trialDivisionBound, biprimalityRounds, biprimalityFirstRounds, interpolation, broadcastArity, windowMicros, pipelineDepth, shareVerification, randomness, seed);
+	}
+	
+	/** @return true if the messages of a party to another one are coalesced*/
+	public boolean isCoalescing() {
+		return coalescingWindow >= 0;
+	}
+	
+	/** Returns a copy of these parameters in which the next batches of candidates are generated while the current candidate is
+	 * tested, so that the sieving and BGW do not wait for the biprimality tests, nor the tests for the next batch. The parties
+	 * keep the candidates of up to the given number of batches queued or being generated ahead of the tested one, and drop
+	 * them once N is accepted. Since most candidates are rejected, this hides most of the latency of the BGW rounds, at the
+	 * cost of the batches generated in vain when N is found. A failed biprimality test is resumed from the {@link Journal}
+	 * while the batches are generated ahead, but a party whose actor restarts meanwhile, e.g. after a failure of the sieving
+	 * or BGW, cannot resume, since the restart drops the batches it was generating with the others. Defaults to 0 (no
+	 * pipelining).
+	 * @param depth the number of batches generated ahead of the tested candidate, or 0 to generate a batch once all the
+	 * candidates of the previous ones are tested
+	 * @return the updated parameters
+	 */
+	public ProtocolParameters withPipelineDepth(int depth) {
+		if (depth < 0)
+			throw new IllegalArgumentException("depth should be at least 0");
+		return new ProtocolParameters(P, t, k, K, n, batchSize, sieveBound, trialDivisionBound, biprimalityRounds, biprimalityFirstRounds, interpolation, broadcastArity, coalescingWindow, depth, shareVerification, randomness, seed);
+	}
+	
+	/** @return true if the next batches of candidates are generated while the current candidate is tested*/
+	public boolean isPipelining() {
+		return pipelineDepth != 0;
+	}
+	
+	/** Returns a copy of these parameters in which the dealers of the BGW protocol and of the key derivation commit to their
+	 * sharing polynomials, so that each party verifies the shares it receives and complains about the dealers of incorrect
+	 * ones. The commitments live in a group of order P' derived from P', see {@link math.CommitmentGroup}, and all the shares a
+	 * party receives in a phase are verified at once. Defaults to {@link ShareVerification#NONE}.
+	 * @param shareVerification how the shares are verified
+	 * @return the updated parameters
+	 */
+	public ProtocolParameters withShareVerification(ShareVerification shareVerification) {
+		if (shareVerification == null)
+			throw new IllegalArgumentException("shareVerification cannot be null");
+		return new ProtocolParameters(P, t, k, K, n, batchSize, sieveBound, trialDivisionBound, biprimalityRounds, biprimalityFirstRounds, interpolation, broadcastArity, coalescingWindow, pipelineDepth, shareVerification, randomness, seed);
 	}
 	
-	/** Generates the parameters for n parties, t of which can be corrupted without breaking the security.
+	/** Returns a copy of these parameters in which each actor draws its random values from a generator of the given kind,
+	 * see {@link #newRandom(String)}. Each DRBG of BouncyCastle is seeded from its own generator of the system, so that the
+	 * actors of many parties in a JVM only draw from the system to seed and reseed their DRBGs. Defaults to
+	 * {@link Randomness#SYSTEM}.
+	 * @param randomness the kind of generator
+	 * @return the updated parameters
+	 */
+	public ProtocolParameters withRandomness(Randomness randomness) {
+		if (randomness == null)
+			throw new IllegalArgumentException("randomness cannot be null");
+		return new ProtocolParameters(P, t, k, K, n, batchSize, sieveBound, trialDivisionBound, biprimalityRounds, biprimalityFirstRounds, interpolation, broadcastArity, coalescingWindow, pipelineDepth, shareVerification, randomness, seed);
+	}
+	
+	/** Returns a copy of these parameters in which the generators of the actors are seeded from a given seed and the path of
+	 * their actor, so that the runs of a benchmark draw the same values. A seeded generator is a SHA1PRNG, or a DRBG seeded
+	 * and reseeded from one, see {@link #withRandomness(Randomness)}. Not to be used for keys.
+	 * @param seed the seed of the generators
+	 * @return the updated parameters
+	 */
+	public ProtocolParameters withSeed(long seed) {
+		return new ProtocolParameters(P, t, k, K, n, batchSize, sieveBound, trialDivisionBound, biprimalityRounds, biprimalityFirstRounds, interpolation, broadcastArity, coalescingWindow, pipelineDepth, shareVerification, randomness, seed);
+	}
+	
+	/** Returns a copy of these parameters tuned by a configuration, e.g. the <code>protocol</code> section of a simulated
+	 * network (see <code>benchmarks/two-datacenters.conf</code> in the test resources). The settings are optional:
+	 * <ul><li> <code>batch-size</code>, see {@link #withBatchSize(int)}
+	 * 		<li> <code>sieve-bound</code>, see {@link #withSieveBound(int)}
+	 * 		<li> <code>trial-division-bound</code>, see {@link #withTrialDivisionBound(int)}
+	 * 		<li> <code>interpolation</code>, see {@link #withInterpolation(Interpolation)}
+	 * 		<li> <code>broadcast-tree-arity</code>, see {@link #withBroadcastTree(int)}
+	 * 		<li> <code>coalescing-window</code>, see {@link #withCoalescing(long)}
+	 * 		<li> <code>pipeline-depth</code>, see {@link #withPipelineDepth(int)}
+	 * 		<li> <code>share-verification</code>, see {@link #withShareVerification(ShareVerification)}
+	 * 		<li> <code>randomness</code>, see {@link #withRandomness(Randomness)}
+	 * </ul>
+	 * @param tuning the configuration
+	 * @return the updated parameters
+	 */
+	public ProtocolParameters withTuning(Config tuning) {
+		ProtocolParameters params = this;
+		if (tuning.hasPath("batch-size"))
+			params = params.withBatchSize(tuning.getInt("batch-size"));
+		if (tuning.hasPath("sieve-bound"))
+			params = params.withSieveBound(tuning.getInt("sieve-bound"));
+		if (tuning.hasPath("trial-division-bound"))
+			params = params.withTrialDivisionBound(tuning.getInt("trial-division-bound"));
+		if (tuning.hasPath("interpolation"))
+			params = params.withInterpolation(Interpolation.valueOf(tuning.getString("interpolation")));
+		if (tuning.hasPath("broadcast-tree-arity"))
+			params = params.withBroadcastTree(tuning.getInt("broadcast-tree-arity"));
+		if (tuning.hasPath("coalescing-window"))
+			params = params.withCoalescing(tuning.getLong("coalescing-window"));
+		if (tuning.hasPath("pipeline-depth"))
+			params = params.withPipelineDepth(tuning.getInt("pipeline-depth"));
+		if (tuning.hasPath("share-verification"))
+			params = params.withShareVerification(ShareVerification.valueOf(tuning.getString("share-verification")));
+		if (tuning.hasPath("randomness"))
+			params = params.withRandomness(Randomness.valueOf(tuning.getString("randomness")));
+		return params;
+	}
+	
+	/** @return a new generator of the kind set by {@link #withRandomness(Randomness)}, see {@link #newRandom(String)}*/
+	public SecureRandom newRandom() {
+		return newRandom("");
+	}
+	
+	/** @param stream the name of the values drawn from the generator, e.g. the path of the actor, which sets the values of a
+	 * seeded generator, see {@link #withSeed(long)}
+	 * @return a new generator of the kind set by {@link #withRandomness(Randomness)}, for an actor
+	 */
+	public SecureRandom newRandom(String stream) {
+		SecureRandom source = new SecureRandom();
+		if (seed != null) {
+			try {
+				// Seeded before its first use, a SHA1PRNG only draws from its seed
+				source = SecureRandom.getInstance("SHA1PRNG");
+				source.setSeed(BigInteger.valueOf(seed).toByteArray());
+				source.setSeed(stream.getBytes(StandardCharsets.UTF_8));
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException("SHA1PRNG is not available", e);
+			}
+		}
+		switch (randomness) {
+			case HMAC_DRBG:
+				return Drbg.hmac(source, Drbg.RESEED_INTERVAL);
+			case CTR_DRBG:
+				return Drbg.ctr(source, Drbg.RESEED_INTERVAL);
+			default:
+				return source;
+		}
+	}
+	
+	/** @return true if the dealers commit to their sharing polynomials*/
+	public boolean isVerifyingShares() {
+		return shareVerification != ShareVerification.NONE;
+	}
+	
+	/** @return the number of points after which N and &theta;' are interpolated, n or 2t+1*/
+	public int pointsToInterpolate() {
+		return interpolation == Interpolation.ALL_POINTS ? n : 2*t+1;
+	}
+	
+	/** @param exchange the index of an exchange of the biprimality test
+	 * @return the number of rounds of the biprimality test done before the given exchange
+	 */
+	public int biprimalityRoundsBefore(int exchange) {
+		if (exchange == 0)
+			return 0;
+		return biprimalityFirstRounds == 0 || exchange > 1 ? biprimalityRounds : biprimalityFirstRounds;
+	}
+	
+	/** @return the number of exchanges of the biprimality test for a candidate N that passes it*/
+	public int biprimalityExchanges() {
+		return biprimalityFirstRounds == 0 || biprimalityFirstRounds == biprimalityRounds ? 1 : 2;
+	}
+	
+	/** @return true if the parties sieve their contributions to p and q*/
+	public boolean isSieving() {
+		return sieveBound != 0;
+	}
+	
+	/** Generates the parameters for n parties, t of which can be corrupted without breaking the security. A new prime P' is
+	 * searched, use {@link ParameterStore} in order to reuse a previously generated one.
 	 * @param k the bitlength of p and q, such that N has a security of 2k
 	 * @param n The number of parties
 	 * @param t The maximum number of parties an adversary can corrupt without breaking the security of the protocol. Must be < <code>n/2</code>
@@ -43,25 +408,52 @@ public class ProtocolParameters {
 	 */
 	public static ProtocolParameters gen(int k, int n, int t, Random random) {
 		
-		if (k < 16)
-			throw new IllegalArgumentException("k should be at least 16");
-		if (n < 3)
-			throw new IllegalArgumentException("n should be at least 3");
-		if (t > n/2)
-			throw new IllegalArgumentException("t should be smaller than n/2");
+		checkSizes(k, n, t);
 		if (random == null)
 			throw new IllegalArgumentException("random cannot be null");
 		
-		int fact = k < 512 ? 4 : 1;
-		BigInteger np = BigInteger.valueOf(n);
-		BigInteger three = BigInteger.valueOf(3);
-		BigInteger maxN = BigInteger.valueOf(2).pow(fact*k-1); //TODO: the formula for min Pp given in the paper does not work. Add a factor on the bitlen is a quick, dirty fix
-		BigInteger minPp = np.multiply(three.multiply(maxN)).pow(2);
+		BigInteger minPp = minPrime(k, n);
 		BigInteger maxPp = BigInteger.valueOf(2).pow(minPp.bitLength()+1);
 		
 		System.out.println("Generating P' ...");
 		BigInteger Pp = IntegersUtils.pickPrimeInRange(minPp, maxPp, random);
-		return new ProtocolParameters(Pp, t, k, 1000, n);
+		return new ProtocolParameters(Pp, t, k, 1000, n, 1, 0, 0, 10, 1, Interpolation.ALL_POINTS, 0, -1, 0, ShareVerification.NONE, Randomness.SYSTEM, null);
+	}
+	
+	/** Builds the parameters for n parties around a prime P' generated beforehand, with the same defaults as
+	 * {@link #gen(int, int, int, Random)}. The primality of P' is not checked.
+	 * @param Pp the prime P', at least {@link #minPrime(int, int)}
+	 * @param k the bitlength of p and q
+	 * @param n the number of parties
+	 * @param t the maximum number of corrupted parties
+	 * @return the protocol parameters structure
+	 */
+	static ProtocolParameters withPrime(BigInteger Pp, int k, int n, int t) {
+		checkSizes(k, n, t);
+		if (Pp.compareTo(minPrime(k, n)) < 0)
+			throw new IllegalArgumentException("P' is too small for k and n");
+		return new ProtocolParameters(Pp, t, k, 1000, n, 1, 0, 0, 10, 1, Interpolation.ALL_POINTS, 0, -1, 0, ShareVerification.NONE, Randomness.SYSTEM, null);
+	}
+	
+	/** @param k the bitlength of p and q
+	 * @param n the number of parties
+	 * @return the lower bound on P', which only depends on k and n
+	 */
+	static BigInteger minPrime(int k, int n) {
+		int fact = k < 512 ? 4 : 1;
+		BigInteger np = BigInteger.valueOf(n);
+		BigInteger three = BigInteger.valueOf(3);
+		BigInteger maxN = BigInteger.valueOf(2).pow(fact*k-1); //TODO: the formula for min Pp given in the paper does not work. Add a factor on the bitlen is a quick, dirty fix
+		return np.multiply(three.multiply(maxN)).pow(2);
+	}
+	
+	private static void checkSizes(int k, int n, int t) {
+		if (k < 16)
+			throw new IllegalArgumentException("k should be at least 16");
+		if (n < 3)
+			throw new IllegalArgumentException("n should be at least 3");
+		if (t > n/2)
+			throw new IllegalArgumentException("t should be smaller than n/2");
 	}
 	
 }
@@ -0,0 +1,307 @@
+package protocol;
+
+import java.math.BigInteger;
+import java.util.Map;
+import java.util.Random;
+
+import math.IntegersUtils;
+import math.PolynomialMod;
+
+/**
+ * Provide structures for, and generation of, parameters of the distributed sieving of p and q. It follows the
+ * multiplicative sieving of Boneh and Franklin in <i>Efficient generation of shared RSA keys</i>.
+ * <p>
+ * The parties agree on M, the product of the odd primes smaller than the sieving bound. Parties 1 to t+1 each pick an
+ * a<sub>i</sub> &in; Z<sub>M</sub><sup>*</sup> and all parties compute shares of a = &prod; a<sub>i</sub> with BGW multiplications.
+ * Since at most t parties are corrupted, a mod M is a uniformly random unit no coalition knows. a is then revealed masked by
+ * x = a + &sum; &rho;<sub>i</sub>, which gives the additive sharing a = (x - &rho;<sub>1</sub>) - &rho;<sub>2</sub> - ... - &rho;<sub>n</sub>,
+ * from which each party derives its contribution p<sub>i</sub> so that p &equiv; a mod M and p &equiv; 3 mod 4.
+ * Thus p is not divisible by any prime below the bound.
+ * <p>
+ * The sieving is done for a whole batch of candidates at once, for p and q. The value at index <code>2b</code> is for p of
+ * the b-th candidate of the batch, the one at index <code>2b+1</code> for its q.
+ * <p>
+ * This is the abstract super-type of two concrete parameters structures:
+ * <ul><li> {@link SievingPrivateParameters} represents the private parameters one party generates for the sieving
+ * <li> {@link SievingPublicParameters} is the structure used by parties when exchanging their shares
+ * </ul>
+ * @author Christian Mouchet
+ */
+public abstract class SievingParameters {
+
+	/** The statistical security, in bits, of the hiding of a by the &rho;<sub>i</sub>'s*/
+	public static final int STATISTICAL_SECURITY = 40;
+
+	private static final BigInteger FOUR = BigInteger.valueOf(4);
+
+	/** The id of the party. i &in; [1;N]*/
+	public final int i;
+	/** the number of parties*/
+	public final int n;
+	/** The ids of the candidates to RSA modulus these parameters are for*/
+	public final long[] candidateIds;
+
+	private SievingParameters(int i, int n, long[] candidateIds) {
+		this.i = i;
+		this.n = n;
+		this.candidateIds = candidateIds;
+	}
+
+	/** Computes M, the product of the odd primes smaller than the sieving bound
+	 * @param bound the sieving bound
+	 * @return M
+	 */
+	public static BigInteger sievingModulus(int bound) {
+		BigInteger M = BigInteger.ONE;
+		for (int r=3; r < bound; r+=2) {
+			if(BigInteger.valueOf(r).isProbablePrime(64))
+				M = M.multiply(BigInteger.valueOf(r));
+		}
+		return M;
+	}
+
+	/** Checks that p can be sieved up to a bound with the given parameters. x &lt; M<sup>t+1</sup>(1 + n2<sup>40</sup>) must be
+	 * smaller than the smallest P', so that it is interpolated exactly. The shift 4us<sub>i</sub> (+3Mv) of the contributions
+	 * must take at most a quarter of [2<sup>k-1</sup>, 2<sup>k</sup>), so that m<sub>i</sub> keeps more than 2<sup>k-2</sup>/4M
+	 * values, see {@link #contributionFor(int, BigInteger, ProtocolParameters, Random)}.
+	 * @param bound the sieving bound
+	 * @param k the bitlength of p and q
+	 * @param n the number of parties
+	 * @param t the maximum number of corrupted parties
+	 * @return true if the bound can be used
+	 */
+	public static boolean isValidBound(int bound, int k, int n, int t) {
+		BigInteger M = sievingModulus(bound);
+		if (M.compareTo(BigInteger.ONE) <= 0)
+			return false;
+
+		BigInteger maxRho = maxRho(M, t+1);
+		BigInteger maxX = M.pow(t+1).subtract(BigInteger.ONE).add(maxRho.multiply(BigInteger.valueOf(n)));
+		if (maxX.compareTo(ProtocolParameters.minPrime(k, n)) >= 0)
+			return false;
+
+		BigInteger quarter = BigInteger.ONE.shiftLeft(k-2);
+		for (int i=1; i <= 2; i++) {
+			BigInteger[] shifts = shiftRange(i, M, maxRho, n, t+1);
+			if (shifts[1].subtract(shifts[0]).compareTo(quarter) > 0)
+				return false;
+		}
+		return true;
+	}
+
+	/** @param protParam the security parameters
+	 * @return the number of parties contributing a factor of a, t+1 so that at least one of them is honest
+	 */
+	public static int contributors(ProtocolParameters protParam) {
+		return protParam.t+1;
+	}
+
+	/** Derives the contribution p<sub>i</sub> of a party from its additive share s<sub>i</sub> of a. With u = 4<sup>-1</sup> mod M and
+	 * v = M<sup>-1</sup> mod 4, p<sub>i</sub> = 4us<sub>i</sub> + 4Mm<sub>i</sub> for a random m<sub>i</sub>, plus 3Mv for party 1. It follows
+	 * that p<sub>1</sub> &equiv; 3 mod 4 and p<sub>i</sub> &equiv; 0 mod 4 otherwise, like the non-sieved contributions.
+	 * <p> m<sub>i</sub> is drawn from a range that only depends on whether i is 1, so that p<sub>i</sub> &in; [2<sup>k-1</sup>, 2<sup>k</sup>)
+	 * for any share: s<sub>1</sub> = x - &rho;<sub>1</sub> &in; [0, M<sup>t+1</sup> + (n-1)&rho;<sub>max</sub>) and s<sub>i</sub> = -&rho;<sub>i</sub>
+	 * &in; [-&rho;<sub>max</sub>, 0] otherwise.
+	 * @param i the id of the party
+	 * @param s the additive share of a
+	 * @param protParam the security parameters
+	 * @param rand a randomness generator
+	 * @return the contribution p<sub>i</sub>
+	 */
+	public static BigInteger contributionFor(int i, BigInteger s, ProtocolParameters protParam, Random rand) {
+		BigInteger M = sievingModulus(protParam.sieveBound);
+		BigInteger fourM = M.shiftLeft(2);
+		BigInteger[] shifts = shiftRange(i, M, maxRho(M, contributors(protParam)), protParam.n, contributors(protParam));
+		BigInteger minM = BigInteger.ONE.shiftLeft(protParam.k-1).subtract(shifts[0]).add(fourM).subtract(BigInteger.ONE).divide(fourM);
+		BigInteger maxM = BigInteger.ONE.shiftLeft(protParam.k).subtract(BigInteger.ONE).subtract(shifts[1]).divide(fourM);
+
+		BigInteger p = FOUR.multiply(FOUR.modInverse(M)).multiply(s)
+					.add(fourM.multiply(IntegersUtils.pickInRange(minM, maxM, rand)));
+		if (i == 1)
+			p = p.add(M.multiply(BigInteger.valueOf(3)).multiply(M.modInverse(FOUR)));
+		return p;
+	}
+
+	/** @return the largest mask &rho;<sub>i</sub>, 2<sup>40</sup>M<sup>contributors</sup> - 1*/
+	private static BigInteger maxRho(BigInteger M, int contributors) {
+		return BigInteger.ONE.shiftLeft(STATISTICAL_SECURITY).multiply(M.pow(contributors)).subtract(BigInteger.ONE);
+	}
+
+	/** @return the smallest and largest shift 4us<sub>i</sub> (+3Mv for party 1) of the contribution of party i, over all shares*/
+	private static BigInteger[] shiftRange(int i, BigInteger M, BigInteger maxRho, int n, int contributors) {
+		BigInteger fourU = FOUR.multiply(FOUR.modInverse(M));
+		if (i != 1)
+			return new BigInteger[]{fourU.multiply(maxRho).negate(), BigInteger.ZERO};
+
+		BigInteger maxS = M.pow(contributors).subtract(BigInteger.ONE).add(maxRho.multiply(BigInteger.valueOf(n-1)));
+		BigInteger threeMv = M.multiply(BigInteger.valueOf(3)).multiply(M.modInverse(FOUR));
+		return new BigInteger[]{threeMv, fourU.multiply(maxS).add(threeMv)};
+	}
+
+	/** Computes the shares of the products of consecutive pairs of a list of shared values, locally. The shares are of degree 2t
+	 * and must be reduced before the next multiplication.
+	 * @param factors the shares of the factors, <code>factors[f][v]</code> for the f-th factor of value v
+	 * @param P the modulus of the sharings
+	 * @return the shares of the products, <code>products[m][v] = factors[2m][v]*factors[2m+1][v]</code>
+	 */
+	public static BigInteger[][] localProducts(BigInteger[][] factors, BigInteger P) {
+		BigInteger[][] products = new BigInteger[factors.length/2][];
+		for (int m=0; m < products.length; m++) {
+			products[m] = new BigInteger[factors[2*m].length];
+			for (int v=0; v < products[m].length; v++)
+				products[m][v] = factors[2*m][v].multiply(factors[2*m+1][v]).mod(P);
+		}
+		return products;
+	}
+
+	/** Computes the degree t shares of the products from the reshared degree 2t shares of all parties.
+	 * @param reshares the shares received from each party j, <code>reshares.get(j)[m][v]</code>
+	 * @param P the modulus of the sharings
+	 * @return the shares of the products, of degree t
+	 */
+	public static BigInteger[][] reduceProducts(Map<Integer,BigInteger[][]> reshares, BigInteger P) {
+		int[] ids = reshares.keySet().stream().mapToInt(Integer::intValue).sorted().toArray();
+		BigInteger[] lambdas = IntegersUtils.getLagrangeCoefficients(ids, P);
+		BigInteger[][] first = reshares.get(ids[0]);
+		BigInteger[][] products = new BigInteger[first.length][];
+		for (int m=0; m < products.length; m++) {
+			products[m] = new BigInteger[first[m].length];
+			for (int v=0; v < products[m].length; v++) {
+				BigInteger sum = BigInteger.ZERO;
+				for (int j=0; j < ids.length; j++)
+					sum = sum.add(lambdas[j].multiply(reshares.get(ids[j])[m][v]));
+				products[m][v] = sum.mod(P);
+			}
+		}
+		return products;
+	}
+
+	/**
+	 * The structure of private contributions of a party in the sieving.
+	 * @author Christian Mouchet
+	 */
+	public static class SievingPrivateParameters extends SievingParameters {
+
+		/** The factors a<sub>i</sub> &in; Z<sub>M</sub><sup>*</sup> of a, one per value. null if the party is not a contributor*/
+		public final BigInteger[] ai;
+
+		/** The masks &rho;<sub>i</sub> of a, one per value*/
+		public final BigInteger[] rhoi;
+
+		/** The polynomials used to share the a<sub>i</sub>'s. null if the party is not a contributor*/
+		public final PolynomialMod[] fi;
+
+		/** The polynomials used to share the &rho;<sub>i</sub>'s*/
+		public final PolynomialMod[] gi;
+
+		private SievingPrivateParameters(int i, int n, long[] candidateIds, BigInteger[] a, BigInteger[] rho, PolynomialMod[] f, PolynomialMod[] g) {
+			super(i, n, candidateIds);
+			this.ai = a;
+			this.rhoi = rho;
+			this.fi = f;
+			this.gi = g;
+		}
+
+		/** Generates the private parameters of a given party for a batch of candidates with consecutive ids.
+		 * The size of the batch is given by the protocol parameters.
+		 * @param i the id of the party. i &in; [1,n], n the number of parties
+		 * @param firstCandidateId the id of the first candidate of the batch
+		 * @param protParam the security parameters
+		 * @param rand a randomness generator
+		 * @return the generated parameters
+		 */
+		public static SievingPrivateParameters genFor(int i, long firstCandidateId, ProtocolParameters protParam, Random rand) {
+
+			if (i < 1 || i > protParam.n)
+				throw new IllegalArgumentException("i must be between 1 and the number of parties");
+
+			BigInteger M = sievingModulus(protParam.sieveBound);
+			BigInteger maxRho = maxRho(M, contributors(protParam));
+			boolean contributes = i <= contributors(protParam);
+			int values = 2*protParam.batchSize;
+
+			long[] candidateIds = new long[protParam.batchSize];
+			for (int b=0; b < candidateIds.length; b++)
+				candidateIds[b] = firstCandidateId+b;
+
+			BigInteger[] a = contributes ? new BigInteger[values] : null;
+			PolynomialMod[] f = contributes ? new PolynomialMod[values] : null;
+			BigInteger[] rho = new BigInteger[values];
+			PolynomialMod[] g = new PolynomialMod[values];
+			for (int v=0; v < values; v++) {
+				if (contributes) {
+					do {
+						a[v] = IntegersUtils.pickInRange(BigInteger.ONE, M.subtract(BigInteger.ONE), rand);
+					} while (!a[v].gcd(M).equals(BigInteger.ONE));
+					f[v] = new PolynomialMod(protParam.t, protParam.P, a[v], protParam.k, rand);
+				}
+				rho[v] = IntegersUtils.pickInRange(BigInteger.ZERO, maxRho, rand);
+				g[v] = new PolynomialMod(protParam.t, protParam.P, rho[v], protParam.k, rand);
+			}
+
+			return new SievingPrivateParameters(i, protParam.n, candidateIds, a, rho, f, g);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("SievingPrivateParameters[%d](%d)", i, candidateIds[0]);
+		}
+	}
+
+	/**
+	 * The structure used by the parties to exchange their shares in the sieving.
+	 * @author Christian Mouchet
+	 */
+	public static class SievingPublicParameters extends SievingParameters {
+
+		/** The id of the party for which these shares were generated*/
+		public final int j;
+
+		/** The shares aij = f(j) of party i's a<sub>i</sub>'s generated for party j. null if party i is not a contributor*/
+		public final BigInteger[] aij;
+
+		/** The shares rhoij = g(j) of party i's &rho;<sub>i</sub>'s generated for party j*/
+		public final BigInteger[] rhoij;
+
+		private SievingPublicParameters(int i, int j, int n, long[] candidateIds, BigInteger[] aj, BigInteger[] rhoj) {
+			super(i, n, candidateIds);
+			this.j = j;
+			this.aij = aj;
+			this.rhoij = rhoj;
+		}
+
+		/** Generates the shares for all parties at once.
+		 * @param privParams the private parameters of the party
+		 * @return the structures containing the shares generated for each party, party j's at index <code>j-1</code>
+		 */
+		public static SievingPublicParameters[] genForAll(SievingPrivateParameters privParams) {
+			int n = privParams.n;
+			int values = privParams.rhoi.length;
+			BigInteger[][] ajs = privParams.fi != null ? new BigInteger[values][] : null;
+			BigInteger[][] rhojs = new BigInteger[values][];
+			for (int v=0; v < values; v++) {
+				if (ajs != null)
+					ajs[v] = privParams.fi[v].evalRange(n);
+				rhojs[v] = privParams.gi[v].evalRange(n);
+			}
+
+			SievingPublicParameters[] shares = new SievingPublicParameters[n];
+			for (int j=1; j<=n; j++) {
+				BigInteger[] aj = ajs != null ? new BigInteger[values] : null;
+				BigInteger[] rhoj = new BigInteger[values];
+				for (int v=0; v < values; v++) {
+					if (aj != null)
+						aj[v] = ajs[v][j-1];
+					rhoj[v] = rhojs[v][j-1];
+				}
+				shares[j-1] = new SievingPublicParameters(privParams.i, j, n, privParams.candidateIds, aj, rhoj);
+			}
+			return shares;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("SievingPublicParameters[%d][%d]", this.i, this.j);
+		}
+	}
+}
@@ -0,0 +1,237 @@
+package protocol;
+
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import math.CommitmentGroup;
+import math.CommitmentGroup.BatchVerifier;
+import math.IntegersUtils;
+import math.Polynomial;
+import math.PolynomialMod;
+import protocol.ProtocolParameters.ShareVerification;
+
+/**
+ * The commitments of a dealer to the polynomials of one of its sharings, e.g. f<sub>i</sub>, g<sub>i</sub> and h<sub>i</sub>
+ * of a candidate in the BGW protocol, with the blinding polynomials of Pedersen commitments. The commitments are sent to each
+ * party with its shares, in a {@link Commitments}, so that the party can verify them, see {@link CommitmentGroup}.
+ * <p> Since the commitments are sent point-to-point, a dealer could send different ones to different parties, each
+ * consistent with the shares of its receiver. Each party thus publishes the {@link #digests} of the commitments it
+ * received with its next broadcast value, and checks the digests of the others against its own, see
+ * {@link #equivocatingDealers}.
+ * @author Christian Mouchet
+ */
+public class VerifiableSharing {
+
+	/** The group the commitments live in*/
+	public final CommitmentGroup group;
+
+	/** The commitments to each polynomial of the sharing, in the order of the polynomials*/
+	public final BigInteger[][] commitments;
+
+	private final PolynomialMod[] blindings;
+
+	private VerifiableSharing(CommitmentGroup group, BigInteger[][] commitments, PolynomialMod[] blindings) {
+		this.group = group;
+		this.commitments = commitments;
+		this.blindings = blindings;
+	}
+
+	/** Commits to the polynomials of a sharing, as set by the protocol parameters. The blinding polynomials of Pedersen
+	 * commitments are drawn from the generator after the polynomials, so that a seeded generator draws the same polynomials
+	 * whichever the verification mode.
+	 * @param protocolParameters the parameters of the protocol
+	 * @param rand a randomness generator
+	 * @param polynomials the polynomials of the sharing
+	 * @return the commitments to the polynomials, null if the protocol parameters do not verify the shares
+	 */
+	public static VerifiableSharing commit(ProtocolParameters protocolParameters, Random rand, Polynomial... polynomials) {
+		if (!protocolParameters.isVerifyingShares())
+			return null;
+
+		CommitmentGroup group = CommitmentGroup.of(protocolParameters.P);
+		PolynomialMod[] blindings = null;
+		if (protocolParameters.shareVerification == ShareVerification.PEDERSEN) {
+			blindings = new PolynomialMod[polynomials.length];
+			for (int s=0; s < polynomials.length; s++) {
+				BigInteger b0 = IntegersUtils.pickInRange(BigInteger.ZERO, protocolParameters.P, rand);
+				blindings[s] = new PolynomialMod(polynomials[s].degree(), protocolParameters.P, b0, protocolParameters.P.bitLength(), rand);
+			}
+		}
+
+		BigInteger[][] commitments = new BigInteger[polynomials.length][];
+		for (int s=0; s < polynomials.length; s++)
+			commitments[s] = group.commit(polynomials[s], blindings == null ? null : blindings[s]);
+		return new VerifiableSharing(group, commitments, blindings);
+	}
+
+	/** @param j the id of a party
+	 * @return the commitments and the blinding shares to send to party j with its shares
+	 */
+	public Commitments sharesFor(int j) {
+		BigInteger[] blindingShares = null;
+		if (blindings != null) {
+			blindingShares = new BigInteger[blindings.length];
+			for (int s=0; s < blindings.length; s++)
+				blindingShares[s] = blindings[s].eval(j);
+		}
+		return new Commitments(commitments, blindingShares);
+	}
+
+	/** @param n the number of parties
+	 * @return the commitments and the blinding shares to send to each party, party j's at index <code>j-1</code>
+	 */
+	public Commitments[] sharesForAll(int n) {
+		BigInteger[][] blindingShares = null;
+		if (blindings != null) {
+			blindingShares = new BigInteger[blindings.length][];
+			for (int s=0; s < blindings.length; s++)
+				blindingShares[s] = blindings[s].evalRange(n);
+		}
+
+		Commitments[] all = new Commitments[n];
+		for (int j=1; j <= n; j++) {
+			BigInteger[] blindingSharesj = null;
+			if (blindingShares != null) {
+				blindingSharesj = new BigInteger[blindingShares.length];
+				for (int s=0; s < blindingShares.length; s++)
+					blindingSharesj[s] = blindingShares[s][j-1];
+			}
+			all[j-1] = new Commitments(commitments, blindingSharesj);
+		}
+		return all;
+	}
+
+	/** Digests the commitments a party received from each dealer with SHA-256, without the blinding shares, which differ
+	 * from party to party.
+	 * @param commitments the commitments to each sharing received from each dealer, keyed by the id of the dealer
+	 * @param n the number of parties
+	 * @return the digest of the commitments of dealer j at index <code>j-1</code>, null for the dealers not in the map
+	 */
+	public static byte[][] digests(Map<Integer,Commitments[]> commitments, int n) {
+		MessageDigest sha256;
+		try {
+			sha256 = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not available", e);
+		}
+
+		byte[][] digests = new byte[n][];
+		commitments.forEach((dealer, sharings) -> {
+			for (Commitments sharing : sharings) {
+				for (BigInteger[] vector : sharing.commitments) {
+					for (BigInteger commitment : vector) {
+						byte[] bytes = commitment.toByteArray();
+						sha256.update(new byte[]{(byte) (bytes.length >>> 24), (byte) (bytes.length >>> 16),
+													(byte) (bytes.length >>> 8), (byte) bytes.length});
+						sha256.update(bytes);
+					}
+				}
+			}
+			digests[dealer-1] = sha256.digest();
+		});
+		return digests;
+	}
+
+	/** Compares the digests of the commitments received by a party with the ones another party published.
+	 * @param own the digests of the commitments received by the party, see {@link #digests}, null if the shares are not
+	 * verified
+	 * @param published the digests published by the other party
+	 * @param publisher the id of the other party
+	 * @return the ids of the dealers whose commitments differ, or the id of the other party alone if it published no digest
+	 * for some dealer
+	 */
+	public static List<Integer> equivocatingDealers(byte[][] own, byte[][] published, int publisher) {
+		List<Integer> equivocating = new ArrayList<Integer>();
+		if (own == null)
+			return equivocating;
+		if (published == null || published.length != own.length || Arrays.asList(published).contains(null)) {
+			equivocating.add(publisher);
+			return equivocating;
+		}
+		for (int j=1; j <= own.length; j++) {
+			if (!Arrays.equals(own[j-1], published[j-1]))
+				equivocating.add(j);
+		}
+		return equivocating;
+	}
+
+	/**
+	 * The commitments of a dealer to the polynomials of a sharing, as received by a party with its shares, and the blinding
+	 * shares of the party if the commitments are Pedersen's.
+	 * @author Christian Mouchet
+	 */
+	public static class Commitments {
+
+		/** The commitments to each polynomial of the sharing*/
+		public final BigInteger[][] commitments;
+
+		/** The shares of each blinding polynomial for the party, null with Feldman commitments*/
+		public final BigInteger[] blindings;
+
+		Commitments(BigInteger[][] commitments, BigInteger[] blindings) {
+			this.commitments = commitments;
+			this.blindings = blindings;
+		}
+
+		/** Checks that there is a commitment of the given degree, and a blinding share if Pedersen's, for each share.
+		 * @param protocolParameters the parameters of the protocol
+		 * @param degrees the degree of each polynomial of the sharing
+		 * @return true if the commitments are well formed
+		 */
+		public boolean isWellFormed(ProtocolParameters protocolParameters, int... degrees) {
+			if (commitments == null || commitments.length != degrees.length)
+				return false;
+			if ((protocolParameters.shareVerification == ShareVerification.PEDERSEN) != (blindings != null))
+				return false;
+			if (blindings != null && blindings.length != degrees.length)
+				return false;
+			for (int s=0; s < degrees.length; s++) {
+				if (commitments[s] == null || commitments[s].length != degrees[s]+1)
+					return false;
+			}
+			return true;
+		}
+
+		/** Adds the shares of the sharing received by a party to a verifier.
+		 * @param verifier the verifier of the shares received by the party
+		 * @param dealer the id of the party that dealt the shares
+		 * @param shares the shares, in the order of the polynomials
+		 */
+		public void addTo(BatchVerifier verifier, int dealer, BigInteger... shares) {
+			for (int s=0; s < shares.length; s++)
+				verifier.add(dealer, commitments[s], shares[s], blindings == null ? null : blindings[s]);
+		}
+
+		/** Adds the shares of several sharings received by a party from a dealer to a verifier, or lists the dealer as
+		 * incorrect if some of its commitments are missing or malformed.
+		 * @param protocolParameters the parameters of the protocol
+		 * @param verifier the verifier of the shares received by the party
+		 * @param dealer the id of the party that dealt the shares
+		 * @param commitments the commitments to each sharing, null if the dealer sent none
+		 * @param shares the shares of each sharing, in the order of the commitments
+		 * @param malformed the list the dealer is added to if some commitments are missing or malformed
+		 * @param degrees the degree of each polynomial of a sharing
+		 */
+		public static void addAllTo(ProtocolParameters protocolParameters, BatchVerifier verifier, int dealer,
+									Commitments[] commitments, BigInteger[][] shares, List<Integer> malformed, int... degrees) {
+			if (commitments == null || commitments.length != shares.length) {
+				malformed.add(dealer);
+				return;
+			}
+			for (int c=0; c < commitments.length; c++) {
+				if (commitments[c] == null || !commitments[c].isWellFormed(protocolParameters, degrees)) {
+					malformed.add(dealer);
+					return;
+				}
+			}
+			for (int c=0; c < commitments.length; c++)
+				commitments[c].addTo(verifier, dealer, shares[c]);
+		}
+	}
+}
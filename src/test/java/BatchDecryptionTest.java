@@ -0,0 +1,96 @@
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import paillierp.PaillierThreshold;
+import paillierp.PartialDecryption;
+import paillierp.key.KeyGen;
+import paillierp.key.PaillierPrivateThresholdKey;
+import protocol.BatchDecryption;
+
+
+/**
+ * This script checks that BatchDecryption gives the plaintexts that PaillierThreshold.combineShares gives on the partial
+ * decryptions of the same key shares. For each number of parties l and threshold w of CONFIGURATIONS, a key dealt by the
+ * toolbox decrypts CIPHERTEXTS random plaintexts with SUBSETS subsets of w shares: the w last ones, and random ones, which
+ * are non-contiguous in general. Every mismatch is printed, and the script exits with status 1 if there is any.
+ *
+ * @author Christian Mouchet
+ */
+public class BatchDecryptionTest {
+
+	private static final int BITS = 128;
+	private static final int[][] CONFIGURATIONS = {{3, 2}, {5, 3}, {7, 4}, {10, 5}, {10, 10}};
+	private static final int SUBSETS = 4;
+	private static final int CIPHERTEXTS = 8;
+	private static final long SEED = 1;
+
+	public static void main(String[] args) {
+		Random rand = new Random(SEED);
+		int mismatches = 0;
+
+		for(int[] configuration : CONFIGURATIONS) {
+			int l = configuration[0];
+			int w = configuration[1];
+			PaillierPrivateThresholdKey[] keys = KeyGen.PaillierThresholdKey(BITS, l, w, rand.nextLong());
+			PaillierThreshold encryption = new PaillierThreshold(keys[0].getPublicKey());
+
+			List<BigInteger> plaintexts = new ArrayList<BigInteger>();
+			List<BigInteger> ciphertexts = new ArrayList<BigInteger>();
+			for(int c=0; c<CIPHERTEXTS; c++) {
+				BigInteger m = new BigInteger(keys[0].getN().bitLength()-1, rand);
+				plaintexts.add(m);
+				ciphertexts.add(encryption.encrypt(m));
+			}
+
+			for(int s=0; s<SUBSETS; s++) {
+				List<PaillierPrivateThresholdKey> subset = s == 0 ? lastShares(keys, w) : randomShares(keys, w, rand);
+				List<BigInteger> batch = new BatchDecryption(subset).decrypt(ciphertexts);
+				for(int c=0; c<CIPHERTEXTS; c++) {
+					BigInteger expected = combineShares(subset, ciphertexts.get(c));
+					if(!expected.equals(batch.get(c)) || !expected.equals(plaintexts.get(c))) {
+						mismatches++;
+						System.out.println(String.format("l=%d w=%d shares %s: ciphertext %d decrypted to %s instead of %s",
+															l, w, ids(subset), c, batch.get(c), expected));
+					}
+				}
+				System.out.println(String.format("l=%d w=%d shares %s: checked %d ciphertexts", l, w, ids(subset), CIPHERTEXTS));
+			}
+		}
+
+		System.out.println("---------------------------------------------");
+		System.out.println(mismatches == 0 ? "All decryptions match" : mismatches+" decryptions do not match");
+		if(mismatches != 0)
+			System.exit(1);
+	}
+
+	private static BigInteger combineShares(List<PaillierPrivateThresholdKey> subset, BigInteger ciphertext) {
+		PartialDecryption[] partials = new PartialDecryption[subset.size()];
+		for(int i=0; i<partials.length; i++)
+			partials[i] = new PaillierThreshold(subset.get(i)).decrypt(ciphertext);
+		return new PaillierThreshold(subset.get(0)).combineShares(partials);
+	}
+
+	private static List<PaillierPrivateThresholdKey> lastShares(PaillierPrivateThresholdKey[] keys, int w) {
+		List<PaillierPrivateThresholdKey> subset = new ArrayList<PaillierPrivateThresholdKey>();
+		for(int i=keys.length-w; i<keys.length; i++)
+			subset.add(keys[i]);
+		return subset;
+	}
+
+	private static List<PaillierPrivateThresholdKey> randomShares(PaillierPrivateThresholdKey[] keys, int w, Random rand) {
+		List<PaillierPrivateThresholdKey> all = new ArrayList<PaillierPrivateThresholdKey>();
+		Collections.addAll(all, keys);
+		Collections.shuffle(all, rand);
+		return all.subList(0, w);
+	}
+
+	private static List<Integer> ids(List<PaillierPrivateThresholdKey> subset) {
+		List<Integer> ids = new ArrayList<Integer>();
+		subset.forEach(key -> ids.add(key.getID()));
+		Collections.sort(ids);
+		return ids;
+	}
+}
@@ -0,0 +1,24 @@
+import java.security.SecureRandom;
+
+import protocol.ProtocolParameters;
+
+/**
+ * This script generates the primes P' shipped in the <code>protocol/presets.properties</code> resource, for the key sizes
+ * KEY_SIZES and the numbers of parties N_PARTIES, and prints them in the format of this resource.
+ * @author Christian Mouchet
+ */
+public class GeneratePresets {
+
+	public static final int[] KEY_SIZES = {64, 128, 256, 512, 1024, 2048};
+	public static final int[] N_PARTIES = {3, 4, 5, 6, 7, 8, 9, 10};
+
+	public static void main(String[] args) {
+		SecureRandom random = new SecureRandom();
+		for (int k : KEY_SIZES) {
+			for (int n : N_PARTIES) {
+				ProtocolParameters params = ProtocolParameters.gen(k, n, 1, random);
+				System.out.println(k+"."+n+"="+params.P.toString(16));
+			}
+		}
+	}
+}
@@ -0,0 +1,86 @@
+import java.math.BigInteger;
+import java.nio.file.Paths;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import messages.Messages.GetKeyPoolMetrics;
+import messages.Messages.KeyPoolMetrics;
+import messages.Messages.KeyRequest;
+import messages.Messages.ThresholdKeySet;
+import paillierp.PaillierThreshold;
+import paillierp.PartialDecryption;
+import paillierp.key.PaillierPrivateThresholdKey;
+import protocol.KeyShareStore;
+import protocol.ParameterStore;
+import protocol.ProtocolParameters;
+import actors.KeyPool;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import akka.pattern.Patterns;
+import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
+import scala.concurrent.duration.FiniteDuration;
+
+/**
+ * This script creates a KeyPool of CAPACITY key sets for N_PARTIES parties with a threshold of T_THRESHOLD, waits until it is
+ * full, then requests N_REQUESTS key sets in a row, printing the latency of each request and the metrics of the pool. The
+ * first key set is checked by encrypting and decrypting a message. The pool keeps its key shares in the folder "pool".
+ * @author Christian Mouchet
+ */
+public class KeyPoolTest {
+
+	public static final int N_PARTIES = 5;
+	public static final int T_THRESHOLD = 2;
+	public static final int KEY_SIZE = 128;
+	public static final int CAPACITY = 3;
+	public static final int LOW_WATER_MARK = 2;
+	public static final int N_REQUESTS = 5;
+
+	private static final FiniteDuration TIMEOUT = Duration.create(10, TimeUnit.MINUTES);
+
+	@SuppressWarnings("deprecation")
+	public static void main(String[] args) throws Exception {
+		ActorSystem system = ActorSystem.create();
+
+		ProtocolParameters protoParam = ParameterStore.getDefault().get(KEY_SIZE, N_PARTIES, T_THRESHOLD, new SecureRandom())
+														.withTrialDivisionBound(10000);
+		ActorRef pool = system.actorOf(Props.create(KeyPool.class, protoParam, CAPACITY, LOW_WATER_MARK,
+													Runtime.getRuntime().availableProcessors(), new KeyShareStore(Paths.get("pool"))), "KeyPool");
+
+		KeyPoolMetrics metrics;
+		while((metrics = ask(pool, new GetKeyPoolMetrics())).available < CAPACITY)
+			Thread.sleep(500);
+		System.out.println("Pool full: "+metrics);
+
+		for(int r=1; r<=N_REQUESTS; r++) {
+			long start = System.nanoTime();
+			ThresholdKeySet keySet = ask(pool, new KeyRequest());
+			System.out.println(String.format("Request %d: key set of session %d in %.3f ms", r, keySet.sessionId,
+												(System.nanoTime() - start)/1e6));
+			if(r == 1)
+				check(keySet.getKeys());
+		}
+		metrics = ask(pool, new GetKeyPoolMetrics());
+		System.out.println(metrics);
+		system.shutdown();
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T ask(ActorRef pool, Object message) throws Exception {
+		return (T) Await.result(Patterns.ask(pool, message, TIMEOUT.toMillis()), TIMEOUT);
+	}
+
+	private static void check(List<PaillierPrivateThresholdKey> keys) {
+		List<PaillierThreshold> servers = new ArrayList<PaillierThreshold>();
+		keys.forEach(key -> servers.add(new PaillierThreshold(key)));
+		BigInteger message = new BigInteger("Hello world !".getBytes());
+		BigInteger cipher = servers.get(0).encrypt(message);
+		PartialDecryption[] partials = new PartialDecryption[servers.size()];
+		for(int i=0; i<servers.size(); i++)
+			partials[i] = servers.get(i).decrypt(cipher);
+		System.out.println("Decryption => "+new String(servers.get(0).combineShares(partials).toByteArray()));
+	}
+}
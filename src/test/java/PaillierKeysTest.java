@@ -7,13 +7,14 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
 
+import protocol.KeyShareStore;
 import paillierp.PaillierThreshold;
 import paillierp.PartialDecryption;
 import paillierp.key.PaillierPrivateThresholdKey;
 
 
 /**
- * This script looks for keys in a folder named "Keys" in the project root directory.
+ * This script looks for keys in a folder named "Keys" in the project root directory, or in the folder given as argument.
  * It then creates at most NUM_SERV PaillierThreshold object, each initialized with a
  * different private key. Finally, it attempts to encrypt, share decrypt and combine 
  * the message MESSAGE.
@@ -33,11 +34,11 @@ public class PaillierKeysTest {
 		List<PaillierPrivateThresholdKey> keys = new ArrayList<PaillierPrivateThresholdKey>();
 		List<PaillierThreshold> decryptionServers =  new ArrayList<PaillierThreshold>();
 		
-		Files.walk(Paths.get("keys")).filter(f -> f.toString().endsWith(".privkey")).forEach(filePath -> {
+		Files.walk(Paths.get(args.length > 0 ? args[0] : "keys")).filter(f -> f.toString().endsWith(".privkey")).forEach(filePath -> {
 		    try {
 		    	if(Files.isRegularFile(filePath)) {
 		    		//System.out.println(filePath.toString());
-		    		keys.add(new PaillierPrivateThresholdKey(Files.readAllBytes(filePath), rand.nextLong()));
+		    		keys.add(new PaillierPrivateThresholdKey(KeyShareStore.read(filePath), rand.nextLong()));
 		    	}
 			} catch (Exception e) {
 				e.printStackTrace();
@@ -3,16 +3,21 @@ import java.util.HashMap;
 import java.util.Map;
 
 import messages.Messages.Participants;
+import protocol.ParameterStore;
 import protocol.ProtocolParameters;
 import actors.ProtocolActor;
 import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
 import akka.actor.Props;
 
+import com.typesafe.config.ConfigFactory;
+
 /**
  * This script creates a local Actor System and runs the protocol for N_PARTIES parties with a 
  * threshold of T_THRESHOLD. The bit size of the keys can be controlled using the KEY_SIZE constant.
- * This constant is the minimum size of p and q in bit.
+ * This constant is the minimum size of p and q in bit. P' is taken from the default {@link ParameterStore}, and only
+ * generated the first time for sizes that have no preset. The other settings of the protocol are given by TUNING, in the
+ * format of {@link ProtocolParameters#withTuning}, and keep their default values when absent.
  * @author Christian Mouchet
  */
 public class ProtocolTest {
@@ -20,12 +25,16 @@ public class ProtocolTest {
 	public static final int N_PARTIES = 10; // Current implementation: works for 3 to 30 
 	public static final int T_THRESHOLD = 4; // Should be less than n/2
 	public static final int KEY_SIZE = 128; // Tested up to 512
+	public static final String TUNING = "batch-size = 4, sieve-bound = 13, trial-division-bound = 10000";
+	// e.g. interpolation = EARLY, broadcast-tree-arity = 2, coalescing-window = 0, pipeline-depth = 1,
+	// share-verification = FELDMAN, randomness = HMAC_DRBG
 	
 	@SuppressWarnings("deprecation")
 	public static void main(String[] args) throws InterruptedException {
 	    ActorSystem system = ActorSystem.create();
 	    
-	    ProtocolParameters protoParam = ProtocolParameters.gen(KEY_SIZE, N_PARTIES, T_THRESHOLD, new SecureRandom());
+	    ProtocolParameters protoParam = ParameterStore.getDefault().get(KEY_SIZE, N_PARTIES, T_THRESHOLD, new SecureRandom())
+	    												.withTuning(ConfigFactory.parseString(TUNING));
 	    //System.out.println("Pp="+protoParam.P);
 	    
 	    Map<ActorRef,Integer> indexMap = new HashMap<ActorRef,Integer>(N_PARTIES);
@@ -0,0 +1,70 @@
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Map;
+
+import messages.Messages.Participants;
+import messages.Messages.SessionEnded;
+import protocol.KeyShareStore;
+import protocol.ParameterStore;
+import protocol.ProtocolParameters;
+import actors.SessionSupervisor;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import akka.actor.UntypedActor;
+
+/**
+ * This script creates a local Actor System with one SessionSupervisor per party and runs N_SESSIONS sessions of the protocol,
+ * at most MAX_SESSIONS at once, for N_PARTIES parties with a threshold of T_THRESHOLD. The key shares of session s are written
+ * in the folder "keys/session-s", use <code>PaillierKeysTest keys/session-s</code> to test them.
+ * @author Christian Mouchet
+ */
+public class SessionsTest {
+
+	public static final int N_PARTIES = 5;
+	public static final int T_THRESHOLD = 2;
+	public static final int KEY_SIZE = 128;
+	public static final int N_SESSIONS = 4;
+	public static final int MAX_SESSIONS = Runtime.getRuntime().availableProcessors();
+
+	@SuppressWarnings("deprecation")
+	public static void main(String[] args) throws InterruptedException {
+		ActorSystem system = ActorSystem.create();
+
+		ProtocolParameters protoParam = ParameterStore.getDefault().get(KEY_SIZE, N_PARTIES, T_THRESHOLD, new SecureRandom())
+														.withTrialDivisionBound(10000);
+
+		Map<ActorRef,Integer> indexMap = new HashMap<ActorRef,Integer>(N_PARTIES);
+		for(int i=1; i<=N_PARTIES; i++) {
+			indexMap.put(system.actorOf(Props.create(SessionSupervisor.class, protoParam, MAX_SESSIONS, KeyShareStore.getDefault()),
+										"Actor"+i), i);
+		}
+
+		ActorRef client = system.actorOf(Props.create(SessionsClient.class, N_PARTIES*N_SESSIONS), "Client");
+
+		long start = System.currentTimeMillis();
+		for(long session=1; session<=N_SESSIONS; session++) {
+			Participants participants = new Participants(indexMap, session);
+			indexMap.keySet().stream().forEach(actor -> actor.tell(participants, client));
+		}
+
+		system.awaitTermination();
+		System.out.println(String.format("Generated %d keys in %d s", N_SESSIONS, (System.currentTimeMillis() - start)/1000));
+	}
+
+	/** Shuts the system down once all supervisors reported the end of all sessions*/
+	public static class SessionsClient extends UntypedActor {
+		private int remaining;
+
+		public SessionsClient(int remaining) {
+			this.remaining = remaining;
+		}
+
+		@SuppressWarnings("deprecation")
+		@Override
+		public void onReceive(Object message) {
+			if (message instanceof SessionEnded && --remaining == 0)
+				context().system().shutdown();
+		}
+	}
+}
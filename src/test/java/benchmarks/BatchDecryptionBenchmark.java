@@ -0,0 +1,109 @@
+package benchmarks;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import paillierp.PaillierThreshold;
+import paillierp.PartialDecryption;
+import paillierp.key.KeyGen;
+import paillierp.key.PaillierPrivateThresholdKey;
+import protocol.BatchDecryption;
+
+/**
+ * Measures the throughput, in ciphertexts per second, of the threshold decryption of a batch of {@link #BATCH} ciphertexts
+ * by {@link BatchDecryption} in a pool of the given number of cores, against the decryption of each ciphertext in turn with
+ * the partial decryptions and {@link PaillierThreshold#combineShares(PartialDecryption...)} of the toolbox.
+ * <p>
+ * The keys are dealt by the toolbox rather than generated by the protocol, which would last too long for a setup; they have
+ * the same form. The modulus has about 2&middot;bits bits.
+ * @author Christian Mouchet
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BatchDecryptionBenchmark {
+
+	/** The number of ciphertexts decrypted per invocation*/
+	public static final int BATCH = 1024;
+
+	/** The bitlength of the factors of the modulus*/
+	@Param({"512", "1024"})
+	public int bits;
+
+	/** The number of parties*/
+	@Param({"5"})
+	public int n;
+
+	/** The parallelism of the pool of the batch decryption*/
+	@Param({"1", "2", "4", "8"})
+	public int cores;
+
+	private PaillierPrivateThresholdKey[] keys;
+	private List<BigInteger> ciphertexts;
+	private ForkJoinPool pool;
+	private BatchDecryption batchDecryption;
+
+	@Setup
+	public void setup() {
+		Random rand = new Random(BenchmarkRunner.SEED);
+		keys = KeyGen.PaillierThresholdKey(bits, n, (n+1)/2, BenchmarkRunner.SEED);
+		PaillierThreshold encryption = new PaillierThreshold(keys[0].getPublicKey());
+		ciphertexts = new ArrayList<BigInteger>(BATCH);
+		for (int i=0; i < BATCH; i++)
+			ciphertexts.add(encryption.encrypt(BigInteger.valueOf(rand.nextInt(2))));
+		pool = new ForkJoinPool(cores);
+		batchDecryption = new BatchDecryption(Arrays.asList(keys), pool);
+	}
+
+	@TearDown
+	public void tearDown() {
+		pool.shutdown();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public List<BigInteger> batchDecryption() {
+		return batchDecryption.decrypt(ciphertexts);
+	}
+
+	/** The decryption with the toolbox, which does not depend on the number of cores*/
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public List<BigInteger> combineShares() {
+		int w = keys[0].getW();
+		PaillierThreshold[] parties = new PaillierThreshold[w];
+		for (int i=0; i < w; i++)
+			parties[i] = new PaillierThreshold(keys[i]);
+
+		List<BigInteger> plaintexts = new ArrayList<BigInteger>(BATCH);
+		for (BigInteger c : ciphertexts) {
+			PartialDecryption[] shares = new PartialDecryption[w];
+			for (int i=0; i < w; i++)
+				shares[i] = parties[i].decrypt(c);
+			plaintexts.add(parties[0].combineShares(shares));
+		}
+		return plaintexts;
+	}
+}
@@ -0,0 +1,44 @@
+package benchmarks;
+
+import java.io.File;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of the JMH benchmarks of this package. It accepts the usual JMH command line options
+ * (e.g. <code>-p k=1024 -p n=64 SharingBenchmark</code>) and, unless told otherwise, runs every benchmark
+ * of the package and writes the results in JSON to <code>benchmarks/results.json</code>.
+ * <p>
+ * Use <code>-rf csv -rff results.csv</code> to get CSV instead.
+ * @author Christian Mouchet
+ */
+public class BenchmarkRunner {
+
+	/** The seed of every randomness generator used in the benchmarks, so that runs are comparable.*/
+	public static final long SEED = 0x7a11e7L;
+
+	private static final String RESULT_DIRECTORY = "benchmarks";
+
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+		CommandLineOptions cmdOptions = new CommandLineOptions(args);
+		ChainedOptionsBuilder options = new OptionsBuilder().parent(cmdOptions);
+
+		if (cmdOptions.getIncludes().isEmpty())
+			options.include(BenchmarkRunner.class.getPackage().getName()+"\\..*Benchmark");
+		if (!cmdOptions.getResultFormat().hasValue())
+			options.resultFormat(ResultFormatType.JSON);
+		if (!cmdOptions.getResult().hasValue()) {
+			ResultFormatType format = cmdOptions.getResultFormat().orElse(ResultFormatType.JSON);
+			new File(RESULT_DIRECTORY).mkdirs();
+			options.result(RESULT_DIRECTORY+"/results."+format.toString().toLowerCase());
+		}
+
+		new Runner(options.build()).run();
+	}
+}
@@ -0,0 +1,25 @@
+package benchmarks;
+
+import java.io.FileNotFoundException;
+
+import protocol.ProtocolParameters;
+import actors.SimulatedNetwork;
+
+/**
+ * Compares full runs of the protocol in which the messages of a party to another one are sent at once with runs in which
+ * they are coalesced during windows of several lengths, see {@link ProtocolParameters#withCoalescing(long)}. The messages
+ * and bytes are counted by a {@link SimulatedNetwork} whose links all have the given latency.
+ * <p>
+ * Usage: <code>CoalescingBenchmark [k n t runs windowsMicros latencyMillis]</code>, by default
+ * <code>128 10 4 2 -1,0,1000 0</code>, a window of -1 standing for no coalescing and 0 for the messages of one step. The
+ * measures are written to <code>benchmarks/coalescing.csv</code>, see {@link ProtocolRun#sweep}.
+ * @author Christian Mouchet
+ */
+public class CoalescingBenchmark {
+
+	public static void main(String[] args) throws FileNotFoundException {
+		ProtocolRun.sweep("coalescing", "window_micros", args, "-1,0,1000", 0,
+							(params, window) -> params.withCoalescing(window),
+							window -> window < 0 ? "no coalescing" : "window of "+window+" us");
+	}
+}
@@ -0,0 +1,79 @@
+package benchmarks;
+
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import math.IntegersUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the remaining helpers of {@link IntegersUtils}: the factorial &Delta; = n! and the random picking
+ * used in the key derivation (&beta;<sub>i</sub>, R<sub>i</sub> and the verification keys generator v).
+ * <p>
+ * The modulus N is the product of two k-bit primes drawn from a generator seeded with {@link BenchmarkRunner#SEED},
+ * and so is the generator used by the picking methods, so that two runs draw the same sequence of candidates.
+ * @author Christian Mouchet
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IntegersUtilsBenchmark {
+
+	/** The security parameter K used by the protocol for the statistical hiding of &Phi;(N)*/
+	private static final BigInteger K = BigInteger.valueOf(1000);
+
+	@State(Scope.Benchmark)
+	public static class Parties {
+		/** The number of parties*/
+		@Param({"3", "10", "30", "64", "100"})
+		public int n;
+	}
+
+	@State(Scope.Thread)
+	public static class Modulus {
+		/** The bitlength of p and q*/
+		@Param({"128", "512", "1024", "2048"})
+		public int k;
+
+		public BigInteger N;
+		public BigInteger KN;
+		public Random rand;
+
+		@Setup
+		public void setup() {
+			rand = new Random(BenchmarkRunner.SEED);
+			N = BigInteger.probablePrime(k, rand).multiply(BigInteger.probablePrime(k, rand));
+			KN = N.multiply(K);
+		}
+	}
+
+	@Benchmark
+	public BigInteger factorial(Parties parties) {
+		return IntegersUtils.factorial(BigInteger.valueOf(parties.n));
+	}
+
+	/** Picking of &beta;<sub>i</sub> in [0;KN]*/
+	@Benchmark
+	public BigInteger pickInRange(Modulus modulus) {
+		return IntegersUtils.pickInRange(BigInteger.ZERO, modulus.KN, modulus.rand);
+	}
+
+	@Benchmark
+	public BigInteger pickProbableGeneratorOfZNSquare(Modulus modulus) {
+		return IntegersUtils.pickProbableGeneratorOfZNSquare(modulus.N, 2*modulus.k, modulus.rand);
+	}
+}
@@ -0,0 +1,75 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
+import java.util.Random;
+
+import protocol.ParameterStore;
+import protocol.ProtocolParameters;
+import actors.ProtocolActor.States;
+import actors.SimulatedNetwork;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import com.typesafe.config.ConfigValueFactory;
+
+/**
+ * Runs the protocol over a simulated network, e.g. to predict its behavior across data centers. The parameters of the
+ * protocol and the network are read from a configuration file, see <code>benchmarks/two-datacenters.conf</code> in the test
+ * resources and {@link SimulatedNetwork}.
+ * <p>
+ * Usage: <code>NetworkSimulation [config runs]</code>, by default <code>benchmarks/two-datacenters.conf</code> and the runs
+ * of the configuration. The configuration is read from the file if it exists and from the class path otherwise. The wall
+ * time of each phase, the candidates tested and the messages and bytes sent are printed for each run and written to
+ * <code>benchmarks/network.csv</code>.
+ * @author Christian Mouchet
+ */
+public class NetworkSimulation {
+
+	public static void main(String[] args) throws FileNotFoundException {
+		String name = args.length > 0 ? args[0] : "benchmarks/two-datacenters.conf";
+		File file = new File(name);
+		Config config = (file.exists() ? ConfigFactory.parseFile(file) : ConfigFactory.parseResources(name)).resolve();
+		if (!config.hasPath("protocol"))
+			throw new IllegalArgumentException("No protocol parameters in "+name);
+		int runs = args.length > 1 ? Integer.parseInt(args[1]) : config.hasPath("runs") ? config.getInt("runs") : 1;
+
+		Config protocol = config.getConfig("protocol");
+		int k = protocol.getInt("k");
+		int n = protocol.getInt("n");
+		int t = protocol.getInt("t");
+		ProtocolParameters params = ParameterStore.getDefault().get(k, n, t, new Random(BenchmarkRunner.SEED)).withTuning(protocol);
+		Config network = config.hasPath("network") ? config.getConfig("network") : ConfigFactory.empty();
+		long seed = network.hasPath("seed") ? network.getLong("seed") : 0;
+
+		new File("benchmarks").mkdirs();
+		PrintWriter csv = new PrintWriter("benchmarks/network.csv");
+		csv.print("k,n,t,run,candidates,millis");
+		for (States phase : States.values())
+			csv.print(","+phase.name().toLowerCase()+"_millis");
+		csv.println(",messages,bytes,max_party_bytes_sent");
+		for (int run=1; run <= runs; run++) {
+			// The same links in every run, with different jitter and reordering
+			Config seeded = network.withValue("seed", ConfigValueFactory.fromAnyRef(seed+run-1));
+			ProtocolRun result = ProtocolRun.run(params.withSeed(BenchmarkRunner.SEED+run-1), SimulatedNetwork.of(seeded, n));
+
+			long maxBytesSent = 0;
+			for (int i=1; i <= n; i++)
+				maxBytesSent = Math.max(maxBytesSent, result.network.bytesSent(i));
+
+			StringBuilder phases = new StringBuilder();
+			csv.print(String.format("%d,%d,%d,%d,%d,%d", k, n, t, run, result.candidates, result.millis));
+			for (States phase : States.values()) {
+				csv.print(String.format(",%.1f", result.millisIn(phase)));
+				phases.append(String.format(" %s=%.1fs", phase, result.millisIn(phase)/1000));
+			}
+			csv.println(String.format(",%d,%d,%d", result.network.totalMessages(), result.network.totalBytes(), maxBytesSent));
+			csv.flush();
+			System.out.println(String.format("Run %d: %.1f s, %d candidates, %d messages, %.1f kB (%.1f kB max per party)%s",
+												run, result.millis/1000.0, result.candidates, result.network.totalMessages(),
+												result.network.totalBytes()/1000.0, maxBytesSent/1000.0, phases));
+		}
+		csv.close();
+	}
+}
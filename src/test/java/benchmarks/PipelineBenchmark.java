@@ -0,0 +1,26 @@
+package benchmarks;
+
+import java.io.FileNotFoundException;
+
+import protocol.ProtocolParameters;
+import actors.SimulatedNetwork;
+
+/**
+ * Compares full runs of the protocol in which a batch of candidates is generated once all the candidates of the previous
+ * ones are tested with runs in which batches are generated while the candidates are tested, with pipelines of several
+ * depths, see {@link ProtocolParameters#withPipelineDepth(int)}. The links of the {@link SimulatedNetwork} between the
+ * parties all have the given latency, which the pipelining hides.
+ * <p>
+ * Usage: <code>PipelineBenchmark [k n t runs depths latencyMillis]</code>, by default <code>128 10 4 2 0,1,2 5</code>, depth 0
+ * standing for no pipelining. The measures, with the time spent waiting for a batch, are written to
+ * <code>benchmarks/pipeline.csv</code>, see {@link ProtocolRun#sweep}.
+ * @author Christian Mouchet
+ */
+public class PipelineBenchmark {
+
+	public static void main(String[] args) throws FileNotFoundException {
+		ProtocolRun.sweep("pipeline", "depth", args, "0,1,2", 5,
+							(params, depth) -> params.withPipelineDepth(depth.intValue()),
+							depth -> depth == 0 ? "no pipelining" : "depth "+depth);
+	}
+}
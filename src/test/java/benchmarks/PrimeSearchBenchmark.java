@@ -0,0 +1,80 @@
+package benchmarks;
+
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import math.PrimeSearch;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the search of a prime in [2<sup>bits-1</sup>; 2<sup>bits</sup>], as done for P', by {@link PrimeSearch} in a pool
+ * of the given number of cores, against the former sequential search with {@link BigInteger#nextProbablePrime()}. P' has
+ * about 2k+8 bits for k &ge; 512, and 8k+8 bits below.
+ * <p>
+ * The time to find a prime depends on the distance from the random starting point to the next prime, so the generator is
+ * seeded with {@link BenchmarkRunner#SEED} and many searches are averaged.
+ * @author Christian Mouchet
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PrimeSearchBenchmark {
+
+	/** The bitlength of the prime*/
+	@Param({"512", "1024", "2048", "4096"})
+	public int bits;
+
+	/** The parallelism of the pool of the parallel search*/
+	@Param({"1", "2", "4", "8"})
+	public int cores;
+
+	private BigInteger min;
+	private BigInteger max;
+	private Random rand;
+	private ForkJoinPool pool;
+
+	@Setup
+	public void setup() {
+		min = BigInteger.ONE.shiftLeft(bits-1);
+		max = BigInteger.ONE.shiftLeft(bits);
+		rand = new Random(BenchmarkRunner.SEED);
+		pool = new ForkJoinPool(cores);
+	}
+
+	@TearDown
+	public void tearDown() {
+		pool.shutdown();
+	}
+
+	@Benchmark
+	public BigInteger parallelSearch() {
+		return PrimeSearch.submit(min, max, rand, pool).join();
+	}
+
+	/** The former search, which does not depend on the number of cores*/
+	@Benchmark
+	public BigInteger nextProbablePrime() {
+		BigInteger candidate;
+		do {
+			candidate = min.add(new BigInteger(bits-1, rand)).nextProbablePrime();
+		} while(candidate.compareTo(max) > 0);
+		return candidate;
+	}
+}
@@ -0,0 +1,223 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.BiFunction;
+import java.util.function.LongFunction;
+
+import messages.Messages.Participants;
+import protocol.KeyShareStore;
+import protocol.ParameterStore;
+import protocol.ProtocolParameters;
+import actors.ProtocolActor;
+import actors.ProtocolActor.States;
+import actors.SimulatedNetwork;
+import actors.SimulatedNetwork.Link;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.FSM;
+import akka.actor.Props;
+import akka.actor.UntypedActor;
+
+import com.typesafe.config.ConfigFactory;
+
+/**
+ * One full run of the protocol in a fresh actor system, measuring the wall time spent by party 1 in each phase, the
+ * candidates to RSA modulus it tested, and the CPU time and peak heap of the JVM. The keys are written to the default
+ * {@link KeyShareStore}.
+ * <p>
+ * The benchmarks seed the generators of the actors of their r-th run with {@link BenchmarkRunner#SEED} + r - 1, see
+ * {@link ProtocolParameters#withSeed(long)}, so that each run can be repeated alone.
+ * @author Christian Mouchet
+ */
+public class ProtocolRun {
+
+	/** The wall time of the run, in milliseconds*/
+	public final long millis;
+	/** The number of candidates to RSA modulus whose biprimality was tested*/
+	public final int candidates;
+	/** The CPU time of the JVM during the run, all threads together, in milliseconds. -1 if the JVM does not measure it.*/
+	public final long cpuMillis;
+	/** The sum of the peak usages of the heap memory pools during the run, in bytes*/
+	public final long peakHeapBytes;
+	/** The simulated network of the run, null if none*/
+	public final SimulatedNetwork network;
+
+	private final long[] phaseNanos;
+
+	private ProtocolRun(long millis, int candidates, long[] phaseNanos, long cpuMillis, long peakHeapBytes, SimulatedNetwork network) {
+		this.millis = millis;
+		this.candidates = candidates;
+		this.phaseNanos = phaseNanos;
+		this.cpuMillis = cpuMillis;
+		this.peakHeapBytes = peakHeapBytes;
+		this.network = network;
+	}
+
+	/** @param phase a phase of the protocol
+	 * @return the wall time party 1 spent in this phase, in milliseconds*/
+	public double millisIn(States phase) {
+		return phaseNanos[phase.ordinal()]/1e6;
+	}
+
+	/** Runs the protocol once.
+	 * @param params the parameters of the protocol
+	 * @param network the simulated network between the parties, null to deliver their messages at once
+	 * @return the measures of the run
+	 */
+	@SuppressWarnings("deprecation")
+	public static ProtocolRun run(ProtocolParameters params, SimulatedNetwork network) {
+		// The delays of the simulated network are applied by the scheduler, at its tick
+		ActorSystem system = ActorSystem.create("protocol", ConfigFactory.parseString("akka.scheduler.tick-duration = 1ms")
+																			.withFallback(ConfigFactory.load()));
+		Map<ActorRef,Integer> participants = new HashMap<ActorRef,Integer>();
+		for (int i=1; i <= params.n; i++) {
+			participants.put(system.actorOf(Props.create(ProtocolActor.class, params, KeyShareStore.getDefault(), null, network),
+											"Actor"+i), i);
+		}
+
+		AtomicInteger candidates = new AtomicInteger();
+		AtomicLongArray phaseNanos = new AtomicLongArray(States.values().length);
+		AtomicLong lastTransition = new AtomicLong(System.nanoTime());
+		ActorRef timer = system.actorOf(Props.create(PhaseTimer.class, candidates, phaseNanos, lastTransition));
+		participants.entrySet().stream()
+		.filter(e -> e.getValue() == 1)
+		.forEach(e -> e.getKey().tell(new FSM.SubscribeTransitionCallBack(timer), ActorRef.noSender()));
+
+		System.gc();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+			pool.resetPeakUsage();
+		long startCpu = processCpuTime();
+		long start = System.nanoTime();
+		lastTransition.set(start);
+		Participants message = new Participants(participants);
+		participants.keySet().forEach(actor -> actor.tell(message, ActorRef.noSender()));
+		system.awaitTermination();
+		long end = System.nanoTime();
+		long endCpu = processCpuTime();
+		long peakHeap = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP)
+				peakHeap += pool.getPeakUsage().getUsed();
+		}
+
+		// Party 1 stops in the last phase, which has no transition out
+		long[] nanos = new long[phaseNanos.length()];
+		for (int p=0; p < nanos.length; p++)
+			nanos[p] = phaseNanos.get(p);
+		nanos[States.STORING_KEY_SHARE.ordinal()] += end - lastTransition.get();
+		return new ProtocolRun((end-start)/1_000_000, candidates.get(), nanos,
+								startCpu < 0 ? -1 : (endCpu-startCpu)/1_000_000, peakHeap, network);
+	}
+
+	/** Compares full runs of the protocol for several values of a setting, the benchmark comparing settings do nothing else.
+	 * The runs have batches of 4 candidates and a trial division bound of 10000, and their messages and bytes are counted by
+	 * a {@link SimulatedNetwork} whose links all have the given latency.
+	 * <p>
+	 * The arguments are <code>[k n t runs values latencyMillis]</code>, by default <code>128 10 4 2</code> followed by the
+	 * given defaults. The mean wall time, candidates per key, wall time per candidate and messages and bytes sent per party
+	 * and candidate of each value are printed, and the measures of each run are written to
+	 * <code>benchmarks/&lt;name&gt;.csv</code>, with the time party 1 spent waiting for a batch and testing candidates.
+	 * @param name the name of the benchmark, which names its file
+	 * @param setting the name of the setting, which names its column
+	 * @param args the arguments of the benchmark
+	 * @param defaultValues the values of the setting compared by default, separated by commas
+	 * @param defaultLatencyMillis the latency of the links by default, in milliseconds
+	 * @param tune sets a value of the setting in the parameters
+	 * @param label describes a value of the setting
+	 * @throws FileNotFoundException if the file of the measures cannot be written
+	 */
+	public static void sweep(String name, String setting, String[] args, String defaultValues, long defaultLatencyMillis,
+								BiFunction<ProtocolParameters,Long,ProtocolParameters> tune, LongFunction<String> label)
+										throws FileNotFoundException {
+		int k = args.length > 0 ? Integer.parseInt(args[0]) : 128;
+		int n = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		int t = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+		int runs = args.length > 3 ? Integer.parseInt(args[3]) : 2;
+		String[] values = (args.length > 4 ? args[4] : defaultValues).split(",");
+		long latency = (args.length > 5 ? Long.parseLong(args[5]) : defaultLatencyMillis) * 1_000_000;
+
+		ProtocolParameters protocolParameters = ParameterStore.getDefault().get(k, n, t, new Random(BenchmarkRunner.SEED))
+															.withBatchSize(4)
+															.withTrialDivisionBound(10000);
+		Link link = new Link(latency, 0, 0, 0);
+
+		new File("benchmarks").mkdirs();
+		PrintWriter csv = new PrintWriter("benchmarks/"+name+".csv");
+		csv.println("k,n,t,"+setting+",latency_millis,run,millis,candidates,waiting_millis,testing_millis,"
+					+"messages,max_party_messages,bytes,max_party_bytes");
+		for (String v : values) {
+			long value = Long.parseLong(v.trim());
+			ProtocolParameters params = tune.apply(protocolParameters, value);
+			double totalMillis = 0, totalCandidates = 0, totalMessages = 0, totalBytes = 0;
+			for (int run=1; run <= runs; run++) {
+				ProtocolRun result = ProtocolRun.run(params.withSeed(BenchmarkRunner.SEED+run-1),
+														SimulatedNetwork.uniform(n, link, BenchmarkRunner.SEED));
+				SimulatedNetwork network = result.network;
+				long maxMessages = 0;
+				long maxBytes = 0;
+				for (int i=1; i <= n; i++) {
+					maxMessages = Math.max(maxMessages, network.messagesSent(i));
+					maxBytes = Math.max(maxBytes, network.bytesSent(i));
+				}
+				totalMillis += result.millis;
+				totalCandidates += result.candidates;
+				totalMessages += network.totalMessages();
+				totalBytes += network.totalBytes();
+				// The states of the generation only count the time spent waiting for a batch with pipelining
+				double waiting = result.millisIn(States.SIEVING) + result.millisIn(States.BGW);
+				csv.println(String.format("%d,%d,%d,%d,%d,%d,%d,%d,%.1f,%.1f,%d,%d,%d,%d", k, n, t, value, latency/1_000_000,
+											run, result.millis, result.candidates, waiting, result.millisIn(States.BIPRIMAL_TEST),
+											network.totalMessages(), maxMessages, network.totalBytes(), maxBytes));
+				csv.flush();
+			}
+			// The candidates per key vary from run to run, so the measures are also given per candidate
+			System.out.println(String.format("%s: %.1f s and %.1f candidates per key, %.1f ms, %.1f messages and %.1f kB per party and candidate",
+												label.apply(value), totalMillis/1000/runs, totalCandidates/runs, totalMillis/totalCandidates,
+												totalMessages/n/totalCandidates, totalBytes/n/totalCandidates/1000));
+		}
+		csv.close();
+	}
+
+	/** @return the CPU time of the JVM in nanoseconds, -1 if not available*/
+	private static long processCpuTime() {
+		java.lang.management.OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+		return os instanceof com.sun.management.OperatingSystemMXBean ?
+				((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime() : -1;
+	}
+
+	/** Adds the time between two transitions of a ProtocolActor to the phase it leaves, and counts its transitions to the
+	 * biprimality test, one per candidate*/
+	public static class PhaseTimer extends UntypedActor {
+		private final AtomicInteger candidates;
+		private final AtomicLongArray phaseNanos;
+		private final AtomicLong lastTransition;
+
+		public PhaseTimer(AtomicInteger candidates, AtomicLongArray phaseNanos, AtomicLong lastTransition) {
+			this.candidates = candidates;
+			this.phaseNanos = phaseNanos;
+			this.lastTransition = lastTransition;
+		}
+
+		@Override
+		public void onReceive(Object message) {
+			if (message instanceof FSM.Transition) {
+				FSM.Transition<?> transition = (FSM.Transition<?>) message;
+				long now = System.nanoTime();
+				phaseNanos.addAndGet(((States) transition.from()).ordinal(), now - lastTransition.getAndSet(now));
+				if (transition.to() == States.BIPRIMAL_TEST)
+					candidates.incrementAndGet();
+			}
+		}
+	}
+}
@@ -0,0 +1,80 @@
+package benchmarks;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import math.PolynomialMod;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import protocol.ProtocolParameters;
+import protocol.ProtocolParameters.Randomness;
+
+/**
+ * Measures the throughput of the generators the actors draw their random values from, see
+ * {@link ProtocolParameters#withRandomness(Randomness)}: the generator of the system against the DRBGs of BouncyCastle.
+ * Each thread owns a generator, as each actor does, and draws the k-bit coefficients of the sharing polynomials, alone or
+ * with other threads drawing at the same time as the actors of many parties in a JVM do.
+ * <p>
+ * P' is generated by {@link ProtocolParameters#gen} from a generator seeded with {@link BenchmarkRunner#SEED}, the
+ * generators measured are seeded as the protocol seeds them.
+ * @author Christian Mouchet
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RandomnessBenchmark {
+
+	/** The bitlength of p and q, and of the coefficients*/
+	@Param({"128", "1024"})
+	public int k;
+
+	/** The generator, SYSTEM, HMAC_DRBG or CTR_DRBG*/
+	@Param({"SYSTEM", "HMAC_DRBG", "CTR_DRBG"})
+	public String randomness;
+
+	private ProtocolParameters protocolParameters;
+	private SecureRandom random;
+
+	@Setup
+	public void setup() {
+		protocolParameters = ProtocolParameters.gen(k, 10, 4, new Random(BenchmarkRunner.SEED))
+												.withRandomness(Randomness.valueOf(randomness));
+		random = protocolParameters.newRandom();
+	}
+
+	/** A coefficient, drawn by one thread*/
+	@Benchmark
+	public BigInteger coefficient() {
+		return new BigInteger(k, random);
+	}
+
+	/** A coefficient, drawn by each of 8 threads at the same time*/
+	@Benchmark
+	@Threads(8)
+	public BigInteger coefficientConcurrent() {
+		return new BigInteger(k, random);
+	}
+
+	/** A sharing of zero of degree 2t, as the h<sub>i</sub> sharing of the BGW protocol, drawn by one thread*/
+	@Benchmark
+	public PolynomialMod polynomial() {
+		return new PolynomialMod(2*protocolParameters.t, protocolParameters.P, BigInteger.ZERO, k, random);
+	}
+}
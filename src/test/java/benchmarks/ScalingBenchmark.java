@@ -0,0 +1,132 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import protocol.ParameterStore;
+import protocol.ProtocolParameters;
+import actors.ProtocolActor.States;
+import actors.SimulatedNetwork;
+
+/**
+ * Measures how full runs of the protocol scale with the number of parties n, the threshold t and the key size k, e.g. to
+ * size a cluster. Each configuration of the sweep is run several times, and the wall time of each phase, the candidates per
+ * key, the messages and bytes sent per party, the CPU time and the peak heap of each run are recorded. The messages are
+ * counted by a {@link SimulatedNetwork} without latency nor bandwidth limit.
+ * <p>
+ * Usage: <code>ScalingBenchmark [ks ns ts runs batchSize trialDivisionBound]</code>, by default
+ * <code>128 3,5,10 1,max 2 4 10000</code>. The sizes are comma-separated lists, <code>max</code> standing for the largest
+ * threshold t &lt; n/2. The configurations with t &ge; n/2 are skipped, and each one is run once when <code>max</code> repeats
+ * a threshold of the list. The results are written to <code>benchmarks/scaling.csv</code> and
+ * <code>benchmarks/scaling.json</code> as the runs end. P' is taken from the default {@link ParameterStore}, generated with the
+ * seed of the benchmarks for the sizes without preset, and the runs are seeded as told in {@link ProtocolRun}.
+ * <p>
+ * A run lasts from seconds to hours depending on k and n, so this is a plain program rather than a JMH benchmark.
+ * @author Christian Mouchet
+ */
+public class ScalingBenchmark {
+
+	/** The largest threshold t &lt; n/2*/
+	private static final int MAX_THRESHOLD = -1;
+
+	public static void main(String[] args) throws FileNotFoundException {
+		int[] ks = sizes(args.length > 0 ? args[0] : "128");
+		int[] ns = sizes(args.length > 1 ? args[1] : "3,5,10");
+		int[] ts = sizes(args.length > 2 ? args[2] : "1,max");
+		int runs = args.length > 3 ? Integer.parseInt(args[3]) : 2;
+		int batchSize = args.length > 4 ? Integer.parseInt(args[4]) : 4;
+		int trialDivisionBound = args.length > 5 ? Integer.parseInt(args[5]) : 10000;
+
+		new File("benchmarks").mkdirs();
+		PrintWriter csv = new PrintWriter("benchmarks/scaling.csv");
+		csv.print("k,n,t,run,millis,candidates");
+		for (States phase : States.values())
+			csv.print(","+phase.name().toLowerCase()+"_millis");
+		csv.println(",messages_per_party,max_messages_per_party,bytes_per_party,max_bytes_per_party,cpu_millis,peak_heap_bytes");
+		List<String> json = new ArrayList<String>();
+
+		for (int k : ks) {
+			for (int n : ns) {
+				Set<Integer> thresholds = new HashSet<Integer>();
+				for (int t : ts) {
+					int threshold = t == MAX_THRESHOLD ? (n-1)/2 : t;
+					if (threshold < 1 || 2*threshold >= n) {
+						System.out.println(String.format("Skipping k=%d n=%d t=%d, t must be in [1, n/2)", k, n, threshold));
+						continue;
+					}
+					if (!thresholds.add(threshold))
+						continue;
+					ProtocolParameters params = ParameterStore.getDefault().get(k, n, threshold, new Random(BenchmarkRunner.SEED))
+																.withBatchSize(batchSize)
+																.withTrialDivisionBound(trialDivisionBound);
+					long totalMillis = 0;
+					long totalCandidates = 0;
+					for (int run=1; run <= runs; run++) {
+						ProtocolRun result = ProtocolRun.run(params.withSeed(BenchmarkRunner.SEED+run-1), SimulatedNetwork.uniform(n, SimulatedNetwork.PERFECT, BenchmarkRunner.SEED));
+						totalMillis += result.millis;
+						totalCandidates += result.candidates;
+						record(csv, json, k, n, threshold, run, result);
+					}
+					System.out.println(String.format("k=%d n=%d t=%d: %.1f candidates per key, %.1f s per key",
+														k, n, threshold, (double) totalCandidates/runs, totalMillis/1000.0/runs));
+				}
+			}
+		}
+		csv.close();
+	}
+
+	/** Appends the measures of a run to the CSV, and writes the JSON again with them*/
+	private static void record(PrintWriter csv, List<String> json, int k, int n, int t, int run, ProtocolRun result)
+			throws FileNotFoundException {
+		SimulatedNetwork network = result.network;
+		long maxMessages = 0;
+		long maxBytes = 0;
+		StringBuilder messages = new StringBuilder();
+		StringBuilder bytes = new StringBuilder();
+		for (int i=1; i <= n; i++) {
+			maxMessages = Math.max(maxMessages, network.messagesSent(i));
+			maxBytes = Math.max(maxBytes, network.bytesSent(i));
+			messages.append(i > 1 ? "," : "").append(network.messagesSent(i));
+			bytes.append(i > 1 ? "," : "").append(network.bytesSent(i));
+		}
+
+		csv.print(String.format("%d,%d,%d,%d,%d,%d", k, n, t, run, result.millis, result.candidates));
+		StringBuilder phases = new StringBuilder();
+		for (States phase : States.values()) {
+			csv.print(String.format(",%.1f", result.millisIn(phase)));
+			phases.append(String.format("%s\"%s\": %.1f", phases.length() > 0 ? ", " : "", phase.name().toLowerCase(),
+										result.millisIn(phase)));
+		}
+		csv.println(String.format(",%.1f,%d,%.1f,%d,%d,%d", (double) network.totalMessages()/n, maxMessages,
+									(double) network.totalBytes()/n, maxBytes, result.cpuMillis, result.peakHeapBytes));
+		csv.flush();
+
+		json.add(String.format("  {\"k\": %d, \"n\": %d, \"t\": %d, \"run\": %d, \"millis\": %d, \"candidates\": %d,%n"
+								+ "   \"phaseMillis\": {%s},%n"
+								+ "   \"messagesSent\": [%s],%n"
+								+ "   \"bytesSent\": [%s],%n"
+								+ "   \"cpuMillis\": %d, \"peakHeapBytes\": %d}",
+								k, n, t, run, result.millis, result.candidates, phases, messages, bytes,
+								result.cpuMillis, result.peakHeapBytes));
+		PrintWriter out = new PrintWriter("benchmarks/scaling.json");
+		out.println("[");
+		out.println(String.join(String.format(",%n"), json));
+		out.println("]");
+		out.close();
+	}
+
+	/** @return the sizes of a comma-separated list*/
+	private static int[] sizes(String list) {
+		String[] values = list.split(",");
+		int[] sizes = new int[values.length];
+		for (int s=0; s < values.length; s++)
+			sizes[s] = values[s].trim().equals("max") ? MAX_THRESHOLD : Integer.parseInt(values[s].trim());
+		return sizes;
+	}
+}
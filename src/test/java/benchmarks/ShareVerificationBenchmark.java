@@ -0,0 +1,110 @@
+package benchmarks;
+
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import math.CommitmentGroup;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import protocol.BGWParameters.BGWPrivateParameters;
+import protocol.BGWParameters.BGWPublicParameters;
+import protocol.ProtocolParameters;
+import protocol.ProtocolParameters.ShareVerification;
+import protocol.VerifiableSharing;
+import protocol.VerifiableSharing.Commitments;
+
+/**
+ * Measures the verification of the shares of one candidate that party n receives from the n-1 other parties in the BGW
+ * protocol, see {@link ProtocolParameters#withShareVerification(ShareVerification)}: each share checked alone against the
+ * commitments of its dealer, and all of them checked at once with a random linear combination as the protocol does. The
+ * cost for a dealer to commit to its f, g and h polynomials is measured as well.
+ * <p>
+ * The polynomials have the maximal degree allowed for the given number of parties, t = (n-1)/2, and P' is generated by
+ * {@link ProtocolParameters#gen} exactly as the protocol does. All randomness is drawn from generators seeded with
+ * {@link BenchmarkRunner#SEED}, except the coefficients of the linear combinations.
+ * @author Christian Mouchet
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShareVerificationBenchmark {
+
+	/** The bitlength of p and q*/
+	@Param({"128", "512", "1024"})
+	public int k;
+
+	/** The number of parties*/
+	@Param({"3", "10", "30", "64"})
+	public int n;
+
+	/** The commitments, FELDMAN or PEDERSEN*/
+	@Param({"FELDMAN", "PEDERSEN"})
+	public String commitments;
+
+	private ProtocolParameters protocolParameters;
+	private CommitmentGroup group;
+	private Random rand;
+	private BGWPrivateParameters dealer;
+	private Map<Integer,BGWPublicParameters> shares;
+
+	@Setup
+	public void setup() {
+		rand = new Random(BenchmarkRunner.SEED);
+		int t = (n-1)/2;
+		protocolParameters = ProtocolParameters.gen(k, n, t, rand)
+												.withShareVerification(ShareVerification.valueOf(commitments));
+		group = CommitmentGroup.of(protocolParameters.P);
+
+		shares = new HashMap<Integer,BGWPublicParameters>();
+		for (int i=1; i <= n; i++) {
+			BGWPrivateParameters[] batch = new BGWPrivateParameters[]{BGWPrivateParameters.genFor(i, 0, protocolParameters, rand)};
+			if (i == n)
+				dealer = batch[0];
+			else
+				shares.put(i, BGWPublicParameters.genFor(n, batch));
+		}
+	}
+
+	/** Commitments of a dealer to its f, g and h polynomials*/
+	@Benchmark
+	public VerifiableSharing commit() {
+		return VerifiableSharing.commit(protocolParameters, rand, dealer.fi, dealer.gi, dealer.hi);
+	}
+
+	/** Verification of each of the 3(n-1) shares alone*/
+	@Benchmark
+	public boolean verifyEachShare() {
+		boolean correct = true;
+		for (BGWPublicParameters share : shares.values()) {
+			Commitments c = share.commitments[0];
+			BigInteger[] values = new BigInteger[]{share.pij[0], share.qij[0], share.hij[0]};
+			for (int s=0; s < values.length; s++)
+				correct &= group.verify(c.commitments[s], n, values[s], c.blindings == null ? null : c.blindings[s]);
+		}
+		return correct;
+	}
+
+	/** Verification of the 3(n-1) shares at once*/
+	@Benchmark
+	public List<Integer> verifyBatch() {
+		return BGWPublicParameters.incorrectDealers(shares.entrySet().stream(), protocolParameters);
+	}
+}
@@ -0,0 +1,104 @@
+package benchmarks;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import math.IntegersUtils;
+import math.Polynomial;
+import math.PolynomialMod;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import protocol.ProtocolParameters;
+
+/**
+ * Measures the share arithmetic of one party: evaluating a sharing polynomial at every party's point and
+ * interpolating the intercept back from n points.
+ * <p>
+ * The polynomials have degree t for the f, g, &beta;, &Phi; sharings and 2t for the h sharing, t being swept up to the
+ * largest threshold allowed for the given number of parties, (n-1)/2, see {@link #threshold}. P' is generated by {@link ProtocolParameters#gen}
+ * exactly as the protocol does. All randomness is drawn from generators seeded with {@link BenchmarkRunner#SEED}.
+ * @author Christian Mouchet
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SharingBenchmark {
+
+	/** The bitlength of p and q*/
+	@Param({"128", "512", "1024", "2048"})
+	public int k;
+
+	/** The number of parties*/
+	@Param({"3", "10", "30", "64", "100"})
+	public int n;
+
+	/** The threshold t as a fraction of n, at least 1 and at most (n-1)/2 so that 2t+1 parties exist*/
+	@Param({"0.1", "0.25", "0.5"})
+	public double threshold;
+
+	private ProtocolParameters protocolParameters;
+	private Polynomial integerSharing;
+	private PolynomialMod modSharing;
+	private PolynomialMod zeroSharing;
+	private List<BigInteger> points;
+
+	@Setup
+	public void setup() {
+		Random rand = new Random(BenchmarkRunner.SEED);
+		int t = Math.max(1, Math.min((n-1)/2, (int) (threshold*n)));
+		protocolParameters = ProtocolParameters.gen(k, n, t, rand);
+
+		integerSharing = new Polynomial(t, new BigInteger(k, rand), k, rand);
+		modSharing = new PolynomialMod(t, protocolParameters.P, new BigInteger(k, rand), k, rand);
+		zeroSharing = new PolynomialMod(2*t, protocolParameters.P, BigInteger.ZERO, k, rand);
+
+		points = new ArrayList<BigInteger>(n);
+		for (int j=1; j<=n; j++)
+			points.add(zeroSharing.eval(j));
+	}
+
+	/** Shares of an integer secret (the &Delta;R<sub>i</sub> sharing) for all n parties*/
+	@Benchmark
+	public void polynomialEval(Blackhole bh) {
+		for (int j=1; j<=n; j++)
+			bh.consume(integerSharing.eval(j));
+	}
+
+	/** Shares of a secret mod P' (the p<sub>i</sub>, q<sub>i</sub>, &beta;<sub>i</sub>, &Phi;<sub>i</sub> sharings) for all n parties*/
+	@Benchmark
+	public void polynomialModEval(Blackhole bh) {
+		for (int j=1; j<=n; j++)
+			bh.consume(modSharing.eval(j));
+	}
+
+	/** Shares of zero of degree 2t (the h<sub>i</sub> sharing) for all n parties*/
+	@Benchmark
+	public void polynomialModEvalDegree2t(Blackhole bh) {
+		for (int j=1; j<=n; j++)
+			bh.consume(zeroSharing.eval(j));
+	}
+
+	/** Interpolation of a degree 2t sharing from n points, as done for N and &Theta;'*/
+	@Benchmark
+	public BigInteger getIntercept() {
+		return IntegersUtils.getIntercept(points, protocolParameters.P);
+	}
+}
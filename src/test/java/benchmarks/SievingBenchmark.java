@@ -0,0 +1,97 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import messages.Messages.Participants;
+import protocol.ParameterStore;
+import protocol.ProtocolParameters;
+import actors.ProtocolActor;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.FSM;
+import akka.actor.Props;
+import akka.actor.UntypedActor;
+
+/**
+ * Compares full runs of the protocol with and without the distributed sieving of p and q. Each run generates one key and
+ * counts the candidates to RSA modulus that were tested before finding it. A run lasts from seconds to hours depending
+ * on k, so this is a plain program rather than a JMH benchmark.
+ * <p>
+ * Usage: <code>SievingBenchmark [k n t runs sieveBound batchSize]</code>, by default <code>64 3 1 5 7 1</code>. The mean number
+ * of candidates per key and wall time of each mode are printed and written to <code>benchmarks/sieving.csv</code>.
+ * @author Christian Mouchet
+ */
+public class SievingBenchmark {
+
+	public static void main(String[] args) throws FileNotFoundException {
+		int k = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+		int n = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+		int t = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+		int runs = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+		int sieveBound = args.length > 4 ? Integer.parseInt(args[4]) : 7;
+		int batchSize = args.length > 5 ? Integer.parseInt(args[5]) : 1;
+
+		ProtocolParameters protocolParameters = ParameterStore.getDefault().get(k, n, t, new Random(BenchmarkRunner.SEED)).withBatchSize(batchSize);
+
+		new File("benchmarks").mkdirs();
+		PrintWriter csv = new PrintWriter("benchmarks/sieving.csv");
+		csv.println("k,n,t,batchSize,sieveBound,run,candidates,millis");
+		for (int bound : new int[]{0, sieveBound}) {
+			ProtocolParameters params = protocolParameters.withSieveBound(bound);
+			long totalCandidates = 0;
+			long totalMillis = 0;
+			for (int run=1; run <= runs; run++) {
+				AtomicInteger candidates = new AtomicInteger();
+				long millis = runProtocol(params.withSeed(BenchmarkRunner.SEED+run-1), candidates);
+				totalCandidates += candidates.get();
+				totalMillis += millis;
+				csv.println(String.format("%d,%d,%d,%d,%d,%d,%d,%d", k, n, t, batchSize, bound, run, candidates.get(), millis));
+				csv.flush();
+			}
+			System.out.println(String.format("sieveBound=%d: %.1f candidates per key, %.1f s per key",
+												bound, (double) totalCandidates/runs, totalMillis/1000.0/runs));
+		}
+		csv.close();
+	}
+
+	/** Runs the protocol once in a fresh actor system and counts the candidates tested by party 1*/
+	@SuppressWarnings("deprecation")
+	private static long runProtocol(ProtocolParameters params, AtomicInteger candidates) {
+		ActorSystem system = ActorSystem.create();
+		Map<ActorRef,Integer> participants = new HashMap<ActorRef,Integer>();
+		for (int i=1; i <= params.n; i++)
+			participants.put(system.actorOf(Props.create(ProtocolActor.class, params), "Actor"+i), i);
+
+		ActorRef counter = system.actorOf(Props.create(CandidatesCounter.class, candidates));
+		participants.entrySet().stream()
+		.filter(e -> e.getValue() == 1)
+		.forEach(e -> e.getKey().tell(new FSM.SubscribeTransitionCallBack(counter), ActorRef.noSender()));
+
+		long start = System.currentTimeMillis();
+		Participants message = new Participants(participants);
+		participants.keySet().forEach(actor -> actor.tell(message, ActorRef.noSender()));
+		system.awaitTermination();
+		return System.currentTimeMillis() - start;
+	}
+
+	/** Counts the transitions of a ProtocolActor to the biprimality test, one per candidate*/
+	public static class CandidatesCounter extends UntypedActor {
+		private final AtomicInteger candidates;
+
+		public CandidatesCounter(AtomicInteger candidates) {
+			this.candidates = candidates;
+		}
+
+		@Override
+		public void onReceive(Object message) {
+			if (message instanceof FSM.Transition && ((FSM.Transition<?>) message).to() == ProtocolActor.States.BIPRIMAL_TEST)
+				candidates.incrementAndGet();
+		}
+	}
+}
@@ -0,0 +1,25 @@
+package benchmarks;
+
+import java.io.FileNotFoundException;
+
+import protocol.ProtocolParameters;
+import actors.SimulatedNetwork;
+
+/**
+ * Compares full runs of the protocol in which the public values are sent by each party to all the others with runs in which
+ * they are broadcast along trees of several arities, see {@link ProtocolParameters#withBroadcastTree(int)}. The messages and
+ * bytes are counted by a {@link SimulatedNetwork} whose links all have the given latency.
+ * <p>
+ * Usage: <code>TopologyBenchmark [k n t runs arities latencyMillis]</code>, by default <code>128 10 4 2 0,2,4 0</code>, arity
+ * 0 standing for the full mesh. The measures are written to <code>benchmarks/topology.csv</code>, see
+ * {@link ProtocolRun#sweep}.
+ * @author Christian Mouchet
+ */
+public class TopologyBenchmark {
+
+	public static void main(String[] args) throws FileNotFoundException {
+		ProtocolRun.sweep("topology", "arity", args, "0,2,4", 0,
+							(params, arity) -> params.withBroadcastTree(arity.intValue()),
+							arity -> arity == 0 ? "mesh" : "tree of arity "+arity);
+	}
+}